@@ -0,0 +1,67 @@
+package br.com.avimeney.marsweather.integration.nasa;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing cost of NASA InSight payloads, from the 7 Sols returned by the live API up to
+ * archives of tens of thousands of Sols.
+ *
+ * @author avimeney
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WeatherParserBenchmark {
+
+	@Param({"7", "1000", "30000"})
+	public int solCount;
+
+	private String jsonString;
+
+	private byte[] jsonBytes;
+
+	private final WeatherJsonParser treeParser = new WeatherJsonParser();
+
+	private final WeatherStreamingParser streamingParser = new WeatherStreamingParser();
+
+	@Setup
+	public void setUp() {
+		jsonString = InSightPayloads.generate(solCount, 42);
+		jsonBytes = jsonString.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public Map<Integer, WeatherDTO> treeParserFromString() throws IOException {
+		return treeParser.parseWeatherData(jsonString);
+	}
+
+	@Benchmark
+	public Map<Integer, WeatherDTO> streamingParserFromString() throws IOException {
+		return streamingParser.parseWeatherData(jsonString);
+	}
+
+	@Benchmark
+	public Map<Integer, WeatherDTO> streamingParserFromStream() throws IOException {
+		return streamingParser.parseWeatherData(new ByteArrayInputStream(jsonBytes));
+	}
+}
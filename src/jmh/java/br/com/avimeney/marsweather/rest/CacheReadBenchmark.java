@@ -0,0 +1,211 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Variant;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.avimeney.marsweather.cache.SolDataCache;
+import br.com.avimeney.marsweather.integration.nasa.InSightPayloads;
+import br.com.avimeney.marsweather.integration.nasa.WeatherStreamingParser;
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Cache hit path of {@link MarsWeatherService#getTemperatures(Request, Long, AsyncResponse)} under
+ * increasing contention. The service cache is loaded from a synthetic payload instead of the NASA's
+ * API, requests accept JSON only, and responses are resumed into a stub that just keeps the resumed
+ * entity.
+ *
+ * @author avimeney
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheReadBenchmark {
+
+	/**
+	 * Per thread stand-in for the container's suspended response.
+	 */
+	@State(Scope.Thread)
+	public static class CapturingResponse implements AsyncResponse {
+
+		Object resumed;
+
+		@Override
+		public boolean resume(Object response) {
+			resumed = response;
+			return true;
+		}
+
+		@Override
+		public boolean resume(Throwable response) {
+			resumed = response;
+			return true;
+		}
+
+		@Override
+		public boolean cancel() {
+			return false;
+		}
+
+		@Override
+		public boolean cancel(int retryAfter) {
+			return false;
+		}
+
+		@Override
+		public boolean cancel(Date retryAfter) {
+			return false;
+		}
+
+		@Override
+		public boolean isSuspended() {
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return false;
+		}
+
+		@Override
+		public boolean setTimeout(long time, TimeUnit unit) {
+			return true;
+		}
+
+		@Override
+		public void setTimeoutHandler(TimeoutHandler handler) {
+		}
+
+		@Override
+		public Collection<Class<?>> register(Class<?> callback) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Collection<Class<?>> register(Object callback) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+			return Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Stand-in for the container's request, negotiating the default representation.
+	 */
+	static final class JsonRequest implements Request {
+
+		@Override
+		public String getMethod() {
+			return "GET";
+		}
+
+		@Override
+		public Variant selectVariant(List<Variant> variants) {
+			return variants.get(0);
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions(EntityTag eTag) {
+			return null;
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions(Date lastModified) {
+			return null;
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions(Date lastModified, EntityTag eTag) {
+			return null;
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions() {
+			return null;
+		}
+	}
+
+	@Param({"7", "1000", "30000"})
+	public int solCount;
+
+	private final Request request = new JsonRequest();
+
+	private MarsWeatherService service;
+
+	@Setup
+	public void setUp() throws Exception {
+		MarsRestApplication.loadAppProperties();
+		final Map<Integer, SolData> solData = new ModelHelper().convertDtoToModel(
+				new WeatherStreamingParser().parseWeatherData(InSightPayloads.generate(solCount, 42)));
+		service = new MarsWeatherService(new SolDataCache.Loader() {
+			@Override
+			public CompletableFuture<Map<Integer, SolData>> load() {
+				return CompletableFuture.completedFuture(solData);
+			}
+		});
+		// Priming the cache, so only hits are measured
+		service.getTemperatures(request, null, new CapturingResponse());
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object cacheHit1Thread(CapturingResponse response) {
+		service.getTemperatures(request, null, response);
+		return response.resumed;
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object cacheHit8Threads(CapturingResponse response) {
+		service.getTemperatures(request, null, response);
+		return response.resumed;
+	}
+
+	@Benchmark
+	@Threads(64)
+	public Object cacheHit64Threads(CapturingResponse response) {
+		service.getTemperatures(request, null, response);
+		return response.resumed;
+	}
+}
@@ -0,0 +1,54 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.avimeney.marsweather.integration.nasa.InSightPayloads;
+import br.com.avimeney.marsweather.integration.nasa.WeatherDTO;
+import br.com.avimeney.marsweather.integration.nasa.WeatherStreamingParser;
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Cost of converting parsed DTOs into domain model objects.
+ *
+ * @author avimeney
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelHelperBenchmark {
+
+	@Param({"7", "1000", "30000"})
+	public int solCount;
+
+	private Map<Integer, WeatherDTO> dtoMap;
+
+	private final ModelHelper modelHelper = new ModelHelper();
+
+	@Setup
+	public void setUp() throws IOException {
+		dtoMap = new WeatherStreamingParser().parseWeatherData(InSightPayloads.generate(solCount, 42));
+	}
+
+	@Benchmark
+	public Map<Integer, SolData> convertDtoToModel() {
+		return modelHelper.convertDtoToModel(dtoMap);
+	}
+}
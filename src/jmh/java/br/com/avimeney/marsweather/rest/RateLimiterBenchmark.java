@@ -0,0 +1,59 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per request cost of the {@link RateLimitFilter} bucket check, with concurrent requests spread
+ * over a growing number of clients. A single client makes every thread contend on one bucket. The
+ * largest client count exceeds the number of buckets kept, so buckets are evicted all along.
+ *
+ * @author avimeney
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+	private static final int MAX_BUCKETS = 100000;
+
+	@Param({"1", "1000", "1000000"})
+	public int clientCount;
+
+	private RateLimiter rateLimiter;
+
+	private String[] clients;
+
+	@Setup
+	public void setUp() {
+		rateLimiter = new RateLimiter("benchmark", MAX_BUCKETS, 10000);
+		clients = new String[clientCount];
+		for (int i = 0; i < clientCount; i++) {
+			clients[i] = "10.0." + (i >>> 8) + "." + (i & 0xFF);
+		}
+	}
+
+	@Benchmark
+	public long acquire() {
+		final String client = clients[ThreadLocalRandom.current().nextInt(clientCount)];
+		return rateLimiter.acquire(client, 600);
+	}
+}
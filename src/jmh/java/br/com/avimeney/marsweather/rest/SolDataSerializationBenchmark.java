@@ -0,0 +1,100 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+import br.com.avimeney.marsweather.integration.nasa.InSightPayloads;
+import br.com.avimeney.marsweather.integration.nasa.WeatherStreamingParser;
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Jackson serialization cost of the {@link SolData} array served by the API, both per
+ * request and once per cache snapshot, and decoding cost of its JSON, CBOR and packed
+ * representations on the client side.
+ *
+ * @author avimeney
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolDataSerializationBenchmark {
+
+	@Param({"7", "1000", "30000"})
+	public int solCount;
+
+	private Collection<SolData> solData;
+
+	private SolData[] sols;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+	private SolDataSnapshot snapshot;
+
+	@Setup
+	public void setUp() throws IOException {
+		solData = new ModelHelper().convertDtoToModel(
+				new WeatherStreamingParser().parseWeatherData(InSightPayloads.generate(solCount, 42))).values();
+		sols = solData.toArray(new SolData[0]);
+		snapshot = SolDataSnapshot.create(solData, 0, 0, null);
+	}
+
+	@Benchmark
+	public byte[] serializeArray() throws IOException {
+		return mapper.writeValueAsBytes(sols);
+	}
+
+	@Benchmark
+	public SolDataSnapshot buildSnapshot() throws IOException {
+		return SolDataSnapshot.create(solData, 0, 0, null);
+	}
+
+	@Benchmark
+	public byte[] serializeCborArray() throws IOException {
+		return cborMapper.writeValueAsBytes(sols);
+	}
+
+	@Benchmark
+	public SolData[] decodeJson() throws IOException {
+		return mapper.readValue(snapshot.getJson(), SolData[].class);
+	}
+
+	@Benchmark
+	public SolData[] decodeCbor() throws IOException {
+		return cborMapper.readValue(snapshot.getCbor(), SolData[].class);
+	}
+
+	@Benchmark
+	public SolData[] decodePacked() {
+		final ByteBuffer buffer = ByteBuffer.wrap(snapshot.getPacked()).order(ByteOrder.LITTLE_ENDIAN);
+		final SolData[] decoded = new SolData[buffer.remaining() / SolDataSnapshot.PACKED_SOL_SIZE];
+		for (int i = 0; i < decoded.length; i++) {
+			decoded[i] = new SolData(buffer.getInt(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+		}
+		return decoded;
+	}
+}
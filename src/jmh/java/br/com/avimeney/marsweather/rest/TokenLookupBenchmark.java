@@ -0,0 +1,77 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per request cost of the {@link AuthFilter} token check, for a growing number of API tokens.
+ * The legacy single token check, splitting the header and comparing the token with
+ * {@link String#equals(Object)}, is measured as a baseline. Run with <code>-prof gc</code> to
+ * check that the lookups don't allocate.
+ *
+ * @author avimeney
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenLookupBenchmark {
+
+	private static final int TOKEN_OFFSET = "Bearer ".length();
+
+	@Param({"1", "100", "10000"})
+	public int tokenCount;
+
+	private ApiTokens.Table table;
+
+	private String legacyToken;
+
+	private String validHeader;
+
+	private String invalidHeader;
+
+	@Setup
+	public void setUp() {
+		final List<String> secrets = new ArrayList<String>();
+		final List<ApiToken> tokens = new ArrayList<ApiToken>();
+		for (int i = 0; i < tokenCount; i++) {
+			secrets.add(String.format("%032x", (long) i * 0x9E3779B97F4A7C15L));
+			tokens.add(new ApiToken("client-" + i, 0));
+		}
+		table = new ApiTokens.Table(secrets, tokens);
+		legacyToken = secrets.get(tokenCount / 2);
+		validHeader = "Bearer " + legacyToken;
+		invalidHeader = "Bearer " + legacyToken.substring(0, legacyToken.length() - 1) + "x";
+	}
+
+	@Benchmark
+	public ApiToken validToken() {
+		return table.find(validHeader, TOKEN_OFFSET, validHeader.length());
+	}
+
+	@Benchmark
+	public ApiToken invalidToken() {
+		return table.find(invalidHeader, TOKEN_OFFSET, invalidHeader.length());
+	}
+
+	@Benchmark
+	public boolean legacySplitEquals() {
+		return legacyToken.equals(validHeader.split(" ")[1]);
+	}
+}
@@ -0,0 +1,97 @@
+package br.com.avimeney.marsweather.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency recorder with log-linear buckets, in the spirit of HdrHistogram. Values below
+ * {@value #LINEAR_LIMIT} microseconds are recorded exactly. Above it, every power of two is
+ * split in {@value #SUB_BUCKETS} linear sub-buckets, so percentiles are reported with a relative
+ * error below 2%, from microseconds to hours. Recording is lock free.
+ *
+ * @author avimeney
+ */
+
+final class LatencyRecorder {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+
+	/**
+	 * Greatest value recorded as is. Slower ones are clamped to it, about 12 days.
+	 */
+	private static final long MAX_MICROS = (1L << 40) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_MICROS) + 1);
+
+	private final AtomicLong total = new AtomicLong();
+
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * Records an elapsed time.
+	 *
+	 * @param nanos the elapsed time, in nanoseconds
+	 */
+	void record(long nanos) {
+		final long micros = Math.min(Math.max(nanos / 1000, 0), MAX_MICROS);
+		counts.incrementAndGet(indexOf(micros));
+		total.incrementAndGet();
+		long max;
+		while ((max = maxMicros.get()) < micros && !maxMicros.compareAndSet(max, micros)) {
+			// Raced with another maximum
+		}
+	}
+
+	private static int indexOf(long micros) {
+		if (micros < LINEAR_LIMIT) {
+			return (int) micros;
+		}
+		// The value lies in [mantissa << shift, (mantissa + 1) << shift), the mantissa having SUB_BUCKET_BITS + 1 bits
+		final int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+		final int mantissa = (int) (micros >>> shift);
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+	}
+
+	private static long highestValueOf(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		final int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		final long mantissa = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	long getCount() {
+		return total.get();
+	}
+
+	long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	/**
+	 * Gets a percentile of the recorded values. The value reported is the highest one of its
+	 * bucket, so percentiles are never underestimated.
+	 *
+	 * @param percentile the percentile, from 0 to 100
+	 *
+	 * @return the percentile, in microseconds, or zero if nothing was recorded
+	 */
+	long getPercentileMicros(double percentile) {
+		final long count = total.get();
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long cumulative = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			cumulative += counts.get(i);
+			if (cumulative >= rank) {
+				return Math.min(highestValueOf(i), maxMicros.get());
+			}
+		}
+		return maxMicros.get();
+	}
+}
@@ -0,0 +1,284 @@
+package br.com.avimeney.marsweather.loadtest;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Open model load generator for the Mars Weather REST Server. Requests are sent at a fixed rate,
+ * whatever the server response times, and spread over a weighted mix of endpoints in a sequence
+ * fixed by a seed, so two runs with the same options send the same requests.
+ *
+ * <p>Latencies are measured from the time each request was meant to be sent, rather than from
+ * the time it was actually sent, which corrects the coordinated omission: a server stall delays
+ * every request scheduled during it, and all of them are charged with the wait. The service
+ * times, measured from the actual sending, are reported as well for comparison.
+ *
+ * <p>After a warm-up period, whose requests are not measured, the generator reports for each
+ * endpoint the throughput, the errors and the latency percentiles, along with the garbage
+ * collections of the server, read from its <code>/metrics</code> endpoint, and of the generator
+ * itself. Options are given as <code>--name=value</code> arguments:
+ *
+ * <ul>
+ *   <li><code>uri</code>: server base URI. Defaults to <code>http://localhost:8080/marsweather/</code>.
+ *   <li><code>token</code>: API authentication token. Defaults to <code>PREODAY_TEST_TOKEN</code>.
+ *   <li><code>rate</code>: requests per second. Defaults to 100.
+ *   <li><code>warmup</code> and <code>duration</code>: warm-up and measurement periods, in seconds.
+ *       Default to 10 and 60.
+ *   <li><code>mix</code>: comma separated <code>weight:path</code> pairs, paths being relative to
+ *       the base URI. Defaults to {@value #DEFAULT_MIX}.
+ *   <li><code>max-in-flight</code>: maximum number of requests waiting for a response. Once reached,
+ *       the generator waits, and the wait is charged to the following requests. Defaults to 10000.
+ *   <li><code>seed</code>: seed of the endpoint sequence. Defaults to 42.
+ * </ul>
+ *
+ * @author avimeney
+ */
+
+public final class LoadGenerator {
+
+	private static final String DEFAULT_MIX = "8:api/v1/weather/list,1:api/v1/weather/sols?limit=100,"
+			+ "1:api/v1/weather/aggregate";
+
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+	private static final long SECONDS_IN_NANOS = 1000000000L;
+
+	/**
+	 * Server metrics compared before and after the measurement.
+	 */
+	private static final String GC_COUNT_METRIC = "marsweather_jvm_gc_collections_total";
+	private static final String GC_TIME_METRIC = "marsweather_jvm_gc_collection_milliseconds_total";
+
+	/**
+	 * Requests sent to an endpoint and their outcome.
+	 */
+	private static final class Endpoint {
+		final String path;
+		final HttpRequest request;
+		final LatencyRecorder responseTimes = new LatencyRecorder();
+		final LatencyRecorder serviceTimes = new LatencyRecorder();
+		final AtomicLong errors = new AtomicLong();
+
+		Endpoint(String path, HttpRequest request) {
+			this.path = path;
+			this.request = request;
+		}
+	}
+
+	private LoadGenerator() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		final Map<String, String> options = new LinkedHashMap<String, String>();
+		options.put("uri", "http://localhost:8080/marsweather/");
+		options.put("token", "PREODAY_TEST_TOKEN");
+		options.put("rate", "100");
+		options.put("warmup", "10");
+		options.put("duration", "60");
+		options.put("mix", DEFAULT_MIX);
+		options.put("max-in-flight", "10000");
+		options.put("seed", "42");
+		for (String arg : args) {
+			final int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0 || !options.containsKey(arg.substring(2, separator))) {
+				System.err.println("Usage: java -jar loadtest.jar [--name=value]... with names " + options.keySet());
+				System.exit(1);
+			}
+			options.put(arg.substring(2, separator), arg.substring(separator + 1));
+		}
+		final URI baseUri = URI.create(options.get("uri"));
+		final String authorization = "Bearer " + options.get("token");
+		final double rate = Double.parseDouble(options.get("rate"));
+		final long warmupNanos = Long.parseLong(options.get("warmup")) * SECONDS_IN_NANOS;
+		final long durationNanos = Long.parseLong(options.get("duration")) * SECONDS_IN_NANOS;
+		final int maxInFlight = Integer.parseInt(options.get("max-in-flight"));
+		/*
+		 * Each endpoint takes as many slots of the mix table as its weight:
+		 */
+		final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+		final List<Endpoint> mix = new ArrayList<Endpoint>();
+		for (String entry : options.get("mix").split(",")) {
+			final int separator = entry.indexOf(':');
+			final String path = entry.substring(separator + 1).trim();
+			final Endpoint endpoint = new Endpoint(path, HttpRequest.newBuilder(baseUri.resolve(path))
+					.header("Authorization", authorization)
+					.timeout(Duration.ofSeconds(60))
+					.GET().build());
+			endpoints.add(endpoint);
+			for (int i = Integer.parseInt(entry.substring(0, separator).trim()); i > 0; i--) {
+				mix.add(endpoint);
+			}
+		}
+		final HttpClient client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(10))
+				.build();
+		final HttpRequest metricsRequest = HttpRequest.newBuilder(baseUri.resolve("metrics"))
+				.header("Authorization", authorization).GET().build();
+		System.out.println("Sending " + rate + " requests/s to " + baseUri + " for " + options.get("warmup")
+				+ " s of warm-up and " + options.get("duration") + " s of measurement");
+		/*
+		 * Request i is meant to be sent at start + i * interval. Falling behind doesn't skip requests:
+		 * they are sent at once, and charged with the delay.
+		 */
+		final Random random = new Random(Long.parseLong(options.get("seed")));
+		final Semaphore inFlight = new Semaphore(maxInFlight);
+		final double intervalNanos = SECONDS_IN_NANOS / rate;
+		final long start = System.nanoTime();
+		final long measurementStart = start + warmupNanos;
+		final long end = measurementStart + durationNanos;
+		CompletableFuture<Map<String, Long>> serverGcBefore = null;
+		long localGcCountBefore = 0;
+		long localGcTimeBefore = 0;
+		long maxLagNanos = 0;
+		for (long i = 0;; i++) {
+			final long intended = start + (long) (i * intervalNanos);
+			if (intended >= end) {
+				break;
+			}
+			if (serverGcBefore == null && intended >= measurementStart) {
+				// Read asynchronously, not to delay the requests
+				serverGcBefore = readServerGc(client, metricsRequest);
+				localGcCountBefore = getLocalGcCount();
+				localGcTimeBefore = getLocalGcTime();
+			}
+			long wait;
+			while ((wait = intended - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			inFlight.acquire();
+			final Endpoint endpoint = mix.get(random.nextInt(mix.size()));
+			final boolean measured = intended >= measurementStart;
+			final long sent = System.nanoTime();
+			if (measured) {
+				maxLagNanos = Math.max(maxLagNanos, sent - intended);
+			}
+			client.sendAsync(endpoint.request, HttpResponse.BodyHandlers.discarding()).whenComplete(
+					new BiConsumer<HttpResponse<Void>, Throwable>() {
+						@Override
+						public void accept(HttpResponse<Void> response, Throwable error) {
+							final long now = System.nanoTime();
+							inFlight.release();
+							if (!measured) {
+								return;
+							}
+							endpoint.responseTimes.record(now - intended);
+							endpoint.serviceTimes.record(now - sent);
+							if (error != null || response.statusCode() >= 400) {
+								endpoint.errors.incrementAndGet();
+							}
+						}
+					});
+		}
+		if (!inFlight.tryAcquire(maxInFlight, 60, TimeUnit.SECONDS)) {
+			System.out.println("Some requests were still waiting for a response after 60 s");
+		}
+		final long localGcCount = getLocalGcCount() - localGcCountBefore;
+		final long localGcTime = getLocalGcTime() - localGcTimeBefore;
+		final Map<String, Long> serverGcAfter = readServerGc(client, metricsRequest).get();
+		/*
+		 * Report:
+		 */
+		final PrintStream out = System.out;
+		final double seconds = (double) durationNanos / SECONDS_IN_NANOS;
+		out.println();
+		out.printf("Maximum sending lag: %.3f ms%n", maxLagNanos / 1e6);
+		out.println();
+		out.println("Response times, from the intended sending time (ms):");
+		printTable(out, endpoints, seconds, true);
+		out.println();
+		out.println("Service times, from the actual sending time, not corrected (ms):");
+		printTable(out, endpoints, seconds, false);
+		out.println();
+		final Map<String, Long> serverGcStart = serverGcBefore != null ? serverGcBefore.get() : null;
+		if (serverGcStart != null && serverGcAfter != null) {
+			out.println("Server garbage collections:");
+			for (Map.Entry<String, Long> entry : serverGcAfter.entrySet()) {
+				final Long before = serverGcStart.get(entry.getKey());
+				out.printf("  %-60s %d%n", entry.getKey(), entry.getValue() - (before != null ? before : 0));
+			}
+		} else {
+			out.println("Server garbage collections unavailable: " + baseUri.resolve("metrics") + " could not be read");
+		}
+		out.printf("Load generator garbage collections: %d, %d ms%n", localGcCount, localGcTime);
+	}
+
+	private static void printTable(PrintStream out, List<Endpoint> endpoints, double seconds, boolean corrected) {
+		out.printf("  %-40s %10s %8s %10s", "endpoint", "requests", "errors", "req/s");
+		for (double percentile : PERCENTILES) {
+			out.printf(" %10s", "p" + (percentile == Math.rint(percentile) ? Long.toString((long) percentile)
+					: Double.toString(percentile)));
+		}
+		out.printf(" %10s%n", "max");
+		for (Endpoint endpoint : endpoints) {
+			final LatencyRecorder recorder = corrected ? endpoint.responseTimes : endpoint.serviceTimes;
+			out.printf("  %-40s %10d %8d %10.1f", endpoint.path, recorder.getCount(), endpoint.errors.get(),
+					recorder.getCount() / seconds);
+			for (double percentile : PERCENTILES) {
+				out.printf(" %10.3f", recorder.getPercentileMicros(percentile) / 1000.0);
+			}
+			out.printf(" %10.3f%n", recorder.getMaxMicros() / 1000.0);
+		}
+	}
+
+	/**
+	 * Reads the garbage collection counters of the server.
+	 *
+	 * @return a future completed with the counter values, keyed by metric name and labels, or
+	 *         with null if they could not be read
+	 */
+	private static CompletableFuture<Map<String, Long>> readServerGc(HttpClient client, HttpRequest metricsRequest) {
+		return client.sendAsync(metricsRequest, HttpResponse.BodyHandlers.ofString())
+				.orTimeout(10, TimeUnit.SECONDS)
+				.handle(new BiFunction<HttpResponse<String>, Throwable, Map<String, Long>>() {
+					@Override
+					public Map<String, Long> apply(HttpResponse<String> response, Throwable error) {
+						if (error != null || response.statusCode() != 200) {
+							return null;
+						}
+						final Map<String, Long> values = new LinkedHashMap<String, Long>();
+						for (String line : response.body().split("\n")) {
+							if (line.startsWith(GC_COUNT_METRIC) || line.startsWith(GC_TIME_METRIC)) {
+								final int separator = line.lastIndexOf(' ');
+								values.put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+							}
+						}
+						return values;
+					}
+				});
+	}
+
+	private static long getLocalGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long getLocalGcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+		return time;
+	}
+}
@@ -0,0 +1,375 @@
+package br.com.avimeney.marsweather.cache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import br.com.avimeney.marsweather.metrics.Counter;
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+
+/**
+ * Cache for the results of the Sol range queries, sitting in front of the Sol archive as a second
+ * tier to the {@link SolDataCache}. Results are keyed by their normalized query and tagged with
+ * the range of Sols they were computed from, so storing new Sols only drops the results covering
+ * them.
+ *
+ * <p>The cache is bounded both by its number of entries and by the total weight of their values.
+ * Its eviction policy follows W-TinyLFU:
+ *
+ * <ul>
+ *   <li>New entries land in a small LRU window, 1% of the cache, which absorbs bursts of
+ * one-off queries.
+ *   <li>Entries leaving the window compete for the main area, a segmented LRU whose protected
+ * segment holds the entries read again while on probation. A candidate is only admitted if it
+ * was queried more often than the probation entry it would evict.
+ *   <li>Query frequencies are estimated by a count-min sketch of 4 bit counters, halved
+ * periodically so past popularity fades away.
+ * </ul>
+ *
+ * <p>Scans of distinct queries thus churn the window without flushing the popular results kept
+ * in the main area. Accesses are serialized by a single lock, held for a few pointer updates only.
+ *
+ * @param <V> type of the cached results
+ *
+ * @author avimeney
+ */
+
+public class QueryResultCache<V> {
+
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	/**
+	 * A cached result, linked into the queue of its segment.
+	 */
+	private static final class Node<V> {
+		final String key;
+		V value;
+		long weight;
+		int fromSol;
+		int toSol;
+		int segment;
+		Node<V> previous;
+		Node<V> next;
+
+		Node(String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Least recently used queue of a segment, with its size.
+	 */
+	private static final class Queue<V> {
+		final Node<V> head = new Node<V>(null);
+		int count;
+		long weight;
+
+		Queue() {
+			head.previous = head;
+			head.next = head;
+		}
+
+		Node<V> first() {
+			return head.next != head ? head.next : null;
+		}
+
+		void add(Node<V> node) {
+			node.previous = head.previous;
+			node.next = head;
+			head.previous.next = node;
+			head.previous = node;
+			count++;
+			weight += node.weight;
+		}
+
+		void remove(Node<V> node) {
+			node.previous.next = node.next;
+			node.next.previous = node.previous;
+			count--;
+			weight -= node.weight;
+		}
+	}
+
+	/**
+	 * Count-min sketch of the query frequencies: four 4 bit counters per query, one in each quarter
+	 * of the table. Counters are halved every time the number of recorded queries reaches ten times
+	 * the cache capacity.
+	 */
+	private static final class FrequencySketch {
+		private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xBF58476D1CE4E5B9L, 0x94D049BB133111EBL, 0xD6E8FEB86659FD93L};
+
+		final byte[] counters;
+		final int mask;
+		final int sampleSize;
+		int additions;
+
+		FrequencySketch(int capacity) {
+			final int width = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+			counters = new byte[width * SEEDS.length];
+			mask = width - 1;
+			sampleSize = 10 * Math.max(capacity, 16);
+		}
+
+		int frequency(int hash) {
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < SEEDS.length; i++) {
+				frequency = Math.min(frequency, counters[indexOf(hash, i)]);
+			}
+			return frequency;
+		}
+
+		void increment(int hash) {
+			for (int i = 0; i < SEEDS.length; i++) {
+				final int index = indexOf(hash, i);
+				if (counters[index] < 15) {
+					counters[index]++;
+				}
+			}
+			if (++additions == sampleSize) {
+				for (int i = 0; i < counters.length; i++) {
+					counters[i] >>= 1;
+				}
+				additions /= 2;
+			}
+		}
+
+		private int indexOf(int hash, int row) {
+			long mixed = (hash + SEEDS[row]) * SEEDS[row];
+			mixed ^= mixed >>> 32;
+			return row * (mask + 1) + ((int) mixed & mask);
+		}
+	}
+
+	private final int maxEntries;
+
+	private final long maxWeight;
+
+	private final int windowEntries;
+
+	private final long windowWeight;
+
+	private final int protectedEntries;
+
+	private final long protectedWeight;
+
+	private final Map<String, Node<V>> nodes = new HashMap<String, Node<V>>();
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final Queue<V>[] queues = new Queue[] {new Queue<V>(), new Queue<V>(), new Queue<V>()};
+
+	private final FrequencySketch sketch;
+
+	/**
+	 * Number of invalidations so far. Results computed before an invalidation may be stale, so
+	 * they are not stored.
+	 */
+	private long invalidations;
+
+	private final Counter hits;
+
+	private final Counter misses;
+
+	private final Counter evictions;
+
+	private final Counter invalidated;
+
+	/**
+	 * @param name name of the cache, for metrics purposes
+	 * @param maxEntries maximum number of cached results
+	 * @param maxWeight maximum total weight of the cached results
+	 */
+	public QueryResultCache(String name, int maxEntries, long maxWeight) {
+		this.maxEntries = Math.max(maxEntries, 1);
+		this.maxWeight = Math.max(maxWeight, 1);
+		windowEntries = Math.max(this.maxEntries / 100, 1);
+		windowWeight = Math.max(this.maxWeight / 100, 1);
+		protectedEntries = (this.maxEntries - windowEntries) * 4 / 5;
+		protectedWeight = (this.maxWeight - windowWeight) * 4 / 5;
+		sketch = new FrequencySketch(this.maxEntries);
+		final MetricsRegistry registry = MetricsRegistry.getInstance();
+		hits = registry.counter("query_cache_hits_total", "Query results served from the cache.", "cache", name);
+		misses = registry.counter("query_cache_misses_total", "Query results missing from the cache.", "cache", name);
+		evictions = registry.counter("query_cache_evictions_total",
+				"Query results evicted, or refused, for lack of room.", "cache", name);
+		invalidated = registry.counter("query_cache_invalidations_total",
+				"Query results dropped because their Sols changed.", "cache", name);
+		registry.supplier("query_cache_entries", "Cached query results.", false, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				synchronized (QueryResultCache.this) {
+					return nodes.size();
+				}
+			}
+		}, "cache", name);
+		registry.supplier("query_cache_weight", "Total weight of the cached query results.", false, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				synchronized (QueryResultCache.this) {
+					return totalWeight();
+				}
+			}
+		}, "cache", name);
+	}
+
+	/**
+	 * Gets the cached result of a query. Every call counts towards the query frequency, so misses
+	 * help the result to be admitted once it's computed.
+	 *
+	 * @param key the normalized query
+	 *
+	 * @return the cached result, or null if there is none
+	 */
+	public synchronized V get(String key) {
+		sketch.increment(key.hashCode());
+		final Node<V> node = nodes.get(key);
+		if (node == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		final Queue<V> queue = queues[node.segment];
+		queue.remove(node);
+		if (node.segment == PROBATION) {
+			// Read again: promoted, demoting the least recently used protected entries if needed
+			node.segment = PROTECTED;
+			final Queue<V> protectedQueue = queues[PROTECTED];
+			protectedQueue.add(node);
+			while (protectedQueue.count > protectedEntries || protectedQueue.weight > protectedWeight) {
+				final Node<V> demoted = protectedQueue.first();
+				if (demoted == node) {
+					break;
+				}
+				protectedQueue.remove(demoted);
+				demoted.segment = PROBATION;
+				queues[PROBATION].add(demoted);
+			}
+		} else {
+			queue.add(node);
+		}
+		return node.value;
+	}
+
+	/**
+	 * Gets a stamp to be passed to {@link #put(String, Object, long, int, int, long)}, taken
+	 * before computing the result.
+	 *
+	 * @return the current stamp
+	 */
+	public synchronized long stamp() {
+		return invalidations;
+	}
+
+	/**
+	 * Caches the result of a query, unless some Sols changed since the result computation started.
+	 *
+	 * @param key the normalized query
+	 * @param value the query result
+	 * @param weight the result weight, such as its size in bytes
+	 * @param fromSol first Sol number the result depends on, inclusive
+	 * @param toSol last Sol number the result depends on, inclusive
+	 * @param stamp the stamp taken before computing the result
+	 */
+	public synchronized void put(String key, V value, long weight, int fromSol, int toSol, long stamp) {
+		if (stamp != invalidations) {
+			return;
+		}
+		Node<V> node = nodes.get(key);
+		if (weight > maxWeight - windowWeight) {
+			// Would flush the whole cache
+			if (node != null) {
+				remove(node);
+			}
+			evictions.increment();
+			return;
+		}
+		if (node != null) {
+			queues[node.segment].remove(node);
+		} else {
+			node = new Node<V>(key);
+			node.segment = WINDOW;
+			nodes.put(key, node);
+		}
+		node.value = value;
+		node.weight = weight;
+		node.fromSol = fromSol;
+		node.toSol = toSol;
+		queues[node.segment].add(node);
+		evict();
+	}
+
+	/**
+	 * Moves the entries overflowing the window to the main area, then evicts entries until the cache
+	 * fits its bounds again.
+	 */
+	private void evict() {
+		final Queue<V> window = queues[WINDOW];
+		while (window.count > windowEntries || window.weight > windowWeight) {
+			final Node<V> candidate = window.first();
+			window.remove(candidate);
+			candidate.segment = PROBATION;
+			queues[PROBATION].add(candidate);
+			trim(candidate);
+		}
+		trim(null);
+	}
+
+	/**
+	 * Evicts entries until the cache fits its bounds. A candidate just moved out of the window is
+	 * only kept if it is more popular than the probation entry it would replace.
+	 */
+	private void trim(Node<V> candidate) {
+		while (nodes.size() > maxEntries || totalWeight() > maxWeight) {
+			Node<V> victim = queues[PROBATION].first();
+			if (victim == null) {
+				victim = queues[PROTECTED].first();
+			}
+			if (victim == null) {
+				victim = queues[WINDOW].first();
+			}
+			if (candidate != null && victim != candidate
+					&& sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+				victim = candidate;
+			}
+			if (victim == candidate) {
+				candidate = null;
+			}
+			remove(victim);
+			evictions.increment();
+		}
+	}
+
+	private long totalWeight() {
+		return queues[WINDOW].weight + queues[PROBATION].weight + queues[PROTECTED].weight;
+	}
+
+	private void remove(Node<V> node) {
+		queues[node.segment].remove(node);
+		nodes.remove(node.key);
+	}
+
+	/**
+	 * Drops the results depending on any of the given Sols.
+	 *
+	 * @param solIds the changed Sol numbers, sorted
+	 */
+	public synchronized void invalidate(int[] solIds) {
+		invalidations++;
+		final Iterator<Node<V>> iterator = nodes.values().iterator();
+		while (iterator.hasNext()) {
+			final Node<V> node = iterator.next();
+			int position = Arrays.binarySearch(solIds, node.fromSol);
+			if (position < 0) {
+				position = -position - 1;
+			}
+			if (position < solIds.length && solIds[position] <= node.toSol) {
+				queues[node.segment].remove(node);
+				iterator.remove();
+				invalidated.increment();
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package br.com.avimeney.marsweather.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * File keeping a copy of the cache snapshot across server restarts. The file holds a small
+ * header, with the snapshot version, times and number of Sols, followed by the Sol records
+ * described by {@link SolRecords}. Every value is little-endian. Files written by earlier
+ * versions, holding the packed temperature records of {@link SolDataSnapshot#getPacked()}, are
+ * still read.
+ *
+ * <p>Files are written to a temporary file first and then moved over the previous one, so a
+ * crash while saving never leaves a truncated snapshot behind.
+ *
+ * @author avimeney
+ */
+
+public final class SnapshotFile {
+
+	private static final int MAGIC = 0x4D575353; // "MWSS"
+	private static final int FORMAT_VERSION = 2;
+	private static final int HEADER_SIZE = 40;
+	// Packed temperature records, without the snapshot version
+	private static final int PACKED_FORMAT_VERSION = 1;
+	private static final int PACKED_HEADER_SIZE = 32;
+
+	private SnapshotFile() {
+	}
+
+	/**
+	 * Saves a snapshot, replacing the one already saved, if any.
+	 *
+	 * @param file the snapshot file
+	 * @param snapshot the snapshot to be saved
+	 *
+	 * @throws IOException if the file could not be written
+	 */
+	public static void write(Path file, SolDataSnapshot snapshot) throws IOException {
+		final SolData[] sols = snapshot.getSols();
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + sols.length * SolRecords.RECORD_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(FORMAT_VERSION);
+		buffer.putLong(snapshot.getVersion());
+		buffer.putLong(snapshot.getCreatedAt());
+		buffer.putLong(snapshot.getLastModified());
+		buffer.putInt(sols.length);
+		buffer.putInt(0);
+		for (SolData sol : sols) {
+			SolRecords.write(buffer, sol);
+		}
+		final Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		final Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			Files.write(temporary, buffer.array());
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Reads a saved snapshot.
+	 *
+	 * @param file the snapshot file
+	 * @param ttl time, in milliseconds, after its creation in which the snapshot expires
+	 *
+	 * @return the saved snapshot, or null if no snapshot was saved
+	 *
+	 * @throws IOException if the file could not be read or is not a valid snapshot file
+	 */
+	public static SolDataSnapshot read(Path file, long ttl) throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.remaining() < PACKED_HEADER_SIZE || buffer.getInt() != MAGIC) {
+			throw new IOException("Unsupported snapshot file format at " + file);
+		}
+		final int format = buffer.getInt();
+		if (format == PACKED_FORMAT_VERSION) {
+			return readPacked(file, buffer, ttl);
+		}
+		if (format != FORMAT_VERSION || buffer.remaining() < HEADER_SIZE - 8) {
+			throw new IOException("Unsupported snapshot file format at " + file);
+		}
+		final long version = buffer.getLong();
+		final long createdAt = buffer.getLong();
+		final long lastModified = buffer.getLong();
+		final int count = buffer.getInt();
+		buffer.getInt();
+		if (count < 0 || buffer.remaining() != (long) count * SolRecords.RECORD_SIZE) {
+			throw new IOException("Truncated snapshot file at " + file);
+		}
+		final List<SolData> sols = new ArrayList<SolData>(count);
+		for (int i = 0; i < count; i++) {
+			sols.add(SolRecords.read(buffer));
+		}
+		return SolDataSnapshot.restore(sols, version, createdAt, lastModified, createdAt + ttl);
+	}
+
+	/**
+	 * Reads a snapshot saved with its temperatures only. Its version is its last modification time.
+	 */
+	private static SolDataSnapshot readPacked(Path file, ByteBuffer buffer, long ttl) throws IOException {
+		final long createdAt = buffer.getLong();
+		final long lastModified = buffer.getLong();
+		final int count = buffer.getInt();
+		buffer.getInt();
+		if (count < 0 || buffer.remaining() != (long) count * SolDataSnapshot.PACKED_SOL_SIZE) {
+			throw new IOException("Truncated snapshot file at " + file);
+		}
+		final List<SolData> sols = new ArrayList<SolData>(count);
+		for (int i = 0; i < count; i++) {
+			sols.add(new SolData(buffer.getInt(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat()));
+		}
+		return SolDataSnapshot.restore(sols, lastModified, createdAt, lastModified, createdAt + ttl);
+	}
+}
@@ -0,0 +1,525 @@
+package br.com.avimeney.marsweather.cache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import br.com.avimeney.marsweather.integration.UpstreamFetchCoordinator;
+import br.com.avimeney.marsweather.metrics.Counter;
+import br.com.avimeney.marsweather.metrics.LatencyHistogram;
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+import br.com.avimeney.marsweather.model.SolData;
+import br.com.avimeney.marsweather.rest.MarsWeatherServiceException;
+
+/**
+ * Local cache for the Sol temperature data. The cached data is held by a single immutable
+ * {@link SolDataSnapshot} published through a volatile reference, so readers never block
+ * while a valid snapshot is available.
+ *
+ * <p>Two refresh modes are supported:
+ *
+ * <ul>
+ *   <li>{@link RefreshMode#BACKGROUND}: stale-while-revalidate. Once a snapshot is older than the
+ * soft TTL a daemon thread loads new data and swaps it in, while readers keep being served the
+ * last good snapshot. Only when a snapshot gets older than the hard TTL (for instance, because
+ * the upstream API has been failing for a long time) readers are forced to wait for a new load.
+ *   <li>{@link RefreshMode#INVALIDATE}: the whole cache expires at once and the next reader
+ * loads new data while the others wait for it.
+ * </ul>
+ *
+ * <p>Loads are asynchronous and go through an {@link UpstreamFetchCoordinator}: concurrent readers
+ * facing an empty or expired cache share a single upstream request, and failed requests are not
+ * retried before a backoff delay. No thread is held while the upstream request is in flight.
+ *
+ * <p>New snapshots are swapped in, and the readers waiting for them served, before anything else
+ * is done with them. Saving them to the snapshot file and notifying the listeners is left to a
+ * publisher thread, which handles the snapshots one at a time, in the order they were swapped in.
+ *
+ * <p>When replicas share their snapshots, the cache of a follower never loads data itself: it is
+ * handed the snapshots published by the leader through {@link #install(SolDataSnapshot)}, and
+ * readers facing an empty or expired cache wait for the next one.
+ *
+ * @author avimeney
+ */
+
+public class SolDataCache {
+
+	/**
+	 * Source of the data stored in the cache.
+	 */
+	public interface Loader {
+
+		/**
+		 * Starts loading fresh Sol temperature data. Implementations must not block the caller.
+		 *
+		 * @return a future completed with a map with Sol numbers as keys and the corresponding weather
+		 *         model objects as values, or failed with a {@link MarsWeatherServiceException} if the
+		 *         data could not be obtained
+		 */
+		CompletableFuture<Map<Integer, SolData>> load();
+	}
+
+	/**
+	 * Notified whenever a load brings Sols added, revised or removed since the cached data, that
+	 * is, whenever the snapshot version changes.
+	 */
+	public interface ChangeListener {
+
+		/**
+		 * Called by the publisher thread, once the new snapshot is swapped in and saved.
+		 *
+		 * @param previous the replaced snapshot, or null if the cache was empty
+		 * @param current the new snapshot
+		 */
+		void snapshotChanged(SolDataSnapshot previous, SolDataSnapshot current);
+	}
+
+	/**
+	 * Notified of every snapshot swapped in, whether its content changed or not.
+	 */
+	public interface LoadListener {
+
+		/**
+		 * Called by the publisher thread, after the change listeners.
+		 *
+		 * @param snapshot the new snapshot
+		 */
+		void snapshotLoaded(SolDataSnapshot snapshot);
+	}
+
+	public enum RefreshMode {
+		BACKGROUND, INVALIDATE
+	}
+
+	private static final Logger logger = LogManager.getLogger(SolDataCache.class);
+
+	private static final Counter hits = MetricsRegistry.getInstance().counter(
+			"cache_hits_total", "Cache reads served with a valid snapshot.");
+
+	private static final Counter misses = MetricsRegistry.getInstance().counter(
+			"cache_misses_total", "Cache reads finding no valid snapshot.");
+
+	private static final LatencyHistogram refreshes = MetricsRegistry.getInstance().histogram(
+			"cache_refresh_duration_seconds", "Duration of the cache loads, by outcome.", "outcome", "success");
+
+	private static final LatencyHistogram failedRefreshes = MetricsRegistry.getInstance().histogram(
+			"cache_refresh_duration_seconds", "Duration of the cache loads, by outcome.", "outcome", "failure");
+
+	private final Loader loader;
+
+	private final RefreshMode refreshMode;
+
+	/**
+	 * Snapshot age, in milliseconds, after which a background refresh is started.
+	 */
+	private final long softTtl;
+
+	/**
+	 * Snapshot age, in milliseconds, after which the snapshot is no longer served.
+	 */
+	private final long hardTtl;
+
+	/**
+	 * Last good snapshot. Replaced as a whole on every successful load.
+	 */
+	private volatile SolDataSnapshot snapshot;
+
+	private final UpstreamFetchCoordinator<SolDataSnapshot> coordinator;
+
+	private final Timer timer;
+
+	private final List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
+
+	private final List<LoadListener> loadListeners = new CopyOnWriteArrayList<LoadListener>();
+
+	/**
+	 * Whether the snapshots are installed by a replication leader instead of being loaded.
+	 */
+	private volatile boolean following;
+
+	/**
+	 * Completed with the next installed snapshot. Created by the first reader waiting for it.
+	 * Guarded by this cache.
+	 */
+	private CompletableFuture<SolDataSnapshot> nextInstall;
+
+	/**
+	 * File every loaded snapshot is saved to, if any.
+	 */
+	private volatile Path snapshotFile;
+
+	/**
+	 * Saves the new snapshots and notifies the listeners, off the threads completing the loads.
+	 */
+	private final ExecutorService publisher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "Cache Publisher");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * @param name name of the data source, for logging purposes
+	 * @param loader the data source
+	 * @param refreshMode the refresh mode
+	 * @param softTtl snapshot age, in milliseconds, after which a background refresh is started
+	 * @param hardTtl snapshot age, in milliseconds, after which the snapshot is no longer served
+	 * @param upstreamSettings limits protecting the data source
+	 */
+	public SolDataCache(String name, Loader loader, RefreshMode refreshMode, long softTtl, long hardTtl,
+			UpstreamFetchCoordinator.Settings upstreamSettings) {
+		this.loader = loader;
+		this.refreshMode = refreshMode;
+		this.softTtl = softTtl;
+		this.hardTtl = Math.max(softTtl, hardTtl);
+		this.coordinator = new UpstreamFetchCoordinator<SolDataSnapshot>(name,
+				new UpstreamFetchCoordinator.Fetcher<SolDataSnapshot>() {
+					@Override
+					public CompletableFuture<SolDataSnapshot> fetch() {
+						return startLoad();
+					}
+				}, upstreamSettings);
+		// Without a soft TTL, every read refreshes the cache and there's nothing left to schedule
+		if (refreshMode == RefreshMode.BACKGROUND && softTtl > 0) {
+			/*
+			 * Background refresh daemon thread initialization:
+			 */
+			timer = new Timer("Cache Refresh Timer", true);
+			timer.scheduleAtFixedRate(new TimerTask() {
+				@Override
+				public void run() {
+					logger.debug("Refresh thread running");
+					refreshIfStale();
+				}
+			}, softTtl, softTtl);
+		} else {
+			timer = null;
+		}
+	}
+
+	/**
+	 * Gets the current cache snapshot, provided it hasn't expired. This method never blocks.
+	 * In the background refresh mode, a refresh is started if the snapshot is older than the
+	 * soft TTL. Calls to this method are counted as cache hits or misses.
+	 *
+	 * @return the current snapshot, or null if the cache is empty or its data has expired
+	 */
+	public SolDataSnapshot getCachedSnapshot() {
+		final SolDataSnapshot current = getValidSnapshot();
+		if (current != null) {
+			logger.debug("Serving from local cache");
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+		return current;
+	}
+
+	/**
+	 * Gets the current cache snapshot, loading it from the underlining source if the cache
+	 * is empty or its data has expired. This method never blocks. It is meant to be called
+	 * after a miss reported by {@link #getCachedSnapshot()}, so it's not counted as a cache
+	 * read again.
+	 *
+	 * @return a future completed with the current snapshot, or failed with a
+	 *         {@link MarsWeatherServiceException} if the cache has no valid data and it could not be loaded
+	 */
+	public CompletableFuture<SolDataSnapshot> getSnapshotAsync() {
+		// Another reader may have loaded the cache meanwhile
+		final SolDataSnapshot current = getValidSnapshot();
+		if (current != null) {
+			return CompletableFuture.completedFuture(current);
+		}
+		if (following) {
+			logger.debug("Waiting for a snapshot from the replication leader");
+			return getNextInstall();
+		}
+		logger.debug("Reading data from upstream");
+		return coordinator.fetch();
+	}
+
+	private SolDataSnapshot getValidSnapshot() {
+		final SolDataSnapshot current = snapshot;
+		if (current != null) {
+			final long age = current.getAge(System.currentTimeMillis());
+			if (age < hardTtl) {
+				if (age >= softTtl && refreshMode == RefreshMode.BACKGROUND && !following && !coordinator.isBackingOff()) {
+					refresh();
+				}
+				return current;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Starts a background refresh, unless one is already in flight. Readers keep being served
+	 * the current snapshot meanwhile. A follower doesn't load data, it waits for the next
+	 * snapshot installed instead.
+	 *
+	 * @return a future completed with the new snapshot
+	 */
+	public CompletableFuture<SolDataSnapshot> refresh() {
+		if (following) {
+			return getNextInstall();
+		}
+		return coordinator.fetch();
+	}
+
+	/**
+	 * Starts a background refresh if the cache is empty or its snapshot is older than the soft
+	 * TTL. Meant for loading the cache ahead of the first reader. Followers are left alone.
+	 */
+	public void refreshIfStale() {
+		if (following) {
+			return;
+		}
+		final SolDataSnapshot current = snapshot;
+		if (current == null || current.getAge(System.currentTimeMillis()) >= softTtl) {
+			refresh();
+		}
+	}
+
+	/**
+	 * Keeps a copy of the cached data in a file, so it survives server restarts. The snapshot saved
+	 * by an earlier run is restored at once, unless it is older than the hard TTL, and the snapshot
+	 * of every successful load is saved from then on. The restored snapshot keeps its original age,
+	 * so a stale one is refreshed like any other. The change listeners are told about it by the
+	 * publisher thread, as about a loaded one. Must be called before the first load.
+	 *
+	 * @param file the snapshot file
+	 *
+	 * @return true if a saved snapshot was restored
+	 */
+	public boolean persistTo(Path file) {
+		snapshotFile = file;
+		final SolDataSnapshot saved;
+		try {
+			saved = SnapshotFile.read(file, softTtl);
+		} catch (IOException e) {
+			logger.error("Failure while reading the cache snapshot at " + file + ". Starting with an empty cache.", e);
+			return false;
+		}
+		if (saved == null) {
+			return false;
+		}
+		if (saved.getAge(System.currentTimeMillis()) >= hardTtl) {
+			logger.info("Cache snapshot at " + file + " expired. Starting with an empty cache.");
+			return false;
+		}
+		snapshot = saved;
+		logger.info(saved.getSols().length + " Sols restored from the cache snapshot at " + file);
+		publisher.execute(new Runnable() {
+			@Override
+			public void run() {
+				notifyListeners(null, saved);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Registers a listener for the loads changing the cached data.
+	 *
+	 * @param listener the listener
+	 */
+	public void addChangeListener(ChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Registers a listener for every snapshot loaded or installed.
+	 *
+	 * @param listener the listener
+	 */
+	public void addLoadListener(LoadListener listener) {
+		loadListeners.add(listener);
+	}
+
+	/**
+	 * Gets the current snapshot, even if expired. Not counted as a cache read.
+	 *
+	 * @return the current snapshot, or null if the cache is empty
+	 */
+	public SolDataSnapshot getCurrentSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Tells whether the cache follows a replication leader.
+	 *
+	 * @return true if the snapshots are installed rather than loaded
+	 */
+	public boolean isFollowing() {
+		return following;
+	}
+
+	/**
+	 * Switches the cache between loading its snapshots from the data source and having them
+	 * installed by a replication leader. Readers waiting for a snapshot to be installed when the
+	 * cache stops following are served by a load.
+	 *
+	 * @param following true to stop loading data and wait for installed snapshots
+	 */
+	public void setFollowing(boolean following) {
+		this.following = following;
+		if (following) {
+			return;
+		}
+		final CompletableFuture<SolDataSnapshot> waiting;
+		synchronized (this) {
+			waiting = nextInstall;
+			nextInstall = null;
+		}
+		if (waiting != null) {
+			coordinator.fetch().whenComplete(new BiConsumer<SolDataSnapshot, Throwable>() {
+				@Override
+				public void accept(SolDataSnapshot loaded, Throwable error) {
+					if (error == null) {
+						waiting.complete(loaded);
+					} else {
+						waiting.completeExceptionally(error);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Swaps in a snapshot obtained elsewhere, such as the one published by a replication leader.
+	 * The snapshot is saved and the listeners are notified as if it had been loaded.
+	 *
+	 * @param newSnapshot the snapshot to be served
+	 */
+	public void install(SolDataSnapshot newSnapshot) {
+		final SolDataSnapshot previous = snapshot;
+		snapshot = newSnapshot;
+		logger.debug("Snapshot version " + newSnapshot.getVersion() + " installed");
+		final CompletableFuture<SolDataSnapshot> waiting;
+		synchronized (this) {
+			waiting = nextInstall;
+			nextInstall = null;
+		}
+		if (waiting != null) {
+			waiting.complete(newSnapshot);
+		}
+		publish(previous, newSnapshot);
+	}
+
+	private synchronized CompletableFuture<SolDataSnapshot> getNextInstall() {
+		if (nextInstall == null) {
+			nextInstall = new CompletableFuture<SolDataSnapshot>();
+		}
+		return nextInstall;
+	}
+
+	/**
+	 * Gets the coordinator of the upstream requests, whose counters report the cache refresh
+	 * activity.
+	 *
+	 * @return the upstream request coordinator
+	 */
+	public UpstreamFetchCoordinator<SolDataSnapshot> getCoordinator() {
+		return coordinator;
+	}
+
+	/**
+	 * Starts loading new data. The new snapshot is built and swapped in by the thread completing
+	 * the load, which then serves the waiting readers. The snapshot is published meanwhile.
+	 */
+	private CompletableFuture<SolDataSnapshot> startLoad() {
+		final long start = System.nanoTime();
+		return loader.load().thenApply(new Function<Map<Integer, SolData>, SolDataSnapshot>() {
+			@Override
+			public SolDataSnapshot apply(Map<Integer, SolData> solDataMap) {
+				final SolDataSnapshot newSnapshot;
+				final SolDataSnapshot previous = snapshot;
+				final long now = System.currentTimeMillis();
+				try {
+					newSnapshot = SolDataSnapshot.create(solDataMap.values(), now, now + softTtl, previous);
+				} catch (IOException e) {
+					logger.error("JSON encoding failure", e);
+					throw new CompletionException(new MarsWeatherServiceException("Failure while encoding the cache data."));
+				}
+				snapshot = newSnapshot;
+				if (logger.isDebugEnabled()) {
+					logger.debug("Local cache was updated. " + (previous != null
+							? newSnapshot.getSolsSince(previous.getVersion()).length : newSnapshot.getSols().length)
+							+ " Sols added or revised.");
+				}
+				publish(previous, newSnapshot);
+				return newSnapshot;
+			}
+		}).whenComplete(new BiConsumer<SolDataSnapshot, Throwable>() {
+			@Override
+			public void accept(SolDataSnapshot newSnapshot, Throwable error) {
+				(error == null ? refreshes : failedRefreshes).recordSince(start);
+			}
+		});
+	}
+
+	/**
+	 * Saves a snapshot just swapped in and notifies the listeners, in the publisher thread.
+	 */
+	private void publish(final SolDataSnapshot previous, final SolDataSnapshot newSnapshot) {
+		publisher.execute(new Runnable() {
+			@Override
+			public void run() {
+				saveSnapshot(newSnapshot);
+				if (previous == null || previous.getVersion() != newSnapshot.getVersion()) {
+					notifyListeners(previous, newSnapshot);
+				}
+				notifyLoaded(newSnapshot);
+			}
+		});
+	}
+
+	private void saveSnapshot(SolDataSnapshot newSnapshot) {
+		final Path file = snapshotFile;
+		if (file == null) {
+			return;
+		}
+		try {
+			SnapshotFile.write(file, newSnapshot);
+		} catch (IOException e) {
+			// The cache keeps working, only the next restart starts cold
+			logger.error("Failure while saving the cache snapshot at " + file, e);
+		}
+	}
+
+	private void notifyListeners(SolDataSnapshot previous, SolDataSnapshot current) {
+		for (ChangeListener listener : listeners) {
+			try {
+				listener.snapshotChanged(previous, current);
+			} catch (RuntimeException e) {
+				logger.error("Cache change listener failure", e);
+			}
+		}
+	}
+
+	private void notifyLoaded(SolDataSnapshot current) {
+		for (LoadListener listener : loadListeners) {
+			try {
+				listener.snapshotLoaded(current);
+			} catch (RuntimeException e) {
+				logger.error("Cache load listener failure", e);
+			}
+		}
+	}
+}
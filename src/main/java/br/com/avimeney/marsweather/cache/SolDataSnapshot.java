@@ -0,0 +1,682 @@
+package br.com.avimeney.marsweather.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Immutable view of the Sol temperature data obtained by a single successful cache load.
+ * A snapshot is never modified after being published. Refreshing the cache means building
+ * a brand new snapshot and swapping it in.
+ * 
+ * <p>Besides the Sol data itself, sorted by Sol number, the snapshot holds its JSON encoding.
+ * Since the data only changes a few times a day, encoding it once per snapshot spares the
+ * serialization work on every request. For the same reason, the gzip and deflate compressed
+ * encodings and the validators used by HTTP conditional requests (an entity tag derived from
+ * the JSON content and a last modification time) are computed once, when the snapshot is built.
+ * So are the binary encodings meant for service to service consumers: CBOR, with the same
+ * structure as the JSON, and a packed array of fixed width little-endian records.
+ *
+ * <p>Each snapshot content is identified by a version, which increases whenever the content
+ * changes. Versions are derived from the snapshot creation time, so they keep increasing across
+ * server restarts and between the replicas sharing their snapshots.
+ *
+ * <p>A new snapshot is compared with the one it replaces Sol by Sol, on every attribute, so a
+ * load bringing no new data keeps the current encodings as they are. Otherwise, only the Sols
+ * added or revised are encoded: the JSON and CBOR encodings are assembled from one fragment per
+ * Sol, and the fragments of the unchanged Sols are taken from the replaced snapshot. Each Sol
+ * also keeps the version in which it was last added or revised, so clients holding an older
+ * version can be sent only the Sols changed since (see {@link #getJsonSince(long)}). The Sols
+ * no longer held are remembered along with the version in which they were removed, so those
+ * clients are told about them as well (see {@link #getRemovedSince(long)}).
+ *
+ * @author avimeney
+ *
+ * @see SolDataCache
+ */
+
+public final class SolDataSnapshot {
+
+	/**
+	 * Writers are immutable and thread-safe, so a single one is shared by every snapshot. They
+	 * encode a single Sol, and the array encodings are assembled from the Sol encodings, the way
+	 * Jackson writes arrays: in JSON, as the comma separated items between brackets, and, in CBOR,
+	 * as the items between an indefinite length array header and a break byte.
+	 */
+	private static final ObjectWriter jsonWriter = new ObjectMapper().writerWithType(SolData.class);
+
+	private static final ObjectWriter cborWriter = new ObjectMapper(new CBORFactory()).writerWithType(SolData.class);
+
+	private static final byte CBOR_ARRAY_START = (byte) 0x9F;
+
+	private static final byte CBOR_BREAK = (byte) 0xFF;
+
+	/**
+	 * Size, in bytes, of a packed Sol record: the Sol number as an int, followed by the average,
+	 * minimum and maximum temperatures as floats, all of them little-endian.
+	 */
+	public static final int PACKED_SOL_SIZE = 16;
+
+	private static final Comparator<SolData> SOL_ID_ORDER = new Comparator<SolData>() {
+		@Override
+		public int compare(SolData s1, SolData s2) {
+			return Integer.compare(s1.getSolId(), s2.getSolId());
+		}
+	};
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final SolData[] sols;
+
+	private final byte[] json;
+
+	private final byte[] gzipJson;
+
+	private final byte[] deflateJson;
+
+	private final byte[] cbor;
+
+	private final byte[] packed;
+
+	/**
+	 * JSON and CBOR encodings of each Sol, as found in the whole array encodings.
+	 */
+	private final byte[][] jsonFragments;
+
+	private final byte[][] cborFragments;
+
+	/**
+	 * Version in which each Sol was last added or revised.
+	 */
+	private final long[] solVersions;
+
+	/**
+	 * Numbers of the Sols removed since the oldest known version, sorted, and the version in which
+	 * each one was removed. Sols added back are no longer listed.
+	 */
+	private final int[] removedSolIds;
+
+	private final long[] removalVersions;
+
+	/**
+	 * Oldest version whose changes up to this snapshot are known: the version of the first
+	 * snapshot built without a previous one, such as a snapshot restored after a restart.
+	 */
+	private final long oldestKnownVersion;
+
+	/**
+	 * Hex encoded digest of the JSON encoding, identifying the snapshot content.
+	 */
+	private final String contentHash;
+
+	/**
+	 * Version of the snapshot content. Kept by the following snapshots with the same content.
+	 */
+	private final long version;
+
+	/**
+	 * Time, in milliseconds since the epoch, in which the snapshot data was obtained.
+	 */
+	private final long createdAt;
+
+	/**
+	 * Time, in milliseconds since the epoch, in which the snapshot content last changed.
+	 */
+	private final long lastModified;
+
+	/**
+	 * Time, in milliseconds since the epoch, after which newer data may be available.
+	 */
+	private final long expiresAt;
+
+	private SolDataSnapshot(SolData[] sols, byte[] json, byte[] gzipJson, byte[] deflateJson, byte[] cbor,
+			byte[] packed, byte[][] jsonFragments, byte[][] cborFragments, long[] solVersions, int[] removedSolIds,
+			long[] removalVersions, long oldestKnownVersion, String contentHash, long version, long createdAt,
+			long lastModified, long expiresAt) {
+		this.sols = sols;
+		this.json = json;
+		this.gzipJson = gzipJson;
+		this.deflateJson = deflateJson;
+		this.cbor = cbor;
+		this.packed = packed;
+		this.jsonFragments = jsonFragments;
+		this.cborFragments = cborFragments;
+		this.solVersions = solVersions;
+		this.removedSolIds = removedSolIds;
+		this.removalVersions = removalVersions;
+		this.oldestKnownVersion = oldestKnownVersion;
+		this.contentHash = contentHash;
+		this.version = version;
+		this.createdAt = createdAt;
+		this.lastModified = lastModified;
+		this.expiresAt = expiresAt;
+	}
+
+	/**
+	 * Builds a new snapshot, sorting the Sol data by Sol number and encoding it.
+	 * 
+	 * @param solData the Sol data to be held by the snapshot
+	 * @param createdAt time, in milliseconds since the epoch, in which the data was obtained
+	 * @param expiresAt time, in milliseconds since the epoch, after which newer data may be available
+	 * @param previous the snapshot being replaced, if any. When its Sols hold the same values, it is
+	 *        {@linkplain #renew(long, long) renewed}, so clients polling for changes are not misled by
+	 *        refreshes that brought no new data. Otherwise, its encodings of the unchanged Sols are
+	 *        reused, and the new version is the creation time, or the next version if the previous
+	 *        one is greater.
+	 * 
+	 * @return the new snapshot
+	 * 
+	 * @throws IOException if the data could not be encoded
+	 */
+	public static SolDataSnapshot create(Collection<SolData> solData, long createdAt, long expiresAt,
+			SolDataSnapshot previous) throws IOException {
+		final SolData[] sols = sort(solData);
+		final int[] matches = match(sols, previous);
+		if (previous != null && sols.length == previous.sols.length && !contains(matches, -1)) {
+			return previous.renew(createdAt, expiresAt);
+		}
+		final long version = previous != null ? Math.max(createdAt, previous.version + 1) : createdAt;
+		return encode(sols, matches, previous, version, createdAt, createdAt, expiresAt);
+	}
+
+	/**
+	 * Rebuilds a snapshot saved by an earlier server run, keeping its original version and times.
+	 * Since the versions in which each Sol changed are not saved, every Sol is deemed changed in
+	 * the snapshot version, and the Sols removed before are not known.
+	 *
+	 * @param solData the saved Sol data
+	 * @param version the snapshot version
+	 * @param createdAt time, in milliseconds since the epoch, in which the data was obtained
+	 * @param lastModified time, in milliseconds since the epoch, in which the content last changed
+	 * @param expiresAt time, in milliseconds since the epoch, after which newer data may be available
+	 *
+	 * @return the rebuilt snapshot
+	 *
+	 * @throws IOException if the data could not be encoded
+	 *
+	 * @see SnapshotFile
+	 */
+	public static SolDataSnapshot restore(Collection<SolData> solData, long version, long createdAt,
+			long lastModified, long expiresAt) throws IOException {
+		return restore(solData, version, createdAt, lastModified, expiresAt, null);
+	}
+
+	/**
+	 * Rebuilds a snapshot published by another replica, keeping its original version and times.
+	 * The encodings of the Sols unchanged since the given base snapshot are reused, along with the
+	 * versions in which they changed. The other Sols are deemed changed in the snapshot version,
+	 * and the Sols of the base snapshot no longer held removed in that version.
+	 *
+	 * @param solData the Sol data of the published snapshot
+	 * @param version the snapshot version
+	 * @param createdAt time, in milliseconds since the epoch, in which the data was obtained
+	 * @param lastModified time, in milliseconds since the epoch, in which the content last changed
+	 * @param expiresAt time, in milliseconds since the epoch, after which newer data may be available
+	 * @param base the snapshot being replaced, if any
+	 *
+	 * @return the rebuilt snapshot
+	 *
+	 * @throws IOException if the data could not be encoded
+	 */
+	public static SolDataSnapshot restore(Collection<SolData> solData, long version, long createdAt,
+			long lastModified, long expiresAt, SolDataSnapshot base) throws IOException {
+		final SolData[] sols = sort(solData);
+		return encode(sols, match(sols, base), base, version, createdAt, lastModified, expiresAt);
+	}
+
+	/**
+	 * Builds a copy of this snapshot obtained by a later load that brought the same content. The
+	 * copy shares the Sol data and encodings of this snapshot, so nothing is encoded again.
+	 *
+	 * @param newCreatedAt time, in milliseconds since the epoch, in which the data was obtained again
+	 * @param newExpiresAt time, in milliseconds since the epoch, after which newer data may be available
+	 *
+	 * @return the renewed snapshot
+	 */
+	public SolDataSnapshot renew(long newCreatedAt, long newExpiresAt) {
+		return new SolDataSnapshot(sols, json, gzipJson, deflateJson, cbor, packed, jsonFragments, cborFragments,
+				solVersions, removedSolIds, removalVersions, oldestKnownVersion, contentHash, version, newCreatedAt,
+				lastModified, newExpiresAt);
+	}
+
+	private static SolData[] sort(Collection<SolData> solData) {
+		final SolData[] sols = solData.toArray(new SolData[0]);
+		Arrays.sort(sols, SOL_ID_ORDER);
+		return sols;
+	}
+
+	/**
+	 * Finds the Sols of a base snapshot holding the same values as the given ones. Both Sol arrays
+	 * are sorted by Sol number, so they are walked side by side.
+	 *
+	 * @param sols the new Sols, sorted
+	 * @param base the base snapshot, or null
+	 *
+	 * @return for each new Sol, the position of the same Sol in the base snapshot, or -1 if it was
+	 *         added or revised since
+	 */
+	private static int[] match(SolData[] sols, SolDataSnapshot base) {
+		final int[] matches = new int[sols.length];
+		final SolData[] baseSols = base != null ? base.sols : new SolData[0];
+		int i = 0;
+		for (int j = 0; j < sols.length; j++) {
+			while (i < baseSols.length && baseSols[i].getSolId() < sols[j].getSolId()) {
+				i++;
+			}
+			matches[j] = i < baseSols.length && SolRecords.sameValues(baseSols[i], sols[j]) ? i : -1;
+		}
+		return matches;
+	}
+
+	private static boolean contains(int[] values, int value) {
+		for (int v : values) {
+			if (v == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the Sols removed since the oldest version known by the base snapshot: the ones removed
+	 * before, as remembered by the base snapshot, and the Sols of the base snapshot, removed in the
+	 * new version, unless they are held by the new snapshot.
+	 *
+	 * @return the removed Sol numbers, sorted, as keys, and the versions in which they were removed
+	 *         as values
+	 */
+	private static Map<Integer, Long> removals(SolData[] sols, SolDataSnapshot base, long version) {
+		final Map<Integer, Long> removed = new TreeMap<Integer, Long>();
+		if (base == null) {
+			return removed;
+		}
+		for (int i = 0; i < base.removedSolIds.length; i++) {
+			removed.put(base.removedSolIds[i], base.removalVersions[i]);
+		}
+		for (SolData sol : base.sols) {
+			removed.put(sol.getSolId(), version);
+		}
+		for (SolData sol : sols) {
+			removed.remove(sol.getSolId());
+		}
+		return removed;
+	}
+
+	/**
+	 * Encodes the Sols added or revised since the base snapshot, and assembles the whole array
+	 * encodings from the Sol fragments. When no Sol was added nor removed and the revised ones
+	 * are encoded as before, which happens when only attributes left out of the encodings
+	 * changed, the base encodings are kept.
+	 */
+	private static SolDataSnapshot encode(SolData[] sols, int[] matches, SolDataSnapshot base, long version,
+			long createdAt, long lastModified, long expiresAt) throws IOException {
+		final byte[][] jsonFragments = new byte[sols.length][];
+		final byte[][] cborFragments = new byte[sols.length][];
+		final long[] solVersions = new long[sols.length];
+		boolean sameEncodings = base != null && sols.length == base.sols.length;
+		for (int i = 0; i < sols.length; i++) {
+			if (matches[i] >= 0) {
+				jsonFragments[i] = base.jsonFragments[matches[i]];
+				cborFragments[i] = base.cborFragments[matches[i]];
+				solVersions[i] = base.solVersions[matches[i]];
+				continue;
+			}
+			jsonFragments[i] = jsonWriter.writeValueAsBytes(sols[i]);
+			cborFragments[i] = cborWriter.writeValueAsBytes(sols[i]);
+			solVersions[i] = version;
+			sameEncodings = sameEncodings && base.sols[i].getSolId() == sols[i].getSolId()
+					&& Arrays.equals(base.jsonFragments[i], jsonFragments[i])
+					&& Arrays.equals(base.cborFragments[i], cborFragments[i]);
+		}
+		final Map<Integer, Long> removed = removals(sols, base, version);
+		final int[] removedSolIds = new int[removed.size()];
+		final long[] removalVersions = new long[removed.size()];
+		int removedCount = 0;
+		for (Map.Entry<Integer, Long> removal : removed.entrySet()) {
+			removedSolIds[removedCount] = removal.getKey();
+			removalVersions[removedCount++] = removal.getValue();
+		}
+		final long oldestKnownVersion = base != null ? base.oldestKnownVersion : version;
+		if (sameEncodings) {
+			return new SolDataSnapshot(sols, base.json, base.gzipJson, base.deflateJson, base.cbor, base.packed,
+					jsonFragments, cborFragments, solVersions, removedSolIds, removalVersions, oldestKnownVersion,
+					base.contentHash, version, createdAt, lastModified, expiresAt);
+		}
+		final byte[] json = joinJson(jsonFragments, solVersions, Long.MIN_VALUE);
+		final ByteArrayOutputStream gzipBuffer = new ByteArrayOutputStream(json.length / 4);
+		compress(json, new GZIPOutputStream(gzipBuffer));
+		final ByteArrayOutputStream deflateBuffer = new ByteArrayOutputStream(json.length / 4);
+		compress(json, new DeflaterOutputStream(deflateBuffer));
+		return new SolDataSnapshot(sols, json, gzipBuffer.toByteArray(), deflateBuffer.toByteArray(),
+				joinCbor(cborFragments, solVersions, Long.MIN_VALUE), pack(sols, solVersions, Long.MIN_VALUE),
+				jsonFragments, cborFragments, solVersions, removedSolIds, removalVersions, oldestKnownVersion,
+				hash(json), version, createdAt, lastModified, expiresAt);
+	}
+
+	/**
+	 * Joins the JSON fragments of the Sols changed after the given version into a JSON array.
+	 */
+	private static byte[] joinJson(byte[][] fragments, long[] solVersions, long since) {
+		int count = 0;
+		int length = 2;
+		for (int i = 0; i < fragments.length; i++) {
+			if (solVersions[i] > since) {
+				length += fragments[i].length;
+				count++;
+			}
+		}
+		final byte[] joined = new byte[length + Math.max(0, count - 1)];
+		int position = 0;
+		joined[position++] = '[';
+		for (int i = 0; i < fragments.length; i++) {
+			if (solVersions[i] > since) {
+				if (position > 1) {
+					joined[position++] = ',';
+				}
+				System.arraycopy(fragments[i], 0, joined, position, fragments[i].length);
+				position += fragments[i].length;
+			}
+		}
+		joined[position] = ']';
+		return joined;
+	}
+
+	/**
+	 * Joins the CBOR fragments of the Sols changed after the given version into a CBOR array.
+	 */
+	private static byte[] joinCbor(byte[][] fragments, long[] solVersions, long since) {
+		int length = 2;
+		for (int i = 0; i < fragments.length; i++) {
+			if (solVersions[i] > since) {
+				length += fragments[i].length;
+			}
+		}
+		final byte[] joined = new byte[length];
+		int position = 0;
+		joined[position++] = CBOR_ARRAY_START;
+		for (int i = 0; i < fragments.length; i++) {
+			if (solVersions[i] > since) {
+				System.arraycopy(fragments[i], 0, joined, position, fragments[i].length);
+				position += fragments[i].length;
+			}
+		}
+		joined[position] = CBOR_BREAK;
+		return joined;
+	}
+
+	/**
+	 * Packs the Sols changed after the given version.
+	 */
+	private static byte[] pack(SolData[] sols, long[] solVersions, long since) {
+		int count = 0;
+		for (long solVersion : solVersions) {
+			if (solVersion > since) {
+				count++;
+			}
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(count * PACKED_SOL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < sols.length; i++) {
+			if (solVersions[i] > since) {
+				buffer.putInt(sols[i].getSolId());
+				buffer.putFloat(sols[i].getAveragetemperature());
+				buffer.putFloat(sols[i].getMinimumTemperature());
+				buffer.putFloat(sols[i].getMaximumTemperature());
+			}
+		}
+		return buffer.array();
+	}
+
+	private static void compress(byte[] data, OutputStream compressor) throws IOException {
+		try (OutputStream stream = compressor) {
+			stream.write(data);
+		}
+	}
+
+	private static String hash(byte[] data) {
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform implementation is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		// Half of the digest is plenty to tell snapshots apart
+		final char[] hex = new char[digest.length];
+		for (int i = 0; i < digest.length / 2; i++) {
+			hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+			hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xF];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Gets the Sol data held by this snapshot. The returned array is shared by every caller
+	 * and must not be modified.
+	 *
+	 * @return the Sol data array
+	 */
+	public SolData[] getSols() {
+		return sols;
+	}
+
+	/**
+	 * Gets the JSON encoding of the Sol data held by this snapshot. The returned array is shared
+	 * by every caller and must not be modified.
+	 *
+	 * @return the UTF-8 encoded JSON array
+	 */
+	public byte[] getJson() {
+		return json;
+	}
+
+	/**
+	 * Gets the gzip compressed JSON encoding of the Sol data. The returned array is shared by every
+	 * caller and must not be modified.
+	 *
+	 * @return the gzip compressed JSON array
+	 */
+	public byte[] getGzipJson() {
+		return gzipJson;
+	}
+
+	/**
+	 * Gets the deflate (zlib) compressed JSON encoding of the Sol data. The returned array is shared
+	 * by every caller and must not be modified.
+	 *
+	 * @return the deflate compressed JSON array
+	 */
+	public byte[] getDeflateJson() {
+		return deflateJson;
+	}
+
+	/**
+	 * Gets the CBOR encoding of the Sol data, an array of maps keyed like the JSON objects. The
+	 * returned array is shared by every caller and must not be modified.
+	 *
+	 * @return the CBOR encoded array
+	 */
+	public byte[] getCbor() {
+		return cbor;
+	}
+
+	/**
+	 * Gets the packed encoding of the Sol data: one {@value #PACKED_SOL_SIZE} bytes record per Sol,
+	 * sorted by Sol number, with no header. The returned array is shared by every caller and must
+	 * not be modified.
+	 *
+	 * @return the packed Sol records
+	 */
+	public byte[] getPacked() {
+		return packed;
+	}
+
+	/**
+	 * Gets the Sols added or revised after the given version.
+	 *
+	 * @param since a version of an earlier snapshot
+	 *
+	 * @return the changed Sols, sorted by Sol number. Every Sol if the given version is older than
+	 *         the ones known by this snapshot.
+	 */
+	public SolData[] getSolsSince(long since) {
+		final List<SolData> changed = new ArrayList<SolData>();
+		for (int i = 0; i < sols.length; i++) {
+			if (solVersions[i] > since) {
+				changed.add(sols[i]);
+			}
+		}
+		return changed.toArray(new SolData[0]);
+	}
+
+	/**
+	 * Gets the numbers of the Sols removed after the given version, that is, the Sols held by the
+	 * snapshot of that version, or added since, and no longer held by this one.
+	 *
+	 * @param since a version of an earlier snapshot, no older than the {@linkplain
+	 *        #knowsChangesSince(long) oldest known one}
+	 *
+	 * @return the removed Sol numbers, sorted
+	 */
+	public int[] getRemovedSince(long since) {
+		int count = 0;
+		for (long removalVersion : removalVersions) {
+			if (removalVersion > since) {
+				count++;
+			}
+		}
+		final int[] removed = new int[count];
+		count = 0;
+		for (int i = 0; i < removedSolIds.length; i++) {
+			if (removalVersions[i] > since) {
+				removed[count++] = removedSolIds[i];
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Tells whether every change after the given version is known, so the changed Sols and the
+	 * {@linkplain #getRemovedSince(long) removed ones} turn the snapshot of that version into this
+	 * one. Changes are known back to the first snapshot built without a previous one, such as a
+	 * snapshot restored after a restart. Clients holding an older version must replace their data
+	 * with the whole array instead.
+	 *
+	 * @param since a version of an earlier snapshot
+	 *
+	 * @return true if the changes since that version are known
+	 */
+	public boolean knowsChangesSince(long since) {
+		return since >= oldestKnownVersion;
+	}
+
+	/**
+	 * Gets the JSON encoding of the Sols added or revised after the given version, assembled from
+	 * the encodings of each Sol. Sols no longer held by this snapshot are reported by
+	 * {@link #getRemovedSince(long)}.
+	 *
+	 * @param since a version of an earlier snapshot
+	 *
+	 * @return the UTF-8 encoded JSON array of the changed Sols, sorted by Sol number
+	 */
+	public byte[] getJsonSince(long since) {
+		return joinJson(jsonFragments, solVersions, since);
+	}
+
+	/**
+	 * Gets the CBOR encoding of the Sols added or revised after the given version.
+	 *
+	 * @param since a version of an earlier snapshot
+	 *
+	 * @return the CBOR encoded array of the changed Sols, sorted by Sol number
+	 *
+	 * @see #getJsonSince(long)
+	 */
+	public byte[] getCborSince(long since) {
+		return joinCbor(cborFragments, solVersions, since);
+	}
+
+	/**
+	 * Gets the packed encoding of the Sols added or revised after the given version.
+	 *
+	 * @param since a version of an earlier snapshot
+	 *
+	 * @return the packed records of the changed Sols, sorted by Sol number
+	 *
+	 * @see #getJsonSince(long)
+	 */
+	public byte[] getPackedSince(long since) {
+		return pack(sols, solVersions, since);
+	}
+
+	/**
+	 * Gets a digest of the JSON encoding. Snapshots with the same content have the same hash.
+	 *
+	 * @return the hex encoded content hash
+	 */
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * Gets the version of the snapshot content. Snapshots with the same content have the same
+	 * version, and a snapshot replacing one with a different content has a greater version.
+	 *
+	 * @return the content version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	/**
+	 * Gets the time in which the snapshot content last changed. This is the creation time of the
+	 * oldest consecutive snapshot holding the same content.
+	 *
+	 * @return the last modification time, in milliseconds since the epoch
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Gets the time after which a refresh may bring newer data.
+	 *
+	 * @return the expiration time, in milliseconds since the epoch
+	 */
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	/**
+	 * Gets the snapshot age.
+	 *
+	 * @param now current time in milliseconds since the epoch
+	 *
+	 * @return the elapsed time, in milliseconds, since the snapshot data was obtained
+	 */
+	public long getAge(long now) {
+		return now - createdAt;
+	}
+}
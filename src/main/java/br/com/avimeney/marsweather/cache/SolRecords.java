@@ -0,0 +1,112 @@
+package br.com.avimeney.marsweather.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Fixed width binary records holding every attribute of a Sol, used wherever the Sol data must
+ * be written and read back as is: the snapshot files and the snapshots shared between replicas.
+ * Unlike the packed records of {@link SolDataSnapshot#getPacked()}, which hold the temperatures
+ * only, these records keep the sample count, the pressure, the wind speed and the wind direction
+ * rose. Each record is laid out as:
+ *
+ * <ul>
+ *   <li>the Sol number, as an int;
+ *   <li>a flags int, whose lowest bit tells whether the wind direction rose is available;
+ *   <li>the average, minimum and maximum temperatures, as floats;
+ *   <li>the sample count, as an int;
+ *   <li>the average, minimum and maximum pressure and wind speed, as floats;
+ *   <li>the wind samples of each of the {@value SolData#COMPASS_POINTS} compass points, as ints.
+ * </ul>
+ *
+ * <p>Byte order is the one of the buffer the records are written to or read from.
+ *
+ * @author avimeney
+ */
+
+public final class SolRecords {
+
+	/**
+	 * Size, in bytes, of a record.
+	 */
+	public static final int RECORD_SIZE = 4 * (12 + SolData.COMPASS_POINTS);
+
+	private static final int WIND_DIRECTIONS_FLAG = 1;
+
+	private SolRecords() {
+	}
+
+	/**
+	 * Writes a Sol record at the buffer position.
+	 *
+	 * @param buffer the buffer, with at least {@value #RECORD_SIZE} bytes remaining
+	 * @param sol the Sol to be written
+	 */
+	public static void write(ByteBuffer buffer, SolData sol) {
+		final int[] windDirections = sol.getWindDirectionCounts();
+		buffer.putInt(sol.getSolId());
+		buffer.putInt(windDirections != null ? WIND_DIRECTIONS_FLAG : 0);
+		buffer.putFloat(sol.getAveragetemperature());
+		buffer.putFloat(sol.getMinimumTemperature());
+		buffer.putFloat(sol.getMaximumTemperature());
+		buffer.putInt(sol.getSampleCount());
+		buffer.putFloat(sol.getAveragePressure());
+		buffer.putFloat(sol.getMinimumPressure());
+		buffer.putFloat(sol.getMaximumPressure());
+		buffer.putFloat(sol.getAverageWindSpeed());
+		buffer.putFloat(sol.getMinimumWindSpeed());
+		buffer.putFloat(sol.getMaximumWindSpeed());
+		for (int point = 0; point < SolData.COMPASS_POINTS; point++) {
+			buffer.putInt(windDirections != null ? windDirections[point] : 0);
+		}
+	}
+
+	/**
+	 * Reads the Sol record at the buffer position.
+	 *
+	 * @param buffer the buffer, with at least {@value #RECORD_SIZE} bytes remaining
+	 *
+	 * @return the Sol
+	 */
+	public static SolData read(ByteBuffer buffer) {
+		final int solId = buffer.getInt();
+		final int flags = buffer.getInt();
+		final SolData sol = new SolData(solId, buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getInt());
+		sol.setPressure(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+		sol.setWindSpeed(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+		final int[] windDirections = new int[SolData.COMPASS_POINTS];
+		for (int point = 0; point < SolData.COMPASS_POINTS; point++) {
+			windDirections[point] = buffer.getInt();
+		}
+		if ((flags & WIND_DIRECTIONS_FLAG) != 0) {
+			sol.setWindDirectionCounts(windDirections);
+		}
+		return sol;
+	}
+
+	/**
+	 * Tells whether two Sols hold the same values, that is, whether they would be written as the
+	 * same record.
+	 *
+	 * @param s1 a Sol
+	 * @param s2 another Sol
+	 *
+	 * @return true if every attribute of both Sols is the same
+	 */
+	public static boolean sameValues(SolData s1, SolData s2) {
+		return s1.getSolId() == s2.getSolId()
+				&& Float.compare(s1.getAveragetemperature(), s2.getAveragetemperature()) == 0
+				&& Float.compare(s1.getMinimumTemperature(), s2.getMinimumTemperature()) == 0
+				&& Float.compare(s1.getMaximumTemperature(), s2.getMaximumTemperature()) == 0
+				&& s1.getSampleCount() == s2.getSampleCount()
+				&& Float.compare(s1.getAveragePressure(), s2.getAveragePressure()) == 0
+				&& Float.compare(s1.getMinimumPressure(), s2.getMinimumPressure()) == 0
+				&& Float.compare(s1.getMaximumPressure(), s2.getMaximumPressure()) == 0
+				&& Float.compare(s1.getAverageWindSpeed(), s2.getAverageWindSpeed()) == 0
+				&& Float.compare(s1.getMinimumWindSpeed(), s2.getMinimumWindSpeed()) == 0
+				&& Float.compare(s1.getMaximumWindSpeed(), s2.getMaximumWindSpeed()) == 0
+				&& Arrays.equals(s1.getWindDirectionCounts(), s2.getWindDirectionCounts());
+	}
+}
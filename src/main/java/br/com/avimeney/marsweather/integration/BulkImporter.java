@@ -0,0 +1,257 @@
+package br.com.avimeney.marsweather.integration;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import br.com.avimeney.marsweather.integration.nasa.WeatherDTO;
+import br.com.avimeney.marsweather.integration.nasa.WeatherStreamingParser;
+import br.com.avimeney.marsweather.model.SolData;
+import br.com.avimeney.marsweather.rest.ModelHelper;
+import br.com.avimeney.marsweather.store.SolArchive;
+
+/**
+ * Offline import of saved NASA's InSight API responses into the {@link SolArchive}. Every
+ * <code>.json</code> file found under a directory tree is a response.
+ *
+ * <p>Files are memory-mapped and parsed in parallel by a fork-join pool, so the parser reads the
+ * page cache directly and large archives use every core. Files are processed in batches, in path
+ * order: while a batch is parsed, the Sols improved by the previous one are stored. A Sol found in
+ * several files is stored once, keeping the version with more samples, or the one from the last
+ * file if they have as many. Sols already archived with more samples, such as the ones a server
+ * loaded from the NASA API, are kept too.
+ *
+ * <p>Malformed files are logged and skipped. The archive must not be opened by a running server
+ * during the import.
+ *
+ * @author avimeney
+ */
+
+public class BulkImporter {
+
+	/**
+	 * Outcome of an import.
+	 */
+	public static final class Result {
+		final int files;
+		final int failedFiles;
+		final long parsedSols;
+		final long storedSols;
+		final long elapsedNanos;
+
+		Result(int files, int failedFiles, long parsedSols, long storedSols, long elapsedNanos) {
+			this.files = files;
+			this.failedFiles = failedFiles;
+			this.parsedSols = parsedSols;
+			this.storedSols = storedSols;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public int getFiles() {
+			return files;
+		}
+
+		public int getFailedFiles() {
+			return failedFiles;
+		}
+
+		/**
+		 * Gets the number of Sols read from the files, including duplicates.
+		 */
+		public long getParsedSols() {
+			return parsedSols;
+		}
+
+		/**
+		 * Gets the number of Sols written into the archive. Sols archived with more samples are
+		 * left out, and Sols improved by several batches are counted once per batch.
+		 */
+		public long getStoredSols() {
+			return storedSols;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+	}
+
+	private static final Logger logger = LogManager.getLogger(BulkImporter.class);
+
+	/**
+	 * Number of files parsed sequentially by a single fork-join task.
+	 */
+	private static final int FILES_PER_TASK = 16;
+
+	private final SolArchive archive;
+
+	private final int parallelism;
+
+	private final int batchSize;
+
+	private final WeatherStreamingParser parser = new WeatherStreamingParser();
+
+	/**
+	 * @param archive the archive receiving the imported data
+	 * @param parallelism number of parsing threads. Zero or less for one per core.
+	 * @param batchSize number of files per batch
+	 */
+	public BulkImporter(SolArchive archive, int parallelism, int batchSize) {
+		this.archive = archive;
+		this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		this.batchSize = Math.max(batchSize, 1);
+	}
+
+	/**
+	 * Imports every response found under the given directory.
+	 *
+	 * @param directory root of the saved responses
+	 *
+	 * @return the import outcome
+	 *
+	 * @throws IOException if the directory could not be listed or the archive could not be written
+	 */
+	public Result importDirectory(Path directory) throws IOException {
+		final long start = System.nanoTime();
+		final List<Path> files = listFiles(directory);
+		logger.info("Importing " + files.size() + " files from " + directory + " with " + parallelism + " threads");
+		final AtomicInteger failedFiles = new AtomicInteger();
+		/*
+		 * Best version of every Sol seen so far. Only the Sols improved by a batch are stored.
+		 */
+		final Map<Integer, SolData> imported = new HashMap<Integer, SolData>();
+		long parsedSols = 0;
+		long storedSols = 0;
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			ForkJoinTask<List<SolData>> next = pool.submit(new ParseTask(files, 0, Math.min(batchSize, files.size()),
+					failedFiles));
+			for (int batchStart = 0; batchStart < files.size(); batchStart += batchSize) {
+				final List<SolData> parsed = next.join();
+				/*
+				 * The next batch is parsed while this one is stored:
+				 */
+				final int nextStart = batchStart + batchSize;
+				if (nextStart < files.size()) {
+					next = pool.submit(new ParseTask(files, nextStart, Math.min(nextStart + batchSize, files.size()),
+							failedFiles));
+				}
+				final Map<Integer, SolData> improved = new HashMap<Integer, SolData>();
+				for (SolData sol : parsed) {
+					if (IngestionPipeline.merge(imported, sol)) {
+						improved.put(sol.getSolId(), sol);
+					}
+				}
+				if (!improved.isEmpty()) {
+					storedSols += archive.merge(improved.values());
+				}
+				parsedSols += parsed.size();
+				final int processedFiles = Math.min(nextStart, files.size());
+				logger.info("Imported " + processedFiles + "/" + files.size() + " files, " + parsedSols + " Sols read, "
+						+ imported.size() + " distinct, " + rate(parsedSols, System.nanoTime() - start) + " Sols/s");
+			}
+		} finally {
+			pool.shutdown();
+		}
+		final Result result = new Result(files.size(), failedFiles.get(), parsedSols, storedSols,
+				System.nanoTime() - start);
+		logger.info("Import finished in " + TimeUnit.NANOSECONDS.toMillis(result.elapsedNanos) + " ms: "
+				+ result.files + " files (" + result.failedFiles + " failed), " + result.parsedSols + " Sols read, "
+				+ result.storedSols + " Sols stored, " + rate(result.parsedSols, result.elapsedNanos)
+				+ " Sols/s");
+		return result;
+	}
+
+	private static long rate(long count, long elapsedNanos) {
+		return elapsedNanos > 0 ? count * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+	}
+
+	/**
+	 * Lists the response files under a directory tree.
+	 *
+	 * @return the files, sorted by path
+	 */
+	private static List<Path> listFiles(Path directory) throws IOException {
+		final List<Path> files = new ArrayList<Path>();
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+				if (attributes.isRegularFile() && file.getFileName().toString().endsWith(".json")) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Parses a range of files, splitting it in halves until it is small enough. Sols are returned
+	 * in file order, so later files win ties when merged.
+	 */
+	private final class ParseTask extends RecursiveTask<List<SolData>> {
+		private static final long serialVersionUID = 1L;
+
+		final List<Path> files;
+		final int from;
+		final int to;
+		final AtomicInteger failedFiles;
+
+		ParseTask(List<Path> files, int from, int to, AtomicInteger failedFiles) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+			this.failedFiles = failedFiles;
+		}
+
+		@Override
+		protected List<SolData> compute() {
+			if (to - from > FILES_PER_TASK) {
+				final int middle = (from + to) >>> 1;
+				final ParseTask second = new ParseTask(files, middle, to, failedFiles);
+				second.fork();
+				final List<SolData> sols = new ParseTask(files, from, middle, failedFiles).compute();
+				sols.addAll(second.join());
+				return sols;
+			}
+			final ModelHelper modelHelper = new ModelHelper();
+			final List<SolData> sols = new ArrayList<SolData>();
+			for (int i = from; i < to; i++) {
+				try {
+					sols.addAll(modelHelper.convertDtoToModel(parse(files.get(i))).values());
+				} catch (IOException | RuntimeException e) {
+					failedFiles.incrementAndGet();
+					logger.warn("Skipping " + files.get(i) + ": " + e.getMessage());
+				}
+			}
+			return sols;
+		}
+	}
+
+	private Map<Integer, WeatherDTO> parse(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			return parser.parseWeatherData(buffer);
+		}
+	}
+}
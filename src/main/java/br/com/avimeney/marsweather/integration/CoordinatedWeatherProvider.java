@@ -0,0 +1,63 @@
+package br.com.avimeney.marsweather.integration;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import br.com.avimeney.marsweather.integration.nasa.WeatherDTO;
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Provider fetching the payloads of another provider through an {@link UpstreamFetchCoordinator},
+ * so that sources reading the same upstream API share its request quota and concurrency limit.
+ * Parsing and conversion are delegated as is.
+ *
+ * @param <P> type of the raw payloads
+ *
+ * @author avimeney
+ */
+
+public class CoordinatedWeatherProvider<P> implements WeatherProvider<P> {
+
+	private final WeatherProvider<P> provider;
+
+	private final UpstreamFetchCoordinator<List<P>> coordinator;
+
+	/**
+	 * Creates a provider fetching through a coordinator of its own.
+	 *
+	 * @param provider the provider accessing the upstream API
+	 * @param settings limits of the upstream API, shared with its other coordinators
+	 */
+	public CoordinatedWeatherProvider(final WeatherProvider<P> provider, UpstreamFetchCoordinator.Settings settings) {
+		this.provider = provider;
+		this.coordinator = new UpstreamFetchCoordinator<List<P>>(provider.getName(),
+				new UpstreamFetchCoordinator.Fetcher<List<P>>() {
+					@Override
+					public CompletableFuture<List<P>> fetch() {
+						return provider.fetch();
+					}
+				}, settings);
+	}
+
+	@Override
+	public String getName() {
+		return provider.getName();
+	}
+
+	@Override
+	public CompletableFuture<List<P>> fetch() {
+		return coordinator.fetch();
+	}
+
+	@Override
+	public Map<Integer, WeatherDTO> parse(P payload) throws IOException {
+		return provider.parse(payload);
+	}
+
+	@Override
+	public Map<Integer, SolData> convert(Map<Integer, WeatherDTO> dtoMap) {
+		return provider.convert(dtoMap);
+	}
+}
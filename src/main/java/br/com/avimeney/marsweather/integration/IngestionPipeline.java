@@ -0,0 +1,277 @@
+package br.com.avimeney.marsweather.integration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import br.com.avimeney.marsweather.metrics.Counter;
+import br.com.avimeney.marsweather.metrics.LatencyHistogram;
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+import br.com.avimeney.marsweather.model.SolData;
+import br.com.avimeney.marsweather.rest.MarsWeatherServiceException;
+import br.com.avimeney.marsweather.store.SolArchive;
+
+/**
+ * Runs {@link WeatherProvider}s on their own schedules and merges their data into the
+ * {@link SolArchive}, where a Sol is only replaced by a version with as many samples or more.
+ * Each source gets a scheduler thread, which fetches the payloads and stores the results, and a
+ * pool of worker threads, which parse and convert the payloads in parallel. A source ingesting a
+ * large historical archive may thus use every core without delaying the other sources.
+ *
+ * <p>Runs of the same source never overlap: the next run is scheduled once the previous one
+ * completes. Failures are logged and the source is tried again on its next run. Payloads that
+ * can't be parsed are logged and skipped, so the data of the other payloads is still stored.
+ *
+ * @author avimeney
+ */
+
+public class IngestionPipeline {
+
+	/**
+	 * A provider and its schedule.
+	 */
+	public static final class Source {
+		final WeatherProvider<?> provider;
+		final long period;
+		final int threads;
+
+		/**
+		 * @param provider the data provider
+		 * @param period delay, in milliseconds, between the end of a run and the start of the next
+		 *        one. Zero or less for a single run.
+		 * @param threads number of threads parsing the payloads. Zero or less for one per core.
+		 */
+		public Source(WeatherProvider<?> provider, long period, int threads) {
+			this.provider = provider;
+			this.period = period;
+			this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		}
+	}
+
+	private static final Logger logger = LogManager.getLogger(IngestionPipeline.class);
+
+	private final SolArchive archive;
+
+	private final List<Source> sources;
+
+	/**
+	 * @param archive the archive receiving the ingested data
+	 * @param sources the data sources
+	 */
+	public IngestionPipeline(SolArchive archive, List<Source> sources) {
+		this.archive = archive;
+		this.sources = new ArrayList<Source>(sources);
+	}
+
+	/**
+	 * Schedules the first run of every source.
+	 */
+	public void start() {
+		for (final Source source : sources) {
+			final String name = source.provider.getName();
+			final ExecutorService workers = Executors.newFixedThreadPool(source.threads, daemonThreads(name + " Worker"));
+			final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+					daemonThreads(name + " Scheduler"));
+			final SourceRun run = new SourceRun(source.provider, workers);
+			if (source.period > 0) {
+				scheduler.scheduleWithFixedDelay(run, 0, source.period, TimeUnit.MILLISECONDS);
+			} else {
+				scheduler.execute(new Runnable() {
+					@Override
+					public void run() {
+						run.run();
+						workers.shutdown();
+					}
+				});
+				scheduler.shutdown();
+			}
+			logger.info("Ingestion source " + name + " started with " + source.threads + " worker threads");
+		}
+	}
+
+	/**
+	 * A single run of a source: payloads are fetched, parsed, converted and stored.
+	 */
+	private final class SourceRun implements Runnable {
+		final WeatherProvider<?> provider;
+		final Executor workers;
+		final LatencyHistogram duration;
+		final Counter failures;
+		final Counter ingestedSols;
+
+		SourceRun(WeatherProvider<?> provider, Executor workers) {
+			this.provider = provider;
+			this.workers = workers;
+			final MetricsRegistry metrics = MetricsRegistry.getInstance();
+			duration = metrics.histogram("ingest_duration_seconds", "Duration of the ingestion runs, by source.",
+					"source", provider.getName());
+			failures = metrics.counter("ingest_failures_total", "Failed ingestion runs and skipped payloads, by source.",
+					"source", provider.getName());
+			ingestedSols = metrics.counter("ingest_sols_total", "Sols stored by the ingestion runs, by source.",
+					"source", provider.getName());
+		}
+
+		@Override
+		public void run() {
+			final long start = System.nanoTime();
+			try {
+				final Map<Integer, SolData> solDataMap = ingest(provider, workers, failures).get();
+				if (solDataMap.isEmpty()) {
+					logger.debug("No data from " + provider.getName());
+					return;
+				}
+				final int stored = archive.merge(solDataMap.values());
+				ingestedSols.add(stored);
+				logger.info(stored + " of " + solDataMap.size() + " Sols ingested from " + provider.getName() + " in "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+			} catch (ExecutionException e) {
+				failures.increment();
+				logger.warn("Ingestion from " + provider.getName() + " failed: "
+						+ UpstreamFetchCoordinator.unwrap(e).getMessage());
+			} catch (IOException e) {
+				failures.increment();
+				logger.error("Failure while archiving Sol data from " + provider.getName(), e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				// Thrown out of the run, it would cancel the next ones
+				failures.increment();
+				logger.error("Unexpected failure while ingesting Sol data from " + provider.getName(), e);
+			} finally {
+				duration.recordSince(start);
+			}
+		}
+	}
+
+	/**
+	 * Runs the stages of a provider once. Payloads are parsed and converted in parallel by the given
+	 * executor, and their data is merged by Sol number. When a Sol is found in several payloads, the
+	 * one with more samples is kept, or the last one fetched if they have as many.
+	 *
+	 * @param provider the data provider
+	 * @param executor runs the parse and convert stages
+	 *
+	 * @return a future completed with a map with Sol numbers as keys and the corresponding weather
+	 *         model objects as values, or failed with a {@link MarsWeatherServiceException} if the
+	 *         source could not be accessed or some payload could not be parsed
+	 */
+	public static <P> CompletableFuture<Map<Integer, SolData>> ingest(WeatherProvider<P> provider,
+			Executor executor) {
+		return ingest(provider, executor, null);
+	}
+
+	/**
+	 * Runs the stages of a provider once, skipping the payloads that can't be parsed.
+	 *
+	 * @param provider the data provider
+	 * @param executor runs the parse and convert stages
+	 * @param skippedPayloads counts the payloads skipped. If null, a payload that can't be parsed
+	 *        fails the whole run instead.
+	 *
+	 * @return a future completed with the data of the parsed payloads, merged by Sol number, or
+	 *         failed with a {@link MarsWeatherServiceException} if the source could not be accessed
+	 *
+	 * @see #ingest(WeatherProvider, Executor)
+	 */
+	public static <P> CompletableFuture<Map<Integer, SolData>> ingest(final WeatherProvider<P> provider,
+			final Executor executor, final Counter skippedPayloads) {
+		return provider.fetch().thenCompose(new Function<List<P>, CompletionStage<Map<Integer, SolData>>>() {
+			@Override
+			public CompletionStage<Map<Integer, SolData>> apply(List<P> payloads) {
+				final List<CompletableFuture<Map<Integer, SolData>>> parts =
+						new ArrayList<CompletableFuture<Map<Integer, SolData>>>(payloads.size());
+				for (final P payload : payloads) {
+					parts.add(CompletableFuture.supplyAsync(new Supplier<Map<Integer, SolData>>() {
+						@Override
+						public Map<Integer, SolData> get() {
+							try {
+								return provider.convert(provider.parse(payload));
+							} catch (IOException | RuntimeException e) {
+								if (skippedPayloads != null) {
+									skippedPayloads.increment();
+									logger.warn("Skipping a " + provider.getName() + " payload: " + e.getMessage());
+									return Collections.<Integer, SolData>emptyMap();
+								}
+								if (e instanceof RuntimeException) {
+									throw (RuntimeException) e;
+								}
+								logger.error("Failure while parsing " + provider.getName() + " data", e);
+								throw new CompletionException(new MarsWeatherServiceException(
+										"Failure while processing " + provider.getName() + " data."));
+							}
+						}
+					}, executor));
+				}
+				return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(
+						new Function<Void, Map<Integer, SolData>>() {
+							@Override
+							public Map<Integer, SolData> apply(Void ignored) {
+								return merge(parts);
+							}
+						});
+			}
+		});
+	}
+
+	private static Map<Integer, SolData> merge(List<CompletableFuture<Map<Integer, SolData>>> parts) {
+		if (parts.size() == 1) {
+			return parts.get(0).join();
+		}
+		final Map<Integer, SolData> merged = new HashMap<Integer, SolData>();
+		for (CompletableFuture<Map<Integer, SolData>> part : parts) {
+			for (SolData sol : part.join().values()) {
+				merge(merged, sol);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Merges a Sol into a map of Sols found in several payloads. The Sol with more samples is kept,
+	 * or the last one merged if they have as many.
+	 *
+	 * @param merged Sols merged so far, by Sol number
+	 * @param sol the Sol to be merged
+	 *
+	 * @return whether the Sol was kept
+	 */
+	static boolean merge(Map<Integer, SolData> merged, SolData sol) {
+		final SolData existing = merged.get(sol.getSolId());
+		if (existing == null || existing.getSampleCount() <= sol.getSampleCount()) {
+			merged.put(sol.getSolId(), sol);
+			return true;
+		}
+		return false;
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				final Thread thread = new Thread(runnable, name + " " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,361 @@
+package br.com.avimeney.marsweather.integration;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+import br.com.avimeney.marsweather.rest.MarsWeatherServiceException;
+
+/**
+ * Coordinates the requests to a rate limited upstream API, such as NASA's. The coordinator
+ * protects the upstream API in several ways:
+ *
+ * <ul>
+ *   <li>Request coalescing (single-flight): callers asking for data while a request is in
+ * flight join that request instead of firing a new one.
+ *   <li>Bounded concurrency: at most a fixed number of upstream requests run at a time.
+ *   <li>Rate limiting: a token bucket, refilled at the upstream quota rate, must hold a token
+ * for each upstream request. The bucket holds a few tokens only, so a restart or a burst of
+ * failures can't spend the quota of a whole hour at once.
+ *   <li>Backoff with negative caching: once a request fails, the failure is served to every
+ * caller, without contacting the upstream API, until a retry delay expires. The delay doubles
+ * on each consecutive failure, up to a maximum, and is reset by the first success.
+ * </ul>
+ *
+ * <p>Coalescing and backoff apply to the requests of a single coordinator. The concurrency limit
+ * and the token bucket belong to the {@link Settings}, so coordinators built with the same
+ * settings, such as the ones fetching different data with the same API key, share them.
+ *
+ * <p>Calls refused by any of these mechanisms fail with a {@link RejectedFetchException}.
+ * Counters for upstream attempts, successes, failures, coalesced callers and rejected calls
+ * are kept in striped counters, so reading and updating them never blocks. They are published
+ * in the {@link MetricsRegistry}, labeled with the upstream API name.
+ *
+ * @param <T> type of the data provided by the upstream API
+ *
+ * @author avimeney
+ */
+
+public class UpstreamFetchCoordinator<T> {
+
+	/**
+	 * Fires an actual request to the upstream API.
+	 *
+	 * @param <T> type of the data provided by the upstream API
+	 */
+	public interface Fetcher<T> {
+
+		/**
+		 * Starts an upstream request.
+		 *
+		 * @return a future completed with the upstream data once the request finishes
+		 */
+		CompletableFuture<T> fetch();
+	}
+
+	/**
+	 * Limits protecting the upstream API. The request quota and the concurrency limit are shared by
+	 * every coordinator built with the same settings.
+	 */
+	public static final class Settings {
+		final Semaphore permits;
+		final RateLimiter rateLimiter;
+		final long initialBackoff;
+		final long maximumBackoff;
+
+		/**
+		 * @param maxConcurrentRequests maximum number of upstream requests in flight
+		 * @param requestsPerHour upstream request quota
+		 * @param initialBackoff retry delay after a first failure, in milliseconds
+		 * @param maximumBackoff maximum retry delay, in milliseconds
+		 */
+		public Settings(int maxConcurrentRequests, int requestsPerHour, long initialBackoff, long maximumBackoff) {
+			this.permits = new Semaphore(Math.max(1, maxConcurrentRequests));
+			this.rateLimiter = new RateLimiter(requestsPerHour);
+			this.initialBackoff = initialBackoff;
+			this.maximumBackoff = Math.max(initialBackoff, maximumBackoff);
+		}
+	}
+
+	/**
+	 * Signals a call refused by the coordinator without contacting the upstream API.
+	 */
+	@SuppressWarnings("serial")
+	public static class RejectedFetchException extends MarsWeatherServiceException {
+		public RejectedFetchException(String msg) {
+			super(msg);
+		}
+	}
+
+	/**
+	 * Last failure, with the retry time computed from the number of consecutive failures.
+	 */
+	private static final class Failure {
+		final Throwable cause;
+		final int consecutiveFailures;
+		final long retryAt;
+
+		Failure(Throwable cause, int consecutiveFailures, long retryAt) {
+			this.cause = cause;
+			this.consecutiveFailures = consecutiveFailures;
+			this.retryAt = retryAt;
+		}
+	}
+
+	/**
+	 * Maximum number of upstream requests sent at once, ahead of the quota rate.
+	 */
+	private static final int MAX_BURST = 3;
+
+	/**
+	 * Token bucket refilled continuously at a fixed rate. Upstream requests are rare, so a
+	 * plain monitor is cheap enough here.
+	 */
+	private static final class RateLimiter {
+		private final double capacity;
+		private final double tokensPerNano;
+		private double tokens;
+		private long lastRefill;
+
+		RateLimiter(int requestsPerHour) {
+			capacity = Math.max(1, Math.min(MAX_BURST, requestsPerHour));
+			tokensPerNano = requestsPerHour / (double) TimeUnit.HOURS.toNanos(1);
+			tokens = capacity;
+			lastRefill = System.nanoTime();
+		}
+
+		synchronized boolean tryAcquire() {
+			final long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+			lastRefill = now;
+			if (tokens >= 1) {
+				tokens--;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static final Logger logger = LogManager.getLogger(UpstreamFetchCoordinator.class);
+
+	private final String name;
+
+	private final Fetcher<T> fetcher;
+
+	private final Semaphore permits;
+
+	private final RateLimiter rateLimiter;
+
+	private final long initialBackoff;
+
+	private final long maximumBackoff;
+
+	/**
+	 * Request currently in flight, if any. Every caller arriving meanwhile joins it.
+	 */
+	private final AtomicReference<CompletableFuture<T>> inFlight = new AtomicReference<CompletableFuture<T>>();
+
+	private volatile Failure lastFailure;
+
+	private final LongAdder attempts = new LongAdder();
+	private final LongAdder successes = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder coalescedCalls = new LongAdder();
+	private final LongAdder rejectedCalls = new LongAdder();
+
+	/**
+	 * @param name name of the upstream API, for logging purposes
+	 * @param fetcher fires the actual upstream requests
+	 * @param settings limits protecting the upstream API
+	 */
+	public UpstreamFetchCoordinator(String name, Fetcher<T> fetcher, Settings settings) {
+		this.name = name;
+		this.fetcher = fetcher;
+		this.permits = settings.permits;
+		this.rateLimiter = settings.rateLimiter;
+		this.initialBackoff = settings.initialBackoff;
+		this.maximumBackoff = settings.maximumBackoff;
+		publish("upstream_requests_total", "Requests sent to the upstream API.", attempts);
+		publish("upstream_successes_total", "Successful upstream requests.", successes);
+		publish("upstream_failures_total", "Failed upstream requests.", failures);
+		publish("upstream_coalesced_calls_total", "Calls joining an upstream request in flight.", coalescedCalls);
+		publish("upstream_rejected_calls_total", "Calls refused without contacting the upstream API.", rejectedCalls);
+	}
+
+	private void publish(String metric, String help, final LongAdder counter) {
+		MetricsRegistry.getInstance().supplier(metric, help, true, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return counter.sum();
+			}
+		}, "upstream", name);
+	}
+
+	/**
+	 * Gets data from the upstream API, joining the request in flight if there is one.
+	 *
+	 * @return a future completed with the upstream data, or failed with the upstream failure or
+	 *         a {@link RejectedFetchException}
+	 */
+	public CompletableFuture<T> fetch() {
+		while (true) {
+			final CompletableFuture<T> current = inFlight.get();
+			if (current != null) {
+				coalescedCalls.increment();
+				return current;
+			}
+			final Failure failure = lastFailure;
+			if (failure != null && System.currentTimeMillis() < failure.retryAt) {
+				return reject("backing off after " + failure.consecutiveFailures
+						+ " consecutive failures: " + failure.cause.getMessage());
+			}
+			final CompletableFuture<T> future = new CompletableFuture<T>();
+			if (inFlight.compareAndSet(null, future)) {
+				start(future);
+				return future;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the upstream API is in its backoff period, so calls would be rejected.
+	 *
+	 * @return true if the last request failed and its retry delay hasn't expired yet
+	 */
+	public boolean isBackingOff() {
+		final Failure failure = lastFailure;
+		return failure != null && System.currentTimeMillis() < failure.retryAt;
+	}
+
+	private void start(final CompletableFuture<T> future) {
+		if (!rateLimiter.tryAcquire()) {
+			inFlight.set(null);
+			future.completeExceptionally(rejection("request quota exhausted"));
+			return;
+		}
+		if (!permits.tryAcquire()) {
+			inFlight.set(null);
+			future.completeExceptionally(rejection("too many concurrent requests"));
+			return;
+		}
+		attempts.increment();
+		logger.debug("Requesting " + name);
+		CompletableFuture<T> upstream;
+		try {
+			upstream = fetcher.fetch();
+		} catch (RuntimeException e) {
+			upstream = new CompletableFuture<T>();
+			upstream.completeExceptionally(e);
+		}
+		upstream.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T result, Throwable error) {
+				permits.release();
+				error = unwrap(error);
+				if (error == null) {
+					successes.increment();
+					lastFailure = null;
+				} else {
+					failures.increment();
+					recordFailure(error);
+				}
+				/*
+				 * The request is no longer in flight before its callers are notified. Failures are
+				 * recorded before that, so new callers see the backoff period.
+				 */
+				inFlight.set(null);
+				if (error == null) {
+					future.complete(result);
+				} else {
+					future.completeExceptionally(error);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Unwraps failures reported by dependent futures, so callers see the original cause.
+	 *
+	 * @param error the failure, or null
+	 *
+	 * @return the original cause
+	 */
+	public static Throwable unwrap(Throwable error) {
+		while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+			error = error.getCause();
+		}
+		return error;
+	}
+
+	private void recordFailure(Throwable error) {
+		final Failure previous = lastFailure;
+		final int consecutiveFailures = previous == null ? 1 : previous.consecutiveFailures + 1;
+		// Doubling the delay on each consecutive failure, without overflowing
+		final long backoff = consecutiveFailures > 30 ? maximumBackoff
+				: Math.min(maximumBackoff, initialBackoff << (consecutiveFailures - 1));
+		lastFailure = new Failure(error, consecutiveFailures, System.currentTimeMillis() + backoff);
+		logger.warn(name + " request failed " + consecutiveFailures + " consecutive times. Retrying in "
+				+ backoff / 1000 + " seconds.");
+	}
+
+	private CompletableFuture<T> reject(String reason) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		future.completeExceptionally(rejection(reason));
+		return future;
+	}
+
+	private RejectedFetchException rejection(String reason) {
+		rejectedCalls.increment();
+		return new RejectedFetchException(name + " request rejected: " + reason);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of requests actually sent upstream.
+	 *
+	 * @return the attempt count
+	 */
+	public long getAttempts() {
+		return attempts.sum();
+	}
+
+	public long getSuccesses() {
+		return successes.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * Gets the number of calls that joined a request already in flight.
+	 *
+	 * @return the coalesced call count
+	 */
+	public long getCoalescedCalls() {
+		return coalescedCalls.sum();
+	}
+
+	/**
+	 * Gets the number of calls refused because of the backoff period, the request quota or the
+	 * concurrency limit.
+	 *
+	 * @return the rejected call count
+	 */
+	public long getRejectedCalls() {
+		return rejectedCalls.sum();
+	}
+}
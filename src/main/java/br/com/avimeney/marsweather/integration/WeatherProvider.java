@@ -0,0 +1,66 @@
+package br.com.avimeney.marsweather.integration;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import br.com.avimeney.marsweather.integration.nasa.WeatherDTO;
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Source of Sol weather data, such as a version of the NASA's InSight API or a directory of
+ * recorded InSight payloads. Data goes through three stages:
+ *
+ * <ol>
+ *   <li>Fetch: raw payloads are obtained from the source. This stage must not block the caller.
+ *   <li>Parse: each payload is transformed into DTOs.
+ *   <li>Convert: DTOs are transformed into model objects.
+ * </ol>
+ *
+ * <p>Payloads are independent from each other, so the {@link IngestionPipeline} may parse and
+ * convert them in parallel. Implementations must therefore be thread-safe.
+ *
+ * @param <P> type of the raw payloads
+ *
+ * @author avimeney
+ */
+
+public interface WeatherProvider<P> {
+
+	/**
+	 * Gets the source name, for logging and metrics purposes.
+	 *
+	 * @return the source name
+	 */
+	String getName();
+
+	/**
+	 * Starts fetching the raw payloads available at the source.
+	 *
+	 * @return a future completed with the payloads, or failed with a
+	 *         {@link br.com.avimeney.marsweather.rest.MarsWeatherServiceException} if the source
+	 *         could not be accessed
+	 */
+	CompletableFuture<List<P>> fetch();
+
+	/**
+	 * Parses a raw payload.
+	 *
+	 * @param payload the payload
+	 *
+	 * @return a map with Sol numbers as keys and DTO weather objects as values
+	 *
+	 * @throws IOException if the payload could not be read or is malformed
+	 */
+	Map<Integer, WeatherDTO> parse(P payload) throws IOException;
+
+	/**
+	 * Converts the DTOs obtained from a payload into model objects.
+	 *
+	 * @param dtoMap a map with Sol numbers as keys and DTO weather objects as values
+	 *
+	 * @return a map with Sol numbers as keys and the corresponding weather model objects as values
+	 */
+	Map<Integer, SolData> convert(Map<Integer, WeatherDTO> dtoMap);
+}
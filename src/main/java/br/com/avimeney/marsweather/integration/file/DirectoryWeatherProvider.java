@@ -0,0 +1,104 @@
+package br.com.avimeney.marsweather.integration.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import br.com.avimeney.marsweather.integration.WeatherProvider;
+import br.com.avimeney.marsweather.integration.nasa.WeatherDTO;
+import br.com.avimeney.marsweather.integration.nasa.WeatherStreamingParser;
+import br.com.avimeney.marsweather.model.SolData;
+import br.com.avimeney.marsweather.rest.MarsWeatherServiceException;
+import br.com.avimeney.marsweather.rest.ModelHelper;
+
+/**
+ * Provider for a local directory of NASA's InSight API responses, such as a historical archive.
+ * Every <code>.json</code> file in the directory is a payload, so large archives are parsed in
+ * parallel, one file per task. Files are fetched in name order and every run reads all of them.
+ *
+ * @author avimeney
+ */
+
+public class DirectoryWeatherProvider implements WeatherProvider<Path> {
+
+	private static final Logger logger = LogManager.getLogger(DirectoryWeatherProvider.class);
+
+	private final String name;
+
+	private final Path directory;
+
+	private final WeatherStreamingParser parser = new WeatherStreamingParser();
+
+	/**
+	 * @param name the source name
+	 * @param directory the directory holding the InSight API responses
+	 */
+	public DirectoryWeatherProvider(String name, Path directory) {
+		this.name = name;
+		this.directory = directory;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Lists the response files found in the directory, sorted by name. Listing a directory is
+	 * quick, so it's done by the calling thread.
+	 */
+	@Override
+	public CompletableFuture<List<Path>> fetch() {
+		final CompletableFuture<List<Path>> result = new CompletableFuture<List<Path>>();
+		try {
+			result.complete(listFiles());
+		} catch (IOException e) {
+			logger.error("Failure while listing " + directory, e);
+			result.completeExceptionally(new MarsWeatherServiceException("Failure while listing " + directory));
+		}
+		return result;
+	}
+
+	/**
+	 * Lists the response files found in the directory.
+	 *
+	 * @return the files, sorted by name
+	 *
+	 * @throws IOException if the directory could not be read
+	 */
+	protected List<Path> listFiles() throws IOException {
+		final List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	@Override
+	public Map<Integer, WeatherDTO> parse(Path file) throws IOException {
+		try (InputStream jsonStream = Files.newInputStream(file)) {
+			return parser.parseWeatherData(jsonStream);
+		} catch (IOException e) {
+			throw new IOException("Failure while parsing " + file, e);
+		}
+	}
+
+	@Override
+	public Map<Integer, SolData> convert(Map<Integer, WeatherDTO> dtoMap) {
+		final ModelHelper modelHelper = new ModelHelper();
+		return modelHelper.convertDtoToModel(dtoMap);
+	}
+}
@@ -0,0 +1,60 @@
+package br.com.avimeney.marsweather.integration.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import br.com.avimeney.marsweather.rest.MarsWeatherServiceException;
+
+/**
+ * Provider replaying a directory of recorded NASA's InSight API responses, one response per fetch,
+ * in file name order. Scheduled periodically, it reproduces how the API data evolved over time,
+ * which is handy for testing and load generation. Once every response has been replayed, fetches
+ * return no payload.
+ *
+ * @author avimeney
+ */
+
+public class ReplayWeatherProvider extends DirectoryWeatherProvider {
+
+	private static final Logger logger = LogManager.getLogger(ReplayWeatherProvider.class);
+
+	/**
+	 * Position of the next response to be replayed.
+	 */
+	private final AtomicInteger position = new AtomicInteger();
+
+	/**
+	 * @param name the source name
+	 * @param directory the directory holding the recorded responses
+	 */
+	public ReplayWeatherProvider(String name, Path directory) {
+		super(name, directory);
+	}
+
+	@Override
+	public CompletableFuture<List<Path>> fetch() {
+		final CompletableFuture<List<Path>> result = new CompletableFuture<List<Path>>();
+		try {
+			final List<Path> files = listFiles();
+			final int next = position.getAndIncrement();
+			if (next < files.size()) {
+				logger.debug("Replaying " + files.get(next));
+				result.complete(Collections.singletonList(files.get(next)));
+			} else {
+				result.complete(Collections.<Path>emptyList());
+			}
+		} catch (IOException e) {
+			logger.error("Failure while listing the " + getName() + " responses", e);
+			result.completeExceptionally(new MarsWeatherServiceException("Failure while listing the "
+					+ getName() + " responses"));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,88 @@
+package br.com.avimeney.marsweather.integration.nasa;
+
+import java.util.Random;
+
+/**
+ * Generator of synthetic NASA InSight REST API (version 1.0) payloads, served by the
+ * {@link InSightStandIn} and used by the benchmarks.
+ * Besides the temperature data, the generated Sols carry the pressure, wind speed and wind
+ * direction attributes found in the real API, so parsers have to skip them as they would
+ * in production.
+ *
+ * @author avimeney
+ */
+
+public final class InSightPayloads {
+
+	/**
+	 * First Sol number of the generated payloads, close to the real InSight mission numbers.
+	 */
+	public static final int FIRST_SOL = 400;
+
+	private static final String[] COMPASS_POINTS = {"N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE",
+			"S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"};
+
+	private InSightPayloads() {
+	}
+
+	/**
+	 * Generates a payload. The same arguments always produce the same payload.
+	 *
+	 * @param solCount number of Sols in the payload
+	 * @param seed seed for the generated measurements
+	 *
+	 * @return the JSON payload
+	 */
+	public static String generate(int solCount, long seed) {
+		final Random random = new Random(seed);
+		final StringBuilder json = new StringBuilder(solCount * 1600);
+		json.append('{');
+		for (int sol = FIRST_SOL; sol < FIRST_SOL + solCount; sol++) {
+			final float min = -100 - random.nextInt(2000) / 100f;
+			final float max = -20 + random.nextInt(2000) / 100f;
+			json.append('"').append(sol).append("\":{");
+			appendSensor(json, "AT", (min + max) / 2, 150000 + random.nextInt(30000), min, max).append(',');
+			json.append("\"First_UTC\":\"2020-02-20T14:23:11Z\",");
+			appendSensor(json, "HWS", 5 + random.nextFloat(), 80000 + random.nextInt(10000), 0.2f, 20 + random.nextFloat()).append(',');
+			json.append("\"Last_UTC\":\"2020-02-21T15:02:46Z\",");
+			appendSensor(json, "PRE", 630 + random.nextFloat(), 120000 + random.nextInt(10000), 600, 650).append(',');
+			json.append("\"Season\":\"winter\",\"WD\":{");
+			for (int point = 0; point < COMPASS_POINTS.length; point++) {
+				appendWindDirection(json, Integer.toString(point), point, random.nextInt(5000)).append(',');
+			}
+			appendWindDirection(json, "most_common", random.nextInt(COMPASS_POINTS.length), 5000);
+			json.append("}},");
+		}
+		json.append("\"sol_keys\":[");
+		for (int sol = FIRST_SOL; sol < FIRST_SOL + solCount; sol++) {
+			if (sol > FIRST_SOL) {
+				json.append(',');
+			}
+			json.append('"').append(sol).append('"');
+		}
+		json.append("],\"validity_checks\":{");
+		for (int sol = FIRST_SOL; sol < FIRST_SOL + solCount; sol++) {
+			json.append('"').append(sol).append("\":{\"AT\":{\"sol_hours_with_data\":[0,1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,23],\"valid\":true}},");
+		}
+		json.append("\"sol_hours_required\":18,\"sols_checked\":[]}}");
+		return json.toString();
+	}
+
+	private static StringBuilder appendSensor(StringBuilder json, String name, float av, int ct, float mn, float mx) {
+		return json.append('"').append(name).append("\":{\"av\":").append(av
+				).append(",\"ct\":").append(ct
+				).append(",\"mn\":").append(mn
+				).append(",\"mx\":").append(mx
+				).append('}');
+	}
+
+	private static StringBuilder appendWindDirection(StringBuilder json, String name, int point, int ct) {
+		final double degrees = point * 22.5;
+		return json.append('"').append(name).append("\":{\"compass_degrees\":").append(degrees
+				).append(",\"compass_point\":\"").append(COMPASS_POINTS[point]
+				).append("\",\"compass_right\":").append(Math.sin(Math.toRadians(degrees))
+				).append(",\"compass_up\":").append(Math.cos(Math.toRadians(degrees))
+				).append(",\"ct\":").append(ct
+				).append('}');
+	}
+}
@@ -0,0 +1,215 @@
+package br.com.avimeney.marsweather.integration.nasa;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+
+/**
+ * Local stand-in for the NASA's InSight API, meant for load testing the server without
+ * reaching api.nasa.gov. The stand-in answers every request with an InSight payload, whatever
+ * its query parameters: either the recorded responses found in a directory, served in file name
+ * order and round robin, or a synthetic payload of a given number of Sols generated by
+ * {@link InSightPayloads}. Payloads are read or generated once, at startup.
+ *
+ * <p>Responses may be delayed by a fixed latency plus a random jitter, and a share of the
+ * requests may be answered with an error status instead of a payload. Delayed responses are
+ * suspended, rather than slept on, so any number of requests may be waiting at once.
+ *
+ * @author avimeney
+ */
+
+public class InSightStandIn {
+
+	private static final Logger logger = LogManager.getLogger(InSightStandIn.class);
+
+	/**
+	 * Seed of the synthetic payload, so every run serves the same data.
+	 */
+	private static final long PAYLOAD_SEED = 42;
+
+	/**
+	 * Behavior of the stand-in.
+	 */
+	public static final class Settings {
+		final Path directory;
+		final int solCount;
+		final long latency;
+		final long jitter;
+		final int errorRate;
+		final int errorStatus;
+
+		/**
+		 * @param directory directory of the recorded responses, or null for a synthetic payload
+		 * @param solCount number of Sols of the synthetic payload
+		 * @param latency minimum delay, in milliseconds, before each response
+		 * @param jitter maximum random delay, in milliseconds, added to the latency
+		 * @param errorRate percentage of the requests answered with the error status
+		 * @param errorStatus HTTP status of the failed requests
+		 */
+		public Settings(Path directory, int solCount, long latency, long jitter, int errorRate, int errorStatus) {
+			this.directory = directory;
+			this.solCount = solCount;
+			this.latency = latency;
+			this.jitter = jitter;
+			this.errorRate = errorRate;
+			this.errorStatus = errorStatus;
+		}
+	}
+
+	private final URI uri;
+
+	private final Settings settings;
+
+	private final List<byte[]> payloads;
+
+	/**
+	 * Position of the next recorded response to be served.
+	 */
+	private final AtomicInteger position = new AtomicInteger();
+
+	/**
+	 * Resumes the delayed responses.
+	 */
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "InSight Stand-in Scheduler");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private HttpServer server;
+
+	/**
+	 * Builds the stand-in, reading or generating its payloads.
+	 *
+	 * @param uri the URI the stand-in is served at, such as <code>http://localhost:8090/insight_weather/</code>
+	 * @param settings the stand-in behavior
+	 *
+	 * @throws IOException if the recorded responses could not be read
+	 */
+	public InSightStandIn(URI uri, Settings settings) throws IOException {
+		this.uri = uri;
+		this.settings = settings;
+		if (settings.directory != null) {
+			payloads = readPayloads(settings.directory);
+			if (payloads.isEmpty()) {
+				throw new IOException("No recorded responses found at " + settings.directory);
+			}
+		} else {
+			payloads = Collections.singletonList(
+					InSightPayloads.generate(settings.solCount, PAYLOAD_SEED).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static List<byte[]> readPayloads(Path directory) throws IOException {
+		final List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		Collections.sort(files);
+		final List<byte[]> payloads = new ArrayList<byte[]>(files.size());
+		for (Path file : files) {
+			payloads.add(Files.readAllBytes(file));
+		}
+		return payloads;
+	}
+
+	/**
+	 * Starts serving requests.
+	 *
+	 * @throws IOException if the server could not be bound to its URI
+	 */
+	public void start() throws IOException {
+		server = new HttpServer();
+		final NetworkListener listener = new NetworkListener("insight-stand-in", uri.getHost(), uri.getPort());
+		/*
+		 * Grizzly threads are daemons by default. The selector threads are not, so they keep the
+		 * JVM running while the stand-in serves requests:
+		 */
+		final TCPNIOTransport transport = listener.getTransport();
+		transport.setKernelThreadPoolConfig(ThreadPoolConfig.defaultConfig()
+				.setPoolName("InSight Stand-in Selector")
+				.setCorePoolSize(transport.getSelectorRunnersCount())
+				.setMaxPoolSize(transport.getSelectorRunnersCount())
+				.setDaemon(false));
+		server.addListener(listener);
+		server.getServerConfiguration().addHttpHandler(new HttpHandler() {
+			@Override
+			public void service(Request request, final Response response) throws Exception {
+				final long delay = settings.latency
+						+ (settings.jitter > 0 ? ThreadLocalRandom.current().nextLong(settings.jitter + 1) : 0);
+				final boolean failure = settings.errorRate > 0
+						&& ThreadLocalRandom.current().nextInt(100) < settings.errorRate;
+				if (delay <= 0) {
+					respond(response, failure);
+					return;
+				}
+				response.suspend();
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							respond(response, failure);
+						} catch (IOException e) {
+							logger.debug("Stand-in client gone away");
+						} finally {
+							response.resume();
+						}
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			}
+		}, uri.getPath());
+		server.start();
+		logger.info("InSight stand-in available at " + uri + ", serving " + (settings.directory != null
+				? payloads.size() + " recorded responses from " + settings.directory
+				: "a synthetic payload of " + settings.solCount + " Sols"));
+	}
+
+	private void respond(Response response, boolean failure) throws IOException {
+		if (failure) {
+			response.setStatus(settings.errorStatus);
+			return;
+		}
+		final byte[] payload = payloads.size() == 1 ? payloads.get(0)
+				: payloads.get(Math.floorMod(position.getAndIncrement(), payloads.size()));
+		response.setContentType("application/json");
+		response.setContentLength(payload.length);
+		response.getOutputStream().write(payload);
+	}
+
+	/**
+	 * Stops serving requests.
+	 */
+	public void stop() {
+		if (server != null) {
+			server.shutdownNow();
+		}
+		scheduler.shutdownNow();
+	}
+}
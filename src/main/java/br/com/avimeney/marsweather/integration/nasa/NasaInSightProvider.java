@@ -0,0 +1,169 @@
+package br.com.avimeney.marsweather.integration.nasa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.Response;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import br.com.avimeney.marsweather.integration.WeatherProvider;
+import br.com.avimeney.marsweather.metrics.LatencyHistogram;
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+import br.com.avimeney.marsweather.model.SolData;
+import br.com.avimeney.marsweather.rest.MarsWeatherServiceException;
+import br.com.avimeney.marsweather.rest.ModelHelper;
+
+/**
+ * Provider for a version of the NASA's InSight REST API. Each fetch fires a single asynchronous
+ * HTTP request, whose response is the only payload. The payload is read by the
+ * {@link WeatherStreamingParser}, or by the legacy {@link WeatherJsonParser} if so configured.
+ *
+ * @author avimeney
+ */
+
+public class NasaInSightProvider implements WeatherProvider<Response> {
+
+	private static final Logger logger = LogManager.getLogger(NasaInSightProvider.class);
+
+	private static final int HTTP_STATUS_SUCCESS = 200;
+
+	private final String name;
+
+	private final String version;
+
+	/**
+	 * Pre-built HTTP request for NASA's REST API.
+	 */
+	private final Builder request;
+
+	/**
+	 * Whether responses are parsed by the legacy {@link WeatherJsonParser} instead of
+	 * the {@link WeatherStreamingParser}.
+	 */
+	private final boolean treeParserEnabled;
+
+	private final WeatherStreamingParser streamingParser = new WeatherStreamingParser();
+
+	private final LatencyHistogram requestLatency;
+
+	private final LatencyHistogram parseLatency;
+
+	/**
+	 * @param name the source name
+	 * @param client HTTP client, shared by every provider
+	 * @param uri the API URI
+	 * @param key the API key
+	 * @param version the API version
+	 * @param treeParserEnabled whether responses are parsed by the legacy tree parser
+	 */
+	public NasaInSightProvider(String name, Client client, String uri, String key, String version,
+			boolean treeParserEnabled) {
+		this.name = name;
+		this.version = version;
+		this.treeParserEnabled = treeParserEnabled;
+		/*
+		 * Building a request object that will be reused on every NASA' API access.
+		 */
+		request = client.target(uri
+				).queryParam("api_key", key
+				).queryParam("feedtype", "json"
+				).queryParam("ver", version
+				).request();
+		requestLatency = MetricsRegistry.getInstance().histogram("nasa_request_duration_seconds",
+				"Time to the NASA API response headers, by API version.", "version", version);
+		parseLatency = MetricsRegistry.getInstance().histogram("nasa_parse_duration_seconds",
+				"Time spent reading and parsing NASA API responses, by parser.", "parser",
+				treeParserEnabled ? "tree" : "streaming");
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Requests the last weather measurements from the NASA's API. The request is sent asynchronously.
+	 * Responses with a status other than success are reported as failures.
+	 */
+	@Override
+	public CompletableFuture<List<Response>> fetch() {
+		logger.debug("Accessing NASA server");
+		final CompletableFuture<List<Response>> result = new CompletableFuture<List<Response>>();
+		final long start = System.nanoTime();
+		/*
+		 * Fires HTTP request to NASA's API:
+		 */
+		request.async().get(new InvocationCallback<Response>() {
+			@Override
+			public void completed(Response response) {
+				requestLatency.recordSince(start);
+				countResponse(Integer.toString(response.getStatus()));
+				if (response.getStatus() == HTTP_STATUS_SUCCESS) {
+					logger.debug("Successfull HTTP request");
+					result.complete(Collections.singletonList(response));
+				} else {
+					logger.error("HTTP request failure");
+					response.close();
+					result.completeExceptionally(new MarsWeatherServiceException("NASA access failure. Status: "
+							+response.getStatus()+" - "
+							+response.getStatusInfo()));
+				}
+			}
+
+			@Override
+			public void failed(Throwable error) {
+				requestLatency.recordSince(start);
+				countResponse("error");
+				logger.error("HTTP request failure", error);
+				result.completeExceptionally(new MarsWeatherServiceException("NASA access failure: "+error.getMessage()));
+			}
+		});
+		return result;
+	}
+
+	private void countResponse(String status) {
+		MetricsRegistry.getInstance().counter("nasa_responses_total",
+				"NASA API responses by API version and status code. Requests failing without a response count as error.",
+				"version", version, "status", status).increment();
+	}
+
+	@Override
+	public Map<Integer, WeatherDTO> parse(Response response) throws IOException {
+		final long start = System.nanoTime();
+		try {
+			final Map<Integer, WeatherDTO> dtoMap;
+			if (treeParserEnabled) {
+				final String jsonString = response.readEntity(String.class);
+				final WeatherJsonParser parser = new WeatherJsonParser();
+				dtoMap = parser.parseWeatherData(jsonString);
+			} else {
+				// The payload is parsed while being read, without being buffered as a String
+				try (InputStream jsonStream = response.readEntity(InputStream.class)) {
+					dtoMap = streamingParser.parseWeatherData(jsonStream);
+				}
+			}
+			parseLatency.recordSince(start);
+			return dtoMap;
+		} catch (ProcessingException e) {
+			throw new IOException("Failure while reading the NASA response", e);
+		} finally {
+			response.close();
+		}
+	}
+
+	@Override
+	public Map<Integer, SolData> convert(Map<Integer, WeatherDTO> dtoMap) {
+		final ModelHelper modelHelper = new ModelHelper();
+		return modelHelper.convertDtoToModel(dtoMap);
+	}
+}
@@ -0,0 +1,13 @@
+package br.com.avimeney.marsweather.integration.nasa;
+
+public class SensorDTO {
+	public float av;
+	public int ct;
+	public float mn;
+	public float mx;
+	
+	@Override
+	public String toString() {
+		return "SensorData [av=" + av + ", ct=" + ct + ", mn=" + mn + ", mx=" + mx + "]";
+	}
+}
@@ -1,10 +1,6 @@
 package br.com.avimeney.marsweather.integration.nasa;
 
-public class TemperatureDTO {
-	public float av;
-	public int ct;
-	public float mn;
-	public float mx;
+public class TemperatureDTO extends SensorDTO {
 	
 	@Override
 	public String toString() {
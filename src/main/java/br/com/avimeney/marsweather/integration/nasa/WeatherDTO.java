@@ -1,12 +1,21 @@
 package br.com.avimeney.marsweather.integration.nasa;
 
+import java.util.Map;
+
 public class WeatherDTO {
 
 	public TemperatureDTO AT;
+	public SensorDTO HWS;
+	public SensorDTO PRE;
+	/*
+	 * Wind direction rose, keyed by compass point number (0 for N to 15 for NNW). The most
+	 * common direction is repeated under the most_common key.
+	 */
+	public Map<String, WindPointDTO> WD;
 	public int solId;
 
 	@Override
 	public String toString() {
-		return "WeatherData [AT=" + AT + "]";
+		return "WeatherData [AT=" + AT + ", HWS=" + HWS + ", PRE=" + PRE + ", WD=" + WD + "]";
 	}
 }
@@ -0,0 +1,306 @@
+package br.com.avimeney.marsweather.integration.nasa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Single pass parser for NASA's InSight REST API JSON, version 1.0, built on Jackson's
+ * streaming API. Unlike {@link WeatherJsonParser}, no intermediate tree is built: the
+ * payload is read token by token, the sensor fields (temperature <code>AT</code>, pressure
+ * <code>PRE</code>, horizontal wind speed <code>HWS</code> and wind direction <code>WD</code>)
+ * are copied straight into the DTOs and every other attribute is skipped.
+ *
+ * <p>Instances are thread-safe and may be shared.
+ *
+ * @author avimeney
+ *
+ * @see WeatherDTO
+ */
+
+public class WeatherStreamingParser {
+
+	private static final String SOL_KEYS_FIELD = "sol_keys";
+	private static final String TEMPERATURE_FIELD = "AT";
+	private static final String PRESSURE_FIELD = "PRE";
+	private static final String WIND_SPEED_FIELD = "HWS";
+	private static final String WIND_DIRECTION_FIELD = "WD";
+
+	/**
+	 * Factories are thread-safe and expensive to build, so a single one is shared. Input streams
+	 * belong to the caller and must not be closed by the parser.
+	 */
+	private static final JsonFactory jsonFactory = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+	/**
+	 * Transforms NASA's JSON from NASA InSight REST API into Java DTO objects, reading it
+	 * directly from the given stream. The stream is not closed.
+	 *
+	 * @param jsonStream JSON stream from NASA InSight REST API version 1.0
+	 *
+	 * @return map where the Sol number is used as key to the corresponding weather data
+	 *
+	 * @throws IOException if the parsing fails
+	 */
+	public Map<Integer, WeatherDTO> parseWeatherData(final InputStream jsonStream) throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(jsonStream)) {
+			return parseWeatherData(parser);
+		}
+	}
+
+	/**
+	 * Transforms NASA's JSON string from NASA InSight REST API into Java DTO objects.
+	 *
+	 * @param jsonString JSON String from NASA InSight REST API version 1.0
+	 *
+	 * @return map where the Sol number is used as key to the corresponding weather data
+	 *
+	 * @throws IOException if the parsing fails
+	 */
+	public Map<Integer, WeatherDTO> parseWeatherData(final String jsonString) throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(jsonString)) {
+			return parseWeatherData(parser);
+		}
+	}
+
+	/**
+	 * Transforms NASA's JSON from NASA InSight REST API into Java DTO objects, reading the remaining
+	 * bytes of the given buffer, such as a memory-mapped file. The buffer position is not changed.
+	 *
+	 * @param jsonBuffer UTF-8 JSON from NASA InSight REST API version 1.0
+	 *
+	 * @return map where the Sol number is used as key to the corresponding weather data
+	 *
+	 * @throws IOException if the parsing fails
+	 */
+	public Map<Integer, WeatherDTO> parseWeatherData(final ByteBuffer jsonBuffer) throws IOException {
+		if (jsonBuffer.hasArray()) {
+			try (JsonParser parser = jsonFactory.createParser(jsonBuffer.array(),
+					jsonBuffer.arrayOffset() + jsonBuffer.position(), jsonBuffer.remaining())) {
+				return parseWeatherData(parser);
+			}
+		}
+		try (JsonParser parser = jsonFactory.createParser(new ByteBufferInputStream(jsonBuffer.duplicate()))) {
+			return parseWeatherData(parser);
+		}
+	}
+
+	private Map<Integer, WeatherDTO> parseWeatherData(final JsonParser parser) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new JsonParseException("JSON object expected", parser.getCurrentLocation());
+		}
+		// Sol number as key and Sol weather data as value
+		final Map<Integer, WeatherDTO> weatherMap = new HashMap<Integer, WeatherDTO>();
+		Set<Integer> solKeys = null;
+		/*
+		 * The first level of NASA's JSON contains Sol numbers as well as other different properties acting
+		 * as JSON keys. Sol objects usually come before the sol_keys array, so every first level object keyed
+		 * by a number is parsed and the ones not listed by sol_keys are discarded at the end.
+		 */
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String fieldName = parser.getCurrentName();
+			final JsonToken token = parser.nextToken();
+			if (token == JsonToken.START_OBJECT && isSolNumber(fieldName)) {
+				final WeatherDTO weatherData = parseSol(parser);
+				weatherData.solId = Integer.parseInt(fieldName);
+				weatherMap.put(weatherData.solId, weatherData);
+			} else if (token == JsonToken.START_ARRAY && SOL_KEYS_FIELD.equals(fieldName)) {
+				solKeys = parseSolKeys(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		if (solKeys == null) {
+			throw new JsonParseException("Missing " + SOL_KEYS_FIELD + " attribute", parser.getCurrentLocation());
+		}
+		weatherMap.keySet().retainAll(solKeys);
+		return weatherMap;
+	}
+
+	/**
+	 * Parses a Sol object. The parser must be positioned at the object start.
+	 */
+	private WeatherDTO parseSol(final JsonParser parser) throws IOException {
+		final WeatherDTO weatherData = new WeatherDTO();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String fieldName = parser.getCurrentName();
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				parser.skipChildren();
+				continue;
+			}
+			switch (fieldName) {
+			case TEMPERATURE_FIELD:
+				weatherData.AT = parseSensor(parser, new TemperatureDTO());
+				break;
+			case PRESSURE_FIELD:
+				weatherData.PRE = parseSensor(parser, new SensorDTO());
+				break;
+			case WIND_SPEED_FIELD:
+				weatherData.HWS = parseSensor(parser, new SensorDTO());
+				break;
+			case WIND_DIRECTION_FIELD:
+				weatherData.WD = parseWindDirections(parser);
+				break;
+			default:
+				parser.skipChildren();
+				break;
+			}
+		}
+		return weatherData;
+	}
+
+	/**
+	 * Parses a sensor summary object. The parser must be positioned at the object start.
+	 */
+	private <T extends SensorDTO> T parseSensor(final JsonParser parser, final T sensor) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String fieldName = parser.getCurrentName();
+			final JsonToken token = parser.nextToken();
+			if (!token.isNumeric()) {
+				parser.skipChildren();
+				continue;
+			}
+			switch (fieldName) {
+			case "av":
+				sensor.av = parser.getFloatValue();
+				break;
+			case "ct":
+				sensor.ct = parser.getIntValue();
+				break;
+			case "mn":
+				sensor.mn = parser.getFloatValue();
+				break;
+			case "mx":
+				sensor.mx = parser.getFloatValue();
+				break;
+			default:
+				break;
+			}
+		}
+		return sensor;
+	}
+
+	/**
+	 * Parses the wind direction rose. The parser must be positioned at the object start.
+	 */
+	private Map<String, WindPointDTO> parseWindDirections(final JsonParser parser) throws IOException {
+		final Map<String, WindPointDTO> windDirections = new HashMap<String, WindPointDTO>();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String key = parser.getCurrentName();
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				parser.skipChildren();
+				continue;
+			}
+			final WindPointDTO point = new WindPointDTO();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String fieldName = parser.getCurrentName();
+				final JsonToken token = parser.nextToken();
+				if (token == JsonToken.VALUE_STRING && "compass_point".equals(fieldName)) {
+					point.compass_point = parser.getText();
+					continue;
+				}
+				if (!token.isNumeric()) {
+					parser.skipChildren();
+					continue;
+				}
+				switch (fieldName) {
+				case "compass_degrees":
+					point.compass_degrees = parser.getFloatValue();
+					break;
+				case "compass_right":
+					point.compass_right = parser.getFloatValue();
+					break;
+				case "compass_up":
+					point.compass_up = parser.getFloatValue();
+					break;
+				case "ct":
+					point.ct = parser.getIntValue();
+					break;
+				default:
+					break;
+				}
+			}
+			windDirections.put(key, point);
+		}
+		return windDirections;
+	}
+
+	/**
+	 * Parses the sol_keys array. The parser must be positioned at the array start.
+	 */
+	private Set<Integer> parseSolKeys(final JsonParser parser) throws IOException {
+		final Set<Integer> solKeys = new HashSet<Integer>();
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (token == null) {
+				throw new JsonParseException("Unexpected end of " + SOL_KEYS_FIELD + " array", parser.getCurrentLocation());
+			}
+			if (token == JsonToken.VALUE_STRING) {
+				final String solKey = parser.getText();
+				if (isSolNumber(solKey)) {
+					solKeys.add(Integer.parseInt(solKey));
+				}
+			} else if (token == JsonToken.VALUE_NUMBER_INT) {
+				solKeys.add(parser.getIntValue());
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return solKeys;
+	}
+
+	private static boolean isSolNumber(final String value) {
+		final int length = value.length();
+		if (length == 0 || length > 9) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a direct buffer in bulk, so Jackson copies mapped file pages straight into its own
+	 * input buffer.
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package br.com.avimeney.marsweather.integration.nasa;
+
+public class WindPointDTO {
+	public float compass_degrees;
+	public String compass_point;
+	public float compass_right;
+	public float compass_up;
+	public int ct;
+	
+	@Override
+	public String toString() {
+		return "WindPointData [compass_point=" + compass_point + ", compass_degrees=" + compass_degrees + ", ct=" + ct + "]";
+	}
+}
@@ -0,0 +1,34 @@
+package br.com.avimeney.marsweather.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Striped counter. Also used for values going up and down, such as the number of requests in
+ * flight, when registered as a gauge.
+ *
+ * @author avimeney
+ */
+
+public final class Counter {
+
+	private final LongAdder value = new LongAdder();
+
+	Counter() {
+	}
+
+	public void increment() {
+		value.increment();
+	}
+
+	public void decrement() {
+		value.decrement();
+	}
+
+	public void add(long amount) {
+		value.add(amount);
+	}
+
+	public long get() {
+		return value.sum();
+	}
+}
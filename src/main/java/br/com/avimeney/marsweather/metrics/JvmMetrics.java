@@ -0,0 +1,51 @@
+package br.com.avimeney.marsweather.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.function.LongSupplier;
+
+/**
+ * Java virtual machine metrics: garbage collections and heap usage. Values are read from the
+ * platform management beans when metrics are exported, so they cost nothing in between.
+ *
+ * @author avimeney
+ */
+
+public final class JvmMetrics {
+
+	private JvmMetrics() {
+	}
+
+	/**
+	 * Registers the virtual machine metrics. Collectors are labelled by name, as in
+	 * <code>G1 Young Generation</code>.
+	 */
+	public static void register() {
+		final MetricsRegistry registry = MetricsRegistry.getInstance();
+		for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			registry.supplier("jvm_gc_collections_total", "Garbage collections, by collector.", true,
+					new LongSupplier() {
+						@Override
+						public long getAsLong() {
+							return Math.max(0, collector.getCollectionCount());
+						}
+					}, "gc", collector.getName());
+			registry.supplier("jvm_gc_collection_milliseconds_total",
+					"Time spent in garbage collections, in milliseconds, by collector.", true,
+					new LongSupplier() {
+						@Override
+						public long getAsLong() {
+							return Math.max(0, collector.getCollectionTime());
+						}
+					}, "gc", collector.getName());
+		}
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		registry.supplier("jvm_memory_heap_used_bytes", "Heap memory in use.", false, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return memory.getHeapMemoryUsage().getUsed();
+			}
+		});
+	}
+}
@@ -0,0 +1,117 @@
+package br.com.avimeney.marsweather.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with log-linear buckets, in the spirit of HdrHistogram: every power of two
+ * between {@value #FIRST_BOUND_MICROS} microseconds and about a minute is split in
+ * {@value #SUB_BUCKETS} linear sub-buckets, so the relative error of any recorded value is
+ * bounded, no matter its magnitude. Faster values fall into the first bucket and slower ones
+ * into an overflow bucket.
+ *
+ * <p>Each bucket is a striped {@link LongAdder}, so recording never blocks and never contends
+ * on a single memory location. Readers get a weakly consistent view, which is fine for metrics.
+ *
+ * @author avimeney
+ */
+
+public final class LatencyHistogram {
+
+	private static final int FIRST_OCTAVE = 4;
+	private static final long FIRST_BOUND_MICROS = 1L << FIRST_OCTAVE;
+	private static final int LAST_OCTAVE = 26;
+	private static final int SUB_BUCKETS = 2;
+
+	/**
+	 * Inclusive upper bounds, in microseconds, of every bucket but the overflow one.
+	 */
+	private static final long[] UPPER_BOUNDS;
+
+	static {
+		UPPER_BOUNDS = new long[1 + (LAST_OCTAVE - FIRST_OCTAVE) * SUB_BUCKETS];
+		UPPER_BOUNDS[0] = FIRST_BOUND_MICROS;
+		int i = 1;
+		for (int octave = FIRST_OCTAVE; octave < LAST_OCTAVE; octave++) {
+			final long octaveStart = 1L << octave;
+			for (int sub = 1; sub <= SUB_BUCKETS; sub++) {
+				UPPER_BOUNDS[i++] = octaveStart + octaveStart * sub / SUB_BUCKETS;
+			}
+		}
+	}
+
+	private final LongAdder[] buckets = new LongAdder[UPPER_BOUNDS.length + 1];
+
+	private final LongAdder sumNanos = new LongAdder();
+
+	LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Records an elapsed time.
+	 *
+	 * @param nanos the elapsed time, in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets[bucketOf(nanos / 1000)].increment();
+		sumNanos.add(nanos);
+	}
+
+	/**
+	 * Records the time elapsed since a start time obtained from {@link System#nanoTime()}.
+	 *
+	 * @param startNanos the start time
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	private static int bucketOf(long micros) {
+		if (micros <= FIRST_BOUND_MICROS) {
+			return 0;
+		}
+		// The value lies in (2^octave, 2^(octave + 1)]
+		final int octave = 63 - Long.numberOfLeadingZeros(micros - 1);
+		if (octave >= LAST_OCTAVE) {
+			return UPPER_BOUNDS.length;
+		}
+		final long offset = micros - 1 - (1L << octave);
+		final int sub = (int) (offset * SUB_BUCKETS >> octave);
+		return 1 + (octave - FIRST_OCTAVE) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Gets the number of bounded buckets. The overflow bucket is not included.
+	 *
+	 * @return the bucket count
+	 */
+	static int getBucketCount() {
+		return UPPER_BOUNDS.length;
+	}
+
+	static long getUpperBoundMicros(int bucket) {
+		return UPPER_BOUNDS[bucket];
+	}
+
+	/**
+	 * Gets the number of values recorded in each bucket, the overflow one being the last.
+	 *
+	 * @return the bucket counts
+	 */
+	long[] getCounts() {
+		final long[] counts = new long[buckets.length];
+		for (int i = 0; i < buckets.length; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return counts;
+	}
+
+	long getSumNanos() {
+		return sumNanos.sum();
+	}
+}
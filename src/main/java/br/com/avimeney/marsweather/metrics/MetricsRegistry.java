@@ -0,0 +1,199 @@
+package br.com.avimeney.marsweather.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the server metrics, exposed in the Prometheus text format. Metrics are grouped in
+ * families sharing a name, each metric of a family being told apart by its labels.
+ *
+ * <p>Registration is meant to happen once: callers keep the returned {@link Counter} or
+ * {@link LatencyHistogram}, so the hot paths only touch striped counters. Registering the same
+ * name and labels twice returns the metric registered first.
+ *
+ * @author avimeney
+ */
+
+public final class MetricsRegistry {
+
+	private static final MetricsRegistry instance = new MetricsRegistry();
+
+	private static final String PREFIX = "marsweather_";
+
+	private enum Type {
+		COUNTER, GAUGE, HISTOGRAM
+	}
+
+	/**
+	 * Metrics sharing a name, sorted by labels so the output is stable.
+	 */
+	private static final class Family {
+		final String name;
+		final String help;
+		final Type type;
+		final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<String, Object>();
+
+		Family(String name, String help, Type type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+	}
+
+	private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+
+	private MetricsRegistry() {
+	}
+
+	public static MetricsRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Registers a counter.
+	 *
+	 * @param name the metric name, without the server prefix. Counter names should end with <code>_total</code>.
+	 * @param help a description of the metric
+	 * @param labels label names and values, alternately
+	 *
+	 * @return the counter
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return (Counter) register(name, help, Type.COUNTER, labels, new Counter());
+	}
+
+	/**
+	 * Registers a gauge holding a value that goes up and down, such as the number of requests in flight.
+	 *
+	 * @param name the metric name, without the server prefix
+	 * @param help a description of the metric
+	 * @param labels label names and values, alternately
+	 *
+	 * @return the counter backing the gauge
+	 */
+	public Counter gauge(String name, String help, String... labels) {
+		return (Counter) register(name, help, Type.GAUGE, labels, new Counter());
+	}
+
+	/**
+	 * Registers a metric whose value is read from elsewhere when metrics are exported, such as
+	 * the counters kept by other components.
+	 *
+	 * @param name the metric name, without the server prefix
+	 * @param help a description of the metric
+	 * @param counter whether the metric is a counter, rather than a gauge
+	 * @param value supplies the metric value
+	 * @param labels label names and values, alternately
+	 */
+	public void supplier(String name, String help, boolean counter, LongSupplier value, String... labels) {
+		register(name, help, counter ? Type.COUNTER : Type.GAUGE, labels, value);
+	}
+
+	/**
+	 * Registers a latency histogram. Latencies are exported in seconds.
+	 *
+	 * @param name the metric name, without the server prefix. Should end with <code>_seconds</code>.
+	 * @param help a description of the metric
+	 * @param labels label names and values, alternately
+	 *
+	 * @return the histogram
+	 */
+	public LatencyHistogram histogram(String name, String help, String... labels) {
+		return (LatencyHistogram) register(name, help, Type.HISTOGRAM, labels, new LatencyHistogram());
+	}
+
+	private Object register(String name, String help, Type type, String[] labels, Object metric) {
+		Family family = families.get(name);
+		if (family == null) {
+			final Family newFamily = new Family(PREFIX + name, help, type);
+			family = families.putIfAbsent(name, newFamily);
+			if (family == null) {
+				family = newFamily;
+			}
+		}
+		if (family.type != type) {
+			throw new IllegalArgumentException("Metric " + name + " already registered as " + family.type);
+		}
+		final Object existing = family.metrics.putIfAbsent(formatLabels(labels), metric);
+		return existing != null ? existing : metric;
+	}
+
+	private static String formatLabels(String[] labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be name and value pairs");
+		}
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			builder.append(i == 0 ? "" : ",").append(labels[i]).append("=\"");
+			final String value = labels[i + 1];
+			for (int j = 0; j < value.length(); j++) {
+				final char c = value.charAt(j);
+				if (c == '\\' || c == '"') {
+					builder.append('\\').append(c);
+				} else if (c == '\n') {
+					builder.append("\\n");
+				} else {
+					builder.append(c);
+				}
+			}
+			builder.append('"');
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Writes every registered metric in the Prometheus text exposition format, version 0.0.4.
+	 *
+	 * @param out destination of the metrics
+	 *
+	 * @throws IOException if the metrics could not be written
+	 */
+	public void write(Appendable out) throws IOException {
+		for (Family family : families.values()) {
+			out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+			for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+				final String labels = entry.getKey();
+				final Object metric = entry.getValue();
+				if (metric instanceof LatencyHistogram) {
+					writeHistogram(out, family.name, labels, (LatencyHistogram) metric);
+				} else {
+					final long value = metric instanceof Counter ? ((Counter) metric).get()
+							: ((LongSupplier) metric).getAsLong();
+					writeSample(out, family.name, labels, null, Long.toString(value));
+				}
+			}
+		}
+	}
+
+	private static void writeHistogram(Appendable out, String name, String labels, LatencyHistogram histogram)
+			throws IOException {
+		final long[] counts = histogram.getCounts();
+		long cumulative = 0;
+		for (int i = 0; i < LatencyHistogram.getBucketCount(); i++) {
+			cumulative += counts[i];
+			writeSample(out, name + "_bucket", labels,
+					"le=\"" + LatencyHistogram.getUpperBoundMicros(i) / 1e6 + "\"", Long.toString(cumulative));
+		}
+		cumulative += counts[counts.length - 1];
+		writeSample(out, name + "_bucket", labels, "le=\"+Inf\"", Long.toString(cumulative));
+		writeSample(out, name + "_sum", labels, null, Double.toString(histogram.getSumNanos() / 1e9));
+		writeSample(out, name + "_count", labels, null, Long.toString(cumulative));
+	}
+
+	private static void writeSample(Appendable out, String name, String labels, String extraLabel, String value)
+			throws IOException {
+		out.append(name);
+		if (!labels.isEmpty() || extraLabel != null) {
+			out.append('{').append(labels);
+			if (extraLabel != null) {
+				out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+			}
+			out.append('}');
+		}
+		out.append(' ').append(value).append('\n');
+	}
+}
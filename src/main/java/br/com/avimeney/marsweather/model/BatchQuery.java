@@ -0,0 +1,40 @@
+package br.com.avimeney.marsweather.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A query of a batch request. The query is written as the path of the equivalent request,
+ * relative to the weather service, along with its query string, as in
+ * <code>sols?from=431&amp;fields=avg,pre</code>.
+ *
+ * @author avimeney
+ */
+
+public class BatchQuery {
+
+	/**
+	 * Identifies the query result in the batch response. Chosen by the client.
+	 */
+	@JsonProperty("id")
+	private String id;
+
+	@JsonProperty("path")
+	private String path;
+
+	public BatchQuery() {
+	}
+
+	public BatchQuery(String id, String path) {
+		super();
+		this.id = id;
+		this.path = path;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getPath() {
+		return path;
+	}
+}
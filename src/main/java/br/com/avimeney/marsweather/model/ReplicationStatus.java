@@ -0,0 +1,38 @@
+package br.com.avimeney.marsweather.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Replication state of a server: its role and the version of the snapshot it serves.
+ *
+ * @author avimeney
+ */
+
+public class ReplicationStatus {
+
+	@JsonProperty("leader")
+	private boolean leader;
+
+	/**
+	 * Version of the served snapshot, or zero if none.
+	 */
+	@JsonProperty("version")
+	private long version;
+
+	public ReplicationStatus() {
+	}
+
+	public ReplicationStatus(boolean leader, long version) {
+		super();
+		this.leader = leader;
+		this.version = version;
+	}
+
+	public boolean isLeader() {
+		return leader;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+}
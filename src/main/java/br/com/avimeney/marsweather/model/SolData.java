@@ -1,5 +1,6 @@
 package br.com.avimeney.marsweather.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -26,6 +27,43 @@ public class SolData {
 	@JsonProperty("max")
 	private float maximumTemperature;
 	
+	/*
+	 * Number of temperature samples taken on this Sol. Kept for archiving purposes only.
+	 */
+	@JsonIgnore
+	private int sampleCount;
+	
+	/*
+	 * Atmospheric pressure (Pa) and horizontal wind speed (m/s) measured on this Sol, NaN when
+	 * unavailable, and number of wind samples blowing from each compass point. Kept for archiving
+	 * purposes only: they're served by the archive queries, not by the Sol list.
+	 */
+	@JsonIgnore
+	private float averagePressure = Float.NaN;
+	
+	@JsonIgnore
+	private float minimumPressure = Float.NaN;
+	
+	@JsonIgnore
+	private float maximumPressure = Float.NaN;
+	
+	@JsonIgnore
+	private float averageWindSpeed = Float.NaN;
+	
+	@JsonIgnore
+	private float minimumWindSpeed = Float.NaN;
+	
+	@JsonIgnore
+	private float maximumWindSpeed = Float.NaN;
+	
+	@JsonIgnore
+	private int[] windDirectionCounts;
+	
+	/**
+	 * Number of compass points of the wind direction rose, from N (0) to NNW (15).
+	 */
+	public static final int COMPASS_POINTS = 16;
+	
 	public SolData() {
 	}
 	
@@ -36,6 +74,11 @@ public class SolData {
 		this.minimumTemperature = minimumTemperature;
 		this.maximumTemperature = maximumTemperature;
 	}
+	
+	public SolData(int solId, float averagetemperature, float minimumTemperature, float maximumTemperature, int sampleCount) {
+		this(solId, averagetemperature, minimumTemperature, maximumTemperature);
+		this.sampleCount = sampleCount;
+	}
 
 	public int getSolId() {
 		return solId;
@@ -52,4 +95,61 @@ public class SolData {
 	public float getMaximumTemperature() {
 		return maximumTemperature;
 	}
+	
+	public int getSampleCount() {
+		return sampleCount;
+	}
+	
+	public void setPressure(float averagePressure, float minimumPressure, float maximumPressure) {
+		this.averagePressure = averagePressure;
+		this.minimumPressure = minimumPressure;
+		this.maximumPressure = maximumPressure;
+	}
+	
+	public float getAveragePressure() {
+		return averagePressure;
+	}
+	
+	public float getMinimumPressure() {
+		return minimumPressure;
+	}
+	
+	public float getMaximumPressure() {
+		return maximumPressure;
+	}
+	
+	public void setWindSpeed(float averageWindSpeed, float minimumWindSpeed, float maximumWindSpeed) {
+		this.averageWindSpeed = averageWindSpeed;
+		this.minimumWindSpeed = minimumWindSpeed;
+		this.maximumWindSpeed = maximumWindSpeed;
+	}
+	
+	public float getAverageWindSpeed() {
+		return averageWindSpeed;
+	}
+	
+	public float getMinimumWindSpeed() {
+		return minimumWindSpeed;
+	}
+	
+	public float getMaximumWindSpeed() {
+		return maximumWindSpeed;
+	}
+	
+	/**
+	 * @param windDirectionCounts number of wind samples per compass point, {@value #COMPASS_POINTS}
+	 *        of them, or null if unavailable
+	 */
+	public void setWindDirectionCounts(int[] windDirectionCounts) {
+		this.windDirectionCounts = windDirectionCounts;
+	}
+	
+	/**
+	 * Gets the number of wind samples per compass point.
+	 * 
+	 * @return the counts, indexed by compass point, or null if unavailable
+	 */
+	public int[] getWindDirectionCounts() {
+		return windDirectionCounts;
+	}
 }
@@ -0,0 +1,39 @@
+package br.com.avimeney.marsweather.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Moving average of the daily average temperatures, ending at a specific Sol. 
+ *  
+ * @author avimeney
+ */
+
+public class SolMovingAverage {
+	
+	/*
+	 * Field names are annotated to guarantee compact property names in the generated JSON
+	 */
+	
+	@JsonProperty("id")
+	private int solId;
+	
+	@JsonProperty("avg")
+	private float averageTemperature;
+	
+	public SolMovingAverage() {
+	}
+	
+	public SolMovingAverage(int solId, float averageTemperature) {
+		super();
+		this.solId = solId;
+		this.averageTemperature = averageTemperature;
+	}
+
+	public int getSolId() {
+		return solId;
+	}
+
+	public float getAverageTemperature() {
+		return averageTemperature;
+	}
+}
@@ -0,0 +1,73 @@
+package br.com.avimeney.marsweather.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Aggregated temperature data for a range of Sols. 
+ *  
+ * @author avimeney
+ */
+
+public class TemperatureAggregate {
+	
+	/*
+	 * Field names are annotated to guarantee compact property names in the generated JSON.
+	 * Temperatures are null when there is no Sol data in the range.
+	 */
+	
+	@JsonProperty("from")
+	private int firstSolId;
+	
+	@JsonProperty("to")
+	private int lastSolId;
+	
+	@JsonProperty("count")
+	private int solCount;
+	
+	@JsonProperty("avg")
+	private Float averageTemperature;
+	
+	@JsonProperty("min")
+	private Float minimumTemperature;
+	
+	@JsonProperty("max")
+	private Float maximumTemperature;
+	
+	public TemperatureAggregate() {
+	}
+	
+	public TemperatureAggregate(int firstSolId, int lastSolId, int solCount, Float averageTemperature,
+			Float minimumTemperature, Float maximumTemperature) {
+		super();
+		this.firstSolId = firstSolId;
+		this.lastSolId = lastSolId;
+		this.solCount = solCount;
+		this.averageTemperature = averageTemperature;
+		this.minimumTemperature = minimumTemperature;
+		this.maximumTemperature = maximumTemperature;
+	}
+
+	public int getFirstSolId() {
+		return firstSolId;
+	}
+
+	public int getLastSolId() {
+		return lastSolId;
+	}
+
+	public int getSolCount() {
+		return solCount;
+	}
+
+	public Float getAverageTemperature() {
+		return averageTemperature;
+	}
+
+	public Float getMinimumTemperature() {
+		return minimumTemperature;
+	}
+
+	public Float getMaximumTemperature() {
+		return maximumTemperature;
+	}
+}
@@ -0,0 +1,353 @@
+package br.com.avimeney.marsweather.replication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.jersey.client.ClientProperties;
+
+import br.com.avimeney.marsweather.cache.SolDataCache;
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+
+/**
+ * Replica sharing its snapshots with its peers over HTTP, through the <code>replication</code>
+ * resource every replica exposes.
+ *
+ * <p>Replicas are listed in the same order by every one of them, and the leader is the first
+ * listed replica answering its status requests: on every heartbeat, a replica checks the ones
+ * listed before itself, and leads if none of them answers. A replica coming back takes the
+ * leadership back from the ones listed after it.
+ *
+ * <p>Followers long poll the leader for the changes to the snapshot they hold: a request is
+ * answered as soon as the leader holds a different snapshot, or with <code>204 No Content</code>
+ * once the poll times out, and followers send the next request right away. Answers are
+ * {@link SnapshotDelta}s based on the follower snapshot version, which the leader keeps for its
+ * last {@value #HISTORY_SIZE} snapshots. Followers holding an older version are sent the whole
+ * snapshot.
+ *
+ * @author avimeney
+ */
+
+public class HttpReplication extends ReplicationNode {
+
+	private static final Logger logger = LogManager.getLogger(HttpReplication.class);
+
+	/**
+	 * Number of snapshots the deltas sent to the followers may be based on.
+	 */
+	private static final int HISTORY_SIZE = 16;
+
+	/**
+	 * Maximum time, in milliseconds, a follower poll is held.
+	 */
+	private static final long MAX_POLL_TIMEOUT = 60000;
+
+	/**
+	 * A follower poll held by the leader.
+	 */
+	private static final class Poll {
+		final AsyncResponse response;
+		final long version;
+		final long createdAt;
+
+		Poll(AsyncResponse response, long version, long createdAt) {
+			this.response = response;
+			this.version = version;
+			this.createdAt = createdAt;
+		}
+	}
+
+	private final Client client;
+
+	/**
+	 * Base URIs of every replica, in the election order.
+	 */
+	private final List<String> peers;
+
+	/**
+	 * Position of this replica in the election order.
+	 */
+	private final int rank;
+
+	private final String authorization;
+
+	/**
+	 * Time, in milliseconds, the polls sent by this replica may be held by the leader.
+	 */
+	private final long pollTimeout;
+
+	/**
+	 * Base URI of the leader, as of the last election.
+	 */
+	private volatile String leaderUri;
+
+	/**
+	 * Whether a poll sent by this replica is in flight.
+	 */
+	private final AtomicBoolean polling = new AtomicBoolean();
+
+	/**
+	 * Last snapshots published while leading, by version. Guarded by itself.
+	 */
+	private final Map<Long, SolDataSnapshot> history = new LinkedHashMap<Long, SolDataSnapshot>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, SolDataSnapshot> eldest) {
+			return size() > HISTORY_SIZE;
+		}
+	};
+
+	private final Queue<Poll> polls = new ConcurrentLinkedQueue<Poll>();
+
+	/**
+	 * @param cache the cache whose snapshots are shared
+	 * @param heartbeatPeriod time, in milliseconds, between heartbeats. Status requests time out after it.
+	 * @param client HTTP client for the requests to the other replicas
+	 * @param peers base URIs of every replica, this one included, in the election order
+	 * @param self base URI of this replica. If not listed, this replica is ranked last.
+	 * @param token API authentication token sent to the other replicas
+	 * @param pollTimeout time, in milliseconds, the polls sent by this replica may be held by the leader
+	 */
+	public HttpReplication(SolDataCache cache, long heartbeatPeriod, Client client, List<String> peers, String self,
+			String token, long pollTimeout) {
+		super(cache, heartbeatPeriod);
+		this.client = client;
+		this.peers = new ArrayList<String>(peers);
+		final int position = this.peers.indexOf(self);
+		if (position < 0) {
+			logger.warn("Replica " + self + " not listed among its peers. Ranked last.");
+			this.peers.add(self);
+		}
+		this.rank = this.peers.indexOf(self);
+		this.authorization = "Bearer " + token;
+		this.pollTimeout = Math.min(pollTimeout, MAX_POLL_TIMEOUT);
+	}
+
+	/**
+	 * Elects the first replica answering its status requests. Only replicas that can't be reached
+	 * are passed over: a replica answering with an error status is still running, and is elected.
+	 */
+	@Override
+	protected boolean electLeader() {
+		for (int i = 0; i < rank; i++) {
+			if (isAlive(peers.get(i))) {
+				leaderUri = peers.get(i);
+				return false;
+			}
+		}
+		leaderUri = peers.get(rank);
+		return true;
+	}
+
+	private boolean isAlive(String peer) {
+		try {
+			final Response response = client.target(peer).path("replication/status")
+					.request(MediaType.APPLICATION_JSON)
+					.header("Authorization", authorization)
+					.property(ClientProperties.CONNECT_TIMEOUT, (int) heartbeatPeriod)
+					.property(ClientProperties.READ_TIMEOUT, (int) heartbeatPeriod)
+					.get();
+			response.close();
+			if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+				logger.warn("Replication status request to " + peer + " answered with status " + response.getStatus());
+			}
+			return true;
+		} catch (ProcessingException e) {
+			return false;
+		}
+	}
+
+	@Override
+	protected String describeLeader() {
+		return leaderUri;
+	}
+
+	/**
+	 * Sends a poll to the leader, unless one is already in flight. The answer is installed by the
+	 * replication thread, which sends the next poll right away.
+	 */
+	@Override
+	protected void follow() {
+		final String leader = leaderUri;
+		if (leader == null || isLeader() || !polling.compareAndSet(false, true)) {
+			return;
+		}
+		final SolDataSnapshot current = cache.getCurrentSnapshot();
+		client.target(leader).path("replication/delta")
+				.queryParam("since", current != null ? current.getVersion() : 0)
+				.queryParam("created", current != null ? current.getCreatedAt() : 0)
+				.queryParam("wait", pollTimeout)
+				.request(SnapshotDelta.MEDIA_TYPE)
+				.header("Authorization", authorization)
+				.property(ClientProperties.READ_TIMEOUT, (int) (pollTimeout + heartbeatPeriod))
+				.async().get(new InvocationCallback<Response>() {
+					@Override
+					public void completed(Response response) {
+						final int status = response.getStatus();
+						byte[] body = null;
+						try {
+							if (status == Response.Status.OK.getStatusCode()) {
+								body = response.readEntity(byte[].class);
+							} else if (status != Response.Status.NO_CONTENT.getStatusCode()) {
+								logger.warn("Replication poll to " + leader + " failed with status " + status);
+							}
+						} catch (ProcessingException e) {
+							logger.warn("Replication poll to " + leader + " failed: " + e.getMessage());
+							done(false);
+							return;
+						} finally {
+							response.close();
+						}
+						final boolean answered = status == Response.Status.OK.getStatusCode()
+								|| status == Response.Status.NO_CONTENT.getStatusCode();
+						final byte[] delta = body;
+						scheduler.execute(new Runnable() {
+							@Override
+							public void run() {
+								if (delta != null) {
+									try {
+										install(SnapshotDelta.decode(delta));
+									} catch (IOException e) {
+										logger.error("Invalid snapshot delta sent by " + leader, e);
+									}
+								}
+								done(answered);
+							}
+						});
+					}
+
+					@Override
+					public void failed(Throwable error) {
+						logger.warn("Replication poll to " + leader + " failed: " + error.getMessage());
+						done(false);
+					}
+
+					/**
+					 * Ends the poll. Answered polls are followed by the next one, the failed
+					 * ones are retried on the next heartbeat.
+					 */
+					private void done(boolean answered) {
+						polling.set(false);
+						if (answered) {
+							scheduler.execute(new Runnable() {
+								@Override
+								public void run() {
+									follow();
+								}
+							});
+						}
+					}
+				});
+	}
+
+	/**
+	 * Keeps the snapshot for the deltas and answers the polls waiting for it.
+	 */
+	@Override
+	protected void publish(SolDataSnapshot snapshot) {
+		synchronized (history) {
+			history.put(snapshot.getVersion(), snapshot);
+		}
+		answerPolls(snapshot);
+	}
+
+	/**
+	 * Answers a poll sent by a follower. The poll is answered at once if the leader snapshot is not
+	 * the follower one, and held otherwise.
+	 *
+	 * @param version version of the follower snapshot, or zero if it has none
+	 * @param createdAt creation time of the follower snapshot
+	 * @param timeout time, in milliseconds, the poll may be held
+	 * @param asyncResponse the suspended response, resumed with the encoded {@link SnapshotDelta}
+	 */
+	public void poll(long version, long createdAt, long timeout, AsyncResponse asyncResponse) {
+		if (!isLeader()) {
+			asyncResponse.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+			return;
+		}
+		final SolDataSnapshot current = cache.getCurrentSnapshot();
+		if (isNewer(current, version, createdAt)) {
+			asyncResponse.resume(toResponse(version, current));
+			return;
+		}
+		if (timeout <= 0) {
+			asyncResponse.resume(Response.noContent().build());
+			return;
+		}
+		final Poll poll = new Poll(asyncResponse, version, createdAt);
+		/*
+		 * Timed out polls are dropped from the queue, which would otherwise grow by one poll per
+		 * follower and timeout while no snapshot is published.
+		 */
+		asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+			@Override
+			public void handleTimeout(AsyncResponse timedOut) {
+				polls.remove(poll);
+				timedOut.resume(Response.noContent().build());
+			}
+		});
+		asyncResponse.setTimeout(Math.min(timeout, MAX_POLL_TIMEOUT), TimeUnit.MILLISECONDS);
+		polls.add(poll);
+		if (asyncResponse.isDone()) {
+			// Timed out before being queued
+			polls.remove(poll);
+			return;
+		}
+		// A snapshot published meanwhile may have missed the poll
+		final SolDataSnapshot latest = cache.getCurrentSnapshot();
+		if (latest != current) {
+			answerPolls(latest);
+		}
+	}
+
+	private void answerPolls(SolDataSnapshot snapshot) {
+		final List<Poll> pending = new ArrayList<Poll>();
+		Poll poll;
+		while ((poll = polls.poll()) != null) {
+			if (poll.response.isDone()) {
+				continue;
+			}
+			if (isNewer(snapshot, poll.version, poll.createdAt)) {
+				poll.response.resume(toResponse(poll.version, snapshot));
+			} else {
+				pending.add(poll);
+			}
+		}
+		polls.addAll(pending);
+	}
+
+	private static boolean isNewer(SolDataSnapshot snapshot, long version, long createdAt) {
+		return snapshot != null && (snapshot.getVersion() != version || snapshot.getCreatedAt() != createdAt);
+	}
+
+	private Response toResponse(long version, SolDataSnapshot snapshot) {
+		SolDataSnapshot base = null;
+		if (version != 0) {
+			if (version == snapshot.getVersion()) {
+				base = snapshot;
+			} else {
+				synchronized (history) {
+					base = history.get(version);
+				}
+			}
+		}
+		return Response.ok(SnapshotDelta.between(base, snapshot).encode(), SnapshotDelta.MEDIA_TYPE).build();
+	}
+}
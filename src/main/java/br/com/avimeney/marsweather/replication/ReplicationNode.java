@@ -0,0 +1,220 @@
+package br.com.avimeney.marsweather.replication;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import br.com.avimeney.marsweather.cache.SolDataCache;
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+import br.com.avimeney.marsweather.metrics.Counter;
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+import br.com.avimeney.marsweather.model.ReplicationStatus;
+
+/**
+ * A replica of a group of servers sharing their cache snapshots. A single replica, the leader,
+ * loads data from the NASA's API and publishes every snapshot it loads. The others, followers,
+ * never contact the NASA's API: they install the snapshots published by the leader, with the
+ * same version, content and times, so the upstream load doesn't depend on the number of
+ * replicas and every replica serves the same data.
+ *
+ * <p>Every heartbeat, the replica runs the leader election and, when following, looks for a new
+ * snapshot. The election itself, the publication and the delivery of the snapshots are left to
+ * the subclasses. A replica starts as a follower, so its cache doesn't load data before the first
+ * election. A follower elected leader loads data only once its snapshot gets stale, and a leader
+ * losing an election stops loading data at once.
+ *
+ * <p>Elections, heartbeats and snapshot installs run on a single daemon thread.
+ *
+ * @author avimeney
+ */
+
+public abstract class ReplicationNode implements SolDataCache.LoadListener {
+
+	private static final Logger logger = LogManager.getLogger(ReplicationNode.class);
+
+	private static final Counter installs = MetricsRegistry.getInstance().counter(
+			"replication_snapshots_installed_total", "Snapshots published by the replication leader and installed.");
+
+	private static final Counter installFailures = MetricsRegistry.getInstance().counter(
+			"replication_install_failures_total", "Snapshots published by the replication leader that could not be installed.");
+
+	private static final Counter leaderGauge = MetricsRegistry.getInstance().gauge(
+			"replication_leader", "Whether this replica is the replication leader.");
+
+	protected final SolDataCache cache;
+
+	/**
+	 * Runs the elections, the heartbeats and the snapshot installs.
+	 */
+	protected final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "Replication");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Time, in milliseconds, between heartbeats.
+	 */
+	protected final long heartbeatPeriod;
+
+	private volatile boolean leader;
+
+	/**
+	 * @param cache the cache whose snapshots are shared
+	 * @param heartbeatPeriod time, in milliseconds, between heartbeats
+	 */
+	protected ReplicationNode(final SolDataCache cache, long heartbeatPeriod) {
+		this.cache = cache;
+		this.heartbeatPeriod = heartbeatPeriod;
+		MetricsRegistry.getInstance().supplier("replication_snapshot_version",
+				"Version of the snapshot served by this replica.", false, new LongSupplier() {
+					@Override
+					public long getAsLong() {
+						final SolDataSnapshot current = cache.getCurrentSnapshot();
+						return current != null ? current.getVersion() : 0;
+					}
+				});
+	}
+
+	/**
+	 * Starts following and runs the first election right away. Must be called before the cache
+	 * is first loaded.
+	 */
+	public void start() {
+		cache.setFollowing(true);
+		cache.addLoadListener(this);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				heartbeat();
+			}
+		}, 0, heartbeatPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the heartbeats. The replica keeps its role.
+	 */
+	public void stop() {
+		scheduler.shutdownNow();
+	}
+
+	private void heartbeat() {
+		try {
+			final boolean elected = electLeader();
+			if (elected != leader) {
+				leader = elected;
+				leaderGauge.add(elected ? 1 : -1);
+				if (elected) {
+					logger.info("Replica elected leader. Loading data from upstream from now on.");
+					cache.setFollowing(false);
+					final SolDataSnapshot current = cache.getCurrentSnapshot();
+					if (current != null) {
+						publish(current);
+					}
+					cache.refreshIfStale();
+				} else {
+					logger.info("Replica following " + describeLeader() + ". No longer loading data from upstream.");
+					cache.setFollowing(true);
+				}
+			}
+			if (!elected) {
+				follow();
+			}
+		} catch (RuntimeException e) {
+			logger.error("Replication heartbeat failure", e);
+		}
+	}
+
+	/**
+	 * Publishes every snapshot loaded while leading.
+	 */
+	@Override
+	public void snapshotLoaded(SolDataSnapshot snapshot) {
+		if (leader && !cache.isFollowing()) {
+			publish(snapshot);
+		}
+	}
+
+	/**
+	 * Installs a snapshot published by the leader. Deltas not based on the current snapshot are
+	 * dropped, the next one being expected to hold the whole snapshot.
+	 *
+	 * @param delta the changes published by the leader
+	 *
+	 * @return true if the delta could be applied
+	 */
+	protected boolean install(SnapshotDelta delta) {
+		if (leader) {
+			// Published by a former leader
+			return false;
+		}
+		final SolDataSnapshot current = cache.getCurrentSnapshot();
+		final SolDataSnapshot replicated;
+		try {
+			replicated = delta.applyTo(current);
+		} catch (IOException e) {
+			installFailures.increment();
+			logger.warn("Snapshot version " + delta.getVersion() + " could not be installed: " + e.getMessage());
+			return false;
+		}
+		if (replicated != current) {
+			cache.install(replicated);
+			installs.increment();
+		}
+		return true;
+	}
+
+	/**
+	 * Tells whether this replica is the leader.
+	 *
+	 * @return true if this replica loads and publishes the snapshots
+	 */
+	public boolean isLeader() {
+		return leader;
+	}
+
+	/**
+	 * Gets the replication state of this replica.
+	 *
+	 * @return the role of this replica and the version of the snapshot it serves
+	 */
+	public ReplicationStatus getStatus() {
+		final SolDataSnapshot current = cache.getCurrentSnapshot();
+		return new ReplicationStatus(leader, current != null ? current.getVersion() : 0);
+	}
+
+	/**
+	 * Runs the leader election. Called on every heartbeat.
+	 *
+	 * @return true if this replica is the leader
+	 */
+	protected abstract boolean electLeader();
+
+	/**
+	 * Describes the current leader, for logging purposes.
+	 *
+	 * @return the leader description
+	 */
+	protected abstract String describeLeader();
+
+	/**
+	 * Publishes a snapshot to the followers. Called by the thread swapping the snapshot in.
+	 *
+	 * @param snapshot the new snapshot
+	 */
+	protected abstract void publish(SolDataSnapshot snapshot);
+
+	/**
+	 * Looks for a snapshot published by the leader. Called on every heartbeat while following.
+	 */
+	protected abstract void follow();
+}
@@ -0,0 +1,210 @@
+package br.com.avimeney.marsweather.replication;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import br.com.avimeney.marsweather.cache.SolDataCache;
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+
+/**
+ * Replica sharing its snapshots through files on a volume shared by every replica, such as a
+ * local directory when the replicas run on the same host.
+ *
+ * <p>The leader is the replica holding an exclusive lock on the <code>leader.lock</code> file.
+ * The lock is released by the operating system when its holder dies, and taken by the first
+ * follower trying it on its next heartbeat.
+ *
+ * <p>The leader writes every snapshot it loads to the <code>snapshot.shm</code> file, which every
+ * replica maps into memory. The file holds a small header followed by the whole snapshot, encoded
+ * as a {@link SnapshotDelta} based on version zero. The header holds a sequence number, made odd
+ * by the leader while it writes the snapshot and even once it is done, so followers read it as a
+ * sequence lock: they check the sequence number on every heartbeat, which costs a single memory
+ * read, and copy the snapshot only when it changed, dropping copies overwritten while being read.
+ * Since followers copy the snapshot only when a new one is published, it is written whole rather
+ * than as a delta from a version each follower would have to track.
+ *
+ * @author avimeney
+ */
+
+public class SharedFileReplication extends ReplicationNode {
+
+	private static final Logger logger = LogManager.getLogger(SharedFileReplication.class);
+
+	private static final int MAGIC = 0x4D575253; // "MWRS"
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int SEQUENCE_OFFSET = 8;
+	private static final int LENGTH_OFFSET = 16;
+	private static final int INITIAL_CAPACITY = 64 * 1024;
+
+	/**
+	 * Ordered access to the sequence number, shared with the other processes mapping the file.
+	 */
+	private static final VarHandle SEQUENCE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private final Path directory;
+
+	private final FileChannel lockChannel;
+
+	private final FileChannel snapshotChannel;
+
+	/**
+	 * Lock held while leading.
+	 */
+	private FileLock lock;
+
+	private MappedByteBuffer mapped;
+
+	/**
+	 * Sequence number of the last snapshot read.
+	 */
+	private long lastSequence = -1;
+
+	/**
+	 * @param cache the cache whose snapshots are shared
+	 * @param heartbeatPeriod time, in milliseconds, between heartbeats
+	 * @param directory the directory shared by every replica
+	 *
+	 * @throws IOException if the shared files could not be opened
+	 */
+	public SharedFileReplication(SolDataCache cache, long heartbeatPeriod, Path directory) throws IOException {
+		super(cache, heartbeatPeriod);
+		this.directory = directory;
+		Files.createDirectories(directory);
+		lockChannel = FileChannel.open(directory.resolve("leader.lock"),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		snapshotChannel = FileChannel.open(directory.resolve("snapshot.shm"),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	@Override
+	protected boolean electLeader() {
+		if (lock != null && lock.isValid()) {
+			return true;
+		}
+		try {
+			lock = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// Held by another replica running in this same JVM
+			lock = null;
+		} catch (IOException e) {
+			logger.error("Failure while trying the replication leader lock at " + directory, e);
+			lock = null;
+		}
+		return lock != null;
+	}
+
+	@Override
+	protected String describeLeader() {
+		return "the holder of the leader lock at " + directory;
+	}
+
+	/**
+	 * Writes the snapshot to the shared file, growing it if needed.
+	 */
+	@Override
+	protected synchronized void publish(SolDataSnapshot snapshot) {
+		final byte[] body = SnapshotDelta.between(null, snapshot).encode();
+		try {
+			if (!map(HEADER_SIZE + body.length)) {
+				int capacity = INITIAL_CAPACITY;
+				while (capacity < HEADER_SIZE + body.length) {
+					capacity *= 2;
+				}
+				mapped = snapshotChannel.map(MapMode.READ_WRITE, 0, capacity);
+				mapped.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			final MappedByteBuffer buffer = mapped;
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, FORMAT_VERSION);
+			// Odd while writing. A write interrupted by a crash is left odd, and skipped.
+			final long sequence = ((long) SEQUENCE.getAcquire(buffer, SEQUENCE_OFFSET) + 1) | 1;
+			SEQUENCE.setRelease(buffer, SEQUENCE_OFFSET, sequence);
+			// Keeps the body writes from being reordered before the odd sequence
+			VarHandle.storeStoreFence();
+			buffer.putInt(LENGTH_OFFSET, body.length);
+			final ByteBuffer slice = buffer.duplicate();
+			slice.position(HEADER_SIZE);
+			slice.put(body);
+			SEQUENCE.setRelease(buffer, SEQUENCE_OFFSET, sequence + 1);
+			buffer.force();
+			logger.debug("Snapshot version " + snapshot.getVersion() + " published at " + directory);
+		} catch (IOException e) {
+			logger.error("Failure while publishing the snapshot at " + directory, e);
+		}
+	}
+
+	/**
+	 * Maps the shared file, unless already mapped with the given size.
+	 *
+	 * @return false if the file is smaller than the given size
+	 */
+	private boolean map(int size) throws IOException {
+		if (mapped != null && mapped.capacity() >= size) {
+			return true;
+		}
+		final long fileSize = snapshotChannel.size();
+		if (fileSize < size) {
+			return false;
+		}
+		mapped = snapshotChannel.map(MapMode.READ_WRITE, 0, fileSize);
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+		return true;
+	}
+
+	/**
+	 * Installs the snapshot of the shared file if a new one was published.
+	 */
+	@Override
+	protected synchronized void follow() {
+		final byte[] body;
+		final long sequence;
+		try {
+			if (!map(HEADER_SIZE)) {
+				return;
+			}
+			final MappedByteBuffer buffer = mapped;
+			sequence = (long) SEQUENCE.getAcquire(buffer, SEQUENCE_OFFSET);
+			if (sequence == lastSequence || (sequence & 1) != 0 || buffer.getInt(0) != MAGIC
+					|| buffer.getInt(4) != FORMAT_VERSION) {
+				return;
+			}
+			final int length = buffer.getInt(LENGTH_OFFSET);
+			if (length < 0 || !map(HEADER_SIZE + length)) {
+				return;
+			}
+			body = new byte[length];
+			final ByteBuffer slice = mapped.duplicate();
+			slice.position(HEADER_SIZE);
+			slice.get(body);
+			VarHandle.acquireFence();
+			if ((long) SEQUENCE.getAcquire(mapped, SEQUENCE_OFFSET) != sequence) {
+				// Overwritten while being read, copied again on the next heartbeat
+				return;
+			}
+		} catch (IOException e) {
+			logger.error("Failure while reading the snapshot at " + directory, e);
+			return;
+		}
+		lastSequence = sequence;
+		try {
+			install(SnapshotDelta.decode(body));
+		} catch (IOException e) {
+			logger.error("Invalid snapshot at " + directory, e);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package br.com.avimeney.marsweather.replication;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+import br.com.avimeney.marsweather.cache.SolRecords;
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Changes turning a snapshot version into another one, as sent by a replication leader to its
+ * followers: the Sols added or revised, the Sols no longer held and the new snapshot times. A
+ * delta based on version zero holds the whole snapshot.
+ *
+ * <p>Deltas are encoded as a small header followed by the numbers of the removed Sols and the
+ * records of the changed ones, described by {@link SolRecords}. Every value is little-endian.
+ * A follower whose snapshot is the base of a delta rebuilds the new snapshot with the same
+ * version, content and times as the leader's one.
+ *
+ * @author avimeney
+ */
+
+public final class SnapshotDelta {
+
+	/**
+	 * Media type of the encoded deltas.
+	 */
+	public static final String MEDIA_TYPE = "application/vnd.marsweather.snapshot-delta";
+
+	private static final int MAGIC = 0x4D575244; // "MWRD"
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 56;
+
+	private final long baseVersion;
+	private final long version;
+	private final long createdAt;
+	private final long lastModified;
+	private final long expiresAt;
+	private final int[] removedSolIds;
+	private final SolData[] changedSols;
+
+	private SnapshotDelta(long baseVersion, long version, long createdAt, long lastModified, long expiresAt,
+			int[] removedSolIds, SolData[] changedSols) {
+		this.baseVersion = baseVersion;
+		this.version = version;
+		this.createdAt = createdAt;
+		this.lastModified = lastModified;
+		this.expiresAt = expiresAt;
+		this.removedSolIds = removedSolIds;
+		this.changedSols = changedSols;
+	}
+
+	/**
+	 * Computes the changes between two snapshots. Both Sol arrays are sorted by Sol number, so
+	 * they are compared in a single pass.
+	 *
+	 * @param base the snapshot held by the follower, or null for a delta holding the whole target
+	 * @param target the snapshot to be rebuilt by the follower
+	 *
+	 * @return the delta
+	 */
+	public static SnapshotDelta between(SolDataSnapshot base, SolDataSnapshot target) {
+		final SolData[] sols = target.getSols();
+		if (base == null) {
+			return new SnapshotDelta(0, target.getVersion(), target.getCreatedAt(), target.getLastModified(),
+					target.getExpiresAt(), new int[0], sols);
+		}
+		final SolData[] baseSols = base.getSols();
+		final List<SolData> changed = new ArrayList<SolData>();
+		int[] removed = new int[0];
+		int removedCount = 0;
+		int i = 0;
+		int j = 0;
+		// Past the end of an array, its Sol number is greater than any other one
+		while (i < baseSols.length || j < sols.length) {
+			final int baseSolId = i < baseSols.length ? baseSols[i].getSolId() : Integer.MAX_VALUE;
+			final int solId = j < sols.length ? sols[j].getSolId() : Integer.MAX_VALUE;
+			if (baseSolId < solId) {
+				if (removedCount == removed.length) {
+					removed = Arrays.copyOf(removed, Math.max(4, removed.length * 2));
+				}
+				removed[removedCount++] = baseSolId;
+				i++;
+			} else if (solId < baseSolId) {
+				changed.add(sols[j++]);
+			} else {
+				if (!SolRecords.sameValues(baseSols[i], sols[j])) {
+					changed.add(sols[j]);
+				}
+				i++;
+				j++;
+			}
+		}
+		return new SnapshotDelta(base.getVersion(), target.getVersion(), target.getCreatedAt(),
+				target.getLastModified(), target.getExpiresAt(), Arrays.copyOf(removed, removedCount),
+				changed.toArray(new SolData[0]));
+	}
+
+	/**
+	 * Rebuilds the snapshot this delta leads to.
+	 *
+	 * @param base the follower snapshot, or null if the follower has none
+	 *
+	 * @return the new snapshot, or the base itself if it is already the one this delta leads to
+	 *
+	 * @throws IOException if the delta is not based on the given snapshot or the new snapshot
+	 *         could not be encoded
+	 */
+	public SolDataSnapshot applyTo(SolDataSnapshot base) throws IOException {
+		if (base != null && base.getVersion() == version) {
+			// The same content, maybe loaded again by the leader
+			return base.getCreatedAt() == createdAt && base.getExpiresAt() == expiresAt ? base
+					: base.renew(createdAt, expiresAt);
+		}
+		final Map<Integer, SolData> sols = new LinkedHashMap<Integer, SolData>();
+		if (!isFull()) {
+			if (base == null || base.getVersion() != baseVersion) {
+				throw new IOException("Delta based on version " + baseVersion + " while the current version is "
+						+ (base != null ? base.getVersion() : "none"));
+			}
+			for (SolData sol : base.getSols()) {
+				sols.put(sol.getSolId(), sol);
+			}
+			for (int solId : removedSolIds) {
+				sols.remove(solId);
+			}
+		}
+		for (SolData sol : changedSols) {
+			sols.put(sol.getSolId(), sol);
+		}
+		return SolDataSnapshot.restore(sols.values(), version, createdAt, lastModified, expiresAt, base);
+	}
+
+	/**
+	 * Encodes the delta.
+	 *
+	 * @return the encoded delta
+	 */
+	public byte[] encode() {
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + removedSolIds.length * 4
+				+ changedSols.length * SolRecords.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(FORMAT_VERSION);
+		buffer.putLong(baseVersion);
+		buffer.putLong(version);
+		buffer.putLong(createdAt);
+		buffer.putLong(lastModified);
+		buffer.putLong(expiresAt);
+		buffer.putInt(removedSolIds.length);
+		buffer.putInt(changedSols.length);
+		for (int solId : removedSolIds) {
+			buffer.putInt(solId);
+		}
+		for (SolData sol : changedSols) {
+			SolRecords.write(buffer, sol);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes a delta.
+	 *
+	 * @param data the encoded delta
+	 *
+	 * @return the delta
+	 *
+	 * @throws IOException if the data is not a valid delta
+	 */
+	public static SnapshotDelta decode(byte[] data) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+				throw new IOException("Unsupported snapshot delta format");
+			}
+			final long baseVersion = buffer.getLong();
+			final long version = buffer.getLong();
+			final long createdAt = buffer.getLong();
+			final long lastModified = buffer.getLong();
+			final long expiresAt = buffer.getLong();
+			final int removedCount = buffer.getInt();
+			final int changedCount = buffer.getInt();
+			if (removedCount < 0 || changedCount < 0
+					|| buffer.remaining() != removedCount * 4L + changedCount * (long) SolRecords.RECORD_SIZE) {
+				throw new IOException("Truncated snapshot delta");
+			}
+			final int[] removedSolIds = new int[removedCount];
+			for (int i = 0; i < removedCount; i++) {
+				removedSolIds[i] = buffer.getInt();
+			}
+			final SolData[] changedSols = new SolData[changedCount];
+			for (int i = 0; i < changedCount; i++) {
+				changedSols[i] = SolRecords.read(buffer);
+			}
+			return new SnapshotDelta(baseVersion, version, createdAt, lastModified, expiresAt, removedSolIds,
+					changedSols);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated snapshot delta", e);
+		}
+	}
+
+	/**
+	 * Tells whether the delta holds the whole snapshot, rather than the changes to a base version.
+	 *
+	 * @return true if the delta is based on version zero
+	 */
+	public boolean isFull() {
+		return baseVersion == 0;
+	}
+
+	public long getBaseVersion() {
+		return baseVersion;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+}
@@ -0,0 +1,71 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.io.IOException;
+
+import javax.annotation.Priority;
+import javax.inject.Provider;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Context;
+
+import org.glassfish.grizzly.http.server.Request;
+
+/**
+ * Remote address rate limiting filter, running before the authentication one, so clients
+ * flooding the server are turned away before their tokens are even looked up. Each request is
+ * taken from the token bucket of its remote address, and answered like in the
+ * {@link RateLimitFilter} when it exceeds the {@value MarsRestApplication#RATE_LIMIT_PER_ADDRESS_KEY}
+ * rate limit. Zero disables the limit.
+ *
+ * @author avimeney
+ */
+
+@Priority(Priorities.AUTHENTICATION - 50)
+@javax.ws.rs.ext.Provider
+public class AddressRateLimitFilter implements ContainerRequestFilter {
+
+	private final int rateLimit;
+
+	private final RateLimiter buckets;
+
+	@Context
+	private Provider<Request> requestProvider;
+
+	public AddressRateLimitFilter() {
+		this(MarsRestApplication.getIntProperty(MarsRestApplication.RATE_LIMIT_PER_ADDRESS_KEY,
+				MarsRestApplication.DEFAULT_RATE_LIMIT_PER_ADDRESS),
+				MarsRestApplication.getIntProperty(MarsRestApplication.RATE_LIMIT_MAX_BUCKETS_KEY,
+						MarsRestApplication.DEFAULT_RATE_LIMIT_MAX_BUCKETS),
+				1000L * MarsRestApplication.getIntProperty(MarsRestApplication.RATE_LIMIT_BURST_KEY,
+						MarsRestApplication.DEFAULT_RATE_LIMIT_BURST));
+	}
+
+	/**
+	 * @param rateLimit requests per minute allowed to each remote address, zero for no limit
+	 * @param maxBuckets maximum number of address buckets kept
+	 * @param burst time, in milliseconds, of requests at the full rate a bucket holds
+	 */
+	AddressRateLimitFilter(int rateLimit, int maxBuckets, long burst) {
+		this.rateLimit = rateLimit;
+		buckets = rateLimit > 0 ? new RateLimiter("address", maxBuckets, burst) : null;
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		if (buckets != null) {
+			filter(requestContext, requestProvider.get().getRemoteAddr());
+		}
+	}
+
+	void filter(ContainerRequestContext requestContext, String remoteAddress) {
+		if (buckets == null || HttpMethod.OPTIONS.equals(requestContext.getMethod())) {
+			return;
+		}
+		final long delay = buckets.acquire(remoteAddress, rateLimit);
+		if (delay > 0) {
+			requestContext.abortWith(RateLimitFilter.tooManyRequests(delay));
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package br.com.avimeney.marsweather.rest;
+
+/**
+ * An API client, identified by its authentication token. The token value itself is kept by
+ * {@link ApiTokens} only, so instances can be logged and handed to other filters safely.
+ *
+ * @author avimeney
+ */
+
+public final class ApiToken {
+
+	/**
+	 * Name of the request property holding the token of an authenticated request.
+	 */
+	public static final String REQUEST_PROPERTY = "apiToken";
+
+	private final String name;
+
+	private final int rateLimit;
+
+	/**
+	 * @param name the client name, for logging and metrics purposes
+	 * @param rateLimit maximum number of requests per minute. Zero for no limit.
+	 */
+	public ApiToken(String name, int rateLimit) {
+		this.name = name;
+		this.rateLimit = rateLimit;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the maximum number of requests per minute allowed for this client.
+	 *
+	 * @return the rate limit, or zero for no limit
+	 */
+	public int getRateLimit() {
+		return rateLimit;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,246 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The API tokens accepted by the server. Tokens are either read from a file, which is reloaded
+ * while the server runs whenever it changes, or, if no file is configured, the single token
+ * defined by the {@value MarsRestApplication#API_AUTH_TOKEN_KEY} key.
+ *
+ * <p>The token file holds one client per line: a name, the token and, optionally, a rate limit
+ * in requests per minute, separated by blanks. Blank lines and lines starting with
+ * <code>#</code> are ignored. A file that can't be read or parsed is reported and the current
+ * tokens are kept.
+ *
+ * <p>Tokens are looked up in an immutable open addressing hash table, replaced as a whole on
+ * reloads. Lookups read the token straight from the <code>Authorization</code> header, without
+ * allocating, and compare it in constant time, so neither the number of tokens nor the position of
+ * a wrong character changes the lookup time.
+ *
+ * @author avimeney
+ */
+
+public final class ApiTokens {
+
+	private static final Logger logger = LogManager.getLogger(ApiTokens.class);
+
+	private static final String DEFAULT_TOKEN_NAME = "default";
+
+	private static ApiTokens instance;
+
+	/**
+	 * Immutable token table. Slots are probed linearly from the token hash, which is seeded at
+	 * random so the slot of a token can't be guessed from outside.
+	 */
+	static final class Table {
+		private final String[] secrets;
+		private final ApiToken[] tokens;
+		private final int mask;
+		private final int seed;
+		private final int size;
+
+		Table(List<String> secretList, List<ApiToken> tokenList) {
+			int capacity = 2;
+			// Half empty at most, so probe sequences stay short
+			while (capacity < 2 * secretList.size()) {
+				capacity *= 2;
+			}
+			secrets = new String[capacity];
+			tokens = new ApiToken[capacity];
+			mask = capacity - 1;
+			seed = new SecureRandom().nextInt();
+			int count = 0;
+			for (int i = 0; i < secretList.size(); i++) {
+				final String secret = secretList.get(i);
+				int slot = hash(secret, 0, secret.length()) & mask;
+				while (secrets[slot] != null && !secrets[slot].equals(secret)) {
+					slot = (slot + 1) & mask;
+				}
+				if (secrets[slot] == null) {
+					count++;
+				} else {
+					logger.warn("Token of " + tokens[slot] + " redefined by " + tokenList.get(i));
+				}
+				secrets[slot] = secret;
+				tokens[slot] = tokenList.get(i);
+			}
+			size = count;
+		}
+
+		/**
+		 * Finds the client owning the token found at a region of a string.
+		 *
+		 * @param value the string holding the token, such as an <code>Authorization</code> header
+		 * @param from index of the first token character
+		 * @param to index following the last token character
+		 *
+		 * @return the client, or null if the token is unknown
+		 */
+		ApiToken find(String value, int from, int to) {
+			int slot = hash(value, from, to) & mask;
+			String secret;
+			while ((secret = secrets[slot]) != null) {
+				if (matches(secret, value, from, to)) {
+					return tokens[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			return null;
+		}
+
+		int size() {
+			return size;
+		}
+
+		private int hash(String value, int from, int to) {
+			// FNV-1a, seeded and finalized with a murmur3 mix
+			int hash = seed ^ 0x811C9DC5;
+			for (int i = from; i < to; i++) {
+				hash = (hash ^ value.charAt(i)) * 0x01000193;
+			}
+			hash ^= hash >>> 16;
+			hash *= 0x85EBCA6B;
+			return hash ^ (hash >>> 13);
+		}
+
+		/**
+		 * Compares a token region to a secret in a time depending on the secret length only.
+		 */
+		private static boolean matches(String secret, String value, int from, int to) {
+			final int length = to - from;
+			int difference = secret.length() ^ length;
+			for (int i = 0; i < secret.length(); i++) {
+				final char c = i < length ? value.charAt(from + i) : 0;
+				difference |= secret.charAt(i) ^ c;
+			}
+			return difference == 0;
+		}
+	}
+
+	private final Path file;
+
+	private volatile Table table;
+
+	/**
+	 * Modification time of the last token file read, whether it could be loaded or not.
+	 */
+	private FileTime checkedVersion;
+
+	private ApiTokens(Path file, Table table) {
+		this.file = file;
+		this.table = table;
+	}
+
+	/**
+	 * Gets the server tokens, loading them on the first call.
+	 *
+	 * @return the server tokens
+	 */
+	public static synchronized ApiTokens getInstance() {
+		if (instance == null) {
+			instance = load(MarsRestApplication.getAppProperties());
+		}
+		return instance;
+	}
+
+	private static ApiTokens load(Properties appProperties) {
+		final String fileName = appProperties.getProperty(MarsRestApplication.API_TOKENS_FILE_KEY, "").trim();
+		if (fileName.isEmpty()) {
+			final List<String> secrets = new ArrayList<String>();
+			final List<ApiToken> tokens = new ArrayList<ApiToken>();
+			secrets.add(appProperties.getProperty(MarsRestApplication.API_AUTH_TOKEN_KEY));
+			tokens.add(new ApiToken(DEFAULT_TOKEN_NAME, 0));
+			return new ApiTokens(null, new Table(secrets, tokens));
+		}
+		final ApiTokens apiTokens = new ApiTokens(Paths.get(fileName), new Table(new ArrayList<String>(),
+				new ArrayList<ApiToken>()));
+		apiTokens.reload();
+		final long period = 1000L * MarsRestApplication.getIntProperty(MarsRestApplication.API_TOKENS_RELOAD_PERIOD_KEY,
+				MarsRestApplication.DEFAULT_API_TOKENS_RELOAD_PERIOD);
+		if (period > 0) {
+			new Timer("Token Reload Timer", true).schedule(new TimerTask() {
+				@Override
+				public void run() {
+					apiTokens.reload();
+				}
+			}, period, period);
+		}
+		return apiTokens;
+	}
+
+	/**
+	 * Reloads the token file, if it changed since the last load.
+	 */
+	synchronized void reload() {
+		try {
+			final FileTime version = Files.getLastModifiedTime(file);
+			if (version.equals(checkedVersion)) {
+				return;
+			}
+			// A broken file is reported once, and read again when it changes
+			checkedVersion = version;
+			table = parse(file);
+			logger.info(table.size() + " API tokens loaded from " + file);
+		} catch (IOException | IllegalArgumentException e) {
+			logger.error("Failure while loading the API tokens from " + file + ": " + e.getMessage()
+					+ ". Keeping the current tokens.");
+		}
+	}
+
+	private static Table parse(Path file) throws IOException {
+		final List<String> secrets = new ArrayList<String>();
+		final List<ApiToken> tokens = new ArrayList<ApiToken>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				final String[] fields = line.split("\\s+");
+				if (fields.length < 2 || fields.length > 3) {
+					throw new IllegalArgumentException("Invalid token definition at line " + lineNumber);
+				}
+				final int rateLimit;
+				try {
+					rateLimit = fields.length == 3 ? Integer.parseInt(fields[2]) : 0;
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid rate limit at line " + lineNumber);
+				}
+				secrets.add(fields[1]);
+				tokens.add(new ApiToken(fields[0], Math.max(rateLimit, 0)));
+			}
+		}
+		return new Table(secrets, tokens);
+	}
+
+	/**
+	 * Finds the client owning the token found at a region of a string.
+	 *
+	 * @param value the string holding the token, such as an <code>Authorization</code> header
+	 * @param from index of the first token character
+	 * @param to index following the last token character
+	 *
+	 * @return the client, or null if the token is unknown
+	 */
+	public ApiToken find(String value, int from, int to) {
+		return table.find(value, from, to);
+	}
+}
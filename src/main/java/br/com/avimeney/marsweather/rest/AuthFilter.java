@@ -13,12 +13,13 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.Provider;
 
 /**
- * Token based authentication filter. This simple implementation only requires the presence of
- * a authentication token corresponding to a pre defined value in the request header.
- * Future versions may evolve to a effective token-based authentication protocol, as the JWT.
+ * Token based authentication filter. Requests must carry a <code>Bearer</code> token known by
+ * {@link ApiTokens} in the <code>Authorization</code> header. Future versions may evolve to a
+ * effective token-based authentication protocol, as the JWT.
  * 
- * <p>The valid token value is defined in the application.properties file by the
- * {@value MarsRestApplication#API_AUTH_TOKEN_KEY} key. 
+ * <p>The filter runs on every request, so the header is checked in place, without allocating.
+ * The client owning the token is stored in the {@value ApiToken#REQUEST_PROPERTY} request
+ * property for the filters running afterwards.
  *  
  * @author avimeney
  */
@@ -27,50 +28,49 @@ import javax.ws.rs.ext.Provider;
 @Provider
 public class AuthFilter implements ContainerRequestFilter, ContainerResponseFilter {
 
+	private static final String BEARER = "Bearer";
+
 	/**
-	 * The expected value for the authentication token.
+	 * The accepted tokens.
 	 */
-	private final String allowedTokenValue;
+	private final ApiTokens apiTokens;
 
 	public AuthFilter() {
-		allowedTokenValue = (String) MarsRestApplication.getAppProperties().getProperty(MarsRestApplication.API_AUTH_TOKEN_KEY);
-	}
-
-	@SuppressWarnings("serial")
-	private class ValidationException extends Exception {
-		public ValidationException(String msg) {
-			super(msg);
-		}
+		apiTokens = ApiTokens.getInstance();
 	}
 
 	@Override
 	public void filter(ContainerRequestContext requestContext) throws IOException {
+		if (HttpMethod.OPTIONS.equals(requestContext.getMethod())) {
+			return;
+		}
 		final String authHeaderVal = requestContext.getHeaderString("Authorization");
-
-		if (requestContext.getMethod() != HttpMethod.OPTIONS) {
-			if (authHeaderVal != null && authHeaderVal.startsWith("Bearer")) {
-				try {
-					validate(authHeaderVal.split(" ")[1]);
-				} catch (ValidationException e) {
-					requestContext.setProperty("authFailure", e.getMessage());
-					requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED).build());
-				}
-			} else {
-				requestContext.setProperty("authFailure", "no auth token");
-				requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED).build());
-			}
+		if (authHeaderVal == null || !authHeaderVal.startsWith(BEARER)) {
+			requestContext.setProperty("authFailure", "no auth token");
+			requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED).build());
+			return;
 		}
-	}
-
-	private void validate(String authToken) throws ValidationException {
-		if (!allowedTokenValue.equals(authToken)) {
-			throw new ValidationException("invalid token");
+		/*
+		 * The token follows the scheme and a single space:
+		 */
+		final int from = BEARER.length() + 1;
+		int to = authHeaderVal.indexOf(' ', from);
+		if (to < 0) {
+			to = authHeaderVal.length();
+		}
+		final ApiToken apiToken = from < to && authHeaderVal.charAt(BEARER.length()) == ' '
+				? apiTokens.find(authHeaderVal, from, to) : null;
+		if (apiToken == null) {
+			requestContext.setProperty("authFailure", "invalid token");
+			requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED).build());
+			return;
 		}
+		requestContext.setProperty(ApiToken.REQUEST_PROPERTY, apiToken);
 	}
 
 	@Override
 	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
-		if (requestContext.getMethod() != HttpMethod.OPTIONS) {
+		if (!HttpMethod.OPTIONS.equals(requestContext.getMethod())) {
 			final String authProperty = (String) requestContext.getProperty("authFailure");
 			if (authProperty != null) {
 				responseContext.getHeaders().add("WWW-Authenticate", "Bearer error=\""+authProperty+"\"");
@@ -24,5 +24,7 @@ public class CORSFilter implements ContainerResponseFilter {
 		response.getHeaders().add("Access-Control-Allow-Origin", "*");
 		// Authorization header must be explicitly allowed due to the presence of the auth token
 		response.getHeaders().add("Access-Control-Allow-Headers", "Origin, X-Requested-With, Content-Type, Accept, Authorization");
+		// The batch requests are posted
+		response.getHeaders().add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
     }
 }
@@ -0,0 +1,187 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+
+/**
+ * HTTP caching filter for the responses built from a cache snapshot. Resources hand the
+ * {@link SolDataSnapshot} itself as the response entity, and this filter replaces it with one of
+ * its pre-encoded bodies. The filter is responsible for:
+ *
+ * <ul>
+ *   <li>Adding the <code>ETag</code> and <code>Last-Modified</code> validators, as well as a
+ * <code>Cache-Control</code> header whose <code>max-age</code> is the time left before newer
+ * data may be loaded, and the snapshot version.
+ *   <li>Answering conditional requests with <code>304 Not Modified</code> when the client copy
+ * is still current (<code>If-None-Match</code> and <code>If-Modified-Since</code>).
+ *   <li>Writing the body in the representation negotiated by the resource: JSON, or one of the
+ * binary {@link SolMediaType}s.
+ *   <li>Choosing the gzip or deflate compressed JSON body when accepted by the client. Bodies are
+ * encoded and compressed once per snapshot, never per request.
+ * </ul>
+ *
+ * <p>Entity tags are specific to each representation and encoding, as required for strong
+ * validators.
+ *
+ * @author avimeney
+ */
+
+@Provider
+public class ConditionalRequestFilter implements ContainerResponseFilter {
+
+	private static final String GZIP = "gzip";
+
+	private static final String DEFLATE = "deflate";
+
+	private static final String CBOR = "cbor";
+
+	private static final String PACKED = "packed";
+
+	@Override
+	public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+		if (!(response.getEntity() instanceof SolDataSnapshot)) {
+			return;
+		}
+		final SolDataSnapshot snapshot = (SolDataSnapshot) response.getEntity();
+		final MultivaluedMap<String, Object> headers = response.getHeaders();
+		/*
+		 * Choosing the body representation, set by the resource, and its encoding. Only JSON is
+		 * worth compressing:
+		 */
+		final MediaType mediaType = response.getMediaType() != null ? response.getMediaType()
+				: MediaType.APPLICATION_JSON_TYPE;
+		final String format = mediaType.isCompatible(SolMediaType.APPLICATION_CBOR_TYPE) ? CBOR
+				: mediaType.isCompatible(SolMediaType.APPLICATION_SOLS_PACKED_TYPE) ? PACKED : null;
+		final String encoding = format == null ? selectEncoding(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING))
+				: null;
+		final String variant = format != null ? format : encoding;
+		final String etag = variant == null ? "\"" + snapshot.getContentHash() + "\""
+				: "\"" + snapshot.getContentHash() + "-" + variant + "\"";
+		final long maxAge = Math.max(0, (snapshot.getExpiresAt() - System.currentTimeMillis()) / 1000);
+		headers.putSingle(HttpHeaders.ETAG, etag);
+		headers.putSingle(HttpHeaders.LAST_MODIFIED, new Date(snapshot.getLastModified()));
+		headers.putSingle(HttpHeaders.CACHE_CONTROL, "max-age=" + maxAge);
+		headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		headers.putSingle(MarsWeatherService.DATA_VERSION_HEADER, snapshot.getVersion());
+		/*
+		 * Checking whether the client copy is current. If-None-Match takes precedence:
+		 */
+		if (isSafe(request.getMethod()) && isNotModified(request, etag, snapshot.getLastModified())) {
+			response.setStatus(Response.Status.NOT_MODIFIED.getStatusCode());
+			response.setEntity(null);
+			headers.remove(HttpHeaders.CONTENT_TYPE);
+			return;
+		}
+		final byte[] body;
+		if (CBOR.equals(format)) {
+			body = snapshot.getCbor();
+		} else if (PACKED.equals(format)) {
+			body = snapshot.getPacked();
+		} else if (GZIP.equals(encoding)) {
+			body = snapshot.getGzipJson();
+		} else if (DEFLATE.equals(encoding)) {
+			body = snapshot.getDeflateJson();
+		} else {
+			body = snapshot.getJson();
+		}
+		if (encoding != null) {
+			headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+		}
+		response.setEntity(body, response.getEntityAnnotations(), mediaType);
+	}
+
+	private static boolean isSafe(String method) {
+		return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method);
+	}
+
+	private static boolean isNotModified(ContainerRequestContext request, String etag, long lastModified) {
+		final String ifNoneMatch = request.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			for (String candidate : ifNoneMatch.split(",")) {
+				candidate = candidate.trim();
+				// Weak comparison, as mandated for If-None-Match
+				if (candidate.startsWith("W/")) {
+					candidate = candidate.substring(2);
+				}
+				if (candidate.equals("*") || candidate.equals(etag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		final String ifModifiedSince = request.getHeaderString(HttpHeaders.IF_MODIFIED_SINCE);
+		if (ifModifiedSince == null) {
+			return false;
+		}
+		final long since;
+		try {
+			since = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			// Invalid dates are ignored
+			return false;
+		}
+		// HTTP dates have a one second resolution
+		return lastModified / 1000 <= since / 1000;
+	}
+
+	/**
+	 * Picks the preferred compressed encoding accepted by the client.
+	 *
+	 * @param acceptEncoding the Accept-Encoding header value, if any
+	 *
+	 * @return gzip, deflate, or null for the uncompressed body
+	 */
+	private static String selectEncoding(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+		boolean deflateAccepted = false;
+		for (String coding : acceptEncoding.split(",")) {
+			final String[] parameters = coding.split(";");
+			final String name = parameters[0].trim().toLowerCase();
+			if (!name.equals(GZIP) && !name.equals(DEFLATE) && !name.equals("x-gzip")) {
+				continue;
+			}
+			if (isRejected(parameters)) {
+				continue;
+			}
+			if (!name.equals(DEFLATE)) {
+				return GZIP;
+			}
+			deflateAccepted = true;
+		}
+		return deflateAccepted ? DEFLATE : null;
+	}
+
+	/**
+	 * Checks whether a content coding is explicitly refused with a zero quality value.
+	 */
+	private static boolean isRejected(String[] parameters) {
+		for (int i = 1; i < parameters.length; i++) {
+			final String parameter = parameters[i].trim();
+			if (parameter.startsWith("q=")) {
+				try {
+					return Float.parseFloat(parameter.substring(2)) <= 0;
+				} catch (NumberFormatException e) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
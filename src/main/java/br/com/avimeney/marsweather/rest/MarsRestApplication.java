@@ -2,14 +2,33 @@ package br.com.avimeney.marsweather.rest;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.glassfish.grizzly.http.CompressionConfig;
+import org.glassfish.grizzly.http.KeepAlive;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.jackson.JacksonFeature;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.ServerProperties;
+
+import br.com.avimeney.marsweather.integration.BulkImporter;
+import br.com.avimeney.marsweather.integration.nasa.InSightStandIn;
+import br.com.avimeney.marsweather.metrics.JvmMetrics;
+import br.com.avimeney.marsweather.store.SolArchive;
 
 /**
  * Entry point for the Mars Weather API REST Server. 
@@ -22,21 +41,216 @@ public class MarsRestApplication {
 	 * Keys and default server configuration values.
 	 * The same keys must be found at the application.properties file.
 	 */
-    private static final String BASE_URI_KEY = "BASE_URI";
+    public static final String BASE_URI_KEY = "BASE_URI";
     private static final String DEFAULT_BASE_URI = "http://localhost:8080/marsweather/";
     
+    /*
+     * HTTP server tuning. Zero thread counts keep the Grizzly defaults.
+     */
+    private static final String SERVER_SELECTOR_THREADS_KEY = "SERVER_SELECTOR_THREADS";
+    private static final String DEFAULT_SERVER_SELECTOR_THREADS = "0";
+    
+    private static final String SERVER_WORKER_EXECUTOR_KEY = "SERVER_WORKER_EXECUTOR";
+    private static final String DEFAULT_SERVER_WORKER_EXECUTOR = "POOL";
+    
+    private static final String SERVER_WORKER_CORE_THREADS_KEY = "SERVER_WORKER_CORE_THREADS";
+    private static final String DEFAULT_SERVER_WORKER_CORE_THREADS = "0";
+    
+    private static final String SERVER_WORKER_MAX_THREADS_KEY = "SERVER_WORKER_MAX_THREADS";
+    private static final String DEFAULT_SERVER_WORKER_MAX_THREADS = "0";
+    
+    private static final String SERVER_WORKER_QUEUE_LIMIT_KEY = "SERVER_WORKER_QUEUE_LIMIT";
+    private static final String DEFAULT_SERVER_WORKER_QUEUE_LIMIT = "-1";
+    
+    private static final String SERVER_CONNECTION_BACKLOG_KEY = "SERVER_CONNECTION_BACKLOG";
+    private static final String DEFAULT_SERVER_CONNECTION_BACKLOG = "4096";
+    
+    private static final String SERVER_KEEP_ALIVE_TIMEOUT_KEY = "SERVER_KEEP_ALIVE_TIMEOUT";
+    private static final String DEFAULT_SERVER_KEEP_ALIVE_TIMEOUT = "30";
+    
+    private static final String SERVER_KEEP_ALIVE_MAX_REQUESTS_KEY = "SERVER_KEEP_ALIVE_MAX_REQUESTS";
+    private static final String DEFAULT_SERVER_KEEP_ALIVE_MAX_REQUESTS = "256";
+    
+    private static final String SERVER_COMPRESSION_KEY = "SERVER_COMPRESSION";
+    private static final String DEFAULT_SERVER_COMPRESSION = "OFF";
+    
+    private static final String SERVER_COMPRESSION_MIN_SIZE_KEY = "SERVER_COMPRESSION_MIN_SIZE";
+    private static final String DEFAULT_SERVER_COMPRESSION_MIN_SIZE = "1024";
+    
     public static final String API_AUTH_TOKEN_KEY = "API_AUTH_TOKEN";
     private static final String DEFAULT_API_AUTH_TOKEN = "PREODAY_TEST_TOKEN";
     
+    public static final String API_TOKENS_FILE_KEY = "API_TOKENS_FILE";
+    private static final String DEFAULT_API_TOKENS_FILE = "";
+    
+    public static final String API_TOKENS_RELOAD_PERIOD_KEY = "API_TOKENS_RELOAD_PERIOD";
+    public static final String DEFAULT_API_TOKENS_RELOAD_PERIOD = "30";
+
+    public static final String RATE_LIMIT_KEY = "RATE_LIMIT";
+    public static final String DEFAULT_RATE_LIMIT = "0";
+
+    public static final String RATE_LIMIT_PER_ADDRESS_KEY = "RATE_LIMIT_PER_ADDRESS";
+    public static final String DEFAULT_RATE_LIMIT_PER_ADDRESS = "0";
+
+    public static final String RATE_LIMIT_BURST_KEY = "RATE_LIMIT_BURST";
+    public static final String DEFAULT_RATE_LIMIT_BURST = "10";
+
+    public static final String RATE_LIMIT_MAX_BUCKETS_KEY = "RATE_LIMIT_MAX_BUCKETS";
+    public static final String DEFAULT_RATE_LIMIT_MAX_BUCKETS = "262144";
+    
     public static final String CACHE_INVALIDATION_PERIOD_KEY = "CACHE_INVALIDATION_PERIOD";
     public static final String DEFAULT_CACHE_INVALIDATION_PERIOD = "4";
     
+    public static final String CACHE_REFRESH_MODE_KEY = "CACHE_REFRESH_MODE";
+    public static final String DEFAULT_CACHE_REFRESH_MODE = "BACKGROUND";
+    
+    public static final String CACHE_SOFT_TTL_KEY = "CACHE_SOFT_TTL";
+    public static final String DEFAULT_CACHE_SOFT_TTL = "4";
+    
+    public static final String CACHE_HARD_TTL_KEY = "CACHE_HARD_TTL";
+    public static final String DEFAULT_CACHE_HARD_TTL = "24";
+    
+    public static final String CACHE_SNAPSHOT_FILE_KEY = "CACHE_SNAPSHOT_FILE";
+    private static final String DEFAULT_CACHE_SNAPSHOT_FILE = "sol-cache.snapshot";
+
+    public static final String CACHE_PREFETCH_KEY = "CACHE_PREFETCH";
+    private static final String DEFAULT_CACHE_PREFETCH = "OFF";
+
+    public static final String QUERY_CACHE_MAX_ENTRIES_KEY = "QUERY_CACHE_MAX_ENTRIES";
+    public static final String DEFAULT_QUERY_CACHE_MAX_ENTRIES = "10000";
+
+    public static final String QUERY_CACHE_MAX_BYTES_KEY = "QUERY_CACHE_MAX_BYTES";
+    public static final String DEFAULT_QUERY_CACHE_MAX_BYTES = "67108864";
+
+    public static final String SOL_ARCHIVE_DIR_KEY = "SOL_ARCHIVE_DIR";
+    private static final String DEFAULT_SOL_ARCHIVE_DIR = "sol-archive";
+    
     public static final String NASA_API_URI_KEY = "NASA_API_URI";
     private static final String DEFAULT_NASA_API_URI = "https://api.nasa.gov/insight_weather/";
     
     public static final String NASA_API_KEY_KEY = "NASA_API_KEY";
     private static final String DEFAULT_NASA_API_KEY = "DEMO_KEY";
     
+    public static final String NASA_API_MAX_CONCURRENT_REQUESTS_KEY = "NASA_API_MAX_CONCURRENT_REQUESTS";
+    public static final String DEFAULT_NASA_API_MAX_CONCURRENT_REQUESTS = "1";
+    
+    public static final String NASA_API_RATE_LIMIT_KEY = "NASA_API_RATE_LIMIT";
+    public static final String DEFAULT_NASA_API_RATE_LIMIT = "30";
+    
+    public static final String NASA_API_RETRY_BACKOFF_KEY = "NASA_API_RETRY_BACKOFF";
+    public static final String DEFAULT_NASA_API_RETRY_BACKOFF = "30";
+    
+    public static final String NASA_API_MAX_RETRY_BACKOFF_KEY = "NASA_API_MAX_RETRY_BACKOFF";
+    public static final String DEFAULT_NASA_API_MAX_RETRY_BACKOFF = "3600";
+    
+    public static final String NASA_API_PARSER_KEY = "NASA_API_PARSER";
+    public static final String DEFAULT_NASA_API_PARSER = "STREAMING";
+    
+    public static final String INGEST_SOURCES_KEY = "INGEST_SOURCES";
+    private static final String DEFAULT_INGEST_SOURCES = "";
+    
+    /*
+     * Settings of each additional data source, following the INGEST_<SOURCE>_<SETTING> pattern.
+     */
+    public static final String INGEST_TYPE_SETTING = "TYPE";
+    public static final String INGEST_URI_SETTING = "URI";
+    public static final String INGEST_VERSION_SETTING = "VERSION";
+    public static final String INGEST_PATH_SETTING = "PATH";
+    public static final String INGEST_PERIOD_SETTING = "PERIOD";
+    public static final String DEFAULT_INGEST_PERIOD = "0";
+    public static final String INGEST_THREADS_SETTING = "THREADS";
+    public static final String DEFAULT_INGEST_THREADS = "0";
+    
+    public static final String BATCH_MAX_QUERIES_KEY = "BATCH_MAX_QUERIES";
+    public static final String DEFAULT_BATCH_MAX_QUERIES = "32";
+    
+    public static final String BATCH_THREADS_KEY = "BATCH_THREADS";
+    public static final String DEFAULT_BATCH_THREADS = "0";
+    
+    public static final String SSE_QUEUE_CAPACITY_KEY = "SSE_QUEUE_CAPACITY";
+    public static final String DEFAULT_SSE_QUEUE_CAPACITY = "16";
+    
+    public static final String SSE_WRITER_THREADS_KEY = "SSE_WRITER_THREADS";
+    public static final String DEFAULT_SSE_WRITER_THREADS = "4";
+    
+    public static final String SSE_HEARTBEAT_PERIOD_KEY = "SSE_HEARTBEAT_PERIOD";
+    public static final String DEFAULT_SSE_HEARTBEAT_PERIOD = "30";
+    
+    /*
+     * Snapshot sharing between replicas.
+     */
+    public static final String REPLICATION_MODE_KEY = "REPLICATION_MODE";
+    private static final String DEFAULT_REPLICATION_MODE = "OFF";
+    
+    public static final String REPLICATION_DIR_KEY = "REPLICATION_DIR";
+    private static final String DEFAULT_REPLICATION_DIR = "replication";
+    
+    public static final String REPLICATION_PEERS_KEY = "REPLICATION_PEERS";
+    private static final String DEFAULT_REPLICATION_PEERS = "";
+    
+    public static final String REPLICATION_SELF_KEY = "REPLICATION_SELF";
+    private static final String DEFAULT_REPLICATION_SELF = "";
+    
+    public static final String REPLICATION_TOKEN_KEY = "REPLICATION_TOKEN";
+    private static final String DEFAULT_REPLICATION_TOKEN = "";
+    
+    public static final String REPLICATION_HEARTBEAT_PERIOD_KEY = "REPLICATION_HEARTBEAT_PERIOD";
+    public static final String DEFAULT_REPLICATION_HEARTBEAT_PERIOD = "1";
+    
+    public static final String REPLICATION_POLL_TIMEOUT_KEY = "REPLICATION_POLL_TIMEOUT";
+    public static final String DEFAULT_REPLICATION_POLL_TIMEOUT = "25";
+    
+    /*
+     * Bulk import mode, started by the --import command line option.
+     */
+    private static final String IMPORT_OPTION = "--import";
+    
+    private static final String IMPORT_THREADS_KEY = "IMPORT_THREADS";
+    private static final String DEFAULT_IMPORT_THREADS = "0";
+    
+    private static final String IMPORT_BATCH_SIZE_KEY = "IMPORT_BATCH_SIZE";
+    private static final String DEFAULT_IMPORT_BATCH_SIZE = "1024";
+    
+    /*
+     * NASA InSight API stand-in mode, started by the --nasa-stand-in command line option.
+     */
+    private static final String STAND_IN_OPTION = "--nasa-stand-in";
+    
+    private static final String STAND_IN_URI_KEY = "STAND_IN_URI";
+    private static final String DEFAULT_STAND_IN_URI = "http://localhost:8090/insight_weather/";
+    
+    private static final String STAND_IN_DIR_KEY = "STAND_IN_DIR";
+    private static final String DEFAULT_STAND_IN_DIR = "";
+    
+    private static final String STAND_IN_SOLS_KEY = "STAND_IN_SOLS";
+    private static final String DEFAULT_STAND_IN_SOLS = "7";
+    
+    private static final String STAND_IN_LATENCY_KEY = "STAND_IN_LATENCY";
+    private static final String DEFAULT_STAND_IN_LATENCY = "0";
+    
+    private static final String STAND_IN_JITTER_KEY = "STAND_IN_JITTER";
+    private static final String DEFAULT_STAND_IN_JITTER = "0";
+    
+    private static final String STAND_IN_ERROR_RATE_KEY = "STAND_IN_ERROR_RATE";
+    private static final String DEFAULT_STAND_IN_ERROR_RATE = "0";
+    
+    private static final String STAND_IN_ERROR_STATUS_KEY = "STAND_IN_ERROR_STATUS";
+    private static final String DEFAULT_STAND_IN_ERROR_STATUS = "503";
+    
+    public static final String NASA_API_CONNECT_TIMEOUT_KEY = "NASA_API_CONNECT_TIMEOUT";
+    public static final String DEFAULT_NASA_API_CONNECT_TIMEOUT = "10";
+    
+    public static final String NASA_API_READ_TIMEOUT_KEY = "NASA_API_READ_TIMEOUT";
+    public static final String DEFAULT_NASA_API_READ_TIMEOUT = "30";
+    
+    public static final String RESPONSE_TIMEOUT_KEY = "RESPONSE_TIMEOUT";
+    public static final String DEFAULT_RESPONSE_TIMEOUT = "60";
+    
+	/**
+	 * Configuration keys, told apart from the other system properties by being upper case.
+	 */
+	private static final Pattern CONFIGURATION_KEY_PATTERN = Pattern.compile("[A-Z][A-Z0-9_]*");
+	
 	private static final Logger logger = LogManager.getLogger(MarsRestApplication.class);
 	
 	/**
@@ -58,26 +272,107 @@ public class MarsRestApplication {
 		 */
 		defaultProperties.setProperty(BASE_URI_KEY, DEFAULT_BASE_URI);
 		defaultProperties.setProperty(API_AUTH_TOKEN_KEY, DEFAULT_API_AUTH_TOKEN);
+		defaultProperties.setProperty(API_TOKENS_FILE_KEY, DEFAULT_API_TOKENS_FILE);
+		defaultProperties.setProperty(API_TOKENS_RELOAD_PERIOD_KEY, DEFAULT_API_TOKENS_RELOAD_PERIOD);
+		defaultProperties.setProperty(RATE_LIMIT_KEY, DEFAULT_RATE_LIMIT);
+		defaultProperties.setProperty(RATE_LIMIT_PER_ADDRESS_KEY, DEFAULT_RATE_LIMIT_PER_ADDRESS);
+		defaultProperties.setProperty(RATE_LIMIT_BURST_KEY, DEFAULT_RATE_LIMIT_BURST);
+		defaultProperties.setProperty(RATE_LIMIT_MAX_BUCKETS_KEY, DEFAULT_RATE_LIMIT_MAX_BUCKETS);
 		defaultProperties.setProperty(CACHE_INVALIDATION_PERIOD_KEY, DEFAULT_CACHE_INVALIDATION_PERIOD);
+		defaultProperties.setProperty(CACHE_REFRESH_MODE_KEY, DEFAULT_CACHE_REFRESH_MODE);
+		defaultProperties.setProperty(CACHE_SOFT_TTL_KEY, DEFAULT_CACHE_SOFT_TTL);
+		defaultProperties.setProperty(CACHE_HARD_TTL_KEY, DEFAULT_CACHE_HARD_TTL);
+		defaultProperties.setProperty(CACHE_SNAPSHOT_FILE_KEY, DEFAULT_CACHE_SNAPSHOT_FILE);
+		defaultProperties.setProperty(CACHE_PREFETCH_KEY, DEFAULT_CACHE_PREFETCH);
+		defaultProperties.setProperty(QUERY_CACHE_MAX_ENTRIES_KEY, DEFAULT_QUERY_CACHE_MAX_ENTRIES);
+		defaultProperties.setProperty(QUERY_CACHE_MAX_BYTES_KEY, DEFAULT_QUERY_CACHE_MAX_BYTES);
+		defaultProperties.setProperty(SOL_ARCHIVE_DIR_KEY, DEFAULT_SOL_ARCHIVE_DIR);
 		defaultProperties.setProperty(NASA_API_URI_KEY, DEFAULT_NASA_API_URI);
 		defaultProperties.setProperty(NASA_API_KEY_KEY, DEFAULT_NASA_API_KEY);
+		defaultProperties.setProperty(NASA_API_MAX_CONCURRENT_REQUESTS_KEY, DEFAULT_NASA_API_MAX_CONCURRENT_REQUESTS);
+		defaultProperties.setProperty(NASA_API_RATE_LIMIT_KEY, DEFAULT_NASA_API_RATE_LIMIT);
+		defaultProperties.setProperty(NASA_API_RETRY_BACKOFF_KEY, DEFAULT_NASA_API_RETRY_BACKOFF);
+		defaultProperties.setProperty(NASA_API_MAX_RETRY_BACKOFF_KEY, DEFAULT_NASA_API_MAX_RETRY_BACKOFF);
+		defaultProperties.setProperty(NASA_API_PARSER_KEY, DEFAULT_NASA_API_PARSER);
+		defaultProperties.setProperty(INGEST_SOURCES_KEY, DEFAULT_INGEST_SOURCES);
+		defaultProperties.setProperty(BATCH_MAX_QUERIES_KEY, DEFAULT_BATCH_MAX_QUERIES);
+		defaultProperties.setProperty(BATCH_THREADS_KEY, DEFAULT_BATCH_THREADS);
+		defaultProperties.setProperty(SSE_QUEUE_CAPACITY_KEY, DEFAULT_SSE_QUEUE_CAPACITY);
+		defaultProperties.setProperty(SSE_WRITER_THREADS_KEY, DEFAULT_SSE_WRITER_THREADS);
+		defaultProperties.setProperty(SSE_HEARTBEAT_PERIOD_KEY, DEFAULT_SSE_HEARTBEAT_PERIOD);
+		defaultProperties.setProperty(REPLICATION_MODE_KEY, DEFAULT_REPLICATION_MODE);
+		defaultProperties.setProperty(REPLICATION_DIR_KEY, DEFAULT_REPLICATION_DIR);
+		defaultProperties.setProperty(REPLICATION_PEERS_KEY, DEFAULT_REPLICATION_PEERS);
+		defaultProperties.setProperty(REPLICATION_SELF_KEY, DEFAULT_REPLICATION_SELF);
+		defaultProperties.setProperty(REPLICATION_TOKEN_KEY, DEFAULT_REPLICATION_TOKEN);
+		defaultProperties.setProperty(REPLICATION_HEARTBEAT_PERIOD_KEY, DEFAULT_REPLICATION_HEARTBEAT_PERIOD);
+		defaultProperties.setProperty(REPLICATION_POLL_TIMEOUT_KEY, DEFAULT_REPLICATION_POLL_TIMEOUT);
+		defaultProperties.setProperty(IMPORT_THREADS_KEY, DEFAULT_IMPORT_THREADS);
+		defaultProperties.setProperty(IMPORT_BATCH_SIZE_KEY, DEFAULT_IMPORT_BATCH_SIZE);
+		defaultProperties.setProperty(STAND_IN_URI_KEY, DEFAULT_STAND_IN_URI);
+		defaultProperties.setProperty(STAND_IN_DIR_KEY, DEFAULT_STAND_IN_DIR);
+		defaultProperties.setProperty(STAND_IN_SOLS_KEY, DEFAULT_STAND_IN_SOLS);
+		defaultProperties.setProperty(STAND_IN_LATENCY_KEY, DEFAULT_STAND_IN_LATENCY);
+		defaultProperties.setProperty(STAND_IN_JITTER_KEY, DEFAULT_STAND_IN_JITTER);
+		defaultProperties.setProperty(STAND_IN_ERROR_RATE_KEY, DEFAULT_STAND_IN_ERROR_RATE);
+		defaultProperties.setProperty(STAND_IN_ERROR_STATUS_KEY, DEFAULT_STAND_IN_ERROR_STATUS);
+		defaultProperties.setProperty(NASA_API_CONNECT_TIMEOUT_KEY, DEFAULT_NASA_API_CONNECT_TIMEOUT);
+		defaultProperties.setProperty(NASA_API_READ_TIMEOUT_KEY, DEFAULT_NASA_API_READ_TIMEOUT);
+		defaultProperties.setProperty(RESPONSE_TIMEOUT_KEY, DEFAULT_RESPONSE_TIMEOUT);
+		defaultProperties.setProperty(SERVER_SELECTOR_THREADS_KEY, DEFAULT_SERVER_SELECTOR_THREADS);
+		defaultProperties.setProperty(SERVER_WORKER_EXECUTOR_KEY, DEFAULT_SERVER_WORKER_EXECUTOR);
+		defaultProperties.setProperty(SERVER_WORKER_CORE_THREADS_KEY, DEFAULT_SERVER_WORKER_CORE_THREADS);
+		defaultProperties.setProperty(SERVER_WORKER_MAX_THREADS_KEY, DEFAULT_SERVER_WORKER_MAX_THREADS);
+		defaultProperties.setProperty(SERVER_WORKER_QUEUE_LIMIT_KEY, DEFAULT_SERVER_WORKER_QUEUE_LIMIT);
+		defaultProperties.setProperty(SERVER_CONNECTION_BACKLOG_KEY, DEFAULT_SERVER_CONNECTION_BACKLOG);
+		defaultProperties.setProperty(SERVER_KEEP_ALIVE_TIMEOUT_KEY, DEFAULT_SERVER_KEEP_ALIVE_TIMEOUT);
+		defaultProperties.setProperty(SERVER_KEEP_ALIVE_MAX_REQUESTS_KEY, DEFAULT_SERVER_KEEP_ALIVE_MAX_REQUESTS);
+		defaultProperties.setProperty(SERVER_COMPRESSION_KEY, DEFAULT_SERVER_COMPRESSION);
+		defaultProperties.setProperty(SERVER_COMPRESSION_MIN_SIZE_KEY, DEFAULT_SERVER_COMPRESSION_MIN_SIZE);
 	}
 	
 	public static Properties getAppProperties() {
 		return appProperties;
 	}
 	
-	public static void main(String[] args) throws IOException {
-		
-		logger.info("Mars Weather Server starting");
-		/*
-		 * Loading user defined server configuration stored at application.properties.
-		 */
+	/**
+	 * Reads an integer property from the server configuration, falling back to the given default
+	 * value when the user defined value cannot be parsed.
+	 * 
+	 * @param key the property key
+	 * @param defaultValue the default value for the property
+	 * 
+	 * @return the configured value, or the default one if the configured value is invalid
+	 */
+	public static int getIntProperty(String key, String defaultValue) {
+		final String value = appProperties.getProperty(key, defaultValue);
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid value for "+key+" from application properties. Using default value instead.");
+			return Integer.parseInt(defaultValue);
+		}
+	}
+	
+	/**
+	 * Loads the user defined server configuration stored at application.properties on top of
+	 * the default configuration. System properties named after a configuration key, as in
+	 * <code>-DBASE_URI=http://localhost:8081/marsweather/</code>, take precedence over both, so
+	 * several servers can be run from the same JAR file with different settings.
+	 * 
+	 * @throws IOException if the configuration file could not be read
+	 */
+	public static void loadAppProperties() throws IOException {
 		try {
 			logger.debug("Reading application properties");
 			final InputStream stream = MarsRestApplication.class.getResourceAsStream("/application.properties");
 			appProperties = new Properties(defaultProperties);
 			appProperties.load(stream);
+			for (String key : System.getProperties().stringPropertyNames()) {
+				if (CONFIGURATION_KEY_PATTERN.matcher(key).matches()) {
+					appProperties.setProperty(key, System.getProperty(key));
+				}
+			}
 			logger.debug("Application properties read!");
 			if (!appProperties.isEmpty()) {
 				logger.debug(appProperties);
@@ -86,18 +381,197 @@ public class MarsRestApplication {
 			logger.error("Failure while trying to load application propertires.", e);
 			throw e;
 		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		
+		logger.info("Mars Weather Server starting");
+		/*
+		 * Loading user defined server configuration stored at application.properties.
+		 */
+		loadAppProperties();
 		/*
-		 * REST services are annotated at rest package. 
+		 * Importing saved NASA responses instead of serving requests:
 		 */
-    	final ResourceConfig resourceConfig = new ResourceConfig().packages("br.com.avimeney.marsweather.rest");
+		if (args.length > 0 && IMPORT_OPTION.equals(args[0])) {
+			if (args.length != 2) {
+				logger.error("Usage: java -jar marsweather-1.0.0.jar "+IMPORT_OPTION+" <directory>");
+				System.exit(1);
+			}
+			importDirectory(Paths.get(args[1]));
+			return;
+		}
+		/*
+		 * Standing in for the NASA's API, for load tests, instead of serving requests:
+		 */
+		if (args.length > 0 && STAND_IN_OPTION.equals(args[0])) {
+			startStandIn();
+			return;
+		}
+		/*
+		 * REST services and filters at rest package. They are registered one by one, as the
+		 * Jersey package scanner can't read class files newer than Java 8.
+		 */
+    	final ResourceConfig resourceConfig = new ResourceConfig(
+    			MetricsResource.class,
+    			AddressRateLimitFilter.class,
+    			AuthFilter.class,
+    			RateLimitFilter.class,
+    			CORSFilter.class,
+    			ConditionalRequestFilter.class,
+    			MetricsFilter.class);
+    	/*
+    	 * The weather service is built upfront, so its cache is restored before the server
+    	 * accepts any request:
+    	 */
+    	final MarsWeatherService weatherService = new MarsWeatherService();
+    	resourceConfig.register(weatherService);
+    	if (weatherService.getReplication() != null) {
+    		resourceConfig.register(new ReplicationResource(weatherService.getReplication()));
+    	}
+    	JvmMetrics.register();
     	/*
     	 * Enabling Jackson for JSON marshaling. Check for annotated classes at the model package.  
     	 */
     	resourceConfig.register(JacksonFeature.class);
     	/*
-    	 * Starting Grizzly HTTP embedded server at the user specified URI:
+    	 * WADL generation needs a JAXB runtime, no longer bundled with the JRE. Without WADL,
+    	 * OPTIONS requests (such as CORS preflights) are answered with the allowed methods only:
     	 */
-    	GrizzlyHttpServerFactory.createHttpServer(URI.create(appProperties.getProperty(BASE_URI_KEY)), resourceConfig);
+    	resourceConfig.property(ServerProperties.WADL_FEATURE_DISABLE, true);
+    	/*
+    	 * Enabling Server-Sent Events for the live updates:
+    	 */
+    	resourceConfig.register(SseFeature.class);
+    	/*
+    	 * Creating Grizzly HTTP embedded server at the user specified URI. The server is tuned
+    	 * before being started, as the transport settings can't be changed afterwards:
+    	 */
+    	final HttpServer server = GrizzlyHttpServerFactory.createHttpServer(
+    			URI.create(appProperties.getProperty(BASE_URI_KEY)), resourceConfig, false);
+    	for (NetworkListener listener : server.getListeners()) {
+    		configureListener(listener);
+    	}
+    	server.start();
     	logger.info("Mars Weather Server available at "+appProperties.getProperty(BASE_URI_KEY));
     }
-}
\ No newline at end of file
+	
+	/**
+	 * Imports a directory of saved NASA's InSight API responses into the Sol archive.
+	 * 
+	 * @param directory root of the saved responses
+	 * 
+	 * @throws IOException if the responses could not be listed or the archive could not be written
+	 */
+	private static void importDirectory(Path directory) throws IOException {
+		try (SolArchive archive = SolArchive.open(Paths.get(appProperties.getProperty(SOL_ARCHIVE_DIR_KEY)))) {
+			final BulkImporter importer = new BulkImporter(archive,
+					getIntProperty(IMPORT_THREADS_KEY, DEFAULT_IMPORT_THREADS),
+					getIntProperty(IMPORT_BATCH_SIZE_KEY, DEFAULT_IMPORT_BATCH_SIZE));
+			importer.importDirectory(directory);
+		}
+	}
+	
+	/**
+	 * Starts a local stand-in for the NASA's InSight API, configured by the <code>STAND_IN_</code>
+	 * properties. The stand-in threads keep the JVM running.
+	 * 
+	 * @throws IOException if the recorded responses could not be read or the stand-in could not be started
+	 */
+	private static void startStandIn() throws IOException {
+		final String directory = appProperties.getProperty(STAND_IN_DIR_KEY).trim();
+		final InSightStandIn standIn = new InSightStandIn(URI.create(appProperties.getProperty(STAND_IN_URI_KEY).trim()),
+				new InSightStandIn.Settings(
+						directory.isEmpty() ? null : Paths.get(directory),
+						getIntProperty(STAND_IN_SOLS_KEY, DEFAULT_STAND_IN_SOLS),
+						getIntProperty(STAND_IN_LATENCY_KEY, DEFAULT_STAND_IN_LATENCY),
+						getIntProperty(STAND_IN_JITTER_KEY, DEFAULT_STAND_IN_JITTER),
+						getIntProperty(STAND_IN_ERROR_RATE_KEY, DEFAULT_STAND_IN_ERROR_RATE),
+						getIntProperty(STAND_IN_ERROR_STATUS_KEY, DEFAULT_STAND_IN_ERROR_STATUS)));
+		standIn.start();
+	}
+	
+	/**
+	 * Applies the user defined transport, thread pool, keep-alive and compression settings to
+	 * an HTTP listener.
+	 * 
+	 * @param listener the listener, not started yet
+	 */
+	private static void configureListener(NetworkListener listener) {
+		final TCPNIOTransport transport = listener.getTransport();
+		/*
+		 * Selector threads accept connections and detect readable ones. Each of them needs a
+		 * kernel thread:
+		 */
+		final int selectorThreads = getIntProperty(SERVER_SELECTOR_THREADS_KEY, DEFAULT_SERVER_SELECTOR_THREADS);
+		if (selectorThreads > 0) {
+			transport.setSelectorRunnersCount(selectorThreads);
+			transport.setKernelThreadPoolConfig(ThreadPoolConfig.defaultConfig()
+					.setPoolName("Grizzly Selector")
+					.setCorePoolSize(selectorThreads)
+					.setMaxPoolSize(selectorThreads));
+		}
+		transport.setServerConnectionBackLog(getIntProperty(SERVER_CONNECTION_BACKLOG_KEY, DEFAULT_SERVER_CONNECTION_BACKLOG));
+		/*
+		 * Worker threads run the JAX-RS resources:
+		 */
+		final ExecutorService virtualThreadExecutor = "VIRTUAL".equalsIgnoreCase(
+				appProperties.getProperty(SERVER_WORKER_EXECUTOR_KEY).trim()) ? newVirtualThreadExecutor() : null;
+		if (virtualThreadExecutor != null) {
+			transport.setWorkerThreadPool(virtualThreadExecutor);
+			logger.info("Requests are handled by virtual threads");
+		} else {
+			final ThreadPoolConfig workerConfig = (transport.getWorkerThreadPoolConfig() != null
+					? transport.getWorkerThreadPoolConfig().copy() : ThreadPoolConfig.defaultConfig())
+					.setPoolName("Grizzly Worker")
+					.setQueueLimit(getIntProperty(SERVER_WORKER_QUEUE_LIMIT_KEY, DEFAULT_SERVER_WORKER_QUEUE_LIMIT));
+			final int coreThreads = getIntProperty(SERVER_WORKER_CORE_THREADS_KEY, DEFAULT_SERVER_WORKER_CORE_THREADS);
+			final int maxThreads = getIntProperty(SERVER_WORKER_MAX_THREADS_KEY, DEFAULT_SERVER_WORKER_MAX_THREADS);
+			if (maxThreads > 0) {
+				workerConfig.setMaxPoolSize(maxThreads);
+			}
+			if (coreThreads > 0) {
+				workerConfig.setCorePoolSize(Math.min(coreThreads, workerConfig.getMaxPoolSize()));
+			}
+			transport.setWorkerThreadPoolConfig(workerConfig);
+			logger.info("Requests are handled by a pool of "+workerConfig.getCorePoolSize()+" to "
+					+workerConfig.getMaxPoolSize()+" worker threads");
+		}
+		/*
+		 * Persistent connections:
+		 */
+		final KeepAlive keepAlive = listener.getKeepAlive();
+		keepAlive.setIdleTimeoutInSeconds(getIntProperty(SERVER_KEEP_ALIVE_TIMEOUT_KEY, DEFAULT_SERVER_KEEP_ALIVE_TIMEOUT));
+		keepAlive.setMaxRequestsCount(getIntProperty(SERVER_KEEP_ALIVE_MAX_REQUESTS_KEY, DEFAULT_SERVER_KEEP_ALIVE_MAX_REQUESTS));
+		/*
+		 * Response compression:
+		 */
+		final CompressionConfig compression = listener.getCompressionConfig();
+		try {
+			compression.setCompressionMode(CompressionConfig.CompressionMode.valueOf(
+					appProperties.getProperty(SERVER_COMPRESSION_KEY).trim().toUpperCase()));
+		} catch (IllegalArgumentException e) {
+			logger.warn("Invalid value for "+SERVER_COMPRESSION_KEY+" from application properties. Using default value instead.");
+			compression.setCompressionMode(CompressionConfig.CompressionMode.valueOf(DEFAULT_SERVER_COMPRESSION));
+		}
+		compression.setCompressionMinSize(getIntProperty(SERVER_COMPRESSION_MIN_SIZE_KEY, DEFAULT_SERVER_COMPRESSION_MIN_SIZE));
+		compression.setCompressableMimeTypes("application/json");
+	}
+	
+	/**
+	 * Creates an executor starting a new virtual thread for each task. Virtual threads are only
+	 * available from Java 21 on, so the executor factory is looked up at runtime.
+	 * 
+	 * @return the executor, or null if the running JVM doesn't support virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			logger.warn("Virtual threads are not supported by Java "+System.getProperty("java.version")
+					+". Using a worker thread pool instead.");
+			return null;
+		}
+	}
+}
@@ -1,32 +1,83 @@
 package br.com.avimeney.marsweather.rest;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Invocation.Builder;
-import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Variant;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.SseFeature;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.glassfish.jersey.uri.UriComponent;
 
-import br.com.avimeney.marsweather.integration.nasa.WeatherDTO;
-import br.com.avimeney.marsweather.integration.nasa.WeatherJsonParser;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import br.com.avimeney.marsweather.cache.QueryResultCache;
+import br.com.avimeney.marsweather.cache.SolDataCache;
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+import br.com.avimeney.marsweather.integration.CoordinatedWeatherProvider;
+import br.com.avimeney.marsweather.integration.IngestionPipeline;
+import br.com.avimeney.marsweather.integration.UpstreamFetchCoordinator;
+import br.com.avimeney.marsweather.integration.WeatherProvider;
+import br.com.avimeney.marsweather.integration.file.DirectoryWeatherProvider;
+import br.com.avimeney.marsweather.integration.file.ReplayWeatherProvider;
+import br.com.avimeney.marsweather.integration.nasa.NasaInSightProvider;
+import br.com.avimeney.marsweather.model.BatchQuery;
 import br.com.avimeney.marsweather.model.SolData;
+import br.com.avimeney.marsweather.model.SolMovingAverage;
+import br.com.avimeney.marsweather.model.TemperatureAggregate;
+import br.com.avimeney.marsweather.replication.HttpReplication;
+import br.com.avimeney.marsweather.replication.ReplicationNode;
+import br.com.avimeney.marsweather.replication.SharedFileReplication;
+import br.com.avimeney.marsweather.store.SolArchive;
+import br.com.avimeney.marsweather.store.SolIndex;
+import br.com.avimeney.marsweather.store.SolRollups;
 
 /**
  * Implements the Mars Weather Service REST API. The API defines a single method responsible
@@ -47,13 +98,14 @@ import br.com.avimeney.marsweather.model.SolData;
  * calls to the NASA's API are likely to return the same results.  
  * </ol>
  * 
- * <p>The cache implementation itself is pretty simple. The first call to this API will trigger a
- * call to the underlining NASA's API. The obtained data will be stored in the local cache.
- * Subsequent calls to this API will consume data directly from the local cache. A daemon thread
- * will periodically invalidate the entire cache. Once invalidated the next call will trigger a
- * new request to the NASA's API, bringing potentially updated data.
+ * <p>The first call to this API will trigger a call to the underlining NASA's API. The obtained data
+ * will be stored in the local cache. Subsequent calls to this API will consume data directly from the
+ * local cache. By default, a daemon thread refreshes the cache in background once its data gets older
+ * than a soft TTL, while callers keep being served the last good data. The legacy behavior, where the
+ * entire cache is periodically invalidated and the next call waits for a new request to the NASA's API,
+ * is still available. Check {@link SolDataCache} for details.
  * 
- * <p>The frequency of cache invalidations, as well as NASA's API parameters can be configured by
+ * <p>The cache refresh policy, as well as NASA's API parameters can be configured by
  * the user through the <i>application.properties</i> file. Consult the server user guide for
  * further information on the server setup.
  * 
@@ -66,29 +118,209 @@ public class MarsWeatherService {
 	
 	private static final String NASA_API_VERSION = "1.0";
 
-	private static final int HTTP_STATUS_SUCCESS = 200;
-
-	private static final int HOURS_IN_MILLIS = 60*60*1000;
+	private static final long HOURS_IN_MILLIS = 60*60*1000L;
+	
+	private static final long SECONDS_IN_MILLIS = 1000L;
+	
+	/*
+	 * Page size limits for Sol range queries.
+	 */
+	private static final int DEFAULT_PAGE_LIMIT = 100;
+	private static final int MAX_PAGE_LIMIT = 1000;
+	
+	/**
+	 * Response header holding the cursor of the next page of a range query.
+	 */
+	public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+	
+	/**
+	 * Response header holding the version of the cached data a response was built from.
+	 */
+	public static final String DATA_VERSION_HEADER = "X-Data-Version";
+	
+	/**
+	 * Response header holding the comma separated numbers of the Sols removed since the version
+	 * a client asked for the changes of.
+	 */
+	public static final String REMOVED_SOLS_HEADER = "X-Removed-Sols";
+	
+	/**
+	 * Media type of the streamed batch responses: one JSON object per line.
+	 */
+	public static final String APPLICATION_NDJSON = "application/x-ndjson";
+	public static final MediaType APPLICATION_NDJSON_TYPE = MediaType.valueOf(APPLICATION_NDJSON);
+	
+	/**
+	 * Representations of the batch responses, the default one first.
+	 */
+	private static final List<Variant> BATCH_VARIANTS = Variant.mediaTypes(
+			MediaType.APPLICATION_JSON_TYPE, APPLICATION_NDJSON_TYPE).build();
+	
+	/**
+	 * Factory for the JSON generators writing range query responses. Factories are thread-safe.
+	 */
+	private static final JsonFactory jsonFactory = new JsonFactory();
 	
-	private static final Logger logger = LogManager.getLogger(MarsRestApplication.class);
-
 	/**
-	 * Sol temperature data cache. Sol number is used as key and Sol temperature data as value.  
+	 * Factory for the CBOR generators writing range query responses.
 	 */
-	private final Map<Integer, SolData> solDataMap = new HashMap<Integer, SolData>();
+	private static final JsonFactory cborFactory = new CBORFactory();
 	
 	/*
-	 * Write and read locks for cache concurrency control.
+	 * Writers for the aggregate query results. Writers are immutable and thread-safe.
+	 */
+	private static final ObjectWriter aggregateWriter = new ObjectMapper().writerWithType(TemperatureAggregate.class);
+	private static final ObjectWriter aggregatesWriter = new ObjectMapper().writerWithType(TemperatureAggregate[].class);
+	private static final ObjectWriter movingAveragesWriter = new ObjectMapper().writerWithType(SolMovingAverage[].class);
+	
+	/**
+	 * An encoded range query result.
+	 */
+	private static final class QueryResult {
+		final byte[] body;
+		
+		/**
+		 * Cursor of the next page, for paged results.
+		 */
+		final String next;
+		
+		QueryResult(byte[] body, String next) {
+			this.body = body;
+			this.next = next;
+		}
+	}
+	
+	/**
+	 * Evaluates a range query against a view of the Sol archive.
 	 */
-	private final Lock writeLock;
-	private final Lock readLock;
+	private interface QueryEvaluator {
+		QueryResult evaluate(SolRollups rollups) throws IOException;
+	}
+	
+	/**
+	 * A range query, with its parameters already validated.
+	 */
+	private static final class RangeQuery {
+		
+		/**
+		 * The query, with its parameters in a fixed order. Keys the query cache.
+		 */
+		final String key;
+		
+		/*
+		 * Range of Sol numbers the result depends on.
+		 */
+		final int fromSol;
+		final int toSol;
+		
+		final QueryEvaluator evaluator;
+		
+		RangeQuery(String key, int fromSol, int toSol, QueryEvaluator evaluator) {
+			this.key = key;
+			this.fromSol = fromSol;
+			this.toSol = toSol;
+			this.evaluator = evaluator;
+		}
+	}
+	
+	/**
+	 * State of the Sol archive range queries are evaluated against: the rollups, along with the
+	 * index they were built from, and the query cache stamp taken before reading them.
+	 */
+	private static final class ArchiveView {
+		final SolRollups rollups;
+		final long stamp;
+		
+		ArchiveView(SolRollups rollups, long stamp) {
+			this.rollups = rollups;
+			this.stamp = stamp;
+		}
+	}
+	
+	/**
+	 * The result of a batch query. The body, already encoded as JSON, is null for failed queries.
+	 */
+	static final class BatchResult {
+		final String id;
+		final int status;
+		final byte[] body;
+		
+		/**
+		 * Numbers of the Sols removed since the version given to a list query. Null for the other
+		 * results.
+		 */
+		final int[] removed;
+		
+		BatchResult(String id, int status, byte[] body) {
+			this(id, status, body, null);
+		}
+		
+		BatchResult(String id, int status, byte[] body, int[] removed) {
+			this.id = id;
+			this.status = status;
+			this.body = body;
+			this.removed = removed;
+		}
+	}
+	
+	private static final Logger logger = LogManager.getLogger(MarsRestApplication.class);
+	
+	/**
+	 * Sol temperature data cache.
+	 */
+	private final SolDataCache cache;
+	
+	/**
+	 * Persistent archive of every Sol ever loaded into the cache.
+	 */
+	private final SolArchive archive;
+
+	/**
+	 * Results of the range queries over the Sol archive. Null when disabled.
+	 */
+	private final QueryResultCache<QueryResult> queryCache;
 
 	/**
-	 * Pre-built HTTP request for NASA's REST API.
+	 * Pushes the cache changes to the live updates subscribers.
 	 */
-	private final Builder nasaRequest;
+	private final SolUpdateBroadcaster broadcaster;
+
+	/**
+	 * Shares the cache snapshots with the other replicas. Null when disabled.
+	 */
+	private final ReplicationNode replication;
+
+	/**
+	 * Provider for the NASA's REST API, the cache data source.
+	 */
+	private final NasaInSightProvider nasaProvider;
+	
+	/**
+	 * Maximum time, in milliseconds, a suspended request waits for the cache to be loaded.
+	 */
+	private final long responseTimeout;
+	
+	/**
+	 * Maximum number of queries in a batch request.
+	 */
+	private final int batchMaxQueries;
+	
+	/**
+	 * Evaluates the range queries of the batch requests.
+	 */
+	private final ExecutorService batchExecutor;
 	
 	public MarsWeatherService(){
+		this(null);
+	}
+	
+	/**
+	 * Builds the service with an alternative data source for the cache. Meant for benchmarking
+	 * the service without accessing the NASA's API.
+	 * 
+	 * @param loader the cache data source, or <code>null</code> for the NASA's API
+	 */
+	MarsWeatherService(SolDataCache.Loader loader){
 		logger.info("Mars Weather Service starting");
 		/*
 		 * Storing the necessary application properties in instance fields for further use: 
@@ -97,139 +329,1001 @@ public class MarsWeatherService {
 		final String nasaKey = appProperties.getProperty(MarsRestApplication.NASA_API_KEY_KEY);
 		final String nasaUri = appProperties.getProperty(MarsRestApplication.NASA_API_URI_KEY);
 		/*
-		 * Trying to honor the user specified cache invalidation period:  
+		 * Building a HTTP client that will be shared by every NASA' API provider.
+		 */
+		final Client client = ClientBuilder.newBuilder().build();
+		client.property(ClientProperties.CONNECT_TIMEOUT, (int) SECONDS_IN_MILLIS * MarsRestApplication.getIntProperty(
+				MarsRestApplication.NASA_API_CONNECT_TIMEOUT_KEY, MarsRestApplication.DEFAULT_NASA_API_CONNECT_TIMEOUT));
+		client.property(ClientProperties.READ_TIMEOUT, (int) SECONDS_IN_MILLIS * MarsRestApplication.getIntProperty(
+				MarsRestApplication.NASA_API_READ_TIMEOUT_KEY, MarsRestApplication.DEFAULT_NASA_API_READ_TIMEOUT));
+		final boolean treeParserEnabled = "TREE".equalsIgnoreCase(
+				appProperties.getProperty(MarsRestApplication.NASA_API_PARSER_KEY).trim());
+		nasaProvider = new NasaInSightProvider("NASA InSight API", client, nasaUri, nasaKey, NASA_API_VERSION,
+				treeParserEnabled);
+		responseTimeout = SECONDS_IN_MILLIS * MarsRestApplication.getIntProperty(
+				MarsRestApplication.RESPONSE_TIMEOUT_KEY, MarsRestApplication.DEFAULT_RESPONSE_TIMEOUT);
+		batchMaxQueries = MarsRestApplication.getIntProperty(MarsRestApplication.BATCH_MAX_QUERIES_KEY,
+				MarsRestApplication.DEFAULT_BATCH_MAX_QUERIES);
+		final int batchThreads = MarsRestApplication.getIntProperty(MarsRestApplication.BATCH_THREADS_KEY,
+				MarsRestApplication.DEFAULT_BATCH_THREADS);
+		final AtomicInteger batchThreadCount = new AtomicInteger();
+		batchExecutor = Executors.newFixedThreadPool(batchThreads > 0 ? batchThreads : Runtime.getRuntime().availableProcessors(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable, "Batch Query " + batchThreadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		/*
+		 * Trying to honor the user specified cache refresh policy:  
 		 */
-		final String invPeriodString = appProperties.getProperty(MarsRestApplication.CACHE_INVALIDATION_PERIOD_KEY);
-		int invalidationPeriod;
+		SolDataCache.RefreshMode refreshMode;
 		try {
-			invalidationPeriod = Integer.parseInt(invPeriodString) * HOURS_IN_MILLIS;
-		} catch (NumberFormatException e) {
-			logger.warn("Invalid invalidation period from application properties. Using default value instead.");
-			invalidationPeriod = Integer.parseInt(MarsRestApplication.DEFAULT_CACHE_INVALIDATION_PERIOD) * HOURS_IN_MILLIS;
+			refreshMode = SolDataCache.RefreshMode.valueOf(appProperties.getProperty(
+					MarsRestApplication.CACHE_REFRESH_MODE_KEY).trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			logger.warn("Invalid cache refresh mode from application properties. Using default value instead.");
+			refreshMode = SolDataCache.RefreshMode.valueOf(MarsRestApplication.DEFAULT_CACHE_REFRESH_MODE);
+		}
+		long softTtl;
+		long hardTtl;
+		if (refreshMode == SolDataCache.RefreshMode.BACKGROUND) {
+			softTtl = HOURS_IN_MILLIS * MarsRestApplication.getIntProperty(
+					MarsRestApplication.CACHE_SOFT_TTL_KEY, MarsRestApplication.DEFAULT_CACHE_SOFT_TTL);
+			hardTtl = HOURS_IN_MILLIS * MarsRestApplication.getIntProperty(
+					MarsRestApplication.CACHE_HARD_TTL_KEY, MarsRestApplication.DEFAULT_CACHE_HARD_TTL);
+		} else {
+			// The whole cache expires at once after the invalidation period
+			softTtl = hardTtl = HOURS_IN_MILLIS * MarsRestApplication.getIntProperty(
+					MarsRestApplication.CACHE_INVALIDATION_PERIOD_KEY, MarsRestApplication.DEFAULT_CACHE_INVALIDATION_PERIOD);
 		}
 		/*
-		 * Building a request object that will be reused on every NASA' API access.
+		 * Opening the Sol archive. Every Sol loaded into the cache is archived as well:
 		 */
-		final Client client = ClientBuilder.newBuilder().build();
-		final WebTarget target = client.target(nasaUri
-				).queryParam("api_key", nasaKey
-				).queryParam("feedtype", "json"
-				).queryParam("ver", NASA_API_VERSION);
-		nasaRequest = target.request();
+		final String archiveDir = appProperties.getProperty(MarsRestApplication.SOL_ARCHIVE_DIR_KEY);
+		try {
+			archive = SolArchive.open(Paths.get(archiveDir));
+		} catch (IOException e) {
+			logger.error("Failure while opening the Sol archive at "+archiveDir, e);
+			throw new IllegalStateException("Sol archive unavailable", e);
+		}
 		/*
-		 * Locks for cache concurrency control:
+		 * Range query results are cached until Sols in their range change:
 		 */
-		final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-		writeLock = readWriteLock.writeLock();
-		readLock = readWriteLock.readLock();
+		final int queryCacheEntries = MarsRestApplication.getIntProperty(MarsRestApplication.QUERY_CACHE_MAX_ENTRIES_KEY,
+				MarsRestApplication.DEFAULT_QUERY_CACHE_MAX_ENTRIES);
+		if (queryCacheEntries > 0) {
+			queryCache = new QueryResultCache<QueryResult>("sol_queries", queryCacheEntries,
+					MarsRestApplication.getIntProperty(MarsRestApplication.QUERY_CACHE_MAX_BYTES_KEY,
+							MarsRestApplication.DEFAULT_QUERY_CACHE_MAX_BYTES));
+			archive.addStoreListener(new SolArchive.StoreListener() {
+				@Override
+				public void solsStored(int[] solIds) {
+					queryCache.invalidate(solIds);
+				}
+			});
+		} else {
+			queryCache = null;
+		}
 		/*
-		 * Cache invalidation daemon thread initialization:
+		 * Limits protecting the NASA's API from bursts and retry storms:
 		 */
-		final Timer timer = new Timer("Cache Invalidation Timer", true);
-		final TimerTask timerTask = new TimerTask() {
+		final UpstreamFetchCoordinator.Settings upstreamSettings = new UpstreamFetchCoordinator.Settings(
+				MarsRestApplication.getIntProperty(MarsRestApplication.NASA_API_MAX_CONCURRENT_REQUESTS_KEY,
+						MarsRestApplication.DEFAULT_NASA_API_MAX_CONCURRENT_REQUESTS),
+				MarsRestApplication.getIntProperty(MarsRestApplication.NASA_API_RATE_LIMIT_KEY,
+						MarsRestApplication.DEFAULT_NASA_API_RATE_LIMIT),
+				SECONDS_IN_MILLIS * MarsRestApplication.getIntProperty(MarsRestApplication.NASA_API_RETRY_BACKOFF_KEY,
+						MarsRestApplication.DEFAULT_NASA_API_RETRY_BACKOFF),
+				SECONDS_IN_MILLIS * MarsRestApplication.getIntProperty(MarsRestApplication.NASA_API_MAX_RETRY_BACKOFF_KEY,
+						MarsRestApplication.DEFAULT_NASA_API_MAX_RETRY_BACKOFF));
+		final SolDataCache.Loader source = loader;
+		cache = new SolDataCache("NASA InSight API", new SolDataCache.Loader() {
 			@Override
-			public void run() {
-				logger.debug("Invalidation thread running");
-				writeLock.lock();
-				solDataMap.clear();
-				writeLock.unlock();
-				logger.debug("Cache invalidated");
-			}
-		};
-		timer.scheduleAtFixedRate(timerTask , invalidationPeriod, invalidationPeriod);
+			public CompletableFuture<Map<Integer, SolData>> load() {
+				return source != null ? source.load() : loadDataFromServer();
+			}
+		}, refreshMode, softTtl, hardTtl, upstreamSettings);
+		broadcaster = new SolUpdateBroadcaster(
+				MarsRestApplication.getIntProperty(MarsRestApplication.SSE_QUEUE_CAPACITY_KEY,
+						MarsRestApplication.DEFAULT_SSE_QUEUE_CAPACITY),
+				MarsRestApplication.getIntProperty(MarsRestApplication.SSE_WRITER_THREADS_KEY,
+						MarsRestApplication.DEFAULT_SSE_WRITER_THREADS),
+				SECONDS_IN_MILLIS * MarsRestApplication.getIntProperty(MarsRestApplication.SSE_HEARTBEAT_PERIOD_KEY,
+						MarsRestApplication.DEFAULT_SSE_HEARTBEAT_PERIOD));
+		cache.addChangeListener(broadcaster);
+		/*
+		 * Sols added or revised by the cache are archived by the cache publisher thread, once the
+		 * readers waiting for them and the live update subscribers are served. This covers the
+		 * snapshots installed by a replication leader too:
+		 */
+		cache.addChangeListener(new SolDataCache.ChangeListener() {
+			@Override
+			public void snapshotChanged(SolDataSnapshot previous, SolDataSnapshot current) {
+				archiveData(Arrays.asList(previous != null ? current.getSolsSince(previous.getVersion()) : current.getSols()));
+			}
+		});
+		/*
+		 * With several replicas, a single one loads the NASA data and the others install its snapshots:
+		 */
+		replication = source == null ? createReplication(appProperties, client) : null;
+		/*
+		 * Warm start: the NASA data cache is restored from the snapshot saved by the last run and,
+		 * if asked for, loaded in background right away instead of on the first request. A replica
+		 * elected leader loads the cache right away, while the other ones wait for its snapshots:
+		 */
+		if (source == null) {
+			final String snapshotFile = appProperties.getProperty(MarsRestApplication.CACHE_SNAPSHOT_FILE_KEY).trim();
+			if (!snapshotFile.isEmpty()) {
+				cache.persistTo(Paths.get(snapshotFile));
+			}
+			if (replication != null) {
+				replication.start();
+			} else if ("ON".equalsIgnoreCase(appProperties.getProperty(MarsRestApplication.CACHE_PREFETCH_KEY).trim())) {
+				cache.refreshIfStale();
+			}
+		}
+		/*
+		 * Additional data sources feed the archive only:
+		 */
+		final List<IngestionPipeline.Source> ingestionSources = createIngestionSources(appProperties, client, treeParserEnabled,
+				upstreamSettings);
+		if (!ingestionSources.isEmpty()) {
+			new IngestionPipeline(archive, ingestionSources).start();
+		}
 		logger.info("Mars Weather Service started");
 	}
 	
 	/**
 	 * Gets the last temperature data in Mars. 
 	 * 
-	 * @return an array containing one {@link SolData} object for each Sol. Theses objects encapsulate
-	 *         the temperature measurements for the Sol.
+	 * <p>The response body is a JSON array containing one {@link SolData} object for each Sol, sorted
+	 * by Sol number. Theses objects encapsulate the temperature measurements for the Sol. The array
+	 * is encoded, and compressed, once per cache snapshot and written as is. Responses carry
+	 * validators for conditional requests, so polling clients get a <code>304 Not Modified</code>
+	 * status until the data changes. Binary representations of the array, also encoded once per
+	 * snapshot, are available through the <code>Accept</code> header (see {@link SolMediaType}).
+	 * 
+	 * <p>Every response carries the version of the data in the <code>{@value #DATA_VERSION_HEADER}</code>
+	 * header. Clients passing it back as the <code>since</code> parameter get only the Sols added or
+	 * revised after that version, in the same representations, assembled from the encodings of each
+	 * Sol held by the snapshot. The Sols removed since, no longer returned by the NASA's API, are
+	 * listed by the <code>{@value #REMOVED_SOLS_HEADER}</code> header, empty if there is none. When
+	 * the changes since that version are not known, as after a server restart, the whole array is
+	 * sent instead, without that header, and replaces the client data.
+	 * 
+	 * <p>The request is processed asynchronously. When the cache holds valid data, the response is
+	 * resumed at once. Otherwise, the request is suspended, releasing its server thread, until the
+	 * cache is loaded from the NASA's API. Requests still waiting after the response timeout are
+	 * answered with <code>503 Service Unavailable</code>. Loading failures are reported as
+	 * {@link MarsWeatherServiceException}s.
 	 * 
-	 * @throws MarsWeatherServiceException if there is some problem acquiring the temperature data
+	 * @param request the request, whose <code>Accept</code> header chooses the representation
+	 * @param since version of the data held by the client, if any
+	 * @param asyncResponse the suspended response, resumed with the encoded Sol data array
 	 * 
 	 * @see SolData
 	 */
 	@GET
 	@Path("/list")
-	@Produces(MediaType.APPLICATION_JSON)
-	public SolData[] getTemperatures() throws MarsWeatherServiceException {
-		logger.info("Average temperatures requested");
-		/*
-		 * Lock for protection against undesired cache invalidation between checking emptiness
-		 * and effectively loading data from cache.
-		 */
-		readLock.lock();
-		if (solDataMap.isEmpty()) {
+	@Produces({MediaType.APPLICATION_JSON, SolMediaType.APPLICATION_CBOR, SolMediaType.APPLICATION_SOLS_PACKED})
+	public void getTemperatures(@Context Request request, @QueryParam("since") final Long since,
+			@Suspended final AsyncResponse asyncResponse) {
+		logger.debug("Average temperatures requested");
+		final Variant variant = request.selectVariant(SolMediaType.VARIANTS);
+		if (variant == null) {
+			asyncResponse.resume(Response.notAcceptable(SolMediaType.VARIANTS).build());
+			return;
+		}
+		final MediaType mediaType = variant.getMediaType();
+		final SolDataSnapshot cached = cache.getCachedSnapshot();
+		if (cached != null) {
+			asyncResponse.resume(toResponse(cached, mediaType, since));
+			return;
+		}
+		asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+			@Override
+			public void handleTimeout(AsyncResponse timedOut) {
+				logger.warn("Timeout while waiting for the cache to be loaded");
+				timedOut.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+			}
+		});
+		asyncResponse.setTimeout(responseTimeout, TimeUnit.MILLISECONDS);
+		cache.getSnapshotAsync().whenComplete(new BiConsumer<SolDataSnapshot, Throwable>() {
+			@Override
+			public void accept(SolDataSnapshot snapshot, Throwable error) {
+				if (error == null) {
+					asyncResponse.resume(toResponse(snapshot, mediaType, since));
+				} else {
+					final Throwable cause = UpstreamFetchCoordinator.unwrap(error);
+					if (!(cause instanceof MarsWeatherServiceException)) {
+						logger.error("Unexpected failure while loading the cache", cause);
+					}
+					asyncResponse.resume(cause);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Subscribes to the live updates of the temperature data in Mars, as Server-Sent Events.
+	 * 
+	 * <p>A <code>sols</code> event is sent whenever a cache refresh finds new or revised Sols. Its
+	 * data is a JSON array holding only those Sols, with the same {@link SolData} objects returned by
+	 * {@link #getTemperatures(Request, Long, AsyncResponse)}, and its id is the version of the data, as
+	 * the <code>{@value #DATA_VERSION_HEADER}</code> header. The first event holds every known Sol, or
+	 * only the ones added or revised since the <code>Last-Event-ID</code> header sent by a
+	 * reconnecting client.
+	 * 
+	 * @param lastEventId the id of the last event received before reconnecting, if any
+	 * 
+	 * @return the event stream, kept open until the client disconnects
+	 */
+	@GET
+	@Path("/events")
+	@Produces(SseFeature.SERVER_SENT_EVENTS)
+	public EventOutput getUpdates(@HeaderParam(SseFeature.LAST_EVENT_ID_HEADER) String lastEventId) {
+		logger.debug("Live updates requested");
+		final EventOutput output = new EventOutput();
+		broadcaster.subscribe(output, lastEventId);
+		if (cache.getCachedSnapshot() == null) {
+			// Subscribers are sent the data once loaded
+			cache.getSnapshotAsync();
+		}
+		return output;
+	}
+	
+	/**
+	 * Builds a response for a cache snapshot. The snapshot is replaced by one of its pre-encoded
+	 * bodies, or by a <code>304 Not Modified</code> status, by the {@link ConditionalRequestFilter}.
+	 */
+	static Response toResponse(SolDataSnapshot snapshot, MediaType mediaType, Long since) {
+		if (since == null || !snapshot.knowsChangesSince(since)) {
+			return Response.ok(snapshot, mediaType).build();
+		}
+		final byte[] changes;
+		if (mediaType.isCompatible(SolMediaType.APPLICATION_CBOR_TYPE)) {
+			changes = snapshot.getCborSince(since);
+		} else if (mediaType.isCompatible(SolMediaType.APPLICATION_SOLS_PACKED_TYPE)) {
+			changes = snapshot.getPackedSince(since);
+		} else {
+			changes = snapshot.getJsonSince(since);
+		}
+		return Response.ok(changes, mediaType).header(DATA_VERSION_HEADER, snapshot.getVersion())
+				.header(REMOVED_SOLS_HEADER, joinSolIds(snapshot.getRemovedSince(since))).build();
+	}
+	
+	private static String joinSolIds(int[] solIds) {
+		final StringBuilder joined = new StringBuilder();
+		for (int solId : solIds) {
+			if (joined.length() > 0) {
+				joined.append(',');
+			}
+			joined.append(solId);
+		}
+		return joined.toString();
+	}
+	
+	/**
+	 * Gets the archived weather data for a range of Sols, one page at a time.
+	 * 
+	 * <p>The response body is a JSON object holding a <code>sols</code> array, with the same
+	 * {@link SolData} objects returned by {@link #getTemperatures(Request, Long, AsyncResponse)} sorted by Sol number, and
+	 * a <code>next</code> cursor. The cursor is <code>null</code> on the last page. Otherwise,
+	 * it must be passed back, along with the original range, to get the following page. The
+	 * <code>fields</code> parameter selects other {@link SolField}s, such as the pressure and wind
+	 * measurements, instead of the temperatures.
+	 * 
+	 * <p>The page may also be written in one of the binary {@link SolMediaType}s, chosen through
+	 * the <code>Accept</code> header. The CBOR page has the same structure as the JSON one. The
+	 * packed page holds only the Sol temperature records, so it doesn't take other fields, and its
+	 * cursor is returned by the <code>{@value #NEXT_CURSOR_HEADER}</code> header, which is sent
+	 * with every representation.
+	 * 
+	 * <p>The range is resolved by a binary search on the archive index and the page is encoded
+	 * straight from the archive columns, so the response time doesn't depend on the archive size.
+	 * Encoded pages, like the results of the other range queries, are kept by a query cache until
+	 * Sols in their range change.
+	 * 
+	 * @param request the request, whose <code>Accept</code> header chooses the representation
+	 * @param from first Sol number of the range, inclusive. Defaults to the first archived Sol.
+	 * @param to last Sol number of the range, inclusive. Defaults to the last archived Sol.
+	 * @param limit maximum number of Sols in the page, up to {@value #MAX_PAGE_LIMIT}.
+	 *        Defaults to {@value #DEFAULT_PAGE_LIMIT}.
+	 * @param cursor cursor returned by the previous page, if any
+	 * @param fields comma separated names of the {@link SolField}s to be written besides the Sol
+	 *        number. Defaults to <code>avg,min,max</code>.
+	 * 
+	 * @return a response holding the encoded page
+	 */
+	@GET
+	@Path("/sols")
+	@Produces({MediaType.APPLICATION_JSON, SolMediaType.APPLICATION_CBOR, SolMediaType.APPLICATION_SOLS_PACKED})
+	public Response getSols(@Context Request request, @QueryParam("from") Integer from, @QueryParam("to") Integer to,
+			@QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor, @QueryParam("fields") String fields)
+			throws MarsWeatherServiceException {
+		logger.debug("Sol range requested");
+		final Variant variant = request.selectVariant(SolMediaType.VARIANTS);
+		if (variant == null) {
+			return Response.notAcceptable(SolMediaType.VARIANTS).build();
+		}
+		final MediaType mediaType = variant.getMediaType();
+		final RangeQuery query;
+		try {
+			query = solsQuery(mediaType, from, to, limit, cursor, fields);
+		} catch (IllegalArgumentException e) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		final QueryResult page = query(query, viewArchive());
+		return Response.ok(page.body, mediaType).header(NEXT_CURSOR_HEADER, page.next).build();
+	}
+	
+	/**
+	 * Builds a Sol range query. Parameters are described by
+	 * {@link #getSols(Request, Integer, Integer, Integer, String, String)}.
+	 * 
+	 * @throws IllegalArgumentException if some parameter is invalid
+	 */
+	private RangeQuery solsQuery(final MediaType mediaType, Integer from, Integer to, Integer limit, String cursor,
+			String fields) {
+		final int pageLimit = limit != null ? limit : DEFAULT_PAGE_LIMIT;
+		if (pageLimit < 1 || pageLimit > MAX_PAGE_LIMIT) {
+			throw new IllegalArgumentException("Invalid page limit: " + pageLimit);
+		}
+		int parsedFirstSol = from != null ? from : Integer.MIN_VALUE;
+		final int lastSol = to != null ? to : Integer.MAX_VALUE;
+		if (cursor != null) {
 			/*
-			 * Cache is empty. NASA API access is required. Let's upgrade to write lock to make
-			 * sure there are no readers in the critical section during cache update.
+			 * The cursor holds the number of the first Sol in the requested page:
 			 */
-			readLock.unlock();
-			writeLock.lock();
-			try {
-				// Second test is necessary to make sure another thread hasn't updated the cache before ourselves.
-				if (solDataMap.isEmpty()) {
-					logger.debug("Reading data from NASA server");
-					loadDataFromServer();
+			parsedFirstSol = Math.max(parsedFirstSol, Integer.parseInt(cursor));
+		}
+		final Set<SolField> selectedFields = SolField.parse(fields);
+		if (!selectedFields.equals(SolField.DEFAULT_FIELDS)
+				&& mediaType.isCompatible(SolMediaType.APPLICATION_SOLS_PACKED_TYPE)) {
+			throw new IllegalArgumentException("Packed records have a fixed layout");
+		}
+		final int firstSol = parsedFirstSol;
+		final StringBuilder key = new StringBuilder("sols?type=").append(mediaType).append("&from=").append(firstSol)
+				.append("&to=").append(lastSol).append("&limit=").append(pageLimit).append("&fields=");
+		for (SolField field : selectedFields) {
+			key.append(field.getName()).append(',');
+		}
+		return new RangeQuery(key.toString(), firstSol, lastSol, new QueryEvaluator() {
+			@Override
+			public QueryResult evaluate(SolRollups rollups) throws IOException {
+				return readPage(rollups.getIndex(), mediaType, firstSol, lastSol, pageLimit, selectedFields);
+			}
+		});
+	}
+	
+	/**
+	 * Encodes a page of a Sol range query straight from the archive columns.
+	 */
+	private QueryResult readPage(SolIndex index, MediaType mediaType, int firstSol, int lastSol, int pageLimit,
+			Set<SolField> fields) throws IOException {
+		final int start = index.lowerBound(firstSol);
+		int end = start;
+		while (end < index.size() && end - start < pageLimit && index.getSolId(end) <= lastSol) {
+			end++;
+		}
+		final String next = end < index.size() && index.getSolId(end) <= lastSol
+				? Integer.toString(index.getSolId(end)) : null;
+		if (mediaType.isCompatible(SolMediaType.APPLICATION_SOLS_PACKED_TYPE)) {
+			final ByteBuffer records = ByteBuffer.allocate((end - start) * SolDataSnapshot.PACKED_SOL_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			for (int position = start; position < end; position++) {
+				final int row = index.getRow(position);
+				records.putInt(index.getSolId(position));
+				records.putFloat(archive.getAverageTemperature(row));
+				records.putFloat(archive.getMinimumTemperature(row));
+				records.putFloat(archive.getMaximumTemperature(row));
+			}
+			return new QueryResult(records.array(), next);
+		}
+		final JsonFactory factory = mediaType.isCompatible(SolMediaType.APPLICATION_CBOR_TYPE) ? cborFactory : jsonFactory;
+		final ByteArrayOutputStream output = new ByteArrayOutputStream(64 + 64 * (end - start));
+		try (JsonGenerator generator = factory.createGenerator(output)) {
+			generator.writeStartObject();
+			generator.writeArrayFieldStart("sols");
+			for (int position = start; position < end; position++) {
+				final int row = index.getRow(position);
+				generator.writeStartObject();
+				generator.writeNumberField("id", index.getSolId(position));
+				for (SolField field : fields) {
+					field.write(generator, archive, row);
 				}
-				/*
-				 * Downgrade to read lock. We're done with cache update. However, we haven't finished
-				 * data reading yet. Order is important here: Acquire read lock first, release write lock later.
-				 */
-				readLock.lock();
-			}catch(Exception e){
-				logger.error("Unexpected error during NASA's API access 0.", e);
-			}finally {
-				writeLock.unlock();
-			}
-		}else{
-			logger.debug("Serving from local cache");
-		}
-		final SolData[] array = solDataMap.values().toArray(new SolData[0]);
-		
-		// Leaving critical section. Data is ready is to be returned to caller.
-		readLock.unlock();
-		
-		return array;
+				generator.writeEndObject();
+			}
+			generator.writeEndArray();
+			generator.writeStringField("next", next);
+			generator.writeEndObject();
+		}
+		return new QueryResult(output.toByteArray(), next);
+	}
+	
+	/**
+	 * Aggregates the archived temperature data for a range of Sols: the mean of the daily average
+	 * temperatures, and the minimum and maximum temperatures. The aggregate is computed in
+	 * logarithmic time from rollups maintained as new data is archived.
+	 * 
+	 * @param from first Sol number of the range, inclusive. Defaults to the first archived Sol.
+	 * @param to last Sol number of the range, inclusive. Defaults to the last archived Sol.
+	 * 
+	 * @return a response holding the aggregated temperatures. Its bounds are the first and last
+	 *         archived Sols found in the range.
+	 */
+	@GET
+	@Path("/aggregate")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getAggregate(@QueryParam("from") Integer from, @QueryParam("to") Integer to)
+			throws MarsWeatherServiceException {
+		logger.debug("Temperature aggregate requested");
+		final QueryResult aggregate = query(aggregateQuery(from, to), viewArchive());
+		return Response.ok(aggregate.body, MediaType.APPLICATION_JSON_TYPE).build();
+	}
+	
+	/**
+	 * Builds a temperature aggregate query. Parameters are described by
+	 * {@link #getAggregate(Integer, Integer)}.
+	 */
+	private static RangeQuery aggregateQuery(final Integer from, final Integer to) {
+		return new RangeQuery("aggregate?from=" + from + "&to=" + to,
+				from != null ? from : Integer.MIN_VALUE, to != null ? to : Integer.MAX_VALUE, new QueryEvaluator() {
+			@Override
+			public QueryResult evaluate(SolRollups rollups) throws IOException {
+				final int start = rollups.getIndex().lowerBound(from != null ? from : Integer.MIN_VALUE);
+				final int end = rollups.upperBound(to != null ? to : Integer.MAX_VALUE);
+				final TemperatureAggregate result = start >= end
+						? toModel(from != null ? from : 0, to != null ? to : 0, rollups.aggregatePositions(0, 0))
+						: toModel(rollups.getIndex().getSolId(start), rollups.getIndex().getSolId(end - 1),
+								rollups.aggregatePositions(start, end));
+				return new QueryResult(aggregateWriter.writeValueAsBytes(result), null);
+			}
+		});
+	}
+	
+	/**
+	 * Aggregates the archived temperature data for a range of Sols in buckets of a fixed number of
+	 * Sols. Buckets are aligned to multiples of their size, so bucket <i>k</i> holds Sols
+	 * <i>k * size</i> to <i>(k + 1) * size - 1</i>. Buckets without archived data are omitted.
+	 * 
+	 * @param from first Sol number of the range, inclusive. Defaults to the first archived Sol.
+	 * @param to last Sol number of the range, inclusive. Defaults to the last archived Sol.
+	 * @param size number of Sols per bucket
+	 * 
+	 * @return a response holding the aggregated temperatures of each bucket, sorted by Sol number
+	 */
+	@GET
+	@Path("/aggregate/buckets")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getBucketAggregates(@QueryParam("from") Integer from, @QueryParam("to") Integer to,
+			@QueryParam("size") Integer size) throws MarsWeatherServiceException {
+		logger.debug("Temperature bucket aggregates requested");
+		final RangeQuery query;
+		try {
+			query = bucketAggregatesQuery(from, to, size);
+		} catch (IllegalArgumentException e) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		final QueryResult buckets = query(query, viewArchive());
+		return Response.ok(buckets.body, MediaType.APPLICATION_JSON_TYPE).build();
+	}
+	
+	/**
+	 * Builds a bucket aggregates query. Parameters are described by
+	 * {@link #getBucketAggregates(Integer, Integer, Integer)}.
+	 * 
+	 * @throws IllegalArgumentException if the bucket size is missing or invalid
+	 */
+	private static RangeQuery bucketAggregatesQuery(final Integer from, final Integer to, final Integer size) {
+		if (size == null || size < 1) {
+			throw new IllegalArgumentException("Invalid bucket size: " + size);
+		}
+		return new RangeQuery("aggregate/buckets?from=" + from + "&to=" + to + "&size=" + size,
+				from != null ? from : Integer.MIN_VALUE, to != null ? to : Integer.MAX_VALUE, new QueryEvaluator() {
+			@Override
+			public QueryResult evaluate(SolRollups rollups) throws IOException {
+				final SolIndex index = rollups.getIndex();
+				final int end = rollups.upperBound(to != null ? to : Integer.MAX_VALUE);
+				final List<TemperatureAggregate> result = new ArrayList<TemperatureAggregate>();
+				int start = index.lowerBound(from != null ? from : Integer.MIN_VALUE);
+				while (start < end) {
+					final long bucketStart = Math.floorDiv(index.getSolId(start), size) * (long) size;
+					final long bucketEnd = bucketStart + size - 1;
+					final int bucketEndPosition = Math.min(end, rollups.upperBound((int) Math.min(bucketEnd, Integer.MAX_VALUE)));
+					result.add(toModel((int) bucketStart, (int) Math.min(bucketEnd, Integer.MAX_VALUE),
+							rollups.aggregatePositions(start, bucketEndPosition)));
+					start = bucketEndPosition;
+				}
+				return new QueryResult(aggregatesWriter.writeValueAsBytes(result.toArray(new TemperatureAggregate[0])), null);
+			}
+		});
+	}
+	
+	/**
+	 * Gets the moving average of the daily average temperatures for each archived Sol in a range.
+	 * The average of a Sol covers the window of archived Sols ending at it, or fewer Sols at the
+	 * beginning of the archive. Each average is computed in constant time from prefix sums.
+	 * 
+	 * @param from first Sol number of the range, inclusive. Defaults to the first archived Sol.
+	 * @param to last Sol number of the range, inclusive. Defaults to the last archived Sol.
+	 * @param window number of archived Sols covered by each average
+	 * 
+	 * @return a response holding the moving averages, sorted by Sol number
+	 */
+	@GET
+	@Path("/aggregate/moving")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getMovingAverages(@QueryParam("from") Integer from, @QueryParam("to") Integer to,
+			@QueryParam("window") Integer window) throws MarsWeatherServiceException {
+		logger.debug("Temperature moving averages requested");
+		final RangeQuery query;
+		try {
+			query = movingAveragesQuery(from, to, window);
+		} catch (IllegalArgumentException e) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		final QueryResult averages = query(query, viewArchive());
+		return Response.ok(averages.body, MediaType.APPLICATION_JSON_TYPE).build();
 	}
 	
 	/**
-	 * Requests the last weather measurements from the NASA's API.
+	 * Builds a moving averages query. Parameters are described by
+	 * {@link #getMovingAverages(Integer, Integer, Integer)}.
 	 * 
-	 * @throws MarsWeatherServiceException if some communication error occurred
+	 * @throws IllegalArgumentException if the window is missing or invalid
 	 */
-	private void loadDataFromServer() throws MarsWeatherServiceException{
-		logger.debug("Accessing NASA server");
+	private static RangeQuery movingAveragesQuery(final Integer from, final Integer to, final Integer window) {
+		if (window == null || window < 1) {
+			throw new IllegalArgumentException("Invalid window: " + window);
+		}
 		/*
-		 * Fires HTTP request to NASA's API: 
+		 * Windows reach back to Sols before the range, so any Sol up to its end may change the result:
 		 */
-		final Response response = nasaRequest.get();
-		
-		if (response.getStatus() == HTTP_STATUS_SUCCESS) {
-			logger.debug("Successfull HTTP request");
-			final String jsonString = response.readEntity(String.class);
-			/*
-			 * Transforming the JSON raw string into Java DTOs:
-			 */
-			final WeatherJsonParser parser = new WeatherJsonParser();
+		return new RangeQuery("aggregate/moving?from=" + from + "&to=" + to + "&window=" + window,
+				Integer.MIN_VALUE, to != null ? to : Integer.MAX_VALUE, new QueryEvaluator() {
+			@Override
+			public QueryResult evaluate(SolRollups rollups) throws IOException {
+				final SolIndex index = rollups.getIndex();
+				final int start = index.lowerBound(from != null ? from : Integer.MIN_VALUE);
+				final int end = rollups.upperBound(to != null ? to : Integer.MAX_VALUE);
+				final SolMovingAverage[] result = new SolMovingAverage[Math.max(0, end - start)];
+				for (int position = start; position < end; position++) {
+					final float average = (float) rollups.meanAverageTemperature(Math.max(0, position - window + 1), position + 1);
+					result[position - start] = new SolMovingAverage(index.getSolId(position), average);
+				}
+				return new QueryResult(movingAveragesWriter.writeValueAsBytes(result), null);
+			}
+		});
+	}
+	
+	/**
+	 * Runs several queries at once, as a dashboard does on each page load. The request body is a
+	 * JSON array of {@link BatchQuery} objects, each one holding a client chosen id and the path,
+	 * with its query string, of one of the <code>/list</code>, <code>/sols</code> and
+	 * <code>/aggregate</code> requests, as in <code>sols?from=431&amp;limit=10</code>. The whole
+	 * batch pays for a single authentication and response.
+	 * 
+	 * <p>Queries are evaluated in parallel against a single view of the data, taken when the batch
+	 * is received: every <code>list</code> query gets the same cache snapshot, and every range
+	 * query the same archive index and rollups, whose rows are never overwritten by later stores.
+	 * The cache and the archive are fed apart, so the archive may also hold Sols from other
+	 * sources, or miss the latest Sols of the snapshot while they are being stored. Results are
+	 * JSON objects holding the query <code>id</code>, the HTTP <code>status</code> the equivalent
+	 * request would get and its JSON <code>body</code>, which is <code>null</code> for failed
+	 * queries. The pre-encoded bodies are copied as is. Results of the <code>list</code> queries
+	 * sent only the changes since a version also hold the <code>removed</code> Sol numbers, as the
+	 * <code>{@value #REMOVED_SOLS_HEADER}</code> header would.
+	 * 
+	 * <p>By default, the response is a JSON array of the results, in the order of the queries,
+	 * written once every query is done. Clients accepting <code>{@value #APPLICATION_NDJSON}</code>
+	 * are instead streamed each result, on a line of its own, as soon as it is ready.
+	 * 
+	 * @param request the request, whose <code>Accept</code> header chooses the representation
+	 * @param queries the queries, up to the configured maximum
+	 * @param asyncResponse the suspended response, resumed with the query results
+	 */
+	@POST
+	@Path("/batch")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, APPLICATION_NDJSON})
+	public void getBatch(@Context Request request, BatchQuery[] queries, @Suspended final AsyncResponse asyncResponse) {
+		logger.debug("Batch requested");
+		final Variant variant = request.selectVariant(BATCH_VARIANTS);
+		if (variant == null) {
+			asyncResponse.resume(Response.notAcceptable(BATCH_VARIANTS).build());
+			return;
+		}
+		if (queries == null || queries.length == 0 || queries.length > batchMaxQueries) {
+			asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).build());
+			return;
+		}
+		final ArchiveView view = viewArchive();
+		// Taken for the first list query only, so other batches leave the cache alone
+		CompletableFuture<SolDataSnapshot> snapshot = null;
+		final List<CompletableFuture<BatchResult>> results = new ArrayList<CompletableFuture<BatchResult>>(queries.length);
+		for (BatchQuery query : queries) {
+			final String id = query != null ? query.getId() : null;
+			final String path = query != null ? query.getPath() : null;
+			if (path == null) {
+				results.add(CompletableFuture.completedFuture(new BatchResult(id, Response.Status.BAD_REQUEST.getStatusCode(), null)));
+				continue;
+			}
+			final int separator = path.indexOf('?');
+			final String name = (separator < 0 ? path : path.substring(0, separator)).replaceAll("^/+|/+$", "");
+			if ("list".equals(name)) {
+				final Long since;
+				try {
+					final String sinceParameter = UriComponent.decodeQuery(
+							separator < 0 ? "" : path.substring(separator + 1), true).getFirst("since");
+					since = sinceParameter != null ? Long.valueOf(sinceParameter) : null;
+				} catch (IllegalArgumentException e) {
+					results.add(CompletableFuture.completedFuture(new BatchResult(id, Response.Status.BAD_REQUEST.getStatusCode(), null)));
+					continue;
+				}
+				if (snapshot == null) {
+					snapshot = getSnapshotForBatch();
+				}
+				results.add(snapshot.handle(new BiFunction<SolDataSnapshot, Throwable, BatchResult>() {
+					@Override
+					public BatchResult apply(SolDataSnapshot loaded, Throwable error) {
+						if (error != null) {
+							return new BatchResult(id, Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), null);
+						}
+						if (loaded == null) {
+							return new BatchResult(id, Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), null);
+						}
+						if (since == null || !loaded.knowsChangesSince(since)) {
+							return new BatchResult(id, Response.Status.OK.getStatusCode(), loaded.getJson());
+						}
+						return new BatchResult(id, Response.Status.OK.getStatusCode(), loaded.getJsonSince(since),
+								loaded.getRemovedSince(since));
+					}
+				}));
+				continue;
+			}
+			final RangeQuery rangeQuery;
+			try {
+				rangeQuery = batchRangeQuery(name,
+						UriComponent.decodeQuery(separator < 0 ? "" : path.substring(separator + 1), true));
+			} catch (IllegalArgumentException e) {
+				results.add(CompletableFuture.completedFuture(new BatchResult(id, Response.Status.BAD_REQUEST.getStatusCode(), null)));
+				continue;
+			}
+			if (rangeQuery == null) {
+				results.add(CompletableFuture.completedFuture(new BatchResult(id, Response.Status.NOT_FOUND.getStatusCode(), null)));
+				continue;
+			}
+			results.add(CompletableFuture.supplyAsync(new Supplier<BatchResult>() {
+				@Override
+				public BatchResult get() {
+					try {
+						return new BatchResult(id, Response.Status.OK.getStatusCode(), query(rangeQuery, view).body);
+					} catch (MarsWeatherServiceException e) {
+						return new BatchResult(id, Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), null);
+					} catch (RuntimeException e) {
+						logger.error("Failure while running a batch query", e);
+						return new BatchResult(id, Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), null);
+					}
+				}
+			}, batchExecutor));
+		}
+		if (variant.getMediaType().isCompatible(APPLICATION_NDJSON_TYPE)) {
+			final ChunkedOutput<byte[]> output = new ChunkedOutput<byte[]>(byte[].class);
+			asyncResponse.resume(Response.ok(output, APPLICATION_NDJSON_TYPE).build());
+			streamBatchResults(results, output);
+			return;
+		}
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void done, Throwable error) {
+				final ByteArrayOutputStream output = new ByteArrayOutputStream();
+				try (JsonGenerator generator = jsonFactory.createGenerator(output)) {
+					generator.writeStartArray();
+					for (CompletableFuture<BatchResult> result : results) {
+						writeBatchResult(generator, output, result.join());
+					}
+					generator.writeEndArray();
+				} catch (IOException | RuntimeException e) {
+					logger.error("Failure while encoding a batch response", e);
+					asyncResponse.resume(new MarsWeatherServiceException("Failure while encoding the batch response."));
+					return;
+				}
+				asyncResponse.resume(Response.ok(output.toByteArray(), MediaType.APPLICATION_JSON_TYPE).build());
+			}
+		});
+	}
+	
+	/**
+	 * Builds the range query of a batch.
+	 * 
+	 * @param name the query path, without the query string
+	 * @param params the query string parameters
+	 * 
+	 * @return the query, or null if there is no such query
+	 * 
+	 * @throws IllegalArgumentException if some parameter is invalid
+	 */
+	private RangeQuery batchRangeQuery(String name, MultivaluedMap<String, String> params) {
+		final Integer from = getIntParam(params, "from");
+		final Integer to = getIntParam(params, "to");
+		switch (name) {
+		case "sols":
+			return solsQuery(MediaType.APPLICATION_JSON_TYPE, from, to, getIntParam(params, "limit"),
+					params.getFirst("cursor"), params.getFirst("fields"));
+		case "aggregate":
+			return aggregateQuery(from, to);
+		case "aggregate/buckets":
+			return bucketAggregatesQuery(from, to, getIntParam(params, "size"));
+		case "aggregate/moving":
+			return movingAveragesQuery(from, to, getIntParam(params, "window"));
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * @throws NumberFormatException if the parameter is not an integer
+	 */
+	private static Integer getIntParam(MultivaluedMap<String, String> params, String name) {
+		final String value = params.getFirst(name);
+		return value != null ? Integer.valueOf(value) : null;
+	}
+	
+	/**
+	 * Gets the cache snapshot shared by the <code>list</code> queries of a batch, loading the cache
+	 * if necessary.
+	 * 
+	 * @return a future completed with the snapshot, or with null if the cache is not loaded within
+	 *         the response timeout
+	 */
+	private CompletableFuture<SolDataSnapshot> getSnapshotForBatch() {
+		final SolDataSnapshot cached = cache.getCachedSnapshot();
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		// The loading future is shared by every waiting request, so the timeout is set on a copy
+		return cache.getSnapshotAsync().copy().completeOnTimeout(null, responseTimeout, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Streams the results of a batch, one JSON object per line, as soon as each one is ready.
+	 * Results failing unexpectedly are written with a 500 status. The output is closed after the
+	 * last result, whether written or not.
+	 */
+	static void streamBatchResults(List<CompletableFuture<BatchResult>> results, final ChunkedOutput<byte[]> output) {
+		final AtomicInteger pending = new AtomicInteger(results.size());
+		for (CompletableFuture<BatchResult> result : results) {
+			result.whenComplete(new BiConsumer<BatchResult, Throwable>() {
+				@Override
+				public void accept(BatchResult ready, Throwable error) {
+					try {
+						if (error != null) {
+							logger.error("Failure while running a batch query", error);
+							ready = new BatchResult(null, Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), null);
+						}
+						final ByteArrayOutputStream line = new ByteArrayOutputStream();
+						try (JsonGenerator generator = jsonFactory.createGenerator(line)) {
+							writeBatchResult(generator, line, ready);
+						}
+						line.write('\n');
+						output.write(line.toByteArray());
+					} catch (IOException e) {
+						logger.debug("Batch client gone away");
+					} finally {
+						if (pending.decrementAndGet() == 0) {
+							try {
+								output.close();
+							} catch (IOException e) {
+								logger.debug("Batch client gone away");
+							}
+						}
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Writes a batch result as a JSON object. The result body, already encoded as JSON, is copied
+	 * straight to the output.
+	 */
+	private static void writeBatchResult(JsonGenerator generator, OutputStream output, BatchResult result)
+			throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("id", result.id);
+		generator.writeNumberField("status", result.status);
+		generator.writeFieldName("body");
+		if (result.body == null) {
+			generator.writeNull();
+		} else {
+			// An empty raw value makes the generator write the separator before the body
+			generator.writeRawValue("");
+			generator.flush();
+			output.write(result.body);
+		}
+		if (result.removed != null) {
+			generator.writeArrayFieldStart("removed");
+			for (int solId : result.removed) {
+				generator.writeNumber(solId);
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndObject();
+	}
+	
+	/**
+	 * Gets the current state of the Sol archive, for range queries to be evaluated against.
+	 */
+	private ArchiveView viewArchive() {
+		// The stamp is taken first, so results evaluated against older rollups are never cached
+		final long stamp = queryCache != null ? queryCache.stamp() : 0;
+		return new ArchiveView(archive.getRollups(), stamp);
+	}
+	
+	/**
+	 * Gets the result of a range query from the query cache, evaluating and caching it on misses.
+	 * Cached results newer than the archive view are not used.
+	 * 
+	 * @param query the query
+	 * @param view the archive state the query is evaluated against
+	 */
+	private QueryResult query(RangeQuery query, ArchiveView view) throws MarsWeatherServiceException {
+		try {
+			if (queryCache == null) {
+				return query.evaluator.evaluate(view.rollups);
+			}
+			QueryResult result = queryCache.get(query.key);
+			if (result == null || queryCache.stamp() != view.stamp) {
+				result = query.evaluator.evaluate(view.rollups);
+				queryCache.put(query.key, result, result.body.length, query.fromSol, query.toSol, view.stamp);
+			}
+			return result;
+		} catch (IOException e) {
+			logger.error("Failure while encoding a query result", e);
+			throw new MarsWeatherServiceException("Failure while encoding the query result.");
+		}
+	}
+	
+	private static TemperatureAggregate toModel(int firstSolId, int lastSolId, SolRollups.Aggregate aggregate) {
+		if (aggregate.getCount() == 0) {
+			return new TemperatureAggregate(firstSolId, lastSolId, 0, null, null, null);
+		}
+		return new TemperatureAggregate(firstSolId, lastSolId, aggregate.getCount(),
+				(float) aggregate.getAverageTemperature(),
+				aggregate.getMinimumTemperature(),
+				aggregate.getMaximumTemperature());
+	}
+	
+	/**
+	 * Stores freshly loaded data in the Sol archive. Archiving failures are logged but don't
+	 * prevent the data from being served.
+	 */
+	private void archiveData(Collection<SolData> sols) {
+		try {
+			archive.store(sols);
+			logger.debug("Sol archive was updated");
+		} catch (IOException e) {
+			logger.error("Failure while archiving Sol data", e);
+		}
+	}
+	
+	/**
+	 * Requests the last weather measurements from the NASA's API. The response is parsed by the
+	 * thread completing the request.
+	 * 
+	 * @return a future completed with a map with Sol numbers as keys and the corresponding weather
+	 *         model objects as values, or failed with a {@link MarsWeatherServiceException} if some
+	 *         communication error occurred
+	 */
+	private CompletableFuture<Map<Integer, SolData>> loadDataFromServer() {
+		return IngestionPipeline.ingest(nasaProvider, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+	}
+	
+	/**
+	 * Builds the replica sharing the cache snapshots, as configured by the <code>REPLICATION_</code>
+	 * properties.
+	 * 
+	 * @return the replica, or null if replication is disabled
+	 */
+	private ReplicationNode createReplication(Properties appProperties, Client client) {
+		final String mode = appProperties.getProperty(MarsRestApplication.REPLICATION_MODE_KEY).trim().toUpperCase();
+		final long heartbeatPeriod = SECONDS_IN_MILLIS * MarsRestApplication.getIntProperty(
+				MarsRestApplication.REPLICATION_HEARTBEAT_PERIOD_KEY, MarsRestApplication.DEFAULT_REPLICATION_HEARTBEAT_PERIOD);
+		if ("SHARED_FILE".equals(mode)) {
+			final String directory = appProperties.getProperty(MarsRestApplication.REPLICATION_DIR_KEY).trim();
 			try {
-				final Map<Integer, WeatherDTO> dtoMap = parser.parseWeatherData(jsonString);
-				/*
-				 * Converting Java DTOs to model objects and storing them in cache:
-				 */
-				final ModelHelper modelHelper = new ModelHelper();
-				solDataMap.putAll(modelHelper.convertDtoToModel(dtoMap));
-				logger.debug("Local cache was updated");
+				return new SharedFileReplication(cache, heartbeatPeriod, Paths.get(directory));
 			} catch (IOException e) {
-				logger.error("JSON parsing failure", e);
-				throw new MarsWeatherServiceException("Failure while processing NASA data.");
+				logger.error("Failure while opening the replication files at "+directory, e);
+				throw new IllegalStateException("Replication directory unavailable", e);
+			}
+		}
+		if ("HTTP".equals(mode)) {
+			final List<String> peers = new ArrayList<String>();
+			for (String peer : appProperties.getProperty(MarsRestApplication.REPLICATION_PEERS_KEY).split(",")) {
+				if (!peer.trim().isEmpty()) {
+					peers.add(withTrailingSlash(peer.trim()));
+				}
+			}
+			String self = appProperties.getProperty(MarsRestApplication.REPLICATION_SELF_KEY).trim();
+			if (self.isEmpty()) {
+				self = appProperties.getProperty(MarsRestApplication.BASE_URI_KEY).trim();
+			}
+			String token = appProperties.getProperty(MarsRestApplication.REPLICATION_TOKEN_KEY).trim();
+			if (token.isEmpty()) {
+				token = appProperties.getProperty(MarsRestApplication.API_AUTH_TOKEN_KEY).trim();
+			}
+			return new HttpReplication(cache, heartbeatPeriod, client, peers, withTrailingSlash(self), token,
+					SECONDS_IN_MILLIS * MarsRestApplication.getIntProperty(MarsRestApplication.REPLICATION_POLL_TIMEOUT_KEY,
+							MarsRestApplication.DEFAULT_REPLICATION_POLL_TIMEOUT));
+		}
+		if (!"OFF".equals(mode)) {
+			logger.warn("Invalid replication mode from application properties. Replication disabled.");
+		}
+		return null;
+	}
+	
+	private static String withTrailingSlash(String uri) {
+		return uri.endsWith("/") ? uri : uri + "/";
+	}
+	
+	/**
+	 * Gets the replica sharing the cache snapshots.
+	 * 
+	 * @return the replica, or null if replication is disabled
+	 */
+	ReplicationNode getReplication() {
+		return replication;
+	}
+	
+	/**
+	 * Builds the additional data sources listed in the application properties. Each source is
+	 * configured by keys following the <code>INGEST_&lt;SOURCE&gt;_&lt;SETTING&gt;</code> pattern.
+	 * Sources with an invalid configuration are skipped. NASA sources fetch within the limits of the
+	 * cache loads, since they spend the same API key quota.
+	 */
+	private static List<IngestionPipeline.Source> createIngestionSources(Properties appProperties, Client client,
+			boolean treeParserEnabled, UpstreamFetchCoordinator.Settings upstreamSettings) {
+		final List<IngestionPipeline.Source> sources = new ArrayList<IngestionPipeline.Source>();
+		for (String name : appProperties.getProperty(MarsRestApplication.INGEST_SOURCES_KEY).split(",")) {
+			name = name.trim();
+			if (name.isEmpty()) {
+				continue;
+			}
+			final String prefix = "INGEST_" + name.toUpperCase() + "_";
+			final String type = appProperties.getProperty(prefix + MarsRestApplication.INGEST_TYPE_SETTING, "").trim().toUpperCase();
+			final String path = appProperties.getProperty(prefix + MarsRestApplication.INGEST_PATH_SETTING);
+			final WeatherProvider<?> provider;
+			if ("NASA".equals(type)) {
+				provider = new CoordinatedWeatherProvider<Response>(new NasaInSightProvider(name, client,
+						appProperties.getProperty(prefix + MarsRestApplication.INGEST_URI_SETTING,
+								appProperties.getProperty(MarsRestApplication.NASA_API_URI_KEY)),
+						appProperties.getProperty(MarsRestApplication.NASA_API_KEY_KEY),
+						appProperties.getProperty(prefix + MarsRestApplication.INGEST_VERSION_SETTING, NASA_API_VERSION).trim(),
+						treeParserEnabled), upstreamSettings);
+			} else if ("DIRECTORY".equals(type) && path != null) {
+				provider = new DirectoryWeatherProvider(name, Paths.get(path.trim()));
+			} else if ("REPLAY".equals(type) && path != null) {
+				provider = new ReplayWeatherProvider(name, Paths.get(path.trim()));
+			} else {
+				logger.warn("Invalid configuration for the ingestion source "+name+". Skipping it.");
+				continue;
 			}
-		}else{
-			logger.error("HTTP request failure");
-			throw new MarsWeatherServiceException("NASA access failure. Status: "
-					+response.getStatus()+" - "
-					+response.getStatusInfo());
+			sources.add(new IngestionPipeline.Source(provider,
+					SECONDS_IN_MILLIS * MarsRestApplication.getIntProperty(prefix + MarsRestApplication.INGEST_PERIOD_SETTING,
+							MarsRestApplication.DEFAULT_INGEST_PERIOD),
+					MarsRestApplication.getIntProperty(prefix + MarsRestApplication.INGEST_THREADS_SETTING,
+							MarsRestApplication.DEFAULT_INGEST_THREADS)));
 		}
+		return sources;
 	}
 }
@@ -0,0 +1,119 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Path;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+import br.com.avimeney.marsweather.metrics.Counter;
+import br.com.avimeney.marsweather.metrics.LatencyHistogram;
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+
+/**
+ * Request metrics filter. Records, for each endpoint, the number of requests in flight, the
+ * request latency and the response status codes. The filter runs before the authentication
+ * filter, so rejected requests are measured as well.
+ *
+ * <p>Latency is measured from the request filter to the response filter. For asynchronous
+ * resources it includes the time the request spent suspended. Streamed response bodies are
+ * written after the response filters, so their writing time is not included.
+ *
+ * @author avimeney
+ */
+
+@Priority(Priorities.AUTHENTICATION - 100)
+@Provider
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+	private static final String START_PROPERTY = MetricsFilter.class.getName() + ".start";
+
+	private static final String ENDPOINT_PROPERTY = MetricsFilter.class.getName() + ".endpoint";
+
+	/**
+	 * Metrics of a single endpoint. Response counters are registered on demand, one per status.
+	 */
+	private static final class Endpoint {
+		final String path;
+		final Counter inFlight;
+		final LatencyHistogram latency;
+		final ConcurrentMap<Integer, Counter> responses = new ConcurrentHashMap<Integer, Counter>();
+
+		Endpoint(String path) {
+			this.path = path;
+			inFlight = MetricsRegistry.getInstance().gauge("http_requests_in_flight",
+					"Requests being processed, by endpoint.", "endpoint", path);
+			latency = MetricsRegistry.getInstance().histogram("http_request_duration_seconds",
+					"Request processing time, by endpoint.", "endpoint", path);
+		}
+
+		Counter getResponseCounter(int status) {
+			Counter counter = responses.get(status);
+			if (counter == null) {
+				counter = MetricsRegistry.getInstance().counter("http_responses_total",
+						"Responses, by endpoint and status code.", "endpoint", path, "status", Integer.toString(status));
+				responses.putIfAbsent(status, counter);
+			}
+			return counter;
+		}
+	}
+
+	private final ConcurrentMap<Method, Endpoint> endpoints = new ConcurrentHashMap<Method, Endpoint>();
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		final Method method = resourceInfo.getResourceMethod();
+		if (method == null) {
+			return;
+		}
+		Endpoint endpoint = endpoints.get(method);
+		if (endpoint == null) {
+			endpoint = new Endpoint(pathOf(resourceInfo.getResourceClass(), method));
+			final Endpoint existing = endpoints.putIfAbsent(method, endpoint);
+			if (existing != null) {
+				endpoint = existing;
+			}
+		}
+		endpoint.inFlight.increment();
+		requestContext.setProperty(ENDPOINT_PROPERTY, endpoint);
+		requestContext.setProperty(START_PROPERTY, System.nanoTime());
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+		final Endpoint endpoint = (Endpoint) requestContext.getProperty(ENDPOINT_PROPERTY);
+		if (endpoint == null) {
+			// Requests not matching any resource method
+			return;
+		}
+		endpoint.latency.recordSince((Long) requestContext.getProperty(START_PROPERTY));
+		endpoint.inFlight.decrement();
+		endpoint.getResponseCounter(responseContext.getStatus()).increment();
+	}
+
+	/**
+	 * Builds the endpoint label from the resource class and method paths.
+	 */
+	private static String pathOf(Class<?> resourceClass, Method method) {
+		final Path classPath = resourceClass.getAnnotation(Path.class);
+		final Path methodPath = method.getAnnotation(Path.class);
+		String path = classPath != null ? classPath.value() : "";
+		if (methodPath != null) {
+			path = path.replaceAll("/+$", "") + "/" + methodPath.value().replaceAll("^/+", "");
+		}
+		return path.startsWith("/") ? path : "/" + path;
+	}
+}
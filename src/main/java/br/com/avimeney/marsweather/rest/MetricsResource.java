@@ -0,0 +1,44 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+
+/**
+ * Exposes the server metrics in the Prometheus text format. Check {@link MetricsRegistry}
+ * for details.
+ *
+ * @author avimeney
+ */
+
+@Path("metrics")
+@Singleton
+public class MetricsResource {
+
+	private static final String PROMETHEUS_TEXT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	@GET
+	@Produces(PROMETHEUS_TEXT_TYPE)
+	public Response getMetrics() {
+		final StreamingOutput metrics = new StreamingOutput() {
+			@Override
+			public void write(OutputStream output) throws IOException {
+				final Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+				MetricsRegistry.getInstance().write(writer);
+				writer.flush();
+			}
+		};
+		return Response.ok(metrics, PROMETHEUS_TEXT_TYPE).build();
+	}
+}
@@ -5,6 +5,7 @@ import java.util.Map;
 import java.util.function.BiConsumer;
 
 import br.com.avimeney.marsweather.integration.nasa.WeatherDTO;
+import br.com.avimeney.marsweather.integration.nasa.WindPointDTO;
 import br.com.avimeney.marsweather.model.SolData;
 
 /**
@@ -29,10 +30,41 @@ public class ModelHelper {
 		dtoMap.forEach(new BiConsumer<Integer, WeatherDTO>() {
 			@Override
 			public void accept(Integer solId, WeatherDTO dto) {
-				SolData solData = new SolData(solId, dto.AT.av, dto.AT.mn, dto.AT.mx);
+				// Sols may hold pressure or wind data only, whose temperatures are left unknown
+				final SolData solData = dto.AT != null ? new SolData(solId, dto.AT.av, dto.AT.mn, dto.AT.mx, dto.AT.ct)
+						: new SolData(solId, Float.NaN, Float.NaN, Float.NaN, 0);
+				if (dto.PRE != null) {
+					solData.setPressure(dto.PRE.av, dto.PRE.mn, dto.PRE.mx);
+				}
+				if (dto.HWS != null) {
+					solData.setWindSpeed(dto.HWS.av, dto.HWS.mn, dto.HWS.mx);
+				}
+				if (dto.WD != null) {
+					solData.setWindDirectionCounts(convertWindDirections(dto.WD));
+				}
 				modelMap.put(solId, solData);
 			}
 		});
 		return modelMap;
 	}
+	
+	/**
+	 * Converts a wind direction rose, keyed by compass point number, into an array of sample counts
+	 * indexed by compass point. Other keys, such as <code>most_common</code>, are ignored.
+	 */
+	private static int[] convertWindDirections(Map<String, WindPointDTO> windDirections) {
+		final int[] counts = new int[SolData.COMPASS_POINTS];
+		for (Map.Entry<String, WindPointDTO> entry : windDirections.entrySet()) {
+			final String key = entry.getKey();
+			if (key.length() == 0 || key.length() > 2 || !Character.isDigit(key.charAt(0))
+					|| !Character.isDigit(key.charAt(key.length() - 1))) {
+				continue;
+			}
+			final int point = Integer.parseInt(key);
+			if (point < SolData.COMPASS_POINTS) {
+				counts[point] = entry.getValue().ct;
+			}
+		}
+		return counts;
+	}
 }
@@ -0,0 +1,88 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Priority;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+/**
+ * API token rate limiting filter, running right after the authentication one. Each request is
+ * taken from the token bucket of its API token. A request exceeding the rate limit is answered
+ * with <code>429 Too Many Requests</code> and a <code>Retry-After</code> header telling when the
+ * client may try again. Remote addresses are limited before, by the {@link AddressRateLimitFilter},
+ * so requests it rejects never take a slot from their token bucket.
+ *
+ * <p>An API token is limited to its own rate limit, if any, or else to the
+ * {@value MarsRestApplication#RATE_LIMIT_KEY} one. Zero disables the limit.
+ *
+ * @author avimeney
+ */
+
+@Priority(Priorities.AUTHORIZATION)
+@javax.ws.rs.ext.Provider
+public class RateLimitFilter implements ContainerRequestFilter {
+
+	private static final int TOO_MANY_REQUESTS = 429;
+
+	private final int tokenRateLimit;
+
+	private final RateLimiter tokenBuckets;
+
+	public RateLimitFilter() {
+		this(MarsRestApplication.getIntProperty(MarsRestApplication.RATE_LIMIT_KEY, MarsRestApplication.DEFAULT_RATE_LIMIT),
+				MarsRestApplication.getIntProperty(MarsRestApplication.RATE_LIMIT_MAX_BUCKETS_KEY,
+						MarsRestApplication.DEFAULT_RATE_LIMIT_MAX_BUCKETS),
+				1000L * MarsRestApplication.getIntProperty(MarsRestApplication.RATE_LIMIT_BURST_KEY,
+						MarsRestApplication.DEFAULT_RATE_LIMIT_BURST));
+	}
+
+	/**
+	 * @param tokenRateLimit requests per minute allowed to the tokens without their own limit, zero
+	 *        for no limit
+	 * @param maxBuckets maximum number of token buckets kept
+	 * @param burst time, in milliseconds, of requests at the full rate a bucket holds
+	 */
+	RateLimitFilter(int tokenRateLimit, int maxBuckets, long burst) {
+		this.tokenRateLimit = tokenRateLimit;
+		tokenBuckets = new RateLimiter("token", maxBuckets, burst);
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		if (HttpMethod.OPTIONS.equals(requestContext.getMethod())) {
+			return;
+		}
+		final ApiToken apiToken = (ApiToken) requestContext.getProperty(ApiToken.REQUEST_PROPERTY);
+		if (apiToken == null) {
+			return;
+		}
+		final int rateLimit = apiToken.getRateLimit() > 0 ? apiToken.getRateLimit() : tokenRateLimit;
+		if (rateLimit > 0) {
+			final long delay = tokenBuckets.acquire(apiToken.getName(), rateLimit);
+			if (delay > 0) {
+				requestContext.abortWith(tooManyRequests(delay));
+			}
+		}
+	}
+
+	/**
+	 * Builds the response to a request exceeding a rate limit.
+	 *
+	 * @param delay time, in nanoseconds, until the client may try again
+	 */
+	static Response tooManyRequests(long delay) {
+		/*
+		 * Retry-After is given in whole seconds, rounded up so the client never retries too early:
+		 */
+		final long retryAfter = (delay + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+		return Response.status(TOO_MANY_REQUESTS)
+				.header(HttpHeaders.RETRY_AFTER, retryAfter)
+				.build();
+	}
+}
@@ -0,0 +1,161 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import br.com.avimeney.marsweather.metrics.Counter;
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+
+/**
+ * Token buckets of a set of clients, such as the API tokens or the remote addresses. Each bucket
+ * is refilled at the client rate and holds the requests allowed in a burst.
+ *
+ * <p>A bucket is a single {@link AtomicLong} holding the time its next request would be served at
+ * if it were never rejected (the theoretical arrival time of the generic cell rate algorithm).
+ * Taking a request advances it by one request interval, with a single compare-and-set, so
+ * clients never lock each other out.
+ *
+ * <p>Buckets are spread over shards, each one bounded to its share of the maximum number of
+ * buckets. A bucket whose time has passed is full, just like a new one, so removing it loses no
+ * state: such idle buckets are swept every minute, and when a shard is full. If a shard is still
+ * full after the sweep, a quarter of its buckets are evicted regardless, forgetting the recent
+ * requests of their clients rather than refusing new clients.
+ *
+ * @author avimeney
+ */
+
+public class RateLimiter {
+
+	private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+	private final ConcurrentHashMap<String, AtomicLong>[] shards;
+
+	private final int shardCapacity;
+
+	/**
+	 * Duration, in nanoseconds, of the burst allowed by a full bucket.
+	 */
+	private final long burst;
+
+	private final Counter rejected;
+
+	private final Counter evicted;
+
+	/**
+	 * @param scope the kind of clients limited, for metrics purposes
+	 * @param maxBuckets maximum number of buckets kept
+	 * @param burst duration, in milliseconds, of the traffic a full bucket allows at once. A bucket
+	 * always allows one request at least.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public RateLimiter(String scope, int maxBuckets, long burst) {
+		this.burst = TimeUnit.MILLISECONDS.toNanos(Math.max(burst, 0));
+		// A few shards per core keep concurrent inserts and sweeps apart
+		final int shardCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+		shards = new ConcurrentHashMap[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new ConcurrentHashMap<String, AtomicLong>();
+		}
+		shardCapacity = Math.max(maxBuckets / shardCount, 1);
+		final MetricsRegistry registry = MetricsRegistry.getInstance();
+		rejected = registry.counter("rate_limited_requests_total", "Requests rejected for exceeding the client rate limit.",
+				"scope", scope);
+		evicted = registry.counter("rate_limit_evicted_buckets_total", "Active rate limit buckets evicted for lack of room.",
+				"scope", scope);
+		registry.supplier("rate_limit_buckets", "Rate limit buckets kept.", false, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				long size = 0;
+				for (ConcurrentHashMap<String, AtomicLong> shard : shards) {
+					size += shard.size();
+				}
+				return size;
+			}
+		}, "scope", scope);
+		new Timer("Rate Limit Sweeper (" + scope + ")", true).schedule(new TimerTask() {
+			@Override
+			public void run() {
+				final long now = System.nanoTime();
+				for (ConcurrentHashMap<String, AtomicLong> shard : shards) {
+					sweep(shard, now);
+				}
+			}
+		}, 60000, 60000);
+	}
+
+	/**
+	 * Takes a request from the bucket of a client.
+	 *
+	 * @param client the client key
+	 * @param rateLimit the client rate limit, in requests per minute
+	 *
+	 * @return zero if the request is allowed, otherwise the time, in nanoseconds, until the client
+	 * may try again
+	 */
+	public long acquire(String client, int rateLimit) {
+		final long now = System.nanoTime();
+		final long interval = MINUTE / rateLimit;
+		final long tolerance = Math.max(burst, interval);
+		final AtomicLong bucket = bucketOf(client, now);
+		while (true) {
+			final long arrival = bucket.get();
+			final long next = (arrival - now > 0 ? arrival : now) + interval;
+			if (next - now > tolerance) {
+				rejected.increment();
+				return next - tolerance - now;
+			}
+			if (bucket.compareAndSet(arrival, next)) {
+				return 0;
+			}
+		}
+	}
+
+	private AtomicLong bucketOf(String client, long now) {
+		final int hash = client.hashCode();
+		final ConcurrentHashMap<String, AtomicLong> shard = shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+		AtomicLong bucket = shard.get(client);
+		if (bucket != null) {
+			return bucket;
+		}
+		if (shard.size() >= shardCapacity) {
+			makeRoom(shard, now);
+		}
+		bucket = new AtomicLong(now);
+		final AtomicLong existing = shard.putIfAbsent(client, bucket);
+		return existing != null ? existing : bucket;
+	}
+
+	/**
+	 * Frees a quarter of a full shard, so the following new clients are added without sweeping it
+	 * again.
+	 */
+	private void makeRoom(ConcurrentHashMap<String, AtomicLong> shard, long now) {
+		sweep(shard, now);
+		final int target = shardCapacity - Math.max(shardCapacity / 4, 1);
+		final Iterator<AtomicLong> iterator = shard.values().iterator();
+		while (shard.size() > target && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+			evicted.increment();
+		}
+	}
+
+	/**
+	 * Removes the full buckets of a shard. A request racing with the removal of its bucket is
+	 * counted against the removed one, so at most one request per client is forgotten.
+	 */
+	private static void sweep(ConcurrentHashMap<String, AtomicLong> shard, long now) {
+		for (Map.Entry<String, AtomicLong> entry : shard.entrySet()) {
+			final AtomicLong bucket = entry.getValue();
+			if (bucket.get() - now <= 0) {
+				shard.remove(entry.getKey(), bucket);
+			}
+		}
+	}
+}
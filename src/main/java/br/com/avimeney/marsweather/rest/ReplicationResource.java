@@ -0,0 +1,70 @@
+package br.com.avimeney.marsweather.rest;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import br.com.avimeney.marsweather.model.ReplicationStatus;
+import br.com.avimeney.marsweather.replication.HttpReplication;
+import br.com.avimeney.marsweather.replication.ReplicationNode;
+import br.com.avimeney.marsweather.replication.SnapshotDelta;
+
+/**
+ * Exposes the replication state of the server to the other replicas, and the snapshots it
+ * publishes when leading over HTTP. Registered only when replication is enabled. Check
+ * {@link ReplicationNode} for details.
+ *
+ * @author avimeney
+ */
+
+@Path("replication")
+@Singleton
+public class ReplicationResource {
+
+	private final ReplicationNode replication;
+
+	public ReplicationResource(ReplicationNode replication) {
+		this.replication = replication;
+	}
+
+	/**
+	 * Gets the replication state of the server. Also tells the other replicas this one is alive.
+	 *
+	 * @return the role of the server and the version of the snapshot it serves
+	 */
+	@GET
+	@Path("/status")
+	@Produces(MediaType.APPLICATION_JSON)
+	public ReplicationStatus getStatus() {
+		return replication.getStatus();
+	}
+
+	/**
+	 * Gets the changes from a follower snapshot to the leader one, as an encoded {@link SnapshotDelta}.
+	 * The request is held until the leader snapshot differs from the follower one, and answered with
+	 * <code>204 No Content</code> if it doesn't within the given time. Replicas not leading answer
+	 * with <code>503 Service Unavailable</code>.
+	 *
+	 * @param since version of the follower snapshot, or zero if it has none
+	 * @param createdAt creation time of the follower snapshot, in milliseconds since the epoch
+	 * @param wait time, in milliseconds, the request may be held
+	 * @param asyncResponse the suspended response
+	 */
+	@GET
+	@Path("/delta")
+	@Produces(SnapshotDelta.MEDIA_TYPE)
+	public void getDelta(@QueryParam("since") long since, @QueryParam("created") long createdAt,
+			@QueryParam("wait") long wait, @Suspended AsyncResponse asyncResponse) {
+		if (!(replication instanceof HttpReplication)) {
+			asyncResponse.resume(Response.status(Response.Status.NOT_FOUND).build());
+			return;
+		}
+		((HttpReplication) replication).poll(since, createdAt, wait, asyncResponse);
+	}
+}
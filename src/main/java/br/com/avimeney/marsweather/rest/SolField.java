@@ -0,0 +1,179 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import br.com.avimeney.marsweather.model.SolData;
+import br.com.avimeney.marsweather.store.SolArchive;
+
+/**
+ * Archived Sol attributes selectable through the <code>fields</code> parameter of the Sol range
+ * queries. Each field is written straight from its archive column, so unselected columns are
+ * never read. Fields are always written in declaration order, whatever the order they were
+ * requested in, and measurements missing from a Sol are written as <code>null</code>.
+ *
+ * @author avimeney
+ */
+
+public enum SolField {
+
+	AVG("avg") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			writeFloat(generator, getName(), archive.getAverageTemperature(row));
+		}
+	},
+	MIN("min") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			writeFloat(generator, getName(), archive.getMinimumTemperature(row));
+		}
+	},
+	MAX("max") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			writeFloat(generator, getName(), archive.getMaximumTemperature(row));
+		}
+	},
+	PRE("pre") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			writeFloat(generator, getName(), archive.getAveragePressure(row));
+		}
+	},
+	PRE_MIN("pre_min") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			writeFloat(generator, getName(), archive.getMinimumPressure(row));
+		}
+	},
+	PRE_MAX("pre_max") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			writeFloat(generator, getName(), archive.getMaximumPressure(row));
+		}
+	},
+	HWS("hws") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			writeFloat(generator, getName(), archive.getAverageWindSpeed(row));
+		}
+	},
+	HWS_MIN("hws_min") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			writeFloat(generator, getName(), archive.getMinimumWindSpeed(row));
+		}
+	},
+	HWS_MAX("hws_max") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			writeFloat(generator, getName(), archive.getMaximumWindSpeed(row));
+		}
+	},
+	/**
+	 * Most common wind direction, in compass degrees.
+	 */
+	WD("wd") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			int mostCommon = -1;
+			int mostCommonCount = 0;
+			for (int point = 0; point < SolData.COMPASS_POINTS; point++) {
+				final int count = archive.getWindDirectionCount(row, point);
+				if (count > mostCommonCount) {
+					mostCommon = point;
+					mostCommonCount = count;
+				}
+			}
+			writeFloat(generator, getName(), mostCommon >= 0 ? mostCommon * COMPASS_POINT_DEGREES : Float.NaN);
+		}
+	},
+	/**
+	 * Number of wind samples per compass point, from N to NNW.
+	 */
+	WD_ROSE("wd_rose") {
+		@Override
+		void write(JsonGenerator generator, SolArchive archive, int row) throws IOException {
+			generator.writeArrayFieldStart(getName());
+			for (int point = 0; point < SolData.COMPASS_POINTS; point++) {
+				generator.writeNumber(archive.getWindDirectionCount(row, point));
+			}
+			generator.writeEndArray();
+		}
+	};
+
+	/**
+	 * Fields written when none are requested: the temperatures, like the Sol list.
+	 */
+	public static final Set<SolField> DEFAULT_FIELDS = EnumSet.of(AVG, MIN, MAX);
+
+	private static final float COMPASS_POINT_DEGREES = 360f / SolData.COMPASS_POINTS;
+
+	private final String name;
+
+	private SolField(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Gets the field name, as requested and written.
+	 *
+	 * @return the field name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Writes the field of an archived Sol.
+	 */
+	abstract void write(JsonGenerator generator, SolArchive archive, int row) throws IOException;
+
+	private static void writeFloat(JsonGenerator generator, String name, float value) throws IOException {
+		if (Float.isNaN(value)) {
+			generator.writeNullField(name);
+		} else {
+			generator.writeNumberField(name, value);
+		}
+	}
+
+	/**
+	 * Parses a <code>fields</code> parameter.
+	 *
+	 * @param fields comma separated field names, or null for the {@link #DEFAULT_FIELDS}
+	 *
+	 * @return the selected fields, in declaration order
+	 *
+	 * @throws IllegalArgumentException if a field is unknown
+	 */
+	public static Set<SolField> parse(String fields) {
+		if (fields == null) {
+			return DEFAULT_FIELDS;
+		}
+		final Set<SolField> selected = EnumSet.noneOf(SolField.class);
+		for (String fieldName : fields.split(",")) {
+			fieldName = fieldName.trim();
+			if (fieldName.isEmpty()) {
+				continue;
+			}
+			selected.add(forName(fieldName));
+		}
+		if (selected.isEmpty()) {
+			throw new IllegalArgumentException("No field selected");
+		}
+		return selected;
+	}
+
+	private static SolField forName(String fieldName) {
+		for (SolField field : values()) {
+			if (field.name.equalsIgnoreCase(fieldName)) {
+				return field;
+			}
+		}
+		throw new IllegalArgumentException("Unknown field " + fieldName);
+	}
+}
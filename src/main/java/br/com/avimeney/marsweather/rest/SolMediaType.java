@@ -0,0 +1,39 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Variant;
+
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+
+/**
+ * Media types of the Sol data representations, chosen by clients through the <code>Accept</code>
+ * header. JSON is the default. The binary ones are meant for service to service consumers:
+ *
+ * <ul>
+ *   <li>{@value #APPLICATION_CBOR}: CBOR encoding of the JSON structure.
+ *   <li>{@value #APPLICATION_SOLS_PACKED}: fixed width little-endian records, as described by
+ * {@link SolDataSnapshot#getPacked()}.
+ * </ul>
+ *
+ * @author avimeney
+ */
+
+public final class SolMediaType {
+
+	public static final String APPLICATION_CBOR = "application/cbor";
+	public static final MediaType APPLICATION_CBOR_TYPE = MediaType.valueOf(APPLICATION_CBOR);
+
+	public static final String APPLICATION_SOLS_PACKED = "application/vnd.marsweather.sols+packed";
+	public static final MediaType APPLICATION_SOLS_PACKED_TYPE = MediaType.valueOf(APPLICATION_SOLS_PACKED);
+
+	/**
+	 * Every representation of the Sol data, the default one first.
+	 */
+	public static final List<Variant> VARIANTS = Variant.mediaTypes(
+			MediaType.APPLICATION_JSON_TYPE, APPLICATION_CBOR_TYPE, APPLICATION_SOLS_PACKED_TYPE).build();
+
+	private SolMediaType() {
+	}
+}
@@ -0,0 +1,237 @@
+package br.com.avimeney.marsweather.rest;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+
+import br.com.avimeney.marsweather.cache.SolDataCache;
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+import br.com.avimeney.marsweather.metrics.Counter;
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Pushes the Sol data changes to Server-Sent Events subscribers. Whenever a cache load brings new
+ * or revised Sols, a single <code>sols</code> event holding them is encoded and queued to every
+ * subscriber. Its data is a JSON array of {@link SolData} objects, like the <code>/list</code>
+ * response, and its id is the version of the snapshot holding them.
+ *
+ * <p>A subscriber reconnecting with a <code>Last-Event-ID</code> header is first sent the Sols
+ * added or revised since that version, assembled by the snapshot like any other event. Other
+ * subscribers, and the ones holding a version whose changes are no longer known, are first sent
+ * every known Sol.
+ *
+ * <p>Events are written by a small pool of writer threads, so a slow connection never delays the
+ * cache load nor the other subscribers. Each subscriber has a bounded queue of pending events: a
+ * subscriber falling that far behind is disconnected and expected to resume from its last event.
+ * Unless disabled, every connection gets an empty <code>heartbeat</code> event periodically, which
+ * keeps proxies from closing idle connections and detects the subscribers gone away.
+ *
+ * @author avimeney
+ */
+
+public class SolUpdateBroadcaster implements SolDataCache.ChangeListener {
+
+	private static final Logger logger = LogManager.getLogger(SolUpdateBroadcaster.class);
+
+	private static final String EVENT_NAME = "sols";
+
+	private static final String HEARTBEAT_EVENT_NAME = "heartbeat";
+
+	private static final Counter sentEvents = MetricsRegistry.getInstance().counter(
+			"sse_events_total", "Sol update events published to the SSE subscribers.");
+
+	private static final Counter droppedSubscribers = MetricsRegistry.getInstance().counter(
+			"sse_dropped_subscribers_total", "SSE subscribers disconnected for falling behind.");
+
+	/**
+	 * A connection and its pending events.
+	 */
+	private final class Subscriber implements Runnable {
+		final EventOutput output;
+		final BlockingQueue<OutboundEvent> pending;
+		final AtomicBoolean scheduled = new AtomicBoolean();
+
+		Subscriber(EventOutput output) {
+			this.output = output;
+			this.pending = new ArrayBlockingQueue<OutboundEvent>(queueCapacity);
+		}
+
+		/**
+		 * Queues an event, scheduling a writer if none is running for this subscriber.
+		 */
+		void send(OutboundEvent event) {
+			if (!pending.offer(event)) {
+				droppedSubscribers.increment();
+				logger.debug("Dropping a slow SSE subscriber");
+				close();
+				return;
+			}
+			if (scheduled.compareAndSet(false, true)) {
+				writers.execute(this);
+			}
+		}
+
+		/**
+		 * Writes the pending events. Events queued while the last one is written are picked up by
+		 * this same run.
+		 */
+		@Override
+		public void run() {
+			do {
+				OutboundEvent event;
+				while ((event = pending.poll()) != null) {
+					try {
+						output.write(event);
+					} catch (IOException e) {
+						logger.debug("SSE subscriber gone away");
+						close();
+						return;
+					} catch (RuntimeException e) {
+						logger.error("Failure while writing a SSE event", e);
+						close();
+						return;
+					}
+				}
+				scheduled.set(false);
+			} while (!pending.isEmpty() && scheduled.compareAndSet(false, true));
+		}
+
+		void close() {
+			subscribers.remove(this);
+			pending.clear();
+			try {
+				output.close();
+			} catch (IOException e) {
+				logger.debug("Failure while closing a SSE connection", e);
+			}
+		}
+	}
+
+	private final int queueCapacity;
+
+	private final ExecutorService writers;
+
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Last snapshot published. Guarded by this broadcaster, so subscribers are never sent a change
+	 * already covered by their first event.
+	 */
+	private SolDataSnapshot latest;
+
+	/**
+	 * @param queueCapacity maximum number of events pending for a subscriber
+	 * @param writerThreads number of threads writing the events
+	 * @param heartbeatPeriod delay, in milliseconds, between heartbeat events sent to every subscriber.
+	 *        Zero or less for no heartbeats.
+	 */
+	public SolUpdateBroadcaster(int queueCapacity, int writerThreads, long heartbeatPeriod) {
+		this.queueCapacity = Math.max(queueCapacity, 1);
+		final AtomicInteger count = new AtomicInteger();
+		writers = Executors.newFixedThreadPool(Math.max(writerThreads, 1), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				final Thread thread = new Thread(runnable, "SSE Writer " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if (heartbeatPeriod > 0) {
+			/*
+			 * Jersey can't write comment only events, so heartbeats are empty events named apart from
+			 * the data ones. Clients only listening to sols events never see them.
+			 */
+			final OutboundEvent heartbeat = new OutboundEvent.Builder().name(HEARTBEAT_EVENT_NAME).data(String.class, "").build();
+			new Timer("SSE Heartbeat Timer", true).scheduleAtFixedRate(new TimerTask() {
+				@Override
+				public void run() {
+					for (Subscriber subscriber : subscribers) {
+						subscriber.send(heartbeat);
+					}
+				}
+			}, heartbeatPeriod, heartbeatPeriod);
+		}
+		MetricsRegistry.getInstance().supplier("sse_subscribers", "Connected SSE subscribers.", false,
+				new LongSupplier() {
+					@Override
+					public long getAsLong() {
+						return subscribers.size();
+					}
+				});
+	}
+
+	/**
+	 * Registers a new subscriber, sending it the Sols it has not seen yet.
+	 *
+	 * @param output the subscriber connection
+	 * @param lastEventId the <code>Last-Event-ID</code> header sent by the subscriber, if any
+	 */
+	public synchronized void subscribe(EventOutput output, String lastEventId) {
+		final Subscriber subscriber = new Subscriber(output);
+		subscribers.add(subscriber);
+		if (latest == null) {
+			// The first snapshot published will hold every Sol
+			return;
+		}
+		Long lastVersion = null;
+		if (lastEventId != null) {
+			try {
+				lastVersion = Long.valueOf(lastEventId.trim());
+			} catch (NumberFormatException e) {
+				logger.debug("Ignoring invalid Last-Event-ID " + lastEventId);
+			}
+		}
+		if (lastVersion == null || !latest.knowsChangesSince(lastVersion)) {
+			subscriber.send(buildEvent(latest.getJson(), latest));
+		} else if (latest.getSolsSince(lastVersion).length > 0) {
+			subscriber.send(buildEvent(latest.getJsonSince(lastVersion), latest));
+		}
+	}
+
+	/**
+	 * Publishes the Sols added or revised by a cache load. Their JSON encoding is assembled from
+	 * the ones held by the snapshot, so nothing is encoded again.
+	 */
+	@Override
+	public synchronized void snapshotChanged(SolDataSnapshot previous, SolDataSnapshot current) {
+		final long since = latest != null ? latest.getVersion() : Long.MIN_VALUE;
+		latest = current;
+		if (subscribers.isEmpty() || current.getSolsSince(since).length == 0) {
+			return;
+		}
+		// Encoded once, whatever the number of subscribers
+		final OutboundEvent event = buildEvent(current.getJsonSince(since), current);
+		sentEvents.increment();
+		for (Subscriber subscriber : subscribers) {
+			subscriber.send(event);
+		}
+		logger.debug("Sols changed since version " + since + " published to " + subscribers.size() + " SSE subscribers");
+	}
+
+	private static OutboundEvent buildEvent(byte[] json, SolDataSnapshot snapshot) {
+		return new OutboundEvent.Builder()
+				.name(EVENT_NAME)
+				.id(Long.toString(snapshot.getVersion()))
+				.mediaType(MediaType.APPLICATION_JSON_TYPE)
+				.data(byte[].class, json)
+				.build();
+	}
+}
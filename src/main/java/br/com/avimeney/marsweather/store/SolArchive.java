@@ -0,0 +1,586 @@
+package br.com.avimeney.marsweather.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Persistent archive of every Sol ever seen by the server. Records are stored in a column
+ * oriented layout: one file per attribute (Sol number, average, minimum and maximum
+ * temperatures, sample count, average, minimum and maximum pressure and wind speed, and the
+ * wind direction rose), each holding fixed width little-endian primitives. Row <i>n</i> of
+ * every column file belongs to the same Sol. Measurements missing from a Sol are stored as NaN.
+ *
+ * <p>Column files are read and written through {@link MappedByteBuffer}s, so lookups never
+ * deserialize objects: callers either read single attributes by row or visit the rows of a
+ * Sol range as primitives. Rows are kept in arrival order and located through a {@link SolIndex}
+ * sorted by Sol number. A small metadata file holds the number of rows, which is only
+ * updated after the rows themselves are written and flushed.
+ *
+ * <p>Rows are never overwritten: revised Sols are written to new rows, and the index is
+ * pointed at them. Superseded rows stay in the column files, and are left out of the index
+ * built when the archive is opened.
+ *
+ * <p>An archive is used by a single server at a time: the metadata file is locked while the
+ * archive is open, so opening it elsewhere fails until it is closed.
+ *
+ * <p>Writes are serialized. Reads are lock free and may run concurrently with writes: a row
+ * becomes visible to readers once an index referencing it is published. Readers holding an
+ * index, or the {@link SolRollups} built from it, thus always read the same Sol values.
+ *
+ * @author avimeney
+ */
+
+public class SolArchive implements Closeable {
+
+	/**
+	 * Receives the attributes of an archived Sol.
+	 */
+	public interface RowVisitor {
+		void visit(int solId, float averageTemperature, float minimumTemperature, float maximumTemperature, int sampleCount);
+	}
+
+	/**
+	 * Notified whenever stored Sols change the archive content.
+	 */
+	public interface StoreListener {
+
+		/**
+		 * Called by the storing thread, once the new Sols are visible to readers. Implementations
+		 * must return quickly.
+		 *
+		 * @param solIds numbers of the Sols appended or revised, sorted
+		 */
+		void solsStored(int[] solIds);
+	}
+
+	private static final Logger logger = LogManager.getLogger(SolArchive.class);
+
+	private static final int MAGIC = 0x4D575341; // "MWSA"
+	private static final int FORMAT_VERSION = 2;
+	// Temperatures only. Upgraded in place when opened.
+	private static final int TEMPERATURE_FORMAT_VERSION = 1;
+	private static final int META_SIZE = 12;
+	private static final int ROW_COUNT_OFFSET = 8;
+
+	/**
+	 * Directories of the archives opened by this process. Guards against opening an archive twice,
+	 * since closing the channel of the failed attempt would drop the file lock of the open one.
+	 */
+	private static final Set<Path> openDirectories = new HashSet<Path>();
+
+	private static final int COLUMN_WIDTH = 4;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final int SOL_ID = 0;
+	private static final int AVERAGE = 1;
+	private static final int MINIMUM = 2;
+	private static final int MAXIMUM = 3;
+	private static final int SAMPLE_COUNT = 4;
+	private static final int AVERAGE_PRESSURE = 5;
+	private static final int MINIMUM_PRESSURE = 6;
+	private static final int MAXIMUM_PRESSURE = 7;
+	private static final int AVERAGE_WIND_SPEED = 8;
+	private static final int MINIMUM_WIND_SPEED = 9;
+	private static final int MAXIMUM_WIND_SPEED = 10;
+	private static final int WIND_DIRECTIONS = 11;
+	private static final String[] COLUMN_FILES = {"sol_id.col", "avg.col", "min.col", "max.col", "sample_count.col",
+			"pre_avg.col", "pre_min.col", "pre_max.col", "hws_avg.col", "hws_min.col", "hws_max.col", "wd.col"};
+
+	/**
+	 * Row width, in bytes, of each column. The wind direction column holds the sample counts of
+	 * every compass point.
+	 */
+	private static final int[] COLUMN_WIDTHS = {COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH,
+			COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH,
+			COLUMN_WIDTH * SolData.COMPASS_POINTS};
+
+	/**
+	 * Column buffers mapped with the same capacity. Replaced as a whole when the archive grows.
+	 */
+	private static final class Columns {
+		final MappedByteBuffer[] buffers;
+		final int capacity;
+
+		Columns(MappedByteBuffer[] buffers, int capacity) {
+			this.buffers = buffers;
+			this.capacity = capacity;
+		}
+	}
+
+	private final Path directory;
+
+	private final FileChannel metaChannel;
+	private final FileLock metaLock;
+	private final MappedByteBuffer meta;
+
+	private final FileChannel[] columnChannels = new FileChannel[COLUMN_FILES.length];
+
+	private volatile Columns columns;
+
+	/**
+	 * Number of rows in the column files, superseded ones included. Only used by writers.
+	 */
+	private int rowCount;
+
+	/**
+	 * Index of the visible rows. Replaced as a whole when rows are written.
+	 */
+	private volatile SolIndex index = SolIndex.EMPTY;
+
+	/**
+	 * Temperature rollups of the indexed rows. Updated whenever Sols are stored.
+	 */
+	private volatile SolRollups rollups = SolRollups.EMPTY;
+
+	private final List<StoreListener> listeners = new CopyOnWriteArrayList<StoreListener>();
+
+	private SolArchive(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		metaChannel = FileChannel.open(directory.resolve("archive.meta"),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		metaLock = lock(metaChannel, directory);
+		final boolean newArchive = metaChannel.size() == 0;
+		meta = metaChannel.map(MapMode.READ_WRITE, 0, META_SIZE);
+		meta.order(ByteOrder.LITTLE_ENDIAN);
+		if (newArchive) {
+			meta.putInt(0, MAGIC);
+			meta.putInt(4, FORMAT_VERSION);
+			meta.putInt(ROW_COUNT_OFFSET, 0);
+			meta.force();
+		} else if (meta.getInt(0) != MAGIC
+				|| (meta.getInt(4) != FORMAT_VERSION && meta.getInt(4) != TEMPERATURE_FORMAT_VERSION)) {
+			metaChannel.close();
+			throw new IOException("Unsupported Sol archive format at " + directory);
+		}
+		final int storedRows = meta.getInt(ROW_COUNT_OFFSET);
+		for (int i = 0; i < COLUMN_FILES.length; i++) {
+			columnChannels[i] = FileChannel.open(directory.resolve(COLUMN_FILES[i]),
+					StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < storedRows) {
+			capacity *= 2;
+		}
+		columns = mapColumns(capacity);
+		if (meta.getInt(4) == TEMPERATURE_FORMAT_VERSION) {
+			upgrade(storedRows);
+		}
+		rowCount = storedRows;
+		index = SolIndex.build(this, storedRows);
+		rollups = SolRollups.build(this, index);
+	}
+
+	/**
+	 * Takes the exclusive lock of an archive metadata file, closing it if the lock is held by
+	 * another process.
+	 */
+	private static FileLock lock(FileChannel metaChannel, Path directory) throws IOException {
+		FileLock lock;
+		try {
+			lock = metaChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			metaChannel.close();
+			throw new IOException("Sol archive at " + directory + " is already in use");
+		}
+		return lock;
+	}
+
+	/**
+	 * Opens the archive stored at the given directory, creating it if necessary. The archive is
+	 * locked until closed.
+	 *
+	 * @param directory the archive directory
+	 *
+	 * @return the opened archive
+	 *
+	 * @throws IOException if the archive files could not be opened, have an unknown format, or
+	 *         the archive is already open
+	 */
+	public static SolArchive open(Path directory) throws IOException {
+		final Path openDirectory = directory.toAbsolutePath().normalize();
+		synchronized (openDirectories) {
+			if (!openDirectories.add(openDirectory)) {
+				throw new IOException("Sol archive at " + directory + " is already in use");
+			}
+		}
+		final SolArchive archive;
+		try {
+			archive = new SolArchive(directory);
+		} catch (IOException | RuntimeException e) {
+			synchronized (openDirectories) {
+				openDirectories.remove(openDirectory);
+			}
+			throw e;
+		}
+		logger.info("Sol archive opened at " + directory.toAbsolutePath() + " with " + archive.size() + " Sols");
+		return archive;
+	}
+
+	private Columns mapColumns(int capacity) throws IOException {
+		final MappedByteBuffer[] buffers = new MappedByteBuffer[COLUMN_FILES.length];
+		for (int i = 0; i < COLUMN_FILES.length; i++) {
+			buffers[i] = columnChannels[i].map(MapMode.READ_WRITE, 0, (long) capacity * COLUMN_WIDTHS[i]);
+			buffers[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return new Columns(buffers, capacity);
+	}
+
+	/**
+	 * Upgrades an archive holding temperatures only: the pressure and wind speed of its rows are
+	 * marked as missing. The format version is only updated once the new columns are flushed, so
+	 * an interrupted upgrade is run again on the next opening.
+	 */
+	private void upgrade(int storedRows) {
+		final MappedByteBuffer[] buffers = columns.buffers;
+		for (int row = 0; row < storedRows; row++) {
+			for (int column = AVERAGE_PRESSURE; column <= MAXIMUM_WIND_SPEED; column++) {
+				buffers[column].putFloat(row * COLUMN_WIDTH, Float.NaN);
+			}
+		}
+		for (MappedByteBuffer buffer : buffers) {
+			buffer.force();
+		}
+		meta.putInt(4, FORMAT_VERSION);
+		meta.force();
+		logger.info("Sol archive at " + directory + " upgraded to format version " + FORMAT_VERSION);
+	}
+
+	/**
+	 * Stores the given Sols. Sols already archived are written to new rows, replacing their
+	 * current ones in the index, and the other ones are appended. Sols archived with the same
+	 * values are not written again, so the archive files are left untouched when no Sol changed.
+	 * Otherwise, data is flushed to disk before returning. Listeners are told about the Sols
+	 * appended or holding new values, if any.
+	 *
+	 * <p>Only the index entries and the rollups of the changed Sols are computed again, so storing
+	 * Sols numbered above the archived ones, or revising recent Sols, costs time proportional to
+	 * the number of changed Sols, plus a copy of the index rows and rollup arrays when some Sol is
+	 * revised. Sols appended amid the archived ones, as by bulk imports of older data, rebuild the
+	 * index and the rollups.
+	 *
+	 * @param sols the Sols to be stored
+	 *
+	 * @throws IOException if the archive files could not be written
+	 */
+	public synchronized void store(Collection<SolData> sols) throws IOException {
+		final SolIndex currentIndex = index;
+		int rows = rowCount;
+		Columns current = columns;
+		/*
+		 * Rows written by this call are not indexed yet. They are tracked apart, by Sol number,
+		 * and indexed at the end.
+		 */
+		final Map<Integer, Integer> appendedRows = new HashMap<Integer, Integer>();
+		final Map<Integer, Integer> revisedRows = new HashMap<Integer, Integer>();
+		for (SolData sol : sols) {
+			final int archivedRow = currentIndex.findRow(sol.getSolId());
+			final Map<Integer, Integer> writtenRows = archivedRow >= 0 ? revisedRows : appendedRows;
+			Integer row = writtenRows.get(sol.getSolId());
+			if (row == null) {
+				if (archivedRow >= 0 && sameValues(current, archivedRow, sol)) {
+					continue;
+				}
+				row = rows++;
+				if (row >= current.capacity) {
+					current = mapColumns(current.capacity * 2);
+					columns = current;
+				}
+				writtenRows.put(sol.getSolId(), row);
+			}
+			writeRow(current, row, sol);
+		}
+		if (rows == rowCount) {
+			return;
+		}
+		for (MappedByteBuffer buffer : current.buffers) {
+			buffer.force();
+		}
+		meta.putInt(ROW_COUNT_OFFSET, rows);
+		meta.force();
+		rowCount = rows;
+		final int[] revisedSolIds = solIds(revisedRows);
+		SolIndex newIndex = currentIndex;
+		if (revisedSolIds.length > 0) {
+			newIndex = newIndex.relocate(revisedSolIds, rows(revisedRows, revisedSolIds), revisedSolIds.length);
+		}
+		boolean appendedAtEnd = true;
+		if (!appendedRows.isEmpty()) {
+			final int[] newSolIds = solIds(appendedRows);
+			final int[] newRows = rows(appendedRows, newSolIds);
+			appendedAtEnd = newIndex.isAppendable(newSolIds, newSolIds.length);
+			newIndex = appendedAtEnd ? newIndex.append(newSolIds, newRows, newSolIds.length)
+					: newIndex.merge(newSolIds, newRows, newSolIds.length);
+		}
+		index = newIndex;
+		// Revised Sols change the rollups even if no Sol was appended
+		rollups = appendedAtEnd ? rollups.update(this, newIndex, revisedSolIds) : SolRollups.build(this, newIndex);
+		revisedRows.putAll(appendedRows);
+		final int[] changedSolIds = solIds(revisedRows);
+		Arrays.sort(changedSolIds);
+		for (StoreListener listener : listeners) {
+			try {
+				listener.solsStored(changedSolIds);
+			} catch (RuntimeException e) {
+				logger.error("Sol archive listener failure", e);
+			}
+		}
+	}
+
+	private static int[] solIds(Map<Integer, Integer> writtenRows) {
+		final int[] solIds = new int[writtenRows.size()];
+		int i = 0;
+		for (Integer solId : writtenRows.keySet()) {
+			solIds[i++] = solId;
+		}
+		return solIds;
+	}
+
+	private static int[] rows(Map<Integer, Integer> writtenRows, int[] solIds) {
+		final int[] rows = new int[solIds.length];
+		for (int i = 0; i < solIds.length; i++) {
+			rows[i] = writtenRows.get(solIds[i]);
+		}
+		return rows;
+	}
+
+	/**
+	 * Stores the given Sols, unless archived with more samples. Meant for the sources whose data
+	 * may be older than the archived one, such as recorded responses read again on every run: a
+	 * Sol revised by the NASA API since it was recorded is not replaced by its earlier version.
+	 * Sols archived with as many samples are overwritten.
+	 *
+	 * @param sols the Sols to be merged
+	 *
+	 * @return the number of Sols stored
+	 *
+	 * @throws IOException if the archive files could not be written
+	 *
+	 * @see #store(Collection)
+	 */
+	public synchronized int merge(Collection<SolData> sols) throws IOException {
+		final SolIndex currentIndex = index;
+		final Columns current = columns;
+		final List<SolData> kept = new ArrayList<SolData>(sols.size());
+		for (SolData sol : sols) {
+			final int row = currentIndex.findRow(sol.getSolId());
+			if (row < 0 || current.buffers[SAMPLE_COUNT].getInt(row * COLUMN_WIDTH) <= sol.getSampleCount()) {
+				kept.add(sol);
+			}
+		}
+		if (!kept.isEmpty()) {
+			store(kept);
+		}
+		return kept.size();
+	}
+
+	private static boolean sameValues(Columns columns, int row, SolData sol) {
+		final int offset = row * COLUMN_WIDTH;
+		final MappedByteBuffer[] buffers = columns.buffers;
+		return Float.compare(buffers[AVERAGE].getFloat(offset), sol.getAveragetemperature()) == 0
+				&& Float.compare(buffers[MINIMUM].getFloat(offset), sol.getMinimumTemperature()) == 0
+				&& Float.compare(buffers[MAXIMUM].getFloat(offset), sol.getMaximumTemperature()) == 0
+				&& buffers[SAMPLE_COUNT].getInt(offset) == sol.getSampleCount()
+				&& Float.compare(buffers[AVERAGE_PRESSURE].getFloat(offset), sol.getAveragePressure()) == 0
+				&& Float.compare(buffers[MINIMUM_PRESSURE].getFloat(offset), sol.getMinimumPressure()) == 0
+				&& Float.compare(buffers[MAXIMUM_PRESSURE].getFloat(offset), sol.getMaximumPressure()) == 0
+				&& Float.compare(buffers[AVERAGE_WIND_SPEED].getFloat(offset), sol.getAverageWindSpeed()) == 0
+				&& Float.compare(buffers[MINIMUM_WIND_SPEED].getFloat(offset), sol.getMinimumWindSpeed()) == 0
+				&& Float.compare(buffers[MAXIMUM_WIND_SPEED].getFloat(offset), sol.getMaximumWindSpeed()) == 0
+				&& sameWindDirections(buffers[WIND_DIRECTIONS], row, sol.getWindDirectionCounts());
+	}
+
+	private static boolean sameWindDirections(MappedByteBuffer buffer, int row, int[] counts) {
+		final int offset = row * COLUMN_WIDTHS[WIND_DIRECTIONS];
+		for (int point = 0; point < SolData.COMPASS_POINTS; point++) {
+			if (buffer.getInt(offset + point * COLUMN_WIDTH) != (counts != null ? counts[point] : 0)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Registers a listener for the stores changing the archive content.
+	 *
+	 * @param listener the listener
+	 */
+	public void addStoreListener(StoreListener listener) {
+		listeners.add(listener);
+	}
+
+	private static void writeRow(Columns columns, int row, SolData sol) {
+		final int offset = row * COLUMN_WIDTH;
+		final MappedByteBuffer[] buffers = columns.buffers;
+		buffers[SOL_ID].putInt(offset, sol.getSolId());
+		buffers[AVERAGE].putFloat(offset, sol.getAveragetemperature());
+		buffers[MINIMUM].putFloat(offset, sol.getMinimumTemperature());
+		buffers[MAXIMUM].putFloat(offset, sol.getMaximumTemperature());
+		buffers[SAMPLE_COUNT].putInt(offset, sol.getSampleCount());
+		buffers[AVERAGE_PRESSURE].putFloat(offset, sol.getAveragePressure());
+		buffers[MINIMUM_PRESSURE].putFloat(offset, sol.getMinimumPressure());
+		buffers[MAXIMUM_PRESSURE].putFloat(offset, sol.getMaximumPressure());
+		buffers[AVERAGE_WIND_SPEED].putFloat(offset, sol.getAverageWindSpeed());
+		buffers[MINIMUM_WIND_SPEED].putFloat(offset, sol.getMinimumWindSpeed());
+		buffers[MAXIMUM_WIND_SPEED].putFloat(offset, sol.getMaximumWindSpeed());
+		final int[] counts = sol.getWindDirectionCounts();
+		final int windOffset = row * COLUMN_WIDTHS[WIND_DIRECTIONS];
+		for (int point = 0; point < SolData.COMPASS_POINTS; point++) {
+			buffers[WIND_DIRECTIONS].putInt(windOffset + point * COLUMN_WIDTH, counts != null ? counts[point] : 0);
+		}
+	}
+
+	/**
+	 * Gets the number of archived Sols.
+	 *
+	 * @return the number of indexed rows
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	public int getSolId(int row) {
+		return columns.buffers[SOL_ID].getInt(row * COLUMN_WIDTH);
+	}
+
+	public float getAverageTemperature(int row) {
+		return columns.buffers[AVERAGE].getFloat(row * COLUMN_WIDTH);
+	}
+
+	public float getMinimumTemperature(int row) {
+		return columns.buffers[MINIMUM].getFloat(row * COLUMN_WIDTH);
+	}
+
+	public float getMaximumTemperature(int row) {
+		return columns.buffers[MAXIMUM].getFloat(row * COLUMN_WIDTH);
+	}
+
+	public int getSampleCount(int row) {
+		return columns.buffers[SAMPLE_COUNT].getInt(row * COLUMN_WIDTH);
+	}
+
+	public float getAveragePressure(int row) {
+		return columns.buffers[AVERAGE_PRESSURE].getFloat(row * COLUMN_WIDTH);
+	}
+
+	public float getMinimumPressure(int row) {
+		return columns.buffers[MINIMUM_PRESSURE].getFloat(row * COLUMN_WIDTH);
+	}
+
+	public float getMaximumPressure(int row) {
+		return columns.buffers[MAXIMUM_PRESSURE].getFloat(row * COLUMN_WIDTH);
+	}
+
+	public float getAverageWindSpeed(int row) {
+		return columns.buffers[AVERAGE_WIND_SPEED].getFloat(row * COLUMN_WIDTH);
+	}
+
+	public float getMinimumWindSpeed(int row) {
+		return columns.buffers[MINIMUM_WIND_SPEED].getFloat(row * COLUMN_WIDTH);
+	}
+
+	public float getMaximumWindSpeed(int row) {
+		return columns.buffers[MAXIMUM_WIND_SPEED].getFloat(row * COLUMN_WIDTH);
+	}
+
+	/**
+	 * Gets the number of wind samples blowing from a compass point.
+	 *
+	 * @param row the Sol row
+	 * @param point the compass point, from N (0) to NNW (15)
+	 *
+	 * @return the number of samples, zero if unavailable
+	 */
+	public int getWindDirectionCount(int row, int point) {
+		return columns.buffers[WIND_DIRECTIONS].getInt(row * COLUMN_WIDTHS[WIND_DIRECTIONS] + point * COLUMN_WIDTH);
+	}
+
+	/**
+	 * Gets the index of the archived Sols.
+	 *
+	 * @return the current index
+	 */
+	public SolIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Gets the temperature rollups of the archived Sols.
+	 *
+	 * @return the current rollups
+	 */
+	public SolRollups getRollups() {
+		return rollups;
+	}
+
+	/**
+	 * Visits every archived Sol whose number lies in the given range, in Sol number order.
+	 *
+	 * @param fromSol first Sol number of the range, inclusive
+	 * @param toSol last Sol number of the range, inclusive
+	 * @param visitor receives the attributes of each Sol in the range
+	 *
+	 * @return the number of visited Sols
+	 */
+	public int forEachInRange(int fromSol, int toSol, RowVisitor visitor) {
+		final SolIndex currentIndex = index;
+		final MappedByteBuffer[] buffers = columns.buffers;
+		int visited = 0;
+		for (int position = currentIndex.lowerBound(fromSol); position < currentIndex.size(); position++) {
+			final int solId = currentIndex.getSolId(position);
+			if (solId > toSol) {
+				break;
+			}
+			final int offset = currentIndex.getRow(position) * COLUMN_WIDTH;
+			visitor.visit(solId,
+					buffers[AVERAGE].getFloat(offset),
+					buffers[MINIMUM].getFloat(offset),
+					buffers[MAXIMUM].getFloat(offset),
+					buffers[SAMPLE_COUNT].getInt(offset));
+			visited++;
+		}
+		return visited;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		for (FileChannel channel : columnChannels) {
+			channel.close();
+		}
+		metaLock.release();
+		metaChannel.close();
+		synchronized (openDirectories) {
+			openDirectories.remove(directory.toAbsolutePath().normalize());
+		}
+	}
+}
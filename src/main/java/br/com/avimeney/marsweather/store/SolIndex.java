@@ -0,0 +1,254 @@
+package br.com.avimeney.marsweather.store;
+
+import java.util.Arrays;
+
+/**
+ * Immutable index of the {@link SolArchive} rows sorted by Sol number. The index is made
+ * of two parallel primitive arrays, so range scans are a binary search followed by a
+ * sequential walk, with no boxing and no per-entry objects.
+ *
+ * <p>A new index is built every time Sols are appended to the archive and then published
+ * as a whole, so readers always see a consistent view. Sols usually arrive in Sol number order,
+ * so the appended Sols are most often numbered above every indexed one. Such Sols are written past
+ * the end of the current arrays, which have room to spare, and the new index shares the arrays
+ * with the current one, which never reads past its own size. Appending is thus proportional to
+ * the number of appended Sols, not to the index size.
+ *
+ * <p>Revised Sols are written to new archive rows. The new index points their entries at the new
+ * rows, in a copy of the row array, since the current index may be read meanwhile.
+ *
+ * @author avimeney
+ */
+
+public final class SolIndex {
+
+	static final SolIndex EMPTY = new SolIndex(new int[0], new int[0]);
+
+	private static final int MINIMUM_CAPACITY = 16;
+
+	/*
+	 * Entries past the index size belong to the indexes built by later appends, if any.
+	 */
+	private final int[] solIds;
+
+	private final int[] rows;
+
+	private final int size;
+
+	private SolIndex(int[] solIds, int[] rows) {
+		this(solIds, rows, solIds.length);
+	}
+
+	private SolIndex(int[] solIds, int[] rows, int size) {
+		this.solIds = solIds;
+		this.rows = rows;
+		this.size = size;
+	}
+
+	/**
+	 * Builds the index of the first rows of an archive. Sols written to several rows are indexed
+	 * at the last one.
+	 *
+	 * @param archive the archive
+	 * @param rowCount number of rows to be indexed
+	 *
+	 * @return the new index
+	 */
+	static SolIndex build(SolArchive archive, int rowCount) {
+		final long[] entries = new long[rowCount];
+		for (int row = 0; row < rowCount; row++) {
+			entries[row] = entry(archive.getSolId(row), row);
+		}
+		sort(entries);
+		int count = 0;
+		for (int i = 0; i < rowCount; i++) {
+			if (i + 1 == rowCount || (int) (entries[i] >> 32) != (int) (entries[i + 1] >> 32)) {
+				entries[count++] = entries[i];
+			}
+		}
+		return fromSortedEntries(count == rowCount ? entries : Arrays.copyOf(entries, count));
+	}
+
+	/**
+	 * Builds a new index holding the entries of this one, with some of the indexed Sols moved to
+	 * other rows. The Sol numbers are shared with this index, which must be the last one built.
+	 *
+	 * @param movedSolIds Sol numbers of the moved Sols, all indexed
+	 * @param newRows the new rows of the moved Sols
+	 * @param count number of moved Sols
+	 *
+	 * @return the new index
+	 */
+	SolIndex relocate(int[] movedSolIds, int[] newRows, int count) {
+		final int[] relocatedRows = rows.clone();
+		for (int i = 0; i < count; i++) {
+			relocatedRows[lowerBound(movedSolIds[i])] = newRows[i];
+		}
+		return new SolIndex(solIds, relocatedRows, size);
+	}
+
+	/**
+	 * Builds a new index holding the entries of this one plus the given rows, which must
+	 * refer to Sols not indexed yet.
+	 *
+	 * @param newSolIds Sol numbers of the appended rows
+	 * @param newRows the appended rows
+	 * @param count number of appended rows
+	 *
+	 * @return the new index
+	 */
+	SolIndex merge(int[] newSolIds, int[] newRows, int count) {
+		final long[] appended = new long[count];
+		for (int i = 0; i < count; i++) {
+			appended[i] = entry(newSolIds[i], newRows[i]);
+		}
+		sort(appended);
+		/*
+		 * Both sequences are sorted, so a linear merge is enough:
+		 */
+		final int mergedSize = size + count;
+		final int[] mergedIds = new int[mergedSize];
+		final int[] mergedRows = new int[mergedSize];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < mergedSize; k++) {
+			if (j >= count || (i < size && solIds[i] < (int) (appended[j] >> 32))) {
+				mergedIds[k] = solIds[i];
+				mergedRows[k] = rows[i++];
+			} else {
+				mergedIds[k] = (int) (appended[j] >> 32);
+				mergedRows[k] = (int) appended[j++];
+			}
+		}
+		return new SolIndex(mergedIds, mergedRows);
+	}
+
+	/**
+	 * Tells whether the given Sols would be appended to the end of this index, that is, whether
+	 * they are numbered above every indexed Sol.
+	 *
+	 * @param newSolIds Sol numbers of the appended rows
+	 * @param count number of appended rows
+	 *
+	 * @return true if {@link #append(int[], int[], int)} may be used
+	 */
+	boolean isAppendable(int[] newSolIds, int count) {
+		if (size == 0) {
+			return true;
+		}
+		final int lastSolId = solIds[size - 1];
+		for (int i = 0; i < count; i++) {
+			if (newSolIds[i] <= lastSolId) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builds a new index holding the entries of this one followed by the given rows, which must
+	 * refer to Sols numbered above every indexed one. The entries are written past the end of
+	 * this index when its arrays have room for them, and to arrays twice as large otherwise.
+	 * Entries of this index keep their positions. This index must be the last one built.
+	 *
+	 * @param newSolIds Sol numbers of the appended rows
+	 * @param newRows the appended rows
+	 * @param count number of appended rows
+	 *
+	 * @return the new index
+	 *
+	 * @see #isAppendable(int[], int)
+	 */
+	SolIndex append(int[] newSolIds, int[] newRows, int count) {
+		final long[] appended = new long[count];
+		for (int i = 0; i < count; i++) {
+			appended[i] = entry(newSolIds[i], newRows[i]);
+		}
+		sort(appended);
+		int[] appendedIds = solIds;
+		int[] appendedRows = rows;
+		if (size + count > solIds.length) {
+			final int capacity = Math.max(MINIMUM_CAPACITY, Math.max(size + count, 2 * solIds.length));
+			appendedIds = Arrays.copyOf(solIds, capacity);
+			appendedRows = Arrays.copyOf(rows, capacity);
+		}
+		for (int i = 0; i < count; i++) {
+			appendedIds[size + i] = (int) (appended[i] >> 32);
+			appendedRows[size + i] = (int) appended[i];
+		}
+		return new SolIndex(appendedIds, appendedRows, size + count);
+	}
+
+	/**
+	 * Packs a Sol number and a row into a long, sortable by Sol number.
+	 */
+	private static long entry(int solId, int row) {
+		return ((long) solId << 32) | (row & 0xFFFFFFFFL);
+	}
+
+	private static long[] sort(long[] entries) {
+		Arrays.sort(entries);
+		return entries;
+	}
+
+	private static SolIndex fromSortedEntries(long[] entries) {
+		final int[] solIds = new int[entries.length];
+		final int[] rows = new int[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			solIds[i] = (int) (entries[i] >> 32);
+			rows[i] = (int) entries[i];
+		}
+		return new SolIndex(solIds, rows);
+	}
+
+	/**
+	 * Gets the number of indexed Sols.
+	 *
+	 * @return the index size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Finds the position of the first indexed Sol whose number is greater than or equal to
+	 * the given one.
+	 *
+	 * @param solId the Sol number
+	 *
+	 * @return a position between 0 and {@link #size()}, inclusive
+	 */
+	public int lowerBound(int solId) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (solIds[middle] < solId) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the archive row of a Sol.
+	 *
+	 * @param solId the Sol number
+	 *
+	 * @return the row number, or -1 if the Sol is not indexed
+	 */
+	public int findRow(int solId) {
+		final int position = lowerBound(solId);
+		return position < size && solIds[position] == solId ? rows[position] : -1;
+	}
+
+	public int getSolId(int position) {
+		return solIds[position];
+	}
+
+	public int getRow(int position) {
+		return rows[position];
+	}
+}
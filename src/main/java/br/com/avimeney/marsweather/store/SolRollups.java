@@ -0,0 +1,297 @@
+package br.com.avimeney.marsweather.store;
+
+import java.util.Arrays;
+
+/**
+ * Immutable temperature rollups over the archived Sols, laid out in {@link SolIndex} order.
+ * Daily averages are summed into a prefix sum array and daily minimums and maximums are
+ * kept in segment trees, so the mean, minimum and maximum temperatures of any Sol range are
+ * obtained in O(log n) time, without scanning the archive.
+ *
+ * <p>Rollups are updated by the {@link SolArchive} whenever Sols are stored and published
+ * along with the index they were built from. Sols appended past the end of the index only add
+ * leaves to the trees, which are laid out with room to spare, and the sums following them, so
+ * the new rollups share their arrays with the current ones, which never read past their own
+ * index. Revised Sols are written to copies of the arrays instead, since the current rollups
+ * may be read meanwhile. Either way, only the changed leaves, their ancestors and the sums
+ * following the first changed position are computed again. Sols appended amid the indexed
+ * ones, or overflowing the trees, rebuild the whole rollups.
+ *
+ * <p>Sols without temperatures, such as the ones holding only pressure or wind data, are
+ * indexed but left out of the aggregates.
+ *
+ * @author avimeney
+ */
+
+public final class SolRollups {
+
+	static final SolRollups EMPTY = new SolRollups(SolIndex.EMPTY, 0, new double[1], new int[1], new float[0],
+			new float[0]);
+
+	/**
+	 * Aggregated temperatures of a range of index positions.
+	 */
+	public static final class Aggregate {
+
+		private final int count;
+		private final double averageTemperature;
+		private final float minimumTemperature;
+		private final float maximumTemperature;
+
+		Aggregate(int count, double averageTemperature, float minimumTemperature, float maximumTemperature) {
+			this.count = count;
+			this.averageTemperature = averageTemperature;
+			this.minimumTemperature = minimumTemperature;
+			this.maximumTemperature = maximumTemperature;
+		}
+
+		/**
+		 * Gets the number of aggregated Sols, the ones without temperatures excluded.
+		 *
+		 * @return the Sol count. When zero, the temperatures are meaningless.
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Gets the mean of the daily average temperatures.
+		 *
+		 * @return the mean temperature
+		 */
+		public double getAverageTemperature() {
+			return averageTemperature;
+		}
+
+		public float getMinimumTemperature() {
+			return minimumTemperature;
+		}
+
+		public float getMaximumTemperature() {
+			return maximumTemperature;
+		}
+	}
+
+	private final SolIndex index;
+
+	/**
+	 * Element <i>i</i> holds the sum of the daily averages of the first <i>i</i> indexed Sols.
+	 */
+	private final double[] averagePrefixSums;
+
+	/**
+	 * Element <i>i</i> holds the number of Sols with temperatures among the first <i>i</i>
+	 * indexed Sols.
+	 */
+	private final int[] temperatureCounts;
+
+	/**
+	 * Number of leaves of the trees, a power of two.
+	 */
+	private final int capacity;
+
+	/*
+	 * Bottom-up segment trees. Leaves start at position capacity, and the ones past the index size,
+	 * or of Sols without temperatures, hold the neutral values.
+	 */
+	private final float[] minimumTree;
+	private final float[] maximumTree;
+
+	private SolRollups(SolIndex index, int capacity, double[] averagePrefixSums, int[] temperatureCounts,
+			float[] minimumTree, float[] maximumTree) {
+		this.index = index;
+		this.capacity = capacity;
+		this.averagePrefixSums = averagePrefixSums;
+		this.temperatureCounts = temperatureCounts;
+		this.minimumTree = minimumTree;
+		this.maximumTree = maximumTree;
+	}
+
+	/**
+	 * Builds the rollups of the Sols referenced by an index.
+	 *
+	 * @param archive the archive holding the Sol data
+	 * @param index the index of the Sols to be rolled up
+	 *
+	 * @return the new rollups
+	 */
+	static SolRollups build(SolArchive archive, SolIndex index) {
+		final int size = index.size();
+		// Twice the room needed, so that the next appends fit
+		final int capacity = Integer.highestOneBit(Math.max(1, size)) * 2;
+		final double[] averagePrefixSums = new double[capacity + 1];
+		final int[] temperatureCounts = new int[capacity + 1];
+		final float[] minimumTree = new float[2 * capacity];
+		final float[] maximumTree = new float[2 * capacity];
+		Arrays.fill(minimumTree, Float.POSITIVE_INFINITY);
+		Arrays.fill(maximumTree, Float.NEGATIVE_INFINITY);
+		for (int position = 0; position < size; position++) {
+			final int row = index.getRow(position);
+			addAverage(archive, row, averagePrefixSums, temperatureCounts, position);
+			minimumTree[capacity + position] = orElse(archive.getMinimumTemperature(row), Float.POSITIVE_INFINITY);
+			maximumTree[capacity + position] = orElse(archive.getMaximumTemperature(row), Float.NEGATIVE_INFINITY);
+		}
+		for (int node = capacity - 1; node > 0; node--) {
+			minimumTree[node] = Math.min(minimumTree[2 * node], minimumTree[2 * node + 1]);
+			maximumTree[node] = Math.max(maximumTree[2 * node], maximumTree[2 * node + 1]);
+		}
+		return new SolRollups(index, capacity, averagePrefixSums, temperatureCounts, minimumTree, maximumTree);
+	}
+
+	/**
+	 * Builds the rollups of an index holding the Sols of the index of these rollups, at the same
+	 * positions, followed by the appended ones, if any. These rollups must be the last ones built.
+	 *
+	 * @param archive the archive holding the Sol data
+	 * @param newIndex the new index, as built by {@link SolIndex#append(int[], int[], int)} or
+	 *        {@link SolIndex#relocate(int[], int[], int)} from the index of these rollups, or that
+	 *        index itself
+	 * @param revisedSolIds numbers of the indexed Sols whose values changed
+	 *
+	 * @return the new rollups
+	 */
+	SolRollups update(SolArchive archive, SolIndex newIndex, int[] revisedSolIds) {
+		final int size = index.size();
+		final int newSize = newIndex.size();
+		if (newSize > capacity) {
+			return build(archive, newIndex);
+		}
+		double[] sums = averagePrefixSums;
+		int[] counts = temperatureCounts;
+		float[] minimums = minimumTree;
+		float[] maximums = maximumTree;
+		int firstChanged = size;
+		if (revisedSolIds.length > 0) {
+			sums = sums.clone();
+			counts = counts.clone();
+			minimums = minimums.clone();
+			maximums = maximums.clone();
+			for (int solId : revisedSolIds) {
+				final int position = newIndex.lowerBound(solId);
+				setLeaf(archive, newIndex, minimums, maximums, position);
+				firstChanged = Math.min(firstChanged, position);
+			}
+		}
+		for (int position = size; position < newSize; position++) {
+			setLeaf(archive, newIndex, minimums, maximums, position);
+		}
+		for (int position = firstChanged; position < newSize; position++) {
+			addAverage(archive, newIndex.getRow(position), sums, counts, position);
+		}
+		return new SolRollups(newIndex, capacity, sums, counts, minimums, maximums);
+	}
+
+	/**
+	 * Sets the prefix sum and count following an index position from the ones at that position.
+	 * Sols without temperatures add nothing.
+	 */
+	private static void addAverage(SolArchive archive, int row, double[] sums, int[] counts, int position) {
+		final float average = archive.getAverageTemperature(row);
+		final boolean missing = Float.isNaN(average);
+		sums[position + 1] = sums[position] + (missing ? 0 : average);
+		counts[position + 1] = counts[position] + (missing ? 0 : 1);
+	}
+
+	private static float orElse(float value, float missing) {
+		return Float.isNaN(value) ? missing : value;
+	}
+
+	/**
+	 * Sets the leaves of an index position and updates their ancestors.
+	 */
+	private void setLeaf(SolArchive archive, SolIndex newIndex, float[] minimums, float[] maximums, int position) {
+		final int row = newIndex.getRow(position);
+		int node = capacity + position;
+		minimums[node] = orElse(archive.getMinimumTemperature(row), Float.POSITIVE_INFINITY);
+		maximums[node] = orElse(archive.getMaximumTemperature(row), Float.NEGATIVE_INFINITY);
+		for (node >>= 1; node > 0; node >>= 1) {
+			minimums[node] = Math.min(minimums[2 * node], minimums[2 * node + 1]);
+			maximums[node] = Math.max(maximums[2 * node], maximums[2 * node + 1]);
+		}
+	}
+
+	/**
+	 * Gets the index the rollups were built from. Index positions passed to the other methods
+	 * refer to this index.
+	 *
+	 * @return the index
+	 */
+	public SolIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Aggregates the temperatures of the Sols in a range.
+	 *
+	 * @param fromSol first Sol number of the range, inclusive
+	 * @param toSol last Sol number of the range, inclusive
+	 *
+	 * @return the aggregated temperatures
+	 */
+	public Aggregate aggregate(int fromSol, int toSol) {
+		if (fromSol > toSol) {
+			return aggregatePositions(0, 0);
+		}
+		return aggregatePositions(index.lowerBound(fromSol), upperBound(toSol));
+	}
+
+	/**
+	 * Aggregates the temperatures of a range of index positions.
+	 *
+	 * @param start first position, inclusive
+	 * @param end last position, exclusive
+	 *
+	 * @return the aggregated temperatures
+	 */
+	public Aggregate aggregatePositions(int start, int end) {
+		final int count = start < end ? temperatureCount(start, end) : 0;
+		if (count == 0) {
+			return new Aggregate(0, Double.NaN, Float.NaN, Float.NaN);
+		}
+		float minimum = Float.POSITIVE_INFINITY;
+		float maximum = Float.NEGATIVE_INFINITY;
+		for (int low = start + capacity, high = end + capacity; low < high; low >>= 1, high >>= 1) {
+			if ((low & 1) == 1) {
+				minimum = Math.min(minimum, minimumTree[low]);
+				maximum = Math.max(maximum, maximumTree[low++]);
+			}
+			if ((high & 1) == 1) {
+				minimum = Math.min(minimum, minimumTree[--high]);
+				maximum = Math.max(maximum, maximumTree[high]);
+			}
+		}
+		return new Aggregate(count, averageSum(start, end) / count, minimum, maximum);
+	}
+
+	/**
+	 * Gets the mean of the daily averages of a range of index positions in constant time.
+	 *
+	 * @param start first position, inclusive
+	 * @param end last position, exclusive. Must be greater than the first position.
+	 *
+	 * @return the mean temperature, or NaN if no Sol in the range has temperatures
+	 */
+	public double meanAverageTemperature(int start, int end) {
+		return averageSum(start, end) / temperatureCount(start, end);
+	}
+
+	private double averageSum(int start, int end) {
+		return averagePrefixSums[end] - averagePrefixSums[start];
+	}
+
+	private int temperatureCount(int start, int end) {
+		return temperatureCounts[end] - temperatureCounts[start];
+	}
+
+	/**
+	 * Finds the position following the last indexed Sol whose number is less than or equal to
+	 * the given one.
+	 *
+	 * @param solId the Sol number
+	 *
+	 * @return a position between 0 and the index size, inclusive
+	 */
+	public int upperBound(int solId) {
+		return solId == Integer.MAX_VALUE ? index.size() : index.lowerBound(solId + 1);
+	}
+}
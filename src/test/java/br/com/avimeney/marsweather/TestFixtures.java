@@ -0,0 +1,89 @@
+package br.com.avimeney.marsweather;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+import br.com.avimeney.marsweather.model.SolData;
+
+/**
+ * Test data shared by the unit tests: NASA InSight API payloads holding given Sols, unlike the
+ * synthetic ones of {@link br.com.avimeney.marsweather.integration.nasa.InSightPayloads}, and
+ * cache snapshots.
+ *
+ * @author avimeney
+ */
+
+public final class TestFixtures {
+
+	public static final long HOUR = 3600000;
+
+	private TestFixtures() {
+	}
+
+	/**
+	 * Builds a NASA InSight API payload, version 1.0, holding the given Sols. Measurements missing
+	 * from a Sol, which are NaN, are left out of the payload, along with their sensor object when
+	 * every one of them is missing.
+	 *
+	 * @param sols the Sols
+	 *
+	 * @return the JSON payload
+	 */
+	public static String payload(SolData... sols) {
+		final StringBuilder json = new StringBuilder("{");
+		for (SolData sol : sols) {
+			json.append('"').append(sol.getSolId()).append("\":{");
+			final int start = json.length();
+			if (!Float.isNaN(sol.getAveragetemperature())) {
+				json.append("\"AT\":{\"av\":").append(sol.getAveragetemperature()
+						).append(",\"ct\":").append(sol.getSampleCount()
+						).append(",\"mn\":").append(sol.getMinimumTemperature()
+						).append(",\"mx\":").append(sol.getMaximumTemperature()
+						).append('}');
+			}
+			appendSensor(json, start, "PRE", sol.getAveragePressure(), sol.getMinimumPressure(), sol.getMaximumPressure());
+			appendSensor(json, start, "HWS", sol.getAverageWindSpeed(), sol.getMinimumWindSpeed(), sol.getMaximumWindSpeed());
+			final int[] windDirections = sol.getWindDirectionCounts();
+			if (windDirections != null) {
+				json.append(json.length() > start ? "," : "").append("\"WD\":{");
+				for (int point = 0; point < windDirections.length; point++) {
+					json.append(point > 0 ? "," : "").append('"').append(point).append("\":{\"ct\":"
+							).append(windDirections[point]).append('}');
+				}
+				json.append('}');
+			}
+			json.append("},");
+		}
+		json.append("\"sol_keys\":[");
+		for (int i = 0; i < sols.length; i++) {
+			json.append(i > 0 ? "," : "").append('"').append(sols[i].getSolId()).append('"');
+		}
+		return json.append("]}").toString();
+	}
+
+	private static void appendSensor(StringBuilder json, int start, String name, float av, float mn, float mx) {
+		if (Float.isNaN(av)) {
+			return;
+		}
+		json.append(json.length() > start ? "," : "").append('"').append(name).append("\":{\"av\":").append(av
+				).append(",\"mn\":").append(mn
+				).append(",\"mx\":").append(mx
+				).append('}');
+	}
+
+	/**
+	 * Builds a cache snapshot expiring an hour after its creation.
+	 *
+	 * @param createdAt creation time, in milliseconds since the epoch
+	 * @param previous the snapshot being replaced, if any
+	 * @param sols the Sols held by the snapshot
+	 *
+	 * @return the snapshot
+	 *
+	 * @throws IOException if the Sols could not be encoded
+	 */
+	public static SolDataSnapshot snapshot(long createdAt, SolDataSnapshot previous, SolData... sols) throws IOException {
+		return SolDataSnapshot.create(Arrays.asList(sols), createdAt, createdAt + HOUR, previous);
+	}
+}
@@ -0,0 +1,158 @@
+package br.com.avimeney.marsweather.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+
+	/**
+	 * Weight bound never reached by the tests about the entry count.
+	 */
+	private static final long UNBOUNDED = 1000000;
+
+	@Test
+	public void popularCandidateReplacesProbationEntry() {
+		// Window and main area of a single entry each
+		final QueryResultCache<String> cache = new QueryResultCache<String>("test", 2, UNBOUNDED);
+		query(cache, "a", 1);
+		put(cache, "a");
+		put(cache, "b");
+		// b leaves the window, but was never queried as often as a
+		query(cache, "c", 5);
+		put(cache, "c");
+		// c leaves the window, and was queried more often than a
+		put(cache, "d");
+
+		assertNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals("c", cache.get("c"));
+		assertEquals("d", cache.get("d"));
+	}
+
+	@Test
+	public void scanKeepsPopularResults() {
+		final QueryResultCache<String> cache = new QueryResultCache<String>("test", 100, UNBOUNDED);
+		for (int i = 0; i < 10; i++) {
+			query(cache, "popular-" + i, 5);
+			put(cache, "popular-" + i);
+		}
+		// Fills the cache, then competes with the popular results on probation
+		for (int i = 0; i < 300; i++) {
+			query(cache, "scan-" + i, 1);
+			put(cache, "scan-" + i);
+		}
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals("popular-" + i, cache.get("popular-" + i));
+		}
+		int scanned = 0;
+		for (int i = 0; i < 300; i++) {
+			if (cache.get("scan-" + i) != null) {
+				scanned++;
+			}
+		}
+		assertEquals(90, scanned);
+	}
+
+	@Test
+	public void cacheIsBoundedByEntries() {
+		final QueryResultCache<String> cache = new QueryResultCache<String>("test", 10, UNBOUNDED);
+		for (int i = 0; i < 100; i++) {
+			put(cache, "key-" + i);
+		}
+
+		int kept = 0;
+		for (int i = 0; i < 100; i++) {
+			if (cache.get("key-" + i) != null) {
+				kept++;
+			}
+		}
+		assertEquals(10, kept);
+	}
+
+	@Test
+	public void cacheIsBoundedByWeight() {
+		// Window of a unit of weight, main area of 99
+		final QueryResultCache<String> cache = new QueryResultCache<String>("test", 100, 100);
+		for (int i = 0; i < 5; i++) {
+			cache.put("key-" + i, "key-" + i, 40, 1, 1, cache.stamp());
+		}
+
+		int kept = 0;
+		for (int i = 0; i < 5; i++) {
+			if (cache.get("key-" + i) != null) {
+				kept++;
+			}
+		}
+		assertEquals(2, kept);
+	}
+
+	@Test
+	public void heavyResultIsRefusedAndDropsPreviousOne() {
+		final QueryResultCache<String> cache = new QueryResultCache<String>("test", 100, 100);
+		cache.put("key", "light", 10, 1, 1, cache.stamp());
+		cache.put("key", "heavy", 100, 1, 1, cache.stamp());
+
+		assertNull(cache.get("key"));
+	}
+
+	@Test
+	public void invalidateDropsResultsOverlappingChangedSols() {
+		final QueryResultCache<String> cache = new QueryResultCache<String>("test", 100, UNBOUNDED);
+		cache.put("low", "low", 1, 1, 10, cache.stamp());
+		cache.put("middle", "middle", 1, 11, 19, cache.stamp());
+		cache.put("high", "high", 1, 20, 30, cache.stamp());
+
+		cache.invalidate(new int[] {});
+		cache.invalidate(new int[] {0, 31, 40});
+		assertEquals("low", cache.get("low"));
+		assertEquals("middle", cache.get("middle"));
+		assertEquals("high", cache.get("high"));
+
+		cache.invalidate(new int[] {15, 31});
+		assertNull(cache.get("middle"));
+		assertEquals("low", cache.get("low"));
+		assertEquals("high", cache.get("high"));
+
+		// Range bounds are inclusive
+		cache.invalidate(new int[] {10, 20});
+		assertNull(cache.get("low"));
+		assertNull(cache.get("high"));
+	}
+
+	@Test
+	public void resultComputedBeforeInvalidationIsNotStored() {
+		final QueryResultCache<String> cache = new QueryResultCache<String>("test", 100, UNBOUNDED);
+		final long stamp = cache.stamp();
+		// Any change may affect a result whose range isn't known until computed
+		cache.invalidate(new int[] {500});
+		cache.put("key", "stale", 1, 1, 10, stamp);
+
+		assertNull(cache.get("key"));
+
+		cache.put("key", "fresh", 1, 1, 10, cache.stamp());
+		assertEquals("fresh", cache.get("key"));
+	}
+
+	@Test
+	public void putReplacesCachedResult() {
+		final QueryResultCache<String> cache = new QueryResultCache<String>("test", 100, UNBOUNDED);
+		cache.put("key", "first", 1, 1, 10, cache.stamp());
+		cache.put("key", "second", 1, 20, 30, cache.stamp());
+		cache.invalidate(new int[] {5});
+
+		assertEquals("second", cache.get("key"));
+	}
+
+	private static void query(QueryResultCache<String> cache, String key, int times) {
+		for (int i = 0; i < times; i++) {
+			cache.get(key);
+		}
+	}
+
+	private static void put(QueryResultCache<String> cache, String key) {
+		cache.put(key, key, 1, 1, 1, cache.stamp());
+	}
+}
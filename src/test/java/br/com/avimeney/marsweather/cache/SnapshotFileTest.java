@@ -0,0 +1,117 @@
+package br.com.avimeney.marsweather.cache;
+
+import static br.com.avimeney.marsweather.TestFixtures.HOUR;
+import static br.com.avimeney.marsweather.TestFixtures.snapshot;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.avimeney.marsweather.model.SolData;
+
+public class SnapshotFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void restoredSnapshotKeepsVersionAndTimes() throws IOException {
+		final SolData measured = new SolData(2, -61, -91, -11, 100);
+		measured.setPressure(750, 700, 800);
+		measured.setWindSpeed(5, 1, 12);
+		final int[] windDirectionCounts = new int[SolData.COMPASS_POINTS];
+		windDirectionCounts[3] = 42;
+		measured.setWindDirectionCounts(windDirectionCounts);
+		final SolDataSnapshot first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100));
+		final SolDataSnapshot saved = snapshot(2000, first, new SolData(1, -60, -90, -10, 100), measured);
+		final Path file = folder.getRoot().toPath().resolve("sol-cache.snapshot");
+
+		SnapshotFile.write(file, saved);
+		final SolDataSnapshot restored = SnapshotFile.read(file, HOUR);
+
+		assertEquals(saved.getVersion(), restored.getVersion());
+		assertEquals(2000, restored.getCreatedAt());
+		assertEquals(saved.getLastModified(), restored.getLastModified());
+		assertEquals(2000 + HOUR, restored.getExpiresAt());
+		assertArrayEquals(saved.getJson(), restored.getJson());
+		assertEquals(750, restored.getSols()[1].getAveragePressure(), 0);
+		assertArrayEquals(windDirectionCounts, restored.getSols()[1].getWindDirectionCounts());
+	}
+
+	@Test
+	public void rewrittenFileReplacesSavedSnapshot() throws IOException {
+		final SolDataSnapshot first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100));
+		final SolDataSnapshot second = snapshot(2000, first, new SolData(2, -61, -91, -11, 100));
+		final Path file = folder.getRoot().toPath().resolve("sol-cache.snapshot");
+
+		SnapshotFile.write(file, first);
+		SnapshotFile.write(file, second);
+
+		assertEquals(second.getVersion(), SnapshotFile.read(file, HOUR).getVersion());
+		// No temporary file is left behind
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void missingFileHoldsNoSnapshot() throws IOException {
+		assertNull(SnapshotFile.read(folder.getRoot().toPath().resolve("sol-cache.snapshot"), HOUR));
+	}
+
+	@Test
+	public void corruptFileIsRejected() throws IOException {
+		final Path file = folder.newFile("sol-cache.snapshot").toPath();
+		Files.write(file, new byte[64]);
+
+		assertUnreadable(file, "Unsupported snapshot file format at " + file);
+	}
+
+	@Test
+	public void truncatedFileIsRejected() throws IOException {
+		final Path file = folder.getRoot().toPath().resolve("sol-cache.snapshot");
+		SnapshotFile.write(file, snapshot(1000, null, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100)));
+		final byte[] content = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(content, content.length - 1));
+
+		assertUnreadable(file, "Truncated snapshot file at " + file);
+	}
+
+	@Test
+	public void packedFileIsRestored() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(32 + 2 * SolDataSnapshot.PACKED_SOL_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(0x4D575353).putInt(1).putLong(3000).putLong(2500).putInt(2).putInt(0);
+		buffer.putInt(1).putFloat(-60).putFloat(-90).putFloat(-10);
+		buffer.putInt(2).putFloat(-61).putFloat(-91).putFloat(-11);
+		final Path file = folder.newFile("sol-cache.snapshot").toPath();
+		Files.write(file, buffer.array());
+
+		final SolDataSnapshot restored = SnapshotFile.read(file, HOUR);
+
+		// The version of these snapshots is their last modification time
+		assertEquals(2500, restored.getVersion());
+		assertEquals(3000, restored.getCreatedAt());
+		assertEquals(2, restored.getSols().length);
+		assertEquals(-91, restored.getSols()[1].getMinimumTemperature(), 0);
+	}
+
+	private static void assertUnreadable(Path file, String message) {
+		try {
+			SnapshotFile.read(file, HOUR);
+			fail("Snapshot read from " + file);
+		} catch (IOException e) {
+			assertEquals(message, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package br.com.avimeney.marsweather.cache;
+
+import static br.com.avimeney.marsweather.TestFixtures.HOUR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.avimeney.marsweather.cache.SolDataCache.RefreshMode;
+import br.com.avimeney.marsweather.integration.UpstreamFetchCoordinator.Settings;
+import br.com.avimeney.marsweather.model.SolData;
+import br.com.avimeney.marsweather.rest.MarsWeatherServiceException;
+
+public class SolDataCacheTest {
+
+	/**
+	 * Snapshot age after which a background refresh is started, long enough for the reads of a
+	 * test step to happen within it.
+	 */
+	private static final long SOFT_TTL = 200;
+
+	/**
+	 * Retry delay after a failed load, longer than any test.
+	 */
+	private static final long BACKOFF = HOUR;
+
+	/**
+	 * Loader handing out loads completed by the test.
+	 */
+	private static final class ManualLoader implements SolDataCache.Loader {
+		final Deque<CompletableFuture<Map<Integer, SolData>>> loads = new ArrayDeque<CompletableFuture<Map<Integer, SolData>>>();
+
+		@Override
+		public synchronized CompletableFuture<Map<Integer, SolData>> load() {
+			final CompletableFuture<Map<Integer, SolData>> load = new CompletableFuture<Map<Integer, SolData>>();
+			loads.add(load);
+			return load;
+		}
+
+		synchronized CompletableFuture<Map<Integer, SolData>> last() {
+			return loads.getLast();
+		}
+
+		synchronized int count() {
+			return loads.size();
+		}
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ManualLoader loader = new ManualLoader();
+
+	@Test
+	public void staleSnapshotServedWhileRefreshing() throws Exception {
+		final SolDataCache cache = cache(RefreshMode.BACKGROUND, SOFT_TTL, HOUR);
+		final SolDataSnapshot first = load(cache, new SolData(1, -60, -90, -10, 100));
+
+		Thread.sleep(SOFT_TTL + 50);
+		// The reader, or the refresh timer, started a refresh, and the stale snapshot is served meanwhile
+		assertSame(first, cache.getCachedSnapshot());
+		assertEquals(2, loader.count());
+		assertSame(first, cache.getCachedSnapshot());
+		assertEquals(2, loader.count());
+
+		loader.last().complete(sols(new SolData(1, -60, -90, -10, 100), new SolData(2, -61, -91, -11, 100)));
+		final SolDataSnapshot second = cache.getCurrentSnapshot();
+		assertEquals(2, second.getSols().length);
+		assertSame(second, cache.getCachedSnapshot());
+	}
+
+	@Test
+	public void hardTtlStopsServingSnapshot() throws Exception {
+		final SolDataCache cache = cache(RefreshMode.BACKGROUND, SOFT_TTL, 2 * SOFT_TTL);
+		final SolDataSnapshot first = load(cache, new SolData(1, -60, -90, -10, 100));
+
+		Thread.sleep(SOFT_TTL + 50);
+		assertSame(first, cache.getCachedSnapshot());
+
+		Thread.sleep(SOFT_TTL);
+		assertNull(cache.getCachedSnapshot());
+		// Readers wait for the refresh still in flight
+		final CompletableFuture<SolDataSnapshot> waiting = cache.getSnapshotAsync();
+		assertFalse(waiting.isDone());
+		assertEquals(2, loader.count());
+
+		loader.last().complete(sols(new SolData(1, -50, -80, -5, 200)));
+		assertEquals(-50, waiting.get().getSols()[0].getAveragetemperature(), 0);
+		assertSame(waiting.get(), cache.getCachedSnapshot());
+	}
+
+	@Test
+	public void invalidatedSnapshotExpiresAtSoftTtl() throws Exception {
+		final SolDataCache cache = cache(RefreshMode.INVALIDATE, SOFT_TTL, 0);
+		final SolDataSnapshot first = load(cache, new SolData(1, -60, -90, -10, 100));
+
+		assertSame(first, cache.getCachedSnapshot());
+		assertEquals(1, loader.count());
+
+		Thread.sleep(SOFT_TTL + 50);
+		assertNull(cache.getCachedSnapshot());
+		// Nothing is loaded before a reader asks for it
+		assertEquals(1, loader.count());
+	}
+
+	@Test
+	public void failedRefreshKeepsLastGoodSnapshot() throws Exception {
+		final SolDataCache cache = cache(RefreshMode.BACKGROUND, SOFT_TTL, HOUR);
+		final SolDataSnapshot first = load(cache, new SolData(1, -60, -90, -10, 100));
+
+		Thread.sleep(SOFT_TTL + 50);
+		assertSame(first, cache.getCachedSnapshot());
+		loader.last().completeExceptionally(new MarsWeatherServiceException("Upstream failure"));
+
+		assertSame(first, cache.getCachedSnapshot());
+		assertSame(first, cache.getSnapshotAsync().get());
+		// No new load before the backoff delay
+		assertEquals(2, loader.count());
+		assertTrue(cache.getCoordinator().isBackingOff());
+	}
+
+	@Test
+	public void noRefreshTimerWithoutSoftTtl() throws Exception {
+		// A timer would be scheduled with a zero period, which the constructor would fail on
+		final SolDataCache cache = cache(RefreshMode.BACKGROUND, 0, HOUR);
+		assertEquals(0, loader.count());
+
+		final SolDataSnapshot first = load(cache, new SolData(1, -60, -90, -10, 100));
+		// Every read refreshes the cache instead
+		assertSame(first, cache.getCachedSnapshot());
+		assertEquals(2, loader.count());
+	}
+
+	@Test
+	public void persistedSnapshotIsRestored() throws Exception {
+		final Path file = folder.getRoot().toPath().resolve("sol-cache.snapshot");
+		final SolDataSnapshot saved = load(cache(RefreshMode.BACKGROUND, SOFT_TTL, HOUR),
+				new SolData(1, -60, -90, -10, 100));
+		SnapshotFile.write(file, saved);
+		final SolDataCache cache = cache(RefreshMode.BACKGROUND, SOFT_TTL, HOUR);
+		final BlockingQueue<String> notifiers = new LinkedBlockingQueue<String>();
+		cache.addChangeListener(new SolDataCache.ChangeListener() {
+			@Override
+			public void snapshotChanged(SolDataSnapshot previous, SolDataSnapshot current) {
+				notifiers.add(Thread.currentThread().getName());
+			}
+		});
+
+		assertTrue(cache.persistTo(file));
+		final SolDataSnapshot restored = cache.getCachedSnapshot();
+		assertEquals(saved.getVersion(), restored.getVersion());
+		assertEquals(saved.getCreatedAt(), restored.getCreatedAt());
+		assertEquals(1, loader.count());
+		// Listeners are told about the restored snapshot by the publisher thread
+		assertEquals("Cache Publisher", notifiers.poll(5, TimeUnit.SECONDS));
+
+		// Loaded snapshots are saved from then on
+		cache.refresh();
+		loader.last().complete(sols(new SolData(1, -60, -90, -10, 100), new SolData(2, -61, -91, -11, 100)));
+		assertEquals("Cache Publisher", notifiers.poll(5, TimeUnit.SECONDS));
+		assertEquals(cache.getCurrentSnapshot().getVersion(), SnapshotFile.read(file, HOUR).getVersion());
+	}
+
+	@Test
+	public void expiredSnapshotIsNotRestored() throws Exception {
+		final Path file = folder.getRoot().toPath().resolve("sol-cache.snapshot");
+		SnapshotFile.write(file, load(cache(RefreshMode.BACKGROUND, SOFT_TTL, 2 * SOFT_TTL),
+				new SolData(1, -60, -90, -10, 100)));
+		Thread.sleep(2 * SOFT_TTL + 50);
+		final SolDataCache cache = cache(RefreshMode.BACKGROUND, SOFT_TTL, 2 * SOFT_TTL);
+
+		assertFalse(cache.persistTo(file));
+		assertNull(cache.getCurrentSnapshot());
+	}
+
+	@Test
+	public void unreadableSnapshotStartsEmpty() throws Exception {
+		final Path file = folder.newFile("sol-cache.snapshot").toPath();
+		Files.write(file, new byte[64]);
+		final SolDataCache cache = cache(RefreshMode.BACKGROUND, SOFT_TTL, HOUR);
+
+		assertFalse(cache.persistTo(file));
+		assertNull(cache.getCurrentSnapshot());
+	}
+
+	private SolDataCache cache(RefreshMode refreshMode, long softTtl, long hardTtl) {
+		return new SolDataCache("test", loader, refreshMode, softTtl, hardTtl, new Settings(1, 3600000, BACKOFF,
+				BACKOFF));
+	}
+
+	/**
+	 * Loads the empty cache with the given Sols.
+	 */
+	private SolDataSnapshot load(SolDataCache cache, SolData... sols) throws Exception {
+		final CompletableFuture<SolDataSnapshot> loaded = cache.getSnapshotAsync();
+		loader.last().complete(sols(sols));
+		final SolDataSnapshot snapshot = loaded.get();
+		assertNotNull(snapshot);
+		return snapshot;
+	}
+
+	private static Map<Integer, SolData> sols(SolData... sols) {
+		final Map<Integer, SolData> map = new HashMap<Integer, SolData>();
+		for (SolData sol : sols) {
+			map.put(sol.getSolId(), sol);
+		}
+		return map;
+	}
+}
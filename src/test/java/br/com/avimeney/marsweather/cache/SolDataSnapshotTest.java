@@ -0,0 +1,196 @@
+package br.com.avimeney.marsweather.cache;
+
+import static br.com.avimeney.marsweather.TestFixtures.HOUR;
+import static br.com.avimeney.marsweather.TestFixtures.snapshot;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import br.com.avimeney.marsweather.model.SolData;
+
+public class SolDataSnapshotTest {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void jsonSinceHoldsAddedAndRevisedSols() throws IOException {
+		final SolDataSnapshot first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100), new SolData(3, -62, -92, -12, 100));
+		// Sol 1 removed, Sol 2 revised and Sol 4 added
+		final SolDataSnapshot second = snapshot(2000, first, new SolData(2, -50, -80, -5, 200),
+				new SolData(3, -62, -92, -12, 100), new SolData(4, -63, -93, -13, 100));
+		final SolDataSnapshot third = snapshot(3000, second, new SolData(2, -50, -80, -5, 200),
+				new SolData(3, -40, -70, -2, 300), new SolData(4, -63, -93, -13, 100));
+
+		assertSolIds(second.getJsonSince(first.getVersion()), 2, 4);
+		assertSolIds(third.getJsonSince(first.getVersion()), 2, 3, 4);
+		assertSolIds(third.getJsonSince(second.getVersion()), 3);
+		assertSolIds(third.getJsonSince(third.getVersion()));
+		assertEquals(-50, sols(third.getJsonSince(first.getVersion())).get(0).get("avg").floatValue(), 0);
+	}
+
+	@Test
+	public void jsonSinceOlderVersionIsWholeArray() throws IOException {
+		final SolDataSnapshot first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100));
+		final SolDataSnapshot second = snapshot(2000, first, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100));
+
+		assertArrayEquals(second.getJson(), second.getJsonSince(0));
+		assertArrayEquals(second.getJson(), second.getJsonSince(first.getVersion() - 1));
+		assertArrayEquals("[]".getBytes(StandardCharsets.UTF_8), second.getJsonSince(second.getVersion()));
+	}
+
+	@Test
+	public void renewedSnapshotKeepsVersions() throws IOException {
+		final SolDataSnapshot first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100));
+		final SolDataSnapshot second = snapshot(2000, first, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100));
+		final SolDataSnapshot renewed = snapshot(3000, second, new SolData(2, -61, -91, -11, 100),
+				new SolData(1, -60, -90, -10, 100));
+
+		assertEquals(second.getVersion(), renewed.getVersion());
+		assertEquals(3000, renewed.getCreatedAt());
+		assertEquals(2000, renewed.getLastModified());
+		assertSame(second.getJson(), renewed.getJson());
+		assertSolIds(renewed.getJsonSince(first.getVersion()), 2);
+	}
+
+	@Test
+	public void versionsGrowDespiteClockGoingBack() throws IOException {
+		final SolDataSnapshot first = snapshot(5000, null, new SolData(1, -60, -90, -10, 100));
+		final SolDataSnapshot second = snapshot(4000, first, new SolData(1, -50, -80, -5, 200));
+
+		assertEquals(5001, second.getVersion());
+		assertSolIds(second.getJsonSince(first.getVersion()), 1);
+	}
+
+	@Test
+	public void restoredSnapshotChangedEverySolInItsVersion() throws IOException {
+		final SolDataSnapshot restored = SolDataSnapshot.restore(Arrays.asList(new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100)), 7000, 8000, 6000, 8000 + HOUR);
+
+		assertSolIds(restored.getJsonSince(6999), 1, 2);
+		assertSolIds(restored.getJsonSince(7000));
+	}
+
+	@Test
+	public void removedSinceListsSolsNoLongerHeld() throws IOException {
+		final SolDataSnapshot first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100), new SolData(3, -62, -92, -12, 100));
+		final SolDataSnapshot second = snapshot(2000, first, new SolData(2, -61, -91, -11, 100),
+				new SolData(3, -62, -92, -12, 100), new SolData(4, -63, -93, -13, 100));
+		// Sol 4, added by the second snapshot, is removed as well
+		final SolDataSnapshot third = snapshot(3000, second, new SolData(3, -62, -92, -12, 100));
+
+		assertArrayEquals(new int[] { 1 }, second.getRemovedSince(first.getVersion()));
+		assertArrayEquals(new int[0], second.getRemovedSince(second.getVersion()));
+		assertArrayEquals(new int[] { 1, 2, 4 }, third.getRemovedSince(first.getVersion()));
+		assertArrayEquals(new int[] { 2, 4 }, third.getRemovedSince(second.getVersion()));
+	}
+
+	@Test
+	public void solAddedBackIsNoLongerRemoved() throws IOException {
+		final SolDataSnapshot first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100));
+		final SolDataSnapshot second = snapshot(2000, first, new SolData(2, -61, -91, -11, 100));
+		final SolDataSnapshot third = snapshot(3000, second, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100));
+
+		assertArrayEquals(new int[0], third.getRemovedSince(first.getVersion()));
+		assertArrayEquals(new int[0], third.getRemovedSince(second.getVersion()));
+		assertSolIds(third.getJsonSince(second.getVersion()), 1);
+	}
+
+	@Test
+	public void changesAreKnownSinceFirstSnapshot() throws IOException {
+		final SolDataSnapshot first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100));
+		final SolDataSnapshot second = snapshot(2000, first, new SolData(2, -61, -91, -11, 100));
+		final SolDataSnapshot renewed = second.renew(3000, 3000 + HOUR);
+
+		assertTrue(second.knowsChangesSince(first.getVersion()));
+		assertFalse(second.knowsChangesSince(first.getVersion() - 1));
+		assertTrue(renewed.knowsChangesSince(first.getVersion()));
+		assertArrayEquals(new int[] { 1 }, renewed.getRemovedSince(first.getVersion()));
+	}
+
+	@Test
+	public void restoredSnapshotKnowsNoEarlierChanges() throws IOException {
+		final SolDataSnapshot restored = SolDataSnapshot.restore(Arrays.asList(new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100)), 7000, 8000, 6000, 8000 + HOUR);
+		final SolDataSnapshot next = snapshot(9000, restored, new SolData(2, -61, -91, -11, 100));
+
+		assertFalse(restored.knowsChangesSince(6999));
+		assertTrue(restored.knowsChangesSince(7000));
+		assertFalse(next.knowsChangesSince(6999));
+		assertArrayEquals(new int[] { 1 }, next.getRemovedSince(restored.getVersion()));
+	}
+
+	@Test
+	public void encodingsSinceHoldSameSols() throws IOException {
+		final SolDataSnapshot first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100));
+		final SolDataSnapshot second = snapshot(2000, first, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -55, -85, -9, 150), new SolData(3, -62, -92, -12, 100));
+
+		assertEquals(2, second.getSolsSince(first.getVersion()).length);
+		assertEquals(2 * SolDataSnapshot.PACKED_SOL_SIZE, second.getPackedSince(first.getVersion()).length);
+		final SolData[] decoded = new ObjectMapper(new CBORFactory()).readValue(second.getCborSince(first.getVersion()),
+				SolData[].class);
+		assertEquals(2, decoded.length);
+		assertEquals(3, decoded[1].getSolId());
+	}
+
+	@Test
+	public void binaryEncodingsHoldSameSolsAsJson() throws IOException {
+		final SolDataSnapshot snapshot = snapshot(1000, null, new SolData(1, -60.5f, -90.25f, -10, 100),
+				new SolData(2, -61, -91, -11.75f, 100), new SolData(3, -62, -92, -12, 100));
+		final List<JsonNode> json = sols(snapshot.getJson());
+		final JsonNode cbor = new ObjectMapper(new CBORFactory()).readTree(snapshot.getCbor());
+		final ByteBuffer packed = ByteBuffer.wrap(snapshot.getPacked()).order(ByteOrder.LITTLE_ENDIAN);
+
+		assertEquals(json.size(), cbor.size());
+		assertEquals(json.size() * SolDataSnapshot.PACKED_SOL_SIZE, packed.remaining());
+		for (int i = 0; i < json.size(); i++) {
+			final JsonNode sol = json.get(i);
+			assertEquals(sol, cbor.get(i));
+			assertEquals(sol.get("id").intValue(), packed.getInt());
+			assertEquals(sol.get("avg").floatValue(), packed.getFloat(), 0);
+			assertEquals(sol.get("min").floatValue(), packed.getFloat(), 0);
+			assertEquals(sol.get("max").floatValue(), packed.getFloat(), 0);
+		}
+	}
+
+	private static List<JsonNode> sols(byte[] json) throws IOException {
+		final List<JsonNode> sols = new ArrayList<JsonNode>();
+		for (JsonNode sol : mapper.readTree(json)) {
+			sols.add(sol);
+		}
+		return sols;
+	}
+
+	private static void assertSolIds(byte[] json, int... solIds) throws IOException {
+		final List<JsonNode> sols = sols(json);
+		final int[] found = new int[sols.size()];
+		for (int i = 0; i < found.length; i++) {
+			found[i] = sols.get(i).get("id").intValue();
+		}
+		assertEquals(Arrays.toString(solIds), Arrays.toString(found));
+	}
+}
@@ -0,0 +1,60 @@
+package br.com.avimeney.marsweather.integration;
+
+import static br.com.avimeney.marsweather.TestFixtures.payload;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.avimeney.marsweather.model.SolData;
+import br.com.avimeney.marsweather.store.SolArchive;
+
+public class BulkImporterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void keepsArchivedSolsWithMoreSamples() throws IOException {
+		final Path dumps = folder.newFolder("dumps").toPath();
+		Files.write(dumps.resolve("1.json"), payload(new SolData(12, -50, -90, -10, 100),
+				new SolData(13, -40, -90, -10, 100)).getBytes(StandardCharsets.UTF_8));
+		Files.write(dumps.resolve("2.json"), "{\"12\":".getBytes(StandardCharsets.UTF_8));
+		try (SolArchive archive = SolArchive.open(folder.newFolder("archive").toPath())) {
+			archive.store(Arrays.asList(new SolData(12, -60, -90, -10, 200), new SolData(13, -61, -91, -11, 50)));
+
+			final BulkImporter.Result result = new BulkImporter(archive, 2, 1).importDirectory(dumps);
+
+			assertEquals(2, result.getFiles());
+			assertEquals(1, result.getFailedFiles());
+			assertEquals(2, result.getParsedSols());
+			assertEquals(1, result.getStoredSols());
+			assertEquals(200, archive.getSampleCount(archive.getIndex().findRow(12)));
+			assertEquals(-60, archive.getAverageTemperature(archive.getIndex().findRow(12)), 0);
+			assertEquals(100, archive.getSampleCount(archive.getIndex().findRow(13)));
+		}
+	}
+
+	@Test
+	public void keepsSolWithMoreSamplesAcrossBatches() throws IOException {
+		final Path dumps = folder.newFolder("dumps").toPath();
+		Files.write(dumps.resolve("1.json"), payload(new SolData(12, -50, -90, -10, 300),
+				new SolData(13, -40, -90, -10, 100)).getBytes(StandardCharsets.UTF_8));
+		Files.write(dumps.resolve("2.json"), payload(new SolData(12, -55, -90, -10, 100),
+				new SolData(13, -45, -90, -10, 100)).getBytes(StandardCharsets.UTF_8));
+		try (SolArchive archive = SolArchive.open(folder.newFolder("archive").toPath())) {
+			final BulkImporter.Result result = new BulkImporter(archive, 2, 1).importDirectory(dumps);
+
+			assertEquals(3, result.getStoredSols());
+			assertEquals(-50, archive.getAverageTemperature(archive.getIndex().findRow(12)), 0);
+			assertEquals(-45, archive.getAverageTemperature(archive.getIndex().findRow(13)), 0);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package br.com.avimeney.marsweather.integration;
+
+import static br.com.avimeney.marsweather.TestFixtures.payload;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.avimeney.marsweather.integration.file.DirectoryWeatherProvider;
+import br.com.avimeney.marsweather.integration.nasa.InSightPayloads;
+import br.com.avimeney.marsweather.metrics.Counter;
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+import br.com.avimeney.marsweather.model.SolData;
+import br.com.avimeney.marsweather.rest.MarsWeatherServiceException;
+
+public class IngestionPipelineTest {
+
+	private static final Executor CALLER = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void skipsPayloadsThatCantBeParsed() throws Exception {
+		final DirectoryWeatherProvider provider = directoryWithCorruptFile();
+		final Counter skipped = MetricsRegistry.getInstance().counter("test_skipped_payloads_total",
+				"Payloads skipped by the tests.", "test", "skipsPayloadsThatCantBeParsed");
+
+		final Map<Integer, SolData> sols = IngestionPipeline.ingest(provider, CALLER, skipped).get();
+
+		assertEquals(1, skipped.get());
+		assertEquals(10, sols.size());
+		assertTrue(sols.containsKey(InSightPayloads.FIRST_SOL));
+	}
+
+	@Test
+	public void failsOnPayloadsThatCantBeParsedWithoutCounter() throws Exception {
+		final DirectoryWeatherProvider provider = directoryWithCorruptFile();
+
+		try {
+			IngestionPipeline.ingest(provider, CALLER).get();
+			fail("Parsing failure expected");
+		} catch (ExecutionException e) {
+			assertTrue(UpstreamFetchCoordinator.unwrap(e) instanceof MarsWeatherServiceException);
+		}
+	}
+
+	@Test
+	public void keepsSolsWithMoreSamples() throws Exception {
+		Files.write(folder.newFile("1.json").toPath(), payload(new SolData(12, -60, -90, -10, 200)).getBytes(StandardCharsets.UTF_8));
+		Files.write(folder.newFile("2.json").toPath(), payload(new SolData(12, -50, -90, -10, 100)).getBytes(StandardCharsets.UTF_8));
+		Files.write(folder.newFile("3.json").toPath(), payload(new SolData(13, -40, -90, -10, 100)).getBytes(StandardCharsets.UTF_8));
+		final DirectoryWeatherProvider provider = new DirectoryWeatherProvider("test", folder.getRoot().toPath());
+
+		final Map<Integer, SolData> sols = IngestionPipeline.ingest(provider, CALLER).get();
+
+		assertEquals(2, sols.size());
+		assertEquals(200, sols.get(12).getSampleCount());
+		assertEquals(-60, sols.get(12).getAveragetemperature(), 0);
+	}
+
+	private DirectoryWeatherProvider directoryWithCorruptFile() throws IOException {
+		Files.write(folder.newFile("1.json").toPath(), InSightPayloads.generate(7, 1).getBytes(StandardCharsets.UTF_8));
+		Files.write(folder.newFile("2.json").toPath(), "{\"12\":{\"AT\":".getBytes(StandardCharsets.UTF_8));
+		Files.write(folder.newFile("3.json").toPath(), InSightPayloads.generate(10, 2).getBytes(StandardCharsets.UTF_8));
+		return new DirectoryWeatherProvider("test", folder.getRoot().toPath());
+	}
+}
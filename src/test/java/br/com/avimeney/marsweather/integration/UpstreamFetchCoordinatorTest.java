@@ -0,0 +1,208 @@
+package br.com.avimeney.marsweather.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import br.com.avimeney.marsweather.integration.UpstreamFetchCoordinator.RejectedFetchException;
+import br.com.avimeney.marsweather.integration.UpstreamFetchCoordinator.Settings;
+
+public class UpstreamFetchCoordinatorTest {
+
+	/**
+	 * Retry delay after a first failure, long enough for the test not to outlive it by accident.
+	 */
+	private static final long BACKOFF = 300;
+
+	/**
+	 * Request quota refilling the token bucket within milliseconds, for the tests not about it.
+	 */
+	private static final int UNLIMITED = 3600000;
+
+	/**
+	 * Fetcher handing out upstream requests completed by the test.
+	 */
+	private static final class ManualFetcher implements UpstreamFetchCoordinator.Fetcher<String> {
+		final Deque<CompletableFuture<String>> requests = new ArrayDeque<CompletableFuture<String>>();
+
+		@Override
+		public synchronized CompletableFuture<String> fetch() {
+			final CompletableFuture<String> request = new CompletableFuture<String>();
+			requests.add(request);
+			return request;
+		}
+
+		synchronized CompletableFuture<String> last() {
+			return requests.getLast();
+		}
+
+		synchronized int count() {
+			return requests.size();
+		}
+	}
+
+	private final ManualFetcher fetcher = new ManualFetcher();
+
+	@Test
+	public void callersJoinRequestInFlight() throws Exception {
+		final UpstreamFetchCoordinator<String> coordinator = coordinator(new Settings(2, UNLIMITED, BACKOFF, BACKOFF));
+		final CompletableFuture<String> first = coordinator.fetch();
+		final CompletableFuture<String> second = coordinator.fetch();
+
+		assertSame(first, second);
+		assertEquals(1, fetcher.count());
+		assertEquals(1, coordinator.getCoalescedCalls());
+
+		fetcher.last().complete("data");
+		assertEquals("data", second.get());
+
+		// Completed requests are not joined
+		assertFalse(coordinator.fetch().isDone());
+		assertEquals(2, fetcher.count());
+		assertEquals(2, coordinator.getAttempts());
+	}
+
+	@Test
+	public void tokenBucketLimitsBurst() throws Exception {
+		final Settings settings = new Settings(10, 2, BACKOFF, BACKOFF);
+		final UpstreamFetchCoordinator<String> coordinator = coordinator(settings);
+
+		for (int i = 0; i < 2; i++) {
+			coordinator.fetch();
+			fetcher.last().complete("data");
+		}
+		assertRejected(coordinator.fetch());
+		assertEquals(2, fetcher.count());
+		assertEquals(1, coordinator.getRejectedCalls());
+		// Refused calls don't back off
+		assertFalse(coordinator.isBackingOff());
+	}
+
+	@Test
+	public void tokenBucketHoldsFewTokens() throws Exception {
+		final UpstreamFetchCoordinator<String> coordinator = coordinator(new Settings(10, 1000, BACKOFF, BACKOFF));
+
+		int sent = 0;
+		while (!coordinator.fetch().isCompletedExceptionally()) {
+			fetcher.last().complete("data");
+			sent++;
+		}
+		// The quota of an hour would allow 1000
+		assertEquals(3, sent);
+	}
+
+	@Test
+	public void settingsShareTokenBucket() throws Exception {
+		final Settings settings = new Settings(10, 1, BACKOFF, BACKOFF);
+		final UpstreamFetchCoordinator<String> first = coordinator(settings);
+		final UpstreamFetchCoordinator<String> second = coordinator(settings);
+
+		first.fetch();
+		fetcher.last().complete("data");
+		assertRejected(second.fetch());
+		assertEquals(1, fetcher.count());
+	}
+
+	@Test
+	public void concurrencyLimitRejectsExtraRequests() throws Exception {
+		final Settings settings = new Settings(1, UNLIMITED, BACKOFF, BACKOFF);
+		final UpstreamFetchCoordinator<String> first = coordinator(settings);
+		final UpstreamFetchCoordinator<String> second = coordinator(settings);
+
+		first.fetch();
+		assertRejected(second.fetch());
+
+		fetcher.last().complete("data");
+		second.fetch();
+		assertEquals(2, fetcher.count());
+	}
+
+	@Test
+	public void failureIsServedUntilRetryDelayExpires() throws Exception {
+		final UpstreamFetchCoordinator<String> coordinator = coordinator(new Settings(2, UNLIMITED, BACKOFF, BACKOFF * 10));
+		final CompletableFuture<String> failed = coordinator.fetch();
+		fetcher.last().completeExceptionally(new IOException("upstream down"));
+
+		try {
+			failed.get();
+			fail("Upstream failure expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertTrue(coordinator.isBackingOff());
+		assertRejected(coordinator.fetch());
+		assertEquals(1, fetcher.count());
+		assertEquals(1, coordinator.getFailures());
+
+		Thread.sleep(BACKOFF + 50);
+		assertFalse(coordinator.isBackingOff());
+		coordinator.fetch();
+		assertEquals(2, fetcher.count());
+	}
+
+	@Test
+	public void retryDelayDoublesAndIsResetBySuccess() throws Exception {
+		final UpstreamFetchCoordinator<String> coordinator = coordinator(new Settings(2, UNLIMITED, BACKOFF, BACKOFF * 10));
+		coordinator.fetch();
+		fetcher.last().completeExceptionally(new IOException("upstream down"));
+		Thread.sleep(BACKOFF + 50);
+		coordinator.fetch();
+		fetcher.last().completeExceptionally(new IOException("upstream down"));
+
+		// The second failure backs off twice as long
+		Thread.sleep(BACKOFF + 50);
+		assertTrue(coordinator.isBackingOff());
+		assertRejected(coordinator.fetch());
+
+		Thread.sleep(BACKOFF);
+		coordinator.fetch();
+		fetcher.last().complete("data");
+		coordinator.fetch();
+		fetcher.last().completeExceptionally(new IOException("upstream down"));
+
+		// Back to the initial delay
+		Thread.sleep(BACKOFF + 50);
+		assertFalse(coordinator.isBackingOff());
+		assertEquals(4, fetcher.count());
+		assertEquals(3, coordinator.getFailures());
+		assertEquals(1, coordinator.getSuccesses());
+	}
+
+	@Test
+	public void fetcherExceptionsAreFailures() throws Exception {
+		final UpstreamFetchCoordinator<String> coordinator = new UpstreamFetchCoordinator<String>("test",
+				new UpstreamFetchCoordinator.Fetcher<String>() {
+					@Override
+					public CompletableFuture<String> fetch() {
+						throw new IllegalStateException("no client");
+					}
+				}, new Settings(2, UNLIMITED, BACKOFF, BACKOFF));
+
+		assertTrue(coordinator.fetch().isCompletedExceptionally());
+		assertTrue(coordinator.isBackingOff());
+		assertEquals(1, coordinator.getFailures());
+	}
+
+	private UpstreamFetchCoordinator<String> coordinator(Settings settings) {
+		return new UpstreamFetchCoordinator<String>("test", fetcher, settings);
+	}
+
+	private static void assertRejected(CompletableFuture<String> future) throws InterruptedException {
+		try {
+			future.get();
+			fail("Rejection expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedFetchException);
+		}
+	}
+}
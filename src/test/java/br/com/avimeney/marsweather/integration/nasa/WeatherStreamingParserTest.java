@@ -0,0 +1,104 @@
+package br.com.avimeney.marsweather.integration.nasa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class WeatherStreamingParserTest {
+
+	/**
+	 * A Sol without pressure data, another one left out of sol_keys, and first level attributes
+	 * of every kind around them.
+	 */
+	private static final String PAYLOAD = "{\"12\":{\"AT\":{\"av\":-60.5,\"ct\":100,\"mn\":-90.25,\"mx\":-10.0},"
+			+ "\"HWS\":{\"av\":5.5,\"ct\":80,\"mn\":0.2,\"mx\":20.75},"
+			+ "\"WD\":{\"3\":{\"compass_degrees\":67.5,\"compass_point\":\"ENE\",\"compass_right\":0.92,"
+			+ "\"compass_up\":0.38,\"ct\":7},\"most_common\":{\"compass_degrees\":67.5,\"compass_point\":\"ENE\","
+			+ "\"compass_right\":0.92,\"compass_up\":0.38,\"ct\":7}},\"Season\":\"winter\"},"
+			+ "\"13\":{\"AT\":{\"av\":-61,\"ct\":90,\"mn\":-91,\"mx\":-11},\"Last_UTC\":\"2020-02-21T15:02:46Z\"},"
+			+ "\"sol_keys\":[\"12\"],\"validity_checks\":{\"12\":{\"AT\":{\"valid\":true}},\"sols_checked\":[]}}";
+
+	private final WeatherStreamingParser streamingParser = new WeatherStreamingParser();
+
+	private final WeatherJsonParser treeParser = new WeatherJsonParser();
+
+	@Test
+	public void parsersAgreeOnGeneratedPayload() throws IOException {
+		final String json = InSightPayloads.generate(50, 7);
+
+		assertSameData(treeParser.parseWeatherData(json), streamingParser.parseWeatherData(json));
+	}
+
+	@Test
+	public void parsersAgreeOnMissingSensorsAndUnlistedSols() throws IOException {
+		final Map<Integer, WeatherDTO> parsed = streamingParser.parseWeatherData(PAYLOAD);
+
+		assertSameData(treeParser.parseWeatherData(PAYLOAD), parsed);
+		assertEquals(1, parsed.size());
+		assertEquals(12, parsed.get(12).solId);
+		assertNull(parsed.get(12).PRE);
+	}
+
+	@Test
+	public void inputFormsGiveSameData() throws IOException {
+		final String json = InSightPayloads.generate(20, 11);
+		final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		final Map<Integer, WeatherDTO> fromString = streamingParser.parseWeatherData(json);
+		final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 2);
+		direct.put((byte) ' ').put(bytes).flip().position(1);
+
+		assertSameData(fromString, streamingParser.parseWeatherData(new ByteArrayInputStream(bytes)));
+		assertSameData(fromString, streamingParser.parseWeatherData(ByteBuffer.wrap(bytes)));
+		assertSameData(fromString, streamingParser.parseWeatherData(direct));
+		assertEquals(1, direct.position());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsPayloadWithoutSolKeys() throws IOException {
+		streamingParser.parseWeatherData("{\"12\":{\"AT\":{\"av\":-60,\"ct\":100,\"mn\":-90,\"mx\":-10}}}");
+	}
+
+	private static void assertSameData(Map<Integer, WeatherDTO> expected, Map<Integer, WeatherDTO> actual) {
+		assertEquals(new TreeMap<Integer, WeatherDTO>(expected).keySet(), new TreeMap<Integer, WeatherDTO>(actual).keySet());
+		for (Map.Entry<Integer, WeatherDTO> entry : expected.entrySet()) {
+			final WeatherDTO expectedSol = entry.getValue();
+			final WeatherDTO actualSol = actual.get(entry.getKey());
+			assertSameSensor(expectedSol.AT, actualSol.AT);
+			assertSameSensor(expectedSol.PRE, actualSol.PRE);
+			assertSameSensor(expectedSol.HWS, actualSol.HWS);
+			if (expectedSol.WD == null) {
+				assertNull(actualSol.WD);
+				continue;
+			}
+			assertEquals(new TreeMap<String, WindPointDTO>(expectedSol.WD).keySet(),
+					new TreeMap<String, WindPointDTO>(actualSol.WD).keySet());
+			for (Map.Entry<String, WindPointDTO> point : expectedSol.WD.entrySet()) {
+				final WindPointDTO actualPoint = actualSol.WD.get(point.getKey());
+				assertEquals(point.getValue().compass_point, actualPoint.compass_point);
+				assertEquals(point.getValue().compass_degrees, actualPoint.compass_degrees, 0);
+				assertEquals(point.getValue().compass_right, actualPoint.compass_right, 0);
+				assertEquals(point.getValue().compass_up, actualPoint.compass_up, 0);
+				assertEquals(point.getValue().ct, actualPoint.ct);
+			}
+		}
+	}
+
+	private static void assertSameSensor(SensorDTO expected, SensorDTO actual) {
+		if (expected == null) {
+			assertNull(actual);
+			return;
+		}
+		assertEquals(expected.av, actual.av, 0);
+		assertEquals(expected.mn, actual.mn, 0);
+		assertEquals(expected.mx, actual.mx, 0);
+		assertEquals(expected.ct, actual.ct);
+	}
+}
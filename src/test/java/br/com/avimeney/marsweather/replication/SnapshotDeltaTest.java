@@ -0,0 +1,83 @@
+package br.com.avimeney.marsweather.replication;
+
+import static br.com.avimeney.marsweather.TestFixtures.snapshot;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+import br.com.avimeney.marsweather.model.SolData;
+
+public class SnapshotDeltaTest {
+
+	@Test
+	public void deltaWithoutBaseRebuildsWholeSnapshot() throws IOException {
+		final SolDataSnapshot target = snapshot(1000, null, new SolData(1, -60, -90, -10, 100), new SolData(2, -61, -91, -11, 100));
+		final SnapshotDelta delta = SnapshotDelta.between(null, target);
+
+		assertTrue(delta.isFull());
+		assertSameSnapshot(target, delta.applyTo(null));
+	}
+
+	@Test
+	public void deltaRebuildsAddedRevisedAndRemovedSols() throws IOException {
+		final SolDataSnapshot base = snapshot(1000, null, new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100), new SolData(3, -62, -92, -12, 100));
+		final SolDataSnapshot target = snapshot(2000, base, new SolData(2, -61, -91, -11, 100),
+				new SolData(3, -50, -80, -5, 200), new SolData(4, -63, -93, -13, 100));
+		final SnapshotDelta delta = SnapshotDelta.between(base, target);
+
+		assertFalse(delta.isFull());
+		assertEquals(base.getVersion(), delta.getBaseVersion());
+		assertSameSnapshot(target, delta.applyTo(base));
+	}
+
+	@Test
+	public void encodedDeltaRebuildsSameSnapshot() throws IOException {
+		final SolDataSnapshot base = snapshot(1000, null, new SolData(1, -60, -90, -10, 100), new SolData(2, -61, -91, -11, 100));
+		final SolDataSnapshot target = snapshot(2000, base, new SolData(2, -55, -85, -9, 150), new SolData(3, -62, -92, -12, 100));
+		final SnapshotDelta decoded = SnapshotDelta.decode(SnapshotDelta.between(base, target).encode());
+
+		assertEquals(target.getVersion(), decoded.getVersion());
+		assertEquals(target.getCreatedAt(), decoded.getCreatedAt());
+		assertSameSnapshot(target, decoded.applyTo(base));
+	}
+
+	@Test
+	public void deltaToSameVersionKeepsBase() throws IOException {
+		final SolDataSnapshot base = snapshot(1000, null, new SolData(1, -60, -90, -10, 100));
+
+		assertSame(base, SnapshotDelta.between(base, base).applyTo(base));
+	}
+
+	@Test(expected = IOException.class)
+	public void deltaRejectsOtherBase() throws IOException {
+		final SolDataSnapshot base = snapshot(1000, null, new SolData(1, -60, -90, -10, 100));
+		final SolDataSnapshot other = snapshot(1500, null, new SolData(1, -70, -95, -20, 100));
+		final SolDataSnapshot target = snapshot(2000, base, new SolData(1, -50, -80, -5, 200));
+
+		SnapshotDelta.between(base, target).applyTo(other);
+	}
+
+	@Test(expected = IOException.class)
+	public void decodeRejectsTruncatedDelta() throws IOException {
+		final SolDataSnapshot target = snapshot(1000, null, new SolData(1, -60, -90, -10, 100));
+		final byte[] encoded = SnapshotDelta.between(null, target).encode();
+
+		SnapshotDelta.decode(Arrays.copyOf(encoded, encoded.length - 1));
+	}
+
+	private static void assertSameSnapshot(SolDataSnapshot expected, SolDataSnapshot actual) {
+		assertEquals(expected.getVersion(), actual.getVersion());
+		assertEquals(expected.getLastModified(), actual.getLastModified());
+		assertEquals(expected.getExpiresAt(), actual.getExpiresAt());
+		assertArrayEquals(expected.getJson(), actual.getJson());
+	}
+}
@@ -0,0 +1,83 @@
+package br.com.avimeney.marsweather.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ApiTokensTest {
+
+	private static final ApiToken FIRST = new ApiToken("first", 0);
+
+	private static final ApiToken SECOND = new ApiToken("second", 60);
+
+	@Test
+	public void findsTokensAmongMany() {
+		/*
+		 * A half empty table of that many tokens can't place every one of them at its own hash slot,
+		 * so some lookups have to probe the following slots.
+		 */
+		final List<String> secrets = new ArrayList<String>();
+		final List<ApiToken> tokens = new ArrayList<ApiToken>();
+		for (int i = 0; i < 1000; i++) {
+			secrets.add("token-" + i);
+			tokens.add(new ApiToken("client-" + i, i));
+		}
+		final ApiTokens.Table table = new ApiTokens.Table(secrets, tokens);
+
+		assertEquals(1000, table.size());
+		for (int i = 0; i < 1000; i++) {
+			assertSame(tokens.get(i), find(table, "token-" + i));
+		}
+		assertNull(find(table, "token-1000"));
+		assertNull(find(table, "token--1"));
+	}
+
+	@Test
+	public void findsTokenInsideHeader() {
+		final ApiTokens.Table table = new ApiTokens.Table(Arrays.asList("abc", "xyz"), Arrays.asList(FIRST, SECOND));
+		final String header = "Bearer xyz";
+
+		assertSame(SECOND, table.find(header, 7, header.length()));
+		assertSame(FIRST, table.find("[abc]", 1, 4));
+	}
+
+	@Test
+	public void prefixesAndLongerTokensDontMatch() {
+		final ApiTokens.Table table = new ApiTokens.Table(Arrays.asList("abc", "abcdef"), Arrays.asList(FIRST, SECOND));
+
+		assertSame(FIRST, find(table, "abc"));
+		assertSame(SECOND, find(table, "abcdef"));
+		assertNull(find(table, "ab"));
+		assertNull(find(table, "abcd"));
+		assertNull(find(table, "abcdefg"));
+		assertNull(find(table, ""));
+		// The token is read up to the given end only
+		assertSame(FIRST, table.find("abcdef", 0, 3));
+	}
+
+	@Test
+	public void emptyTableFindsNothing() {
+		final ApiTokens.Table table = new ApiTokens.Table(new ArrayList<String>(), new ArrayList<ApiToken>());
+
+		assertEquals(0, table.size());
+		assertNull(find(table, "abc"));
+	}
+
+	@Test
+	public void redefinedTokenKeepsLastClient() {
+		final ApiTokens.Table table = new ApiTokens.Table(Arrays.asList("abc", "abc"), Arrays.asList(FIRST, SECOND));
+
+		assertEquals(1, table.size());
+		assertSame(SECOND, find(table, "abc"));
+	}
+
+	private static ApiToken find(ApiTokens.Table table, String token) {
+		return table.find(token, 0, token.length());
+	}
+}
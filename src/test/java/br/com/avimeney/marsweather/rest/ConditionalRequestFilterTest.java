@@ -0,0 +1,184 @@
+package br.com.avimeney.marsweather.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.junit.Test;
+
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+import br.com.avimeney.marsweather.model.SolData;
+
+public class ConditionalRequestFilterTest {
+
+	/**
+	 * Last modification time of the snapshot, with a millisecond part dropped by HTTP dates.
+	 */
+	private static final long LAST_MODIFIED = 1600000000250L;
+
+	private final ConditionalRequestFilter filter = new ConditionalRequestFilter();
+
+	private final SolDataSnapshot snapshot;
+
+	public ConditionalRequestFilterTest() throws IOException {
+		snapshot = SolDataSnapshot.create(Arrays.asList(new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100)), LAST_MODIFIED, System.currentTimeMillis() + 60000, null);
+	}
+
+	@Test
+	public void writesJsonWithValidators() throws IOException {
+		final ContainerResponse response = filter(request(HttpMethod.GET), MediaType.APPLICATION_JSON_TYPE);
+
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(snapshot.getJson(), (byte[]) response.getEntity());
+		assertEquals(etag(null), response.getHeaderString(HttpHeaders.ETAG));
+		assertEquals(LAST_MODIFIED, response.getLastModified().getTime());
+		assertEquals(String.valueOf(snapshot.getVersion()), response.getHeaderString(MarsWeatherService.DATA_VERSION_HEADER));
+		assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeaderString(HttpHeaders.VARY));
+		assertNull(response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+	}
+
+	@Test
+	public void leavesOtherEntitiesAlone() throws IOException {
+		final ContainerRequest request = request(HttpMethod.GET);
+		final ContainerResponse response = new ContainerResponse(request, Response.ok("text").build());
+		filter.filter(request, response);
+
+		assertEquals("text", response.getEntity());
+		assertNull(response.getHeaderString(HttpHeaders.ETAG));
+	}
+
+	@Test
+	public void compressesAcceptedJson() throws IOException {
+		final ContainerResponse gzip = filter(request(HttpMethod.GET, HttpHeaders.ACCEPT_ENCODING, "deflate, gzip"),
+				MediaType.APPLICATION_JSON_TYPE);
+		final ContainerResponse deflate = filter(request(HttpMethod.GET, HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, deflate"),
+				MediaType.APPLICATION_JSON_TYPE);
+		final ContainerResponse identity = filter(request(HttpMethod.GET, HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0"),
+				MediaType.APPLICATION_JSON_TYPE);
+
+		assertSame(snapshot.getGzipJson(), gzip.getEntity());
+		assertEquals("gzip", gzip.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(etag("gzip"), gzip.getHeaderString(HttpHeaders.ETAG));
+		assertSame(snapshot.getDeflateJson(), deflate.getEntity());
+		assertEquals("deflate", deflate.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(etag("deflate"), deflate.getHeaderString(HttpHeaders.ETAG));
+		assertSame(snapshot.getJson(), identity.getEntity());
+		assertEquals(etag(null), identity.getHeaderString(HttpHeaders.ETAG));
+	}
+
+	@Test
+	public void binaryFormatsHaveOwnTagsAndAreNotCompressed() throws IOException {
+		final ContainerResponse cbor = filter(request(HttpMethod.GET, HttpHeaders.ACCEPT_ENCODING, "gzip"),
+				SolMediaType.APPLICATION_CBOR_TYPE);
+		final ContainerResponse packed = filter(request(HttpMethod.GET, HttpHeaders.ACCEPT_ENCODING, "gzip"),
+				SolMediaType.APPLICATION_SOLS_PACKED_TYPE);
+
+		assertSame(snapshot.getCbor(), cbor.getEntity());
+		assertEquals(etag("cbor"), cbor.getHeaderString(HttpHeaders.ETAG));
+		assertNull(cbor.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+		assertSame(snapshot.getPacked(), packed.getEntity());
+		assertEquals(etag("packed"), packed.getHeaderString(HttpHeaders.ETAG));
+		assertNotEquals(cbor.getHeaderString(HttpHeaders.ETAG), packed.getHeaderString(HttpHeaders.ETAG));
+	}
+
+	@Test
+	public void matchingTagIsNotModified() throws IOException {
+		assertNotModified(filter(request(HttpMethod.GET, HttpHeaders.IF_NONE_MATCH, etag(null)),
+				MediaType.APPLICATION_JSON_TYPE));
+		assertNotModified(filter(request(HttpMethod.HEAD, HttpHeaders.IF_NONE_MATCH, "\"other\", W/" + etag(null)),
+				MediaType.APPLICATION_JSON_TYPE));
+		assertNotModified(filter(request(HttpMethod.GET, HttpHeaders.IF_NONE_MATCH, "*"),
+				MediaType.APPLICATION_JSON_TYPE));
+	}
+
+	@Test
+	public void tagOfOtherVariantIsModified() throws IOException {
+		final ContainerResponse gzip = filter(request(HttpMethod.GET, HttpHeaders.IF_NONE_MATCH, etag(null),
+				HttpHeaders.ACCEPT_ENCODING, "gzip"), MediaType.APPLICATION_JSON_TYPE);
+		final ContainerResponse cbor = filter(request(HttpMethod.GET, HttpHeaders.IF_NONE_MATCH, etag("gzip")),
+				SolMediaType.APPLICATION_CBOR_TYPE);
+
+		assertEquals(200, gzip.getStatus());
+		assertSame(snapshot.getGzipJson(), gzip.getEntity());
+		assertEquals(200, cbor.getStatus());
+		assertNotModified(filter(request(HttpMethod.GET, HttpHeaders.IF_NONE_MATCH, etag("gzip"),
+				HttpHeaders.ACCEPT_ENCODING, "gzip"), MediaType.APPLICATION_JSON_TYPE));
+	}
+
+	@Test
+	public void ifNoneMatchTakesPrecedence() throws IOException {
+		final ContainerResponse response = filter(request(HttpMethod.GET, HttpHeaders.IF_NONE_MATCH, "\"other\"",
+				HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED + 60000)), MediaType.APPLICATION_JSON_TYPE);
+
+		assertEquals(200, response.getStatus());
+	}
+
+	@Test
+	public void ifModifiedSinceComparesWholeSeconds() throws IOException {
+		assertNotModified(filter(request(HttpMethod.GET, HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED)),
+				MediaType.APPLICATION_JSON_TYPE));
+		assertNotModified(filter(request(HttpMethod.GET, HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED + 5000)),
+				MediaType.APPLICATION_JSON_TYPE));
+		assertEquals(200, filter(request(HttpMethod.GET, HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED - 1000)),
+				MediaType.APPLICATION_JSON_TYPE).getStatus());
+		assertEquals(200, filter(request(HttpMethod.GET, HttpHeaders.IF_MODIFIED_SINCE, "yesterday"),
+				MediaType.APPLICATION_JSON_TYPE).getStatus());
+	}
+
+	@Test
+	public void unsafeMethodsAreNotConditional() throws IOException {
+		final ContainerResponse response = filter(request(HttpMethod.POST, HttpHeaders.IF_NONE_MATCH, etag(null)),
+				MediaType.APPLICATION_JSON_TYPE);
+
+		assertEquals(200, response.getStatus());
+		assertSame(snapshot.getJson(), response.getEntity());
+	}
+
+	private ContainerResponse filter(ContainerRequest request, MediaType mediaType) throws IOException {
+		final ContainerResponse response = new ContainerResponse(request, Response.ok(snapshot, mediaType).build());
+		filter.filter(request, response);
+		return response;
+	}
+
+	private static ContainerRequest request(String method, String... headers) {
+		final ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"),
+				URI.create("http://localhost/list"), method, null, new MapPropertiesDelegate());
+		for (int i = 0; i < headers.length; i += 2) {
+			request.getHeaders().add(headers[i], headers[i + 1]);
+		}
+		return request;
+	}
+
+	private String etag(String variant) {
+		return variant == null ? "\"" + snapshot.getContentHash() + "\""
+				: "\"" + snapshot.getContentHash() + "-" + variant + "\"";
+	}
+
+	private static String httpDate(long time) {
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(time).atOffset(ZoneOffset.UTC));
+	}
+
+	private static void assertNotModified(ContainerResponse response) {
+		assertEquals(304, response.getStatus());
+		assertNull(response.getEntity());
+		assertNull(response.getHeaderString(HttpHeaders.CONTENT_TYPE));
+	}
+}
@@ -0,0 +1,487 @@
+package br.com.avimeney.marsweather.rest;
+
+import static br.com.avimeney.marsweather.TestFixtures.snapshot;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Variant;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import br.com.avimeney.marsweather.cache.SolDataCache;
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+import br.com.avimeney.marsweather.model.BatchQuery;
+import br.com.avimeney.marsweather.model.SolData;
+
+public class MarsWeatherServiceTest {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private static final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+	/**
+	 * Stand-in for the container's suspended response, keeping the resumed entity.
+	 */
+	private static final class CapturingResponse implements AsyncResponse {
+		final BlockingQueue<Object> resumed = new LinkedBlockingQueue<Object>();
+
+		@Override
+		public boolean resume(Object response) {
+			return resumed.add(response);
+		}
+
+		@Override
+		public boolean resume(Throwable response) {
+			return resumed.add(response);
+		}
+
+		@Override
+		public boolean cancel() {
+			return false;
+		}
+
+		@Override
+		public boolean cancel(int retryAfter) {
+			return false;
+		}
+
+		@Override
+		public boolean cancel(Date retryAfter) {
+			return false;
+		}
+
+		@Override
+		public boolean isSuspended() {
+			return resumed.isEmpty();
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return !resumed.isEmpty();
+		}
+
+		@Override
+		public boolean setTimeout(long time, TimeUnit unit) {
+			return true;
+		}
+
+		@Override
+		public void setTimeoutHandler(TimeoutHandler handler) {
+		}
+
+		@Override
+		public Collection<Class<?>> register(Class<?> callback) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Collection<Class<?>> register(Object callback) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+			return Collections.emptyMap();
+		}
+
+		Response next() throws InterruptedException {
+			return (Response) resumed.poll(5, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Stand-in for the container's request, negotiating the first variant of the given media type.
+	 */
+	private static final class AcceptingRequest implements Request {
+		final MediaType accepted;
+
+		AcceptingRequest(MediaType accepted) {
+			this.accepted = accepted;
+		}
+
+		@Override
+		public String getMethod() {
+			return "GET";
+		}
+
+		@Override
+		public Variant selectVariant(List<Variant> variants) {
+			for (Variant variant : variants) {
+				if (variant.getMediaType().isCompatible(accepted)) {
+					return variant;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions(EntityTag eTag) {
+			return null;
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions(Date lastModified) {
+			return null;
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions(Date lastModified, EntityTag eTag) {
+			return null;
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions() {
+			return null;
+		}
+	}
+
+	/**
+	 * Stand-in for a streamed response, keeping the chunks written to it.
+	 */
+	private static final class CapturingOutput extends ChunkedOutput<byte[]> {
+		final BlockingQueue<byte[]> written = new LinkedBlockingQueue<byte[]>();
+		volatile boolean closed;
+
+		CapturingOutput() {
+			super(byte[].class);
+		}
+
+		@Override
+		public void write(byte[] chunk) throws IOException {
+			written.add(chunk);
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return closed;
+		}
+
+		JsonNode next() throws InterruptedException, IOException {
+			final byte[] line = written.poll(5, TimeUnit.SECONDS);
+			assertEquals('\n', line[line.length - 1]);
+			return mapper.readTree(line);
+		}
+	}
+
+	private static final Request jsonRequest = new AcceptingRequest(MediaType.APPLICATION_JSON_TYPE);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Completed with the data of the cache loads, unless a test holds them back.
+	 */
+	private volatile CompletableFuture<Map<Integer, SolData>> loads = new CompletableFuture<Map<Integer, SolData>>();
+
+	private final SolDataSnapshot first;
+
+	private final SolDataSnapshot second;
+
+	public MarsWeatherServiceTest() throws IOException {
+		first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100), new SolData(2, -61, -91, -11, 100),
+				new SolData(3, -62, -92, -12, 100));
+		// Sol 1 removed and Sol 4 added
+		second = snapshot(2000, first, new SolData(2, -61, -91, -11, 100), new SolData(3, -62, -92, -12, 100),
+				new SolData(4, -63, -93, -13, 100));
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		System.setProperty(MarsRestApplication.SOL_ARCHIVE_DIR_KEY, folder.getRoot().getPath());
+		System.setProperty(MarsRestApplication.RESPONSE_TIMEOUT_KEY, "1");
+		System.setProperty(MarsRestApplication.BATCH_MAX_QUERIES_KEY, "8");
+		MarsRestApplication.loadAppProperties();
+	}
+
+	@After
+	public void tearDown() {
+		System.clearProperty(MarsRestApplication.SOL_ARCHIVE_DIR_KEY);
+		System.clearProperty(MarsRestApplication.RESPONSE_TIMEOUT_KEY);
+		System.clearProperty(MarsRestApplication.BATCH_MAX_QUERIES_KEY);
+	}
+
+	@Test
+	public void binarySolPagesHoldSameSolsAsJson() throws Exception {
+		final MarsWeatherService service = loadedService(new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61.5f, -91.25f, -11, 100), new SolData(3, -62, -92, -12, 100));
+
+		final JsonNode json = mapper.readTree((byte[]) service.getSols(jsonRequest, 2, null, null, null, null)
+				.getEntity());
+		final Response cborResponse = service.getSols(new AcceptingRequest(SolMediaType.APPLICATION_CBOR_TYPE), 2,
+				null, null, null, null);
+		final JsonNode cbor = cborMapper.readTree((byte[]) cborResponse.getEntity());
+		final Response packedResponse = service.getSols(new AcceptingRequest(SolMediaType.APPLICATION_SOLS_PACKED_TYPE),
+				2, null, null, null, null);
+		final ByteBuffer packed = ByteBuffer.wrap((byte[]) packedResponse.getEntity()).order(ByteOrder.LITTLE_ENDIAN);
+
+		assertEquals(SolMediaType.APPLICATION_CBOR_TYPE, cborResponse.getMediaType());
+		assertEquals(2, json.get("sols").size());
+		assertEquals(json.get("sols").size(), cbor.get("sols").size());
+		assertEquals(json.get("sols").size() * SolDataSnapshot.PACKED_SOL_SIZE, packed.remaining());
+		for (JsonNode sol : json.get("sols")) {
+			assertSameSol(sol, cbor.get("sols").get(sol.get("id").intValue() - 2));
+			assertEquals(sol.get("id").intValue(), packed.getInt());
+			assertEquals(sol.get("avg").floatValue(), packed.getFloat(), 0);
+			assertEquals(sol.get("min").floatValue(), packed.getFloat(), 0);
+			assertEquals(sol.get("max").floatValue(), packed.getFloat(), 0);
+		}
+		assertTrue(cbor.get("next").isNull());
+	}
+
+	@Test
+	public void packedPagesTakeNoOtherFields() throws Exception {
+		final MarsWeatherService service = loadedService(new SolData(1, -60, -90, -10, 100));
+
+		assertEquals(400, service.getSols(new AcceptingRequest(SolMediaType.APPLICATION_SOLS_PACKED_TYPE), null, null,
+				null, null, "avg,pre").getStatus());
+		assertEquals(406, service.getSols(new AcceptingRequest(MediaType.TEXT_PLAIN_TYPE), null, null, null, null,
+				null).getStatus());
+	}
+
+	@Test
+	public void batchAnswersEveryQueryInOrder() throws Exception {
+		final MarsWeatherService service = loadedService(new SolData(1, -60, -90, -10, 100),
+				new SolData(2, -61, -91, -11, 100), new SolData(3, -62, -92, -12, 100));
+		final CapturingResponse response = new CapturingResponse();
+
+		service.getBatch(jsonRequest, new BatchQuery[] { new BatchQuery("list", "list"),
+				new BatchQuery("page", "/sols?from=2&limit=1"), new BatchQuery("aggregate", "aggregate?from=1&to=2"),
+				new BatchQuery("unknown", "weather"), new BatchQuery("limit", "sols?limit=0"),
+				new BatchQuery("since", "list?since=today"), new BatchQuery("path", null), null }, response);
+		final Response batch = response.next();
+		final JsonNode results = mapper.readTree((byte[]) batch.getEntity());
+
+		assertEquals(MediaType.APPLICATION_JSON_TYPE, batch.getMediaType());
+		assertEquals(8, results.size());
+		assertResult(results.get(0), "list", 200);
+		assertEquals(3, results.get(0).get("body").size());
+		assertResult(results.get(1), "page", 200);
+		assertEquals(2, results.get(1).get("body").get("sols").get(0).get("id").intValue());
+		assertEquals("3", results.get(1).get("body").get("next").textValue());
+		assertResult(results.get(2), "aggregate", 200);
+		assertEquals(2, results.get(2).get("body").get("count").intValue());
+		assertResult(results.get(3), "unknown", 404);
+		assertResult(results.get(4), "limit", 400);
+		assertResult(results.get(5), "since", 400);
+		assertResult(results.get(6), "path", 400);
+		assertResult(results.get(7), null, 400);
+		for (int i = 3; i < results.size(); i++) {
+			assertTrue(results.get(i).get("body").isNull());
+		}
+	}
+
+	@Test
+	public void batchListQueriesWaitForCacheLoad() throws Exception {
+		final MarsWeatherService service = new MarsWeatherService(loader());
+		final CapturingResponse response = new CapturingResponse();
+
+		service.getBatch(jsonRequest, new BatchQuery[] { new BatchQuery("first", "list"),
+				new BatchQuery("second", "list"), new BatchQuery("aggregate", "aggregate") }, response);
+		assertFalse(response.isDone());
+		loads.complete(sols(new SolData(1, -60, -90, -10, 100)));
+		final JsonNode results = mapper.readTree((byte[]) response.next().getEntity());
+
+		assertResult(results.get(0), "first", 200);
+		assertEquals(results.get(0).get("body"), results.get(1).get("body"));
+		// The archive view is taken when the batch is received, before the Sols are archived
+		assertResult(results.get(2), "aggregate", 200);
+		assertEquals(0, results.get(2).get("body").get("count").intValue());
+	}
+
+	@Test
+	public void batchListQueriesTimeOutWithoutCacheData() throws Exception {
+		final MarsWeatherService service = new MarsWeatherService(loader());
+		final CapturingResponse response = new CapturingResponse();
+
+		service.getBatch(jsonRequest, new BatchQuery[] { new BatchQuery("list", "list"),
+				new BatchQuery("sols", "sols") }, response);
+		final JsonNode results = mapper.readTree((byte[]) response.next().getEntity());
+
+		assertResult(results.get(0), "list", 503);
+		assertTrue(results.get(0).get("body").isNull());
+		assertResult(results.get(1), "sols", 200);
+	}
+
+	@Test
+	public void batchSizeIsLimited() throws Exception {
+		final MarsWeatherService service = new MarsWeatherService(loader());
+		final BatchQuery[] tooMany = new BatchQuery[9];
+		Arrays.fill(tooMany, new BatchQuery("sols", "sols"));
+
+		for (BatchQuery[] queries : Arrays.asList(tooMany, new BatchQuery[0], null)) {
+			final CapturingResponse response = new CapturingResponse();
+			service.getBatch(jsonRequest, queries, response);
+			assertEquals(400, response.next().getStatus());
+		}
+		final CapturingResponse response = new CapturingResponse();
+		service.getBatch(new AcceptingRequest(MediaType.TEXT_PLAIN_TYPE), new BatchQuery[1], response);
+		assertEquals(406, response.next().getStatus());
+	}
+
+	@Test
+	public void ndjsonBatchIsStreamed() throws Exception {
+		final MarsWeatherService service = new MarsWeatherService(loader());
+		final CapturingResponse response = new CapturingResponse();
+
+		service.getBatch(new AcceptingRequest(MarsWeatherService.APPLICATION_NDJSON_TYPE),
+				new BatchQuery[] { new BatchQuery("list", "list") }, response);
+		final Response streamed = response.next();
+
+		assertEquals(MarsWeatherService.APPLICATION_NDJSON_TYPE, streamed.getMediaType());
+		assertTrue(streamed.getEntity() instanceof ChunkedOutput);
+	}
+
+	@Test
+	public void streamedResultsAreWrittenWhenReady() throws Exception {
+		final CompletableFuture<MarsWeatherService.BatchResult> slow = new CompletableFuture<MarsWeatherService.BatchResult>();
+		final CompletableFuture<MarsWeatherService.BatchResult> failing = new CompletableFuture<MarsWeatherService.BatchResult>();
+		final List<CompletableFuture<MarsWeatherService.BatchResult>> results = new ArrayList<CompletableFuture<MarsWeatherService.BatchResult>>();
+		results.add(slow);
+		results.add(CompletableFuture.completedFuture(new MarsWeatherService.BatchResult("ready", 200,
+				"[1,2]".getBytes(StandardCharsets.UTF_8))));
+		results.add(failing);
+		final CapturingOutput output = new CapturingOutput();
+
+		MarsWeatherService.streamBatchResults(results, output);
+		final JsonNode ready = output.next();
+		assertEquals("ready", ready.get("id").textValue());
+		assertEquals(2, ready.get("body").size());
+		failing.completeExceptionally(new IllegalStateException("Query failure"));
+		assertResult(output.next(), null, 500);
+		assertFalse(output.closed);
+
+		slow.complete(new MarsWeatherService.BatchResult("slow", 404, null));
+		assertResult(output.next(), "slow", 404);
+		// Closed after the last result
+		assertTrue(output.closed);
+		assertTrue(output.written.isEmpty());
+	}
+
+	@Test
+	public void changesSinceListRemovedSols() throws IOException {
+		final Response response = MarsWeatherService.toResponse(second, MediaType.APPLICATION_JSON_TYPE,
+				first.getVersion());
+
+		assertArrayEquals(second.getJsonSince(first.getVersion()), (byte[]) response.getEntity());
+		assertEquals(String.valueOf(second.getVersion()),
+				response.getHeaderString(MarsWeatherService.DATA_VERSION_HEADER));
+		assertEquals("1", response.getHeaderString(MarsWeatherService.REMOVED_SOLS_HEADER));
+	}
+
+	@Test
+	public void noChangesSinceCurrentVersion() throws IOException {
+		final Response response = MarsWeatherService.toResponse(second, MediaType.APPLICATION_JSON_TYPE,
+				second.getVersion());
+
+		assertArrayEquals("[]".getBytes(StandardCharsets.UTF_8), (byte[]) response.getEntity());
+		assertEquals("", response.getHeaderString(MarsWeatherService.REMOVED_SOLS_HEADER));
+	}
+
+	@Test
+	public void unknownChangesSendWholeSnapshot() {
+		final Response response = MarsWeatherService.toResponse(second, MediaType.APPLICATION_JSON_TYPE,
+				first.getVersion() - 1);
+
+		assertSame(second, response.getEntity());
+		assertNull(response.getHeaderString(MarsWeatherService.REMOVED_SOLS_HEADER));
+	}
+
+	private SolDataCache.Loader loader() {
+		return new SolDataCache.Loader() {
+			@Override
+			public CompletableFuture<Map<Integer, SolData>> load() {
+				return loads;
+			}
+		};
+	}
+
+	/**
+	 * Builds a service whose cache is loaded with the given Sols, and waits for them to be archived.
+	 */
+	private MarsWeatherService loadedService(SolData... sols) throws Exception {
+		loads.complete(sols(sols));
+		final MarsWeatherService service = new MarsWeatherService(loader());
+		final CapturingResponse loaded = new CapturingResponse();
+		service.getTemperatures(jsonRequest, null, loaded);
+		assertEquals(200, loaded.next().getStatus());
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (mapper.readTree((byte[]) service.getSols(jsonRequest, null, null, null, null, null).getEntity())
+				.get("sols").size() < sols.length) {
+			assertTrue("Sols not archived in time", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		return service;
+	}
+
+	private static Map<Integer, SolData> sols(SolData... sols) {
+		final Map<Integer, SolData> map = new HashMap<Integer, SolData>();
+		for (SolData sol : sols) {
+			map.put(sol.getSolId(), sol);
+		}
+		return map;
+	}
+
+	private static void assertSameSol(JsonNode expected, JsonNode actual) {
+		assertEquals(expected.get("id").intValue(), actual.get("id").intValue());
+		for (String field : new String[] { "avg", "min", "max" }) {
+			assertEquals(expected.get(field).floatValue(), actual.get(field).floatValue(), 0);
+		}
+	}
+
+	private static void assertResult(JsonNode result, String id, int status) {
+		assertEquals(id, result.get("id").textValue());
+		assertEquals(status, result.get("status").intValue());
+	}
+}
@@ -0,0 +1,69 @@
+package br.com.avimeney.marsweather.rest;
+
+import static br.com.avimeney.marsweather.TestFixtures.payload;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+import br.com.avimeney.marsweather.integration.nasa.WeatherJsonParser;
+import br.com.avimeney.marsweather.integration.nasa.WeatherStreamingParser;
+import br.com.avimeney.marsweather.model.SolData;
+
+public class ModelHelperTest {
+
+	private final ModelHelper modelHelper = new ModelHelper();
+
+	@Test
+	public void convertsEveryMeasurement() throws IOException {
+		final SolData sol = new SolData(12, -60.5f, -90.25f, -10, 100);
+		sol.setPressure(700, 690, 710.5f);
+		sol.setWindSpeed(5.5f, 0.25f, 20);
+		sol.setWindDirectionCounts(new int[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+
+		for (Map<Integer, SolData> converted : convert(payload(sol))) {
+			assertSameSol(sol, converted.get(12));
+		}
+	}
+
+	@Test
+	public void solWithoutTemperaturesIsKept() throws IOException {
+		final SolData withTemperatures = new SolData(12, -60, -90, -10, 100);
+		final SolData withoutTemperatures = new SolData(13, Float.NaN, Float.NaN, Float.NaN, 0);
+		withoutTemperatures.setPressure(700, 690, 710);
+		withoutTemperatures.setWindSpeed(5, 1, 20);
+
+		for (Map<Integer, SolData> converted : convert(payload(withTemperatures, withoutTemperatures))) {
+			assertEquals(2, converted.size());
+			assertSameSol(withTemperatures, converted.get(12));
+			assertSameSol(withoutTemperatures, converted.get(13));
+		}
+	}
+
+	/**
+	 * Converts a payload read by each parser.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<Integer, SolData>[] convert(String json) throws IOException {
+		return new Map[] {modelHelper.convertDtoToModel(new WeatherStreamingParser().parseWeatherData(json)),
+				modelHelper.convertDtoToModel(new WeatherJsonParser().parseWeatherData(json))};
+	}
+
+	private static void assertSameSol(SolData expected, SolData actual) {
+		assertEquals(expected.getSolId(), actual.getSolId());
+		assertEquals(expected.getAveragetemperature(), actual.getAveragetemperature(), 0);
+		assertEquals(expected.getMinimumTemperature(), actual.getMinimumTemperature(), 0);
+		assertEquals(expected.getMaximumTemperature(), actual.getMaximumTemperature(), 0);
+		assertEquals(expected.getSampleCount(), actual.getSampleCount());
+		assertEquals(expected.getAveragePressure(), actual.getAveragePressure(), 0);
+		assertEquals(expected.getMinimumPressure(), actual.getMinimumPressure(), 0);
+		assertEquals(expected.getMaximumPressure(), actual.getMaximumPressure(), 0);
+		assertEquals(expected.getAverageWindSpeed(), actual.getAverageWindSpeed(), 0);
+		assertEquals(expected.getMinimumWindSpeed(), actual.getMinimumWindSpeed(), 0);
+		assertEquals(expected.getMaximumWindSpeed(), actual.getMaximumWindSpeed(), 0);
+		assertArrayEquals(expected.getWindDirectionCounts(), actual.getWindDirectionCounts());
+	}
+}
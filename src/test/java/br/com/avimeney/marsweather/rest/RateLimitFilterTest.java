@@ -0,0 +1,107 @@
+package br.com.avimeney.marsweather.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+
+import javax.annotation.Priority;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.junit.Test;
+
+public class RateLimitFilterTest {
+
+	/**
+	 * Burst of a minute of traffic, so buckets hold as many requests as their per minute limit.
+	 */
+	private static final long BURST = 60000;
+
+	private final AddressRateLimitFilter addressFilter = new AddressRateLimitFilter(1, 100, BURST);
+
+	private final RateLimitFilter tokenFilter = new RateLimitFilter(2, 100, BURST);
+
+	@Test
+	public void addressLimitRunsBeforeAuthentication() {
+		final int address = AddressRateLimitFilter.class.getAnnotation(Priority.class).value();
+		final int authentication = AuthFilter.class.getAnnotation(Priority.class).value();
+		final int token = RateLimitFilter.class.getAnnotation(Priority.class).value();
+
+		assertTrue(address < authentication);
+		assertTrue(authentication < token);
+	}
+
+	@Test
+	public void addressOverLimitIsRejected() throws IOException {
+		assertNull(send("10.0.0.1", new ApiToken("first", 0)));
+		assertTooManyRequests(send("10.0.0.1", new ApiToken("second", 0)), 60);
+		// Unauthenticated requests are limited as well
+		assertTooManyRequests(send("10.0.0.1", null), 60);
+		assertNull(send("10.0.0.2", null));
+	}
+
+	@Test
+	public void rejectedAddressLeavesTokenBucketAlone() throws IOException {
+		final ApiToken apiToken = new ApiToken("client", 0);
+
+		assertNull(send("10.0.0.1", apiToken));
+		assertTooManyRequests(send("10.0.0.1", apiToken), 60);
+		// The token bucket still holds the slot of the rejected request
+		assertNull(send("10.0.0.2", apiToken));
+		assertTooManyRequests(send("10.0.0.3", apiToken), 30);
+	}
+
+	@Test
+	public void tokenOwnLimitTakesPrecedence() throws IOException {
+		final ApiToken apiToken = new ApiToken("client", 1);
+
+		assertNull(send("10.0.0.1", apiToken));
+		assertTooManyRequests(send("10.0.0.2", apiToken), 60);
+	}
+
+	@Test
+	public void preflightRequestsAreNotLimited() throws IOException {
+		for (int i = 0; i < 3; i++) {
+			final ContainerRequest request = request(HttpMethod.OPTIONS, null);
+			addressFilter.filter(request, "10.0.0.1");
+			tokenFilter.filter(request);
+
+			assertNull(request.getAbortResponse());
+		}
+	}
+
+	/**
+	 * Runs a request through the filters in priority order, the authentication one setting the
+	 * given token. Like the container, it stops at the first filter aborting the request.
+	 *
+	 * @return the abort response, or null if the request passed
+	 */
+	private Response send(String remoteAddress, ApiToken apiToken) throws IOException {
+		final ContainerRequest request = request(HttpMethod.GET, apiToken);
+		addressFilter.filter(request, remoteAddress);
+		if (request.getAbortResponse() == null) {
+			tokenFilter.filter(request);
+		}
+		return request.getAbortResponse();
+	}
+
+	private static ContainerRequest request(String method, ApiToken apiToken) {
+		final ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"),
+				URI.create("http://localhost/list"), method, null, new MapPropertiesDelegate());
+		if (apiToken != null) {
+			request.setProperty(ApiToken.REQUEST_PROPERTY, apiToken);
+		}
+		return request;
+	}
+
+	private static void assertTooManyRequests(Response response, long retryAfter) {
+		assertEquals(429, response.getStatus());
+		assertEquals(String.valueOf(retryAfter), response.getHeaderString(HttpHeaders.RETRY_AFTER));
+	}
+}
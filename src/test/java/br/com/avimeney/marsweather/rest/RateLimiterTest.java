@@ -0,0 +1,115 @@
+package br.com.avimeney.marsweather.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import br.com.avimeney.marsweather.metrics.Counter;
+import br.com.avimeney.marsweather.metrics.MetricsRegistry;
+
+public class RateLimiterTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void fullBucketAllowsBurst() {
+		final RateLimiter limiter = new RateLimiter("test-burst", 100, 5000);
+
+		// One request per second, for five seconds
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, limiter.acquire("client", 60));
+		}
+		assertRetryDelay(SECOND, limiter.acquire("client", 60));
+		assertRetryDelay(SECOND, limiter.acquire("client", 60));
+	}
+
+	@Test
+	public void bucketAlwaysAllowsOneRequest() {
+		final RateLimiter limiter = new RateLimiter("test-single", 100, 0);
+
+		assertEquals(0, limiter.acquire("client", 2));
+		assertRetryDelay(30 * SECOND, limiter.acquire("client", 2));
+	}
+
+	@Test
+	public void bucketIsRefilledAtClientRate() throws InterruptedException {
+		final RateLimiter limiter = new RateLimiter("test-refill", 100, 0);
+
+		// One request every 10 milliseconds
+		assertEquals(0, limiter.acquire("client", 6000));
+		assertTrue(limiter.acquire("client", 6000) > 0);
+		Thread.sleep(20);
+		assertEquals(0, limiter.acquire("client", 6000));
+	}
+
+	@Test
+	public void clientsHaveOwnBuckets() {
+		final RateLimiter limiter = new RateLimiter("test-clients", 100, 0);
+
+		assertEquals(0, limiter.acquire("first", 1));
+		assertEquals(0, limiter.acquire("second", 1));
+		assertTrue(limiter.acquire("first", 1) > 0);
+		assertEquals(1, rejected("test-clients").get());
+	}
+
+	@Test
+	public void fullShardEvictsActiveBucket() {
+		final RateLimiter limiter = new RateLimiter("test-evict", 1, 0);
+		final String other = clientOfSameShard("first");
+
+		assertEquals(0, limiter.acquire("first", 1));
+		assertTrue(limiter.acquire("first", 1) > 0);
+		// The only bucket of the shard is active, so it's evicted
+		assertEquals(0, limiter.acquire(other, 1));
+		assertEquals(1, evicted("test-evict").get());
+		// Its client is forgotten
+		assertEquals(0, limiter.acquire("first", 1));
+		assertEquals(2, evicted("test-evict").get());
+	}
+
+	@Test
+	public void fullShardRemovesIdleBucketFirst() throws InterruptedException {
+		final RateLimiter limiter = new RateLimiter("test-sweep", 1, 0);
+		final String other = clientOfSameShard("first");
+
+		assertEquals(0, limiter.acquire("first", 60000));
+		Thread.sleep(5);
+		assertEquals(0, limiter.acquire(other, 60000));
+		assertEquals(0, evicted("test-sweep").get());
+	}
+
+	/**
+	 * Finds a client whose bucket belongs to the same shard as the given one, as chosen by the
+	 * rate limiter.
+	 */
+	private static String clientOfSameShard(String client) {
+		final int shardCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+		final int shard = shardOf(client, shardCount);
+		for (int i = 0;; i++) {
+			if (shardOf("other-" + i, shardCount) == shard) {
+				return "other-" + i;
+			}
+		}
+	}
+
+	private static int shardOf(String client, int shardCount) {
+		final int hash = client.hashCode();
+		return (hash ^ (hash >>> 16)) & (shardCount - 1);
+	}
+
+	private static void assertRetryDelay(long expected, long delay) {
+		// Time goes by between the requests, shortening the delay
+		assertTrue("retry delay of " + delay + " ns", delay > expected - SECOND / 10 && delay <= expected);
+	}
+
+	private static Counter rejected(String scope) {
+		return MetricsRegistry.getInstance().counter("rate_limited_requests_total", "", "scope", scope);
+	}
+
+	private static Counter evicted(String scope) {
+		return MetricsRegistry.getInstance().counter("rate_limit_evicted_buckets_total", "", "scope", scope);
+	}
+}
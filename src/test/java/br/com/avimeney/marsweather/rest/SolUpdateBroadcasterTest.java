@@ -0,0 +1,167 @@
+package br.com.avimeney.marsweather.rest;
+
+import static br.com.avimeney.marsweather.TestFixtures.snapshot;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.junit.Test;
+
+import br.com.avimeney.marsweather.cache.SolDataSnapshot;
+import br.com.avimeney.marsweather.model.SolData;
+
+public class SolUpdateBroadcasterTest {
+
+	/**
+	 * Stand-in for a subscriber connection, keeping the events written to it. Writes may be held
+	 * back, as by a slow client.
+	 */
+	private static final class CapturingOutput extends EventOutput {
+		final BlockingQueue<OutboundEvent> written = new LinkedBlockingQueue<OutboundEvent>();
+		final CountDownLatch writable;
+		volatile boolean closed;
+
+		CapturingOutput(boolean writable) {
+			this.writable = new CountDownLatch(writable ? 0 : 1);
+		}
+
+		@Override
+		public void write(OutboundEvent event) throws IOException {
+			try {
+				writable.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			written.add(event);
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return closed;
+		}
+
+		OutboundEvent next() throws InterruptedException {
+			return written.poll(5, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Broadcaster queuing two events per subscriber, with a writer thread left for the other
+	 * subscribers while one is stuck on a slow one.
+	 */
+	private final SolUpdateBroadcaster broadcaster = new SolUpdateBroadcaster(2, 2, 0);
+
+	private final SolDataSnapshot first;
+
+	private final SolDataSnapshot second;
+
+	public SolUpdateBroadcasterTest() throws IOException {
+		first = snapshot(1000, null, new SolData(1, -60, -90, -10, 100), new SolData(2, -61, -91, -11, 100));
+		// Sol 2 revised and Sol 3 added
+		second = snapshot(2000, first, new SolData(1, -60, -90, -10, 100), new SolData(2, -50, -80, -5, 200),
+				new SolData(3, -62, -92, -12, 100));
+	}
+
+	@Test
+	public void subscriberIsSentEveryKnownSolFirst() throws Exception {
+		broadcaster.snapshotChanged(null, first);
+		final CapturingOutput output = new CapturingOutput(true);
+
+		broadcaster.subscribe(output, null);
+
+		assertEvent(output.next(), first, first.getJson());
+	}
+
+	@Test
+	public void subscribersAreSentChangedSols() throws Exception {
+		final CapturingOutput early = new CapturingOutput(true);
+		broadcaster.subscribe(early, null);
+		broadcaster.snapshotChanged(null, first);
+		final CapturingOutput late = new CapturingOutput(true);
+		broadcaster.subscribe(late, null);
+
+		broadcaster.snapshotChanged(first, second);
+
+		assertEvent(early.next(), first, first.getJson());
+		assertEvent(early.next(), second, second.getJsonSince(first.getVersion()));
+		assertEvent(late.next(), first, first.getJson());
+		assertEvent(late.next(), second, second.getJsonSince(first.getVersion()));
+	}
+
+	@Test
+	public void resumingSubscriberIsSentSolsChangedSinceLastEvent() throws Exception {
+		broadcaster.snapshotChanged(null, first);
+		broadcaster.snapshotChanged(first, second);
+		final CapturingOutput resumed = new CapturingOutput(true);
+		final CapturingOutput upToDate = new CapturingOutput(true);
+
+		broadcaster.subscribe(resumed, Long.toString(first.getVersion()));
+		broadcaster.subscribe(upToDate, " " + second.getVersion() + " ");
+
+		assertEvent(resumed.next(), second, second.getJsonSince(first.getVersion()));
+		assertNull(upToDate.written.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void unknownLastEventIdResumesWithEveryKnownSol() throws Exception {
+		broadcaster.snapshotChanged(null, first);
+		broadcaster.snapshotChanged(first, second);
+		final CapturingOutput older = new CapturingOutput(true);
+		final CapturingOutput invalid = new CapturingOutput(true);
+
+		broadcaster.subscribe(older, Long.toString(first.getVersion() - 1));
+		broadcaster.subscribe(invalid, "sol-3");
+
+		assertEvent(older.next(), second, second.getJson());
+		assertEvent(invalid.next(), second, second.getJson());
+	}
+
+	@Test
+	public void slowSubscriberIsDropped() throws Exception {
+		broadcaster.snapshotChanged(null, first);
+		final CapturingOutput slow = new CapturingOutput(false);
+		final CapturingOutput fast = new CapturingOutput(true);
+		broadcaster.subscribe(slow, null);
+		broadcaster.subscribe(fast, null);
+		assertEvent(fast.next(), first, first.getJson());
+
+		// Once one event is being written and two are pending, the next one overflows the queue
+		SolDataSnapshot previous = first;
+		for (int i = 0; i < 4 && !slow.closed; i++) {
+			final SolDataSnapshot next = snapshot(3000 + i, previous, new SolData(4 + i, -60, -90, -10, 100));
+			broadcaster.snapshotChanged(previous, next);
+			assertEvent(fast.next(), next, next.getJsonSince(previous.getVersion()));
+			previous = next;
+		}
+		assertTrue(slow.closed);
+		assertFalse(fast.closed);
+
+		// Dropped subscribers are sent nothing more
+		slow.writable.countDown();
+		final SolDataSnapshot last = snapshot(4000, previous, new SolData(10, -60, -90, -10, 100));
+		broadcaster.snapshotChanged(previous, last);
+		assertEvent(fast.next(), last, last.getJsonSince(previous.getVersion()));
+		assertTrue(slow.written.size() <= 1);
+	}
+
+	private static void assertEvent(OutboundEvent event, SolDataSnapshot snapshot, byte[] json) {
+		assertEquals("sols", event.getName());
+		assertEquals(Long.toString(snapshot.getVersion()), event.getId());
+		assertArrayEquals(json, (byte[]) event.getData());
+	}
+}
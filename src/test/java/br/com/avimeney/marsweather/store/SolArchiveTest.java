@@ -0,0 +1,46 @@
+package br.com.avimeney.marsweather.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.avimeney.marsweather.model.SolData;
+
+public class SolArchiveTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void openArchiveIsLocked() throws IOException {
+		final Path directory = folder.getRoot().toPath();
+		try (SolArchive archive = SolArchive.open(directory)) {
+			try {
+				SolArchive.open(directory).close();
+				fail("Archive opened twice");
+			} catch (IOException e) {
+				assertEquals("Sol archive at " + directory + " is already in use", e.getMessage());
+			}
+			// The failed attempt leaves the open archive alone
+			archive.store(Arrays.asList(new SolData(1, -60, -90, -10, 100)));
+		}
+	}
+
+	@Test
+	public void closedArchiveReopens() throws IOException {
+		final Path directory = folder.getRoot().toPath();
+		try (SolArchive archive = SolArchive.open(directory)) {
+			archive.store(Arrays.asList(new SolData(1, -60, -90, -10, 100)));
+		}
+		try (SolArchive archive = SolArchive.open(directory)) {
+			assertEquals(1, archive.size());
+		}
+	}
+}
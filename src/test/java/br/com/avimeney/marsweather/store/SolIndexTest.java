@@ -0,0 +1,114 @@
+package br.com.avimeney.marsweather.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.avimeney.marsweather.model.SolData;
+
+public class SolIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void appendSortsNewSolsAfterIndexedOnes() {
+		final SolIndex index = SolIndex.EMPTY.append(new int[] {12, 10, 11}, new int[] {0, 1, 2}, 3);
+		final SolIndex appended = index.append(new int[] {14, 13}, new int[] {3, 4}, 2);
+
+		assertSolIds(index, 10, 11, 12);
+		assertSolIds(appended, 10, 11, 12, 13, 14);
+		assertEquals(1, appended.findRow(10));
+		assertEquals(4, appended.findRow(13));
+		// The earlier index shares the arrays, but never reads past its own size
+		assertEquals(-1, index.findRow(13));
+	}
+
+	@Test
+	public void appendGrowsFullArrays() {
+		SolIndex index = SolIndex.EMPTY;
+		for (int solId = 0; solId < 100; solId++) {
+			index = index.append(new int[] {solId}, new int[] {99 - solId}, 1);
+		}
+
+		assertEquals(100, index.size());
+		for (int solId = 0; solId < 100; solId++) {
+			assertEquals(99 - solId, index.findRow(solId));
+		}
+	}
+
+	@Test
+	public void appendableOnlyAboveIndexedSols() {
+		final SolIndex index = SolIndex.EMPTY.append(new int[] {10, 20}, new int[] {0, 1}, 2);
+
+		assertTrue(SolIndex.EMPTY.isAppendable(new int[] {5}, 1));
+		assertTrue(index.isAppendable(new int[] {30, 21}, 2));
+		assertFalse(index.isAppendable(new int[] {30, 15}, 2));
+		assertFalse(index.isAppendable(new int[] {20}, 1));
+	}
+
+	@Test
+	public void mergeInterleavesNewSols() {
+		final SolIndex index = SolIndex.EMPTY.append(new int[] {10, 20, 30}, new int[] {0, 1, 2}, 3);
+		final SolIndex merged = index.merge(new int[] {35, 5, 15}, new int[] {3, 4, 5}, 3);
+
+		assertSolIds(merged, 5, 10, 15, 20, 30, 35);
+		assertEquals(4, merged.findRow(5));
+		assertEquals(5, merged.findRow(15));
+		assertEquals(2, merged.findRow(30));
+		assertSolIds(index, 10, 20, 30);
+		assertEquals(-1, index.findRow(15));
+	}
+
+	@Test
+	public void lowerBoundFindsFirstSolNotBelow() {
+		final SolIndex index = SolIndex.EMPTY.append(new int[] {10, 20, 30}, new int[] {0, 1, 2}, 3);
+
+		assertEquals(0, index.lowerBound(Integer.MIN_VALUE));
+		assertEquals(1, index.lowerBound(20));
+		assertEquals(2, index.lowerBound(21));
+		assertEquals(3, index.lowerBound(31));
+	}
+
+	@Test
+	public void relocateLeavesCurrentIndexAlone() {
+		final SolIndex index = SolIndex.EMPTY.append(new int[] {10, 20, 30}, new int[] {0, 1, 2}, 3);
+		final SolIndex relocated = index.relocate(new int[] {20}, new int[] {3}, 1);
+
+		assertEquals(3, relocated.findRow(20));
+		assertEquals(1, index.findRow(20));
+		assertSolIds(relocated.append(new int[] {40}, new int[] {4}, 1), 10, 20, 30, 40);
+	}
+
+	@Test
+	public void buildIndexesLastRowOfRevisedSols() throws IOException {
+		try (SolArchive archive = SolArchive.open(folder.getRoot().toPath())) {
+			archive.store(Arrays.asList(new SolData(2, -60, -90, -10, 100), new SolData(1, -61, -91, -11, 100)));
+			archive.store(Arrays.asList(new SolData(2, -50, -80, -5, 200)));
+			archive.store(Arrays.asList(new SolData(2, -50, -80, -5, 200), new SolData(3, -62, -92, -12, 100)));
+		}
+		try (SolArchive archive = SolArchive.open(folder.getRoot().toPath())) {
+			final SolIndex index = archive.getIndex();
+
+			assertEquals(3, archive.size());
+			assertSolIds(index, 1, 2, 3);
+			assertEquals(-50, archive.getAverageTemperature(index.findRow(2)), 0);
+			assertEquals(200, archive.getSampleCount(index.findRow(2)));
+		}
+	}
+
+	private static void assertSolIds(SolIndex index, int... solIds) {
+		final int[] indexed = new int[index.size()];
+		for (int position = 0; position < indexed.length; position++) {
+			indexed[position] = index.getSolId(position);
+		}
+		assertEquals(Arrays.toString(solIds), Arrays.toString(indexed));
+	}
+}
@@ -0,0 +1,197 @@
+package br.com.avimeney.marsweather.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.avimeney.marsweather.model.SolData;
+
+public class SolRollupsTest {
+
+	private static final double DELTA = 1e-9;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SolArchive archive;
+
+	/**
+	 * Sols expected in the archive, by Sol number.
+	 */
+	private final TreeMap<Integer, SolData> expected = new TreeMap<Integer, SolData>();
+
+	private final Random random = new Random(42);
+
+	@Before
+	public void openArchive() throws IOException {
+		archive = SolArchive.open(folder.getRoot().toPath());
+	}
+
+	@After
+	public void closeArchive() throws IOException {
+		archive.close();
+	}
+
+	@Test
+	public void emptyRangeHasNoSols() throws IOException {
+		store(sols(1, 10));
+
+		assertEquals(0, archive.getRollups().aggregate(20, 30).getCount());
+		assertEquals(0, archive.getRollups().aggregate(5, 4).getCount());
+	}
+
+	@Test
+	public void aggregatesAfterAppend() throws IOException {
+		store(sols(1, 100));
+		final SolRollups before = archive.getRollups();
+		// Past the capacity of the first rollups, and then within the capacity of the new ones
+		store(sols(101, 300));
+		store(sols(301, 310));
+
+		assertRanges(archive.getRollups(), expected, 310);
+		assertEquals(100, before.aggregate(Integer.MIN_VALUE, Integer.MAX_VALUE).getCount());
+	}
+
+	@Test
+	public void aggregatesAfterAppendAmidArchivedSols() throws IOException {
+		final List<SolData> odd = new ArrayList<SolData>();
+		final List<SolData> even = new ArrayList<SolData>();
+		for (SolData sol : sols(1, 200)) {
+			(sol.getSolId() % 2 == 0 ? even : odd).add(sol);
+		}
+		store(odd);
+		store(even);
+
+		assertRanges(archive.getRollups(), expected, 200);
+	}
+
+	@Test
+	public void aggregatesAfterRevision() throws IOException {
+		store(sols(1, 200));
+		final SolRollups before = archive.getRollups();
+		final TreeMap<Integer, SolData> original = new TreeMap<Integer, SolData>(expected);
+		final List<SolData> revised = new ArrayList<SolData>();
+		for (int solId : new int[] {1, 57, 128, 200}) {
+			revised.add(sol(solId));
+		}
+		store(revised);
+
+		assertNotSame(before, archive.getRollups());
+		assertRanges(archive.getRollups(), expected, 200);
+		// Rollups read meanwhile keep their values
+		assertRanges(before, original, 200);
+	}
+
+	@Test
+	public void aggregatesAfterRevisionAndAppend() throws IOException {
+		store(sols(1, 50));
+		final List<SolData> changed = new ArrayList<SolData>(sols(51, 60));
+		changed.add(sol(50));
+		changed.add(sol(3));
+		store(changed);
+
+		assertRanges(archive.getRollups(), expected, 60);
+	}
+
+	@Test
+	public void solsWithoutTemperaturesAreLeftOut() throws IOException {
+		store(sols(1, 50));
+		// Revised, appended past the end and appended alone at the end
+		store(Arrays.asList(pressureOnly(7), pressureOnly(8), pressureOnly(51)));
+		store(sols(52, 60));
+		store(Arrays.asList(pressureOnly(61)));
+
+		assertRanges(archive.getRollups(), expected, 61);
+		assertEquals(0, archive.getRollups().aggregate(7, 8).getCount());
+		final int position = archive.getRollups().getIndex().lowerBound(61);
+		assertEquals(Double.NaN, archive.getRollups().meanAverageTemperature(position, position + 1), 0);
+		assertEquals(expected.get(60).getAveragetemperature(),
+				archive.getRollups().meanAverageTemperature(position - 1, position + 1), DELTA);
+	}
+
+	@Test
+	public void unchangedSolsKeepRollups() throws IOException {
+		store(sols(1, 20));
+		final SolRollups before = archive.getRollups();
+		archive.store(new ArrayList<SolData>(expected.values()));
+
+		assertSame(before, archive.getRollups());
+	}
+
+	private List<SolData> sols(int fromSol, int toSol) {
+		final List<SolData> sols = new ArrayList<SolData>();
+		for (int solId = fromSol; solId <= toSol; solId++) {
+			sols.add(sol(solId));
+		}
+		return sols;
+	}
+
+	private SolData sol(int solId) {
+		final float average = -90 + random.nextInt(600) / 10f;
+		return new SolData(solId, average, average - random.nextInt(40), average + random.nextInt(40), 1 + random.nextInt(100000));
+	}
+
+	private static SolData pressureOnly(int solId) {
+		final SolData sol = new SolData(solId, Float.NaN, Float.NaN, Float.NaN, 0);
+		sol.setPressure(700, 690, 710);
+		return sol;
+	}
+
+	private void store(List<SolData> sols) throws IOException {
+		archive.store(sols);
+		for (SolData sol : sols) {
+			expected.put(sol.getSolId(), sol);
+		}
+	}
+
+	/**
+	 * Checks the aggregates of every range within the given Sol numbers, plus the unbounded one.
+	 */
+	private static void assertRanges(SolRollups rollups, TreeMap<Integer, SolData> sols, int lastSol) {
+		assertAggregate(rollups, sols, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		for (int fromSol = 0; fromSol <= lastSol + 1; fromSol += 7) {
+			for (int toSol = fromSol; toSol <= lastSol + 1; toSol += 5) {
+				assertAggregate(rollups, sols, fromSol, toSol);
+			}
+		}
+	}
+
+	private static void assertAggregate(SolRollups rollups, TreeMap<Integer, SolData> sols, int fromSol, int toSol) {
+		final Map<Integer, SolData> range = sols.subMap(fromSol, true, toSol, true);
+		int count = 0;
+		double sum = 0;
+		float minimum = Float.POSITIVE_INFINITY;
+		float maximum = Float.NEGATIVE_INFINITY;
+		for (SolData sol : range.values()) {
+			if (Float.isNaN(sol.getAveragetemperature())) {
+				continue;
+			}
+			count++;
+			sum += sol.getAveragetemperature();
+			minimum = Math.min(minimum, sol.getMinimumTemperature());
+			maximum = Math.max(maximum, sol.getMaximumTemperature());
+		}
+		final SolRollups.Aggregate aggregate = rollups.aggregate(fromSol, toSol);
+		final String message = Arrays.toString(new int[] {fromSol, toSol});
+		assertEquals(message, count, aggregate.getCount());
+		if (count > 0) {
+			assertEquals(message, sum / count, aggregate.getAverageTemperature(), DELTA);
+			assertEquals(message, minimum, aggregate.getMinimumTemperature(), 0);
+			assertEquals(message, maximum, aggregate.getMaximumTemperature(), 0);
+		}
+	}
+}